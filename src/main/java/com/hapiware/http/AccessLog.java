@@ -0,0 +1,336 @@
+package com.hapiware.http;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * {@code AccessLog} writes an access log in Common or Combined Log Format. Each line has
+ * additionally the request duration in microseconds as the last field (like {@code %D} in
+ * Apache httpd), for example:
+ * <pre>
+ * 	127.0.0.1 - - [10/Oct/2010:13:55:36 +0300] "GET /a.txt HTTP/1.1" 200 2326 "-" "curl/7.21" 532
+ * </pre>
+ *
+ * Request threads never block on the log. Entries are put to a bounded lock-free ring buffer
+ * and a background thread drains the buffer in batches, formats the lines and writes them to
+ * the disk. If the buffer is full the entry is dropped and counted. The log file is rotated
+ * when it grows over the maximum size; {@code access.log} is renamed to
+ * {@code access.log.1}, {@code access.log.1} to {@code access.log.2} and so on.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class AccessLog
+{
+	private final static Logger LOGGER = Logger.getLogger(AccessLog.class.getName());
+
+	private final static String FILE_PROPERTY = "fileweb.accessLog";
+	private final static String FORMAT_PROPERTY = "fileweb.accessLog.format";
+	private final static String MAX_SIZE_PROPERTY = "fileweb.accessLog.maxSize";
+	private final static String MAX_FILES_PROPERTY = "fileweb.accessLog.maxFiles";
+	private final static long DEFAULT_MAX_SIZE = 100 * 1024 * 1024;
+	private final static int DEFAULT_MAX_FILES = 5;
+	private final static int CAPACITY = 8192;
+	private final static long FLUSH_INTERVAL_NS = 200 * 1000000l;
+	private final static String LINE_SEPARATOR = "\n";
+
+	public enum Format { COMMON, COMBINED };
+
+
+	private final File _file;
+	private final Format _format;
+	private final long _maxSize;
+	private final int _maxFiles;
+	private final AtomicReferenceArray<Entry> _slots =
+		new AtomicReferenceArray<Entry>(CAPACITY);
+	private final AtomicLong _tail = new AtomicLong();
+	private volatile long _head = 0;
+	private final AtomicLong _numberOfDropped = new AtomicLong();
+	private final Thread _writerThread;
+	private volatile boolean _closed = false;
+
+	private Writer _writer;
+	private long _size;
+
+
+	/**
+	 * Creates {@code AccessLog} from the {@code fileweb.accessLog*} system properties.
+	 *
+	 * @return
+	 * 		{@code AccessLog} or {@code null} if the access log has not been configured.
+	 *
+	 * @throws IOException
+	 * 		If the log file cannot be opened.
+	 */
+	public static AccessLog fromSystemProperties()
+		throws
+			IOException
+	{
+		String file = System.getProperty(FILE_PROPERTY);
+		if(file == null)
+			return null;
+
+		return
+			new AccessLog(
+				new File(file),
+				Format.valueOf(System.getProperty(FORMAT_PROPERTY, "combined").toUpperCase()),
+				Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE),
+				Integer.getInteger(MAX_FILES_PROPERTY, DEFAULT_MAX_FILES)
+			);
+	}
+
+
+	public AccessLog(File file, Format format, long maxSize, int maxFiles)
+		throws
+			IOException
+	{
+		_file = file;
+		_format = format;
+		_maxSize = maxSize;
+		_maxFiles = maxFiles;
+		open();
+		_writerThread =
+			new Thread("fileweb-access-log") {
+				public void run()
+				{
+					writeLoop();
+				}
+			};
+		_writerThread.setDaemon(true);
+		_writerThread.start();
+	}
+
+
+	/**
+	 * Adds an entry to the log. Never blocks.
+	 *
+	 * @param client
+	 * 		The client address.
+	 *
+	 * @param startTime
+	 * 		Time when the request was received (in {@link System#currentTimeMillis()} units).
+	 *
+	 * @param request
+	 * 		The request or {@code null} if the request could not be read.
+	 *
+	 * @param statusCode
+	 * 		The status code of the response or {@code null} if no response was written.
+	 *
+	 * @param bytesSent
+	 * 		Number of body bytes sent. The header is not included (like {@code %b} in CLF).
+	 *
+	 * @param durationNs
+	 * 		Duration of the request in nanoseconds.
+	 */
+	public void log(
+		InetAddress client,
+		long startTime,
+		HttpRequest request,
+		HttpStatusCode statusCode,
+		long bytesSent,
+		long durationNs
+	)
+	{
+		Entry entry = new Entry();
+		entry.client = client;
+		entry.startTime = startTime;
+		entry.statusCode = statusCode;
+		entry.bytesSent = bytesSent;
+		entry.durationNs = durationNs;
+		if(request != null) {
+			entry.requestLine = request.getRequestLine();
+			entry.referer = request.getHeaderFields().get("Referer");
+			entry.userAgent = request.getHeaderFields().get("User-Agent");
+		}
+
+		long tail;
+		do {
+			tail = _tail.get();
+			if(tail - _head >= CAPACITY) {
+				_numberOfDropped.incrementAndGet();
+				return;
+			}
+		} while(!_tail.compareAndSet(tail, tail + 1));
+		_slots.set((int)(tail % CAPACITY), entry);
+	}
+
+
+	/**
+	 * Returns the number of entries dropped because the buffer was full.
+	 *
+	 * @return
+	 * 		Number of dropped entries.
+	 */
+	public long getNumberOfDropped()
+	{
+		return _numberOfDropped.get();
+	}
+
+
+	/**
+	 * Writes the pending entries and closes the log.
+	 */
+	public void close()
+	{
+		_closed = true;
+		LockSupport.unpark(_writerThread);
+		try {
+			_writerThread.join(5000);
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	private void writeLoop()
+	{
+		SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+		StringBuilder line = new StringBuilder(256);
+		long reportedDrops = 0;
+		while(true) {
+			boolean closed = _closed;
+			try {
+				int written = 0;
+				long head = _head;
+				Entry entry;
+				while((entry = _slots.get((int)(head % CAPACITY))) != null) {
+					_slots.set((int)(head % CAPACITY), null);
+					head++;
+					_head = head;
+					line.setLength(0);
+					format(entry, dateFormat, line);
+					write(line.toString());
+					written++;
+				}
+				if(written > 0)
+					_writer.flush();
+
+				long drops = _numberOfDropped.get();
+				if(drops > reportedDrops) {
+					LOGGER.warning((drops - reportedDrops) + " access log entries were dropped.");
+					reportedDrops = drops;
+				}
+			}
+			catch(IOException e) {
+				LOGGER.log(Level.WARNING, "Writing the access log failed.", e);
+			}
+
+			if(closed) {
+				try {
+					_writer.close();
+				}
+				catch(IOException e) {
+					// Does nothing.
+				}
+				return;
+			}
+			LockSupport.parkNanos(FLUSH_INTERVAL_NS);
+		}
+	}
+
+	private void format(Entry entry, SimpleDateFormat dateFormat, StringBuilder line)
+	{
+		line.append(entry.client == null ? "-" : entry.client.getHostAddress());
+		line.append(" - - [");
+		line.append(dateFormat.format(new Date(entry.startTime)));
+		line.append("] \"");
+		line.append(entry.requestLine == null ? "-" : escape(entry.requestLine));
+		line.append("\" ");
+		line.append(entry.statusCode == null ? "-" : entry.statusCode.getStatusCode());
+		line.append(' ');
+		if(entry.bytesSent == 0)
+			line.append('-');
+		else
+			line.append(entry.bytesSent);
+		if(_format == Format.COMBINED) {
+			line.append(" \"");
+			line.append(entry.referer == null ? "-" : escape(entry.referer));
+			line.append("\" \"");
+			line.append(entry.userAgent == null ? "-" : escape(entry.userAgent));
+			line.append('"');
+		}
+		line.append(' ');
+		line.append(entry.durationNs / 1000);
+		line.append(LINE_SEPARATOR);
+	}
+
+	private static String escape(String value)
+	{
+		if(value.indexOf('"') == -1 && value.indexOf('\\') == -1)
+			return value;
+
+		return value.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	private void open()
+		throws
+			IOException
+	{
+		_size = _file.length();
+		_writer =
+			new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(_file, true), "UTF-8"),
+				64 * 1024
+			);
+	}
+
+	private void write(String line)
+		throws
+			IOException
+	{
+		if(_maxSize > 0 && _size >= _maxSize)
+			rotate();
+		_writer.write(line);
+		_size += line.length();
+	}
+
+	private void rotate()
+		throws
+			IOException
+	{
+		_writer.close();
+		for(int i = _maxFiles - 1; i >= 1; i--) {
+			File from = new File(_file.getPath() + "." + i);
+			if(from.exists()) {
+				File to = new File(_file.getPath() + "." + (i + 1));
+				to.delete();
+				from.renameTo(to);
+			}
+		}
+		File first = new File(_file.getPath() + ".1");
+		first.delete();
+		if(_maxFiles > 0)
+			_file.renameTo(first);
+		else
+			_file.delete();
+		open();
+	}
+
+
+	private static class Entry
+	{
+		InetAddress client;
+		long startTime;
+		String requestLine;
+		String referer;
+		String userAgent;
+		HttpStatusCode statusCode;
+		long bytesSent;
+		long durationNs;
+	}
+}
@@ -0,0 +1,206 @@
+package com.hapiware.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * {@code ArchiveCache} keeps a bounded number of opened {@link ZipArchive}s (i.e. open file
+ * handles and parsed central directories) in LRU order. An archive is identified by its path
+ * together with its size and modification time so a changed file is opened again.
+ * <p/>
+ * Archives are reference counted. {@link #acquire(File)} must always be paired with
+ * {@link #release(ZipArchive)}. An archive evicted from the cache is closed when the last
+ * user has released it. All the methods are synchronized.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ArchiveCache
+{
+	private final static String SIZE_PROPERTY = "fileweb.archive.cacheSize";
+	private final static int DEFAULT_SIZE = 16;
+	private final static ArchiveCache INSTANCE =
+		new ArchiveCache(Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE));
+
+
+	private final int _maxSize;
+	private final Map<String, Handle> _handles;
+	private final Map<ZipArchive, Handle> _acquired = new HashMap<ZipArchive, Handle>();
+	private volatile long _numberOfHits = 0;
+	private volatile long _numberOfMisses = 0;
+
+
+	/**
+	 * Returns the cache shared by the whole server.
+	 *
+	 * @return
+	 * 		The archive cache.
+	 */
+	public static ArchiveCache getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	public ArchiveCache(int maxSize)
+	{
+		_maxSize = maxSize;
+		_handles = new LinkedHashMap<String, Handle>(16, 0.75f, true);
+	}
+
+
+	/**
+	 * Returns an opened archive for a file.
+	 *
+	 * @param file
+	 * 		The archive file.
+	 *
+	 * @return
+	 * 		The archive. Must be released with {@link #release(ZipArchive)}.
+	 *
+	 * @throws IOException
+	 * 		If the file is not a valid archive.
+	 */
+	public ZipArchive acquire(File file)
+		throws
+			IOException
+	{
+		return acquire(file, 0, file.length(), null);
+	}
+
+
+	/**
+	 * Returns an opened archive for a region of a file (e.g. an archive stored inside of
+	 * another archive).
+	 *
+	 * @param file
+	 * 		The file.
+	 *
+	 * @param regionStart
+	 * 		The position of the first byte of the archive.
+	 *
+	 * @param regionLength
+	 * 		The length of the archive.
+	 *
+	 * @param name
+	 * 		An identifier for the region (e.g. the path inside the outer archive) or
+	 * 		{@code null} for a whole file.
+	 *
+	 * @return
+	 * 		The archive. Must be released with {@link #release(ZipArchive)}.
+	 *
+	 * @throws IOException
+	 * 		If the region is not a valid archive.
+	 */
+	public ZipArchive acquire(File file, long regionStart, long regionLength, String name)
+		throws
+			IOException
+	{
+		String key =
+			file.getCanonicalPath() + "|" + file.length() + "|" + file.lastModified()
+				+ (name == null ? "" : "!" + name + "|" + regionStart + "|" + regionLength);
+		synchronized(this) {
+			Handle handle = _handles.get(key);
+			if(handle != null) {
+				_numberOfHits++;
+				handle.references++;
+				return handle.archive;
+			}
+			_numberOfMisses++;
+		}
+
+		// Opening is done outside of the lock because parsing a big central directory can
+		// take some time.
+		ZipArchive archive = new ZipArchive(file, regionStart, regionLength);
+		synchronized(this) {
+			Handle handle = _handles.get(key);
+			if(handle != null) {
+				archive.close();
+				handle.references++;
+				return handle.archive;
+			}
+			handle = new Handle(archive);
+			handle.references++;
+			_handles.put(key, handle);
+			_acquired.put(archive, handle);
+			evict(_maxSize);
+			return archive;
+		}
+	}
+
+
+	/**
+	 * Releases an archive returned by {@code acquire()}.
+	 *
+	 * @param archive
+	 * 		The archive.
+	 */
+	public synchronized void release(ZipArchive archive)
+	{
+		Handle handle = _acquired.get(archive);
+		if(handle == null)
+			return;
+
+		handle.references--;
+		if(handle.evicted && handle.references == 0) {
+			_acquired.remove(archive);
+			archive.close();
+		}
+	}
+
+	private void evict(int maxSize)
+	{
+		Iterator<Handle> it = _handles.values().iterator();
+		while(_handles.size() > maxSize && it.hasNext()) {
+			Handle handle = it.next();
+			it.remove();
+			handle.evicted = true;
+			if(handle.references == 0) {
+				_acquired.remove(handle.archive);
+				handle.archive.close();
+			}
+		}
+	}
+
+
+	public synchronized int getSize()
+	{
+		return _handles.size();
+	}
+
+	public long getNumberOfHits()
+	{
+		return _numberOfHits;
+	}
+
+	public long getNumberOfMisses()
+	{
+		return _numberOfMisses;
+	}
+
+	/**
+	 * Closes all the archives which are not in use and empties the cache.
+	 */
+	public synchronized void clear()
+	{
+		evict(0);
+	}
+
+
+	private static class Handle
+	{
+		final ZipArchive archive;
+		int references = 0;
+		boolean evicted = false;
+
+		Handle(ZipArchive archive)
+		{
+			this.archive = archive;
+		}
+	}
+}
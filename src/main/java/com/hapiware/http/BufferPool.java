@@ -0,0 +1,326 @@
+package com.hapiware.http;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * {@code BufferPool} recycles the I/O buffers of connections, file copying, uploads and
+ * mirror downloads so that serving a request does not create garbage for every buffer.
+ * <p/>
+ * Buffers come in a few size classes ({@value #SMALL_SIZE}, {@value #MEDIUM_SIZE} and
+ * {@value #LARGE_SIZE} bytes) and a request for a buffer gets the smallest class big enough.
+ * The released buffers are kept in lock-free stripes selected by the thread, so a thread
+ * usually gets back the buffers it released itself and threads seldom compete for the same
+ * stripe. A thread whose stripe is empty takes a buffer from the other stripes. Buffers
+ * are not lost when a thread ends.
+ * <p/>
+ * The total size of the buffers created by the pool is limited (see
+ * {@code fileweb.bufferPool.maxSize}). When the limit is reached, buffers are still
+ * handed out but they are not pooled. With {@code fileweb.bufferPool.debug} the allocation
+ * site of every buffer is recorded and buffers not released by the end of a connection are
+ * logged as leaks.
+ * <p/>
+ * Buffers are plain heap arrays because all the socket I/O goes through streams. File
+ * content to plain HTTP connections is sent with zero-copy and does not need buffers at
+ * all.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class BufferPool
+{
+	public final static int SMALL_SIZE = 8 * 1024;
+	public final static int MEDIUM_SIZE = 16 * 1024;
+	public final static int LARGE_SIZE = 64 * 1024;
+
+	private final static Logger LOGGER = Logger.getLogger(BufferPool.class.getName());
+	private final static String MAX_SIZE_PROPERTY = "fileweb.bufferPool.maxSize";
+	private final static String DEBUG_PROPERTY = "fileweb.bufferPool.debug";
+	private final static long DEFAULT_MAX_SIZE = 32 * 1024 * 1024;
+	private final static int[] SIZES = { SMALL_SIZE, MEDIUM_SIZE, LARGE_SIZE };
+	private final static BufferPool INSTANCE =
+		new BufferPool(
+			Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE),
+			Boolean.getBoolean(DEBUG_PROPERTY)
+		);
+
+
+	private final long _maxSize;
+	private final boolean _debug;
+	private final int _numberOfStripes;
+	// Idle buffers by size class and stripe.
+	private final List<ConcurrentLinkedQueue<byte[]>> _idle =
+		new ArrayList<ConcurrentLinkedQueue<byte[]>>();
+	// Arrays do not override equals() and hashCode(), so this is an identity set.
+	private final ConcurrentMap<byte[], Boolean> _owned = new ConcurrentHashMap<byte[], Boolean>();
+	private final Map<byte[], Throwable> _outstanding = new IdentityHashMap<byte[], Throwable>();
+
+	private final AtomicLong _size = new AtomicLong();
+	private final AtomicLong _idleSize = new AtomicLong();
+	private final AtomicLong _numberOfAcquires = new AtomicLong();
+	private final AtomicLong _numberOfOwnStripeHits = new AtomicLong();
+	private final AtomicLong _numberOfOtherStripeHits = new AtomicLong();
+	private final AtomicLong _numberOfAllocations = new AtomicLong();
+	private final AtomicLong _numberOfOverflows = new AtomicLong();
+	private final AtomicLong _numberOfLeaks = new AtomicLong();
+
+
+	/**
+	 * Returns the buffer pool shared by the whole server.
+	 *
+	 * @return
+	 * 		The buffer pool.
+	 */
+	public static BufferPool getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	/**
+	 * Creates a buffer pool.
+	 *
+	 * @param maxSize
+	 * 		The maximum total size of the buffers created by the pool (in use and idle).
+	 *
+	 * @param debug
+	 * 		{@code true} to record the allocation sites for leak detection.
+	 */
+	public BufferPool(long maxSize, boolean debug)
+	{
+		_maxSize = maxSize;
+		_debug = debug;
+		_numberOfStripes = 2 * Runtime.getRuntime().availableProcessors();
+		for(int i = 0; i < SIZES.length * _numberOfStripes; i++)
+			_idle.add(new ConcurrentLinkedQueue<byte[]>());
+	}
+
+
+	/**
+	 * Gets a buffer. The buffer must be given back with {@link #release(byte[])} when it
+	 * is not needed anymore. The content of the buffer is undefined.
+	 *
+	 * @param minSize
+	 * 		The minimum size of the buffer. The buffer can be bigger.
+	 *
+	 * @return
+	 * 		The buffer.
+	 */
+	public byte[] acquire(int minSize)
+	{
+		_numberOfAcquires.incrementAndGet();
+		int sizeClass = getSizeClass(minSize);
+		if(sizeClass == -1) {
+			_numberOfOverflows.incrementAndGet();
+			return new byte[minSize];
+		}
+
+		int stripe = getStripe();
+		byte[] buffer = getIdle(sizeClass, stripe).poll();
+		if(buffer != null)
+			_numberOfOwnStripeHits.incrementAndGet();
+		else {
+			for(int i = 1; buffer == null && i < _numberOfStripes; i++)
+				buffer = getIdle(sizeClass, (stripe + i) % _numberOfStripes).poll();
+			if(buffer != null)
+				_numberOfOtherStripeHits.incrementAndGet();
+		}
+		if(buffer != null)
+			_idleSize.addAndGet(-buffer.length);
+		else {
+			int size = SIZES[sizeClass];
+			if(_size.addAndGet(size) > _maxSize) {
+				_size.addAndGet(-size);
+				_numberOfOverflows.incrementAndGet();
+				return new byte[size];
+			}
+			_numberOfAllocations.incrementAndGet();
+			buffer = new byte[size];
+			_owned.put(buffer, Boolean.TRUE);
+		}
+
+		if(_debug) {
+			synchronized(_outstanding) {
+				_outstanding.put(
+					buffer,
+					new Throwable("Acquired by " + Thread.currentThread().getName() + ".")
+				);
+			}
+		}
+		return buffer;
+	}
+
+
+	/**
+	 * Gives a buffer back to the pool. The buffer must not be used after this. Buffers
+	 * not created by the pool (because of the size limit) are dropped.
+	 *
+	 * @param buffer
+	 * 		The buffer or {@code null}.
+	 */
+	public void release(byte[] buffer)
+	{
+		if(buffer == null)
+			return;
+
+		if(_debug) {
+			synchronized(_outstanding) {
+				if(_outstanding.remove(buffer) == null)
+					return;
+			}
+		}
+
+		if(!_owned.containsKey(buffer))
+			return;
+
+		_idleSize.addAndGet(buffer.length);
+		getIdle(getSizeClass(buffer.length), getStripe()).offer(buffer);
+	}
+
+
+	/**
+	 * Logs the buffers acquired by the current thread and not yet released. This is done
+	 * only in debug mode and it is meant to be called when a thread has finished its work
+	 * (e.g. a connection is closed). The leaked buffers are forgotten, so the pool can
+	 * create new ones instead.
+	 */
+	public void checkLeaks()
+	{
+		if(!_debug)
+			return;
+
+		String acquiredBy = "Acquired by " + Thread.currentThread().getName() + ".";
+		List<Throwable> leaks = new ArrayList<Throwable>();
+		synchronized(_outstanding) {
+			Iterator<Map.Entry<byte[], Throwable>> it = _outstanding.entrySet().iterator();
+			while(it.hasNext()) {
+				Map.Entry<byte[], Throwable> entry = it.next();
+				if(entry.getValue().getMessage().equals(acquiredBy)) {
+					leaks.add(entry.getValue());
+					if(_owned.remove(entry.getKey()) != null)
+						_size.addAndGet(-entry.getKey().length);
+					it.remove();
+				}
+			}
+		}
+		for(Throwable leak : leaks) {
+			_numberOfLeaks.incrementAndGet();
+			LOGGER.log(Level.WARNING, "A buffer was not released.", leak);
+		}
+	}
+
+
+	private int getStripe()
+	{
+		return (int)(Thread.currentThread().getId() % _numberOfStripes);
+	}
+
+	private ConcurrentLinkedQueue<byte[]> getIdle(int sizeClass, int stripe)
+	{
+		return _idle.get(sizeClass * _numberOfStripes + stripe);
+	}
+
+	private static int getSizeClass(int size)
+	{
+		for(int i = 0; i < SIZES.length; i++)
+			if(size <= SIZES[i])
+				return i;
+		return -1;
+	}
+
+
+	public long getMaxSize()
+	{
+		return _maxSize;
+	}
+
+	public boolean isDebug()
+	{
+		return _debug;
+	}
+
+	/**
+	 * Returns the total size of the pooled buffers, both in use and idle.
+	 *
+	 * @return
+	 * 		Bytes.
+	 */
+	public long getSize()
+	{
+		return _size.get();
+	}
+
+	/**
+	 * Returns the total size of the released buffers waiting to be used again.
+	 *
+	 * @return
+	 * 		Bytes.
+	 */
+	public long getIdleSize()
+	{
+		return Math.max(0, _idleSize.get());
+	}
+
+	/**
+	 * Returns the number of buffers in use. Buffers are followed only in debug mode.
+	 *
+	 * @return
+	 * 		Number of buffers or zero if not in debug mode.
+	 */
+	public int getNumberOfOutstandingBuffers()
+	{
+		synchronized(_outstanding) {
+			return _outstanding.size();
+		}
+	}
+
+	public long getNumberOfAcquires()
+	{
+		return _numberOfAcquires.get();
+	}
+
+	public long getNumberOfOwnStripeHits()
+	{
+		return _numberOfOwnStripeHits.get();
+	}
+
+	public long getNumberOfOtherStripeHits()
+	{
+		return _numberOfOtherStripeHits.get();
+	}
+
+	public long getNumberOfAllocations()
+	{
+		return _numberOfAllocations.get();
+	}
+
+	public long getNumberOfOverflows()
+	{
+		return _numberOfOverflows.get();
+	}
+
+	public long getNumberOfLeaks()
+	{
+		return _numberOfLeaks.get();
+	}
+
+	public void resetCounters()
+	{
+		_numberOfAcquires.set(0);
+		_numberOfOwnStripeHits.set(0);
+		_numberOfOtherStripeHits.set(0);
+		_numberOfAllocations.set(0);
+		_numberOfOverflows.set(0);
+		_numberOfLeaks.set(0);
+	}
+}
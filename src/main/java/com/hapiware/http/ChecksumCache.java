@@ -0,0 +1,628 @@
+package com.hapiware.http;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * {@code ChecksumCache} calculates file checksums and remembers them. A checksum is
+ * identified by the file path, the file size and the modification time so a changed file
+ * is hashed again.
+ * <p/>
+ * Checksums are calculated in a bounded pool of background threads, so only a few files
+ * are read at the same time no matter how many clients ask for checksums. Concurrent
+ * requests for the same checksum wait for the same calculation. Big files are read with
+ * memory mapping.
+ * <p/>
+ * Calculated checksums are appended to a store file (see {@code fileweb.checksum.store})
+ * and read back when the server is started. The store is compacted when it has grown to
+ * twice the maximum number of entries.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ChecksumCache
+{
+	private final static Logger LOGGER = Logger.getLogger(ChecksumCache.class.getName());
+
+	private final static String STORE_PROPERTY = "fileweb.checksum.store";
+	private final static String THREADS_PROPERTY = "fileweb.checksum.threads";
+	private final static String MAX_ENTRIES_PROPERTY = "fileweb.checksum.maxEntries";
+	private final static String DEFAULT_STORE_NAME = "fileweb-checksums.txt";
+	private final static int DEFAULT_MAX_ENTRIES = 10000;
+	private final static int MIN_MAPPED_SIZE = 1024 * 1024;
+	private final static int MAPPED_WINDOW_SIZE = 64 * 1024 * 1024;
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private final static char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final static ChecksumCache INSTANCE =
+		new ChecksumCache(
+			new File(
+				System.getProperty(
+					STORE_PROPERTY,
+					new File(System.getProperty("java.io.tmpdir"), DEFAULT_STORE_NAME).getPath()
+				)
+			),
+			Integer.getInteger(
+				THREADS_PROPERTY,
+				Math.min(4, Runtime.getRuntime().availableProcessors())
+			),
+			Integer.getInteger(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES)
+		);
+
+
+	/**
+	 * Supported checksum algorithms.
+	 */
+	public enum Algorithm {
+		SHA256("SHA-256", "sha256"),
+		SHA1("SHA-1", "sha1"),
+		MD5("MD5", "md5"),
+		CRC32C(null, "crc32c");
+
+		private final String _digestName;
+		private final String _name;
+
+		Algorithm(String digestName, String name)
+		{
+			_digestName = digestName;
+			_name = name;
+		}
+
+		/**
+		 * Returns the name used in URLs (e.g. {@code sha256}).
+		 *
+		 * @return
+		 * 		The name.
+		 */
+		public String getName()
+		{
+			return _name;
+		}
+
+		/**
+		 * Returns the ending of a sidecar file (e.g. {@code .sha256}).
+		 *
+		 * @return
+		 * 		The ending.
+		 */
+		public String getSidecarEnding()
+		{
+			return "." + _name;
+		}
+
+		/**
+		 * Returns the name of a directory checksum list (e.g. {@code SHA256SUMS}).
+		 *
+		 * @return
+		 * 		The file name.
+		 */
+		public String getSumsFileName()
+		{
+			return _name.toUpperCase() + "SUMS";
+		}
+
+		/**
+		 * Finds an algorithm by its name.
+		 *
+		 * @param name
+		 * 		The name (e.g. {@code sha256}).
+		 *
+		 * @return
+		 * 		The algorithm or {@code null} if the name is unknown.
+		 */
+		public static Algorithm forName(String name)
+		{
+			for(Algorithm algorithm : values())
+				if(algorithm._name.equalsIgnoreCase(name))
+					return algorithm;
+			return null;
+		}
+	};
+
+
+	private final File _store;
+	private final int _maxEntries;
+	private final ExecutorService _executorService;
+	private final Map<String, Record> _records;
+	private final ConcurrentMap<String, FutureTask<String>> _inFlight =
+		new ConcurrentHashMap<String, FutureTask<String>>();
+	private Writer _storeWriter;
+	private int _numberOfStoreLines;
+	private volatile long _numberOfHits = 0;
+	private volatile long _numberOfMisses = 0;
+
+
+	/**
+	 * Returns the cache shared by the whole server.
+	 *
+	 * @return
+	 * 		The checksum cache.
+	 */
+	public static ChecksumCache getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	public ChecksumCache(File store, int numberOfThreads, int maxEntries)
+	{
+		_store = store;
+		_maxEntries = maxEntries;
+		_records = new LinkedHashMap<String, Record>(16, 0.75f, true);
+		final AtomicInteger threadNumber = new AtomicInteger();
+		_executorService =
+			Executors.newFixedThreadPool(
+				Math.max(1, numberOfThreads),
+				new ThreadFactory() {
+					public Thread newThread(Runnable r)
+					{
+						Thread thread =
+							new Thread(r, "fileweb-checksum-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}
+			);
+		load();
+	}
+
+
+	/**
+	 * Returns a checksum of a file. Waits if the checksum must be calculated.
+	 *
+	 * @param file
+	 * 		The file.
+	 *
+	 * @param algorithm
+	 * 		The algorithm.
+	 *
+	 * @return
+	 * 		The checksum as a lower case hexadecimal string.
+	 *
+	 * @throws IOException
+	 * 		If the file cannot be read.
+	 */
+	public String getChecksum(File file, Algorithm algorithm)
+		throws
+			IOException
+	{
+		return await(submit(file, algorithm));
+	}
+
+
+	/**
+	 * Starts calculating a checksum unless it is already known or being calculated. This
+	 * makes it possible to calculate several checksums in parallel.
+	 *
+	 * @param file
+	 * 		The file.
+	 *
+	 * @param algorithm
+	 * 		The algorithm.
+	 *
+	 * @return
+	 * 		The result. Use {@link #await(Future)} to get it.
+	 *
+	 * @throws IOException
+	 */
+	public Future<String> submit(final File file, final Algorithm algorithm)
+		throws
+			IOException
+	{
+		final String key = algorithm.getName() + "\t" + file.getCanonicalPath();
+		final long size = file.length();
+		final long lastModified = file.lastModified();
+		synchronized(this) {
+			Record record = _records.get(key);
+			if(record != null && record.size == size && record.lastModified == lastModified) {
+				_numberOfHits++;
+				FutureTask<String> known = new FutureTask<String>(new Known(record.checksum));
+				known.run();
+				return known;
+			}
+			_numberOfMisses++;
+		}
+
+		FutureTask<String> task =
+			new FutureTask<String>(
+				new Callable<String>() {
+					public String call()
+						throws
+							Exception
+					{
+						try {
+							String checksum = calculate(file, algorithm);
+							if(file.length() == size && file.lastModified() == lastModified)
+								put(key, new Record(size, lastModified, checksum));
+							return checksum;
+						}
+						finally {
+							_inFlight.remove(key);
+						}
+					}
+				}
+			);
+		FutureTask<String> inFlight = _inFlight.putIfAbsent(key, task);
+		if(inFlight != null)
+			return inFlight;
+
+		_executorService.execute(task);
+		return task;
+	}
+
+
+	/**
+	 * Returns a checksum only if it is already known. Nothing is calculated.
+	 *
+	 * @param file
+	 * 		The file.
+	 *
+	 * @param algorithm
+	 * 		The algorithm.
+	 *
+	 * @return
+	 * 		The checksum or {@code null} if it has not been calculated for the current
+	 * 		version of the file.
+	 *
+	 * @throws IOException
+	 */
+	public String getKnownChecksum(File file, Algorithm algorithm)
+		throws
+			IOException
+	{
+		String key = algorithm.getName() + "\t" + file.getCanonicalPath();
+		long size = file.length();
+		long lastModified = file.lastModified();
+		synchronized(this) {
+			Record record = _records.get(key);
+			if(record != null && record.size == size && record.lastModified == lastModified)
+				return record.checksum;
+			return null;
+		}
+	}
+
+
+	/**
+	 * Waits for a result returned by {@link #submit(File, Algorithm)}.
+	 *
+	 * @param result
+	 * 		The result.
+	 *
+	 * @return
+	 * 		The checksum.
+	 *
+	 * @throws IOException
+	 * 		If the file could not be read or the waiting was interrupted.
+	 */
+	public static String await(Future<String> result)
+		throws
+			IOException
+	{
+		try {
+			return result.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a checksum.");
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			IOException ioe = new IOException("Checksum calculation failed.");
+			ioe.initCause(e.getCause());
+			throw ioe;
+		}
+	}
+
+
+	public synchronized int getSize()
+	{
+		return _records.size();
+	}
+
+	public long getNumberOfHits()
+	{
+		return _numberOfHits;
+	}
+
+	public long getNumberOfMisses()
+	{
+		return _numberOfMisses;
+	}
+
+
+	/**
+	 * Calculates a checksum. Files smaller than {@link #MIN_MAPPED_SIZE} are read to
+	 * a buffer, bigger ones are mapped to memory a window at a time.
+	 */
+	private static String calculate(File file, Algorithm algorithm)
+		throws
+			IOException
+	{
+		MessageDigest digest = null;
+		Crc32c crc = null;
+		if(algorithm._digestName == null)
+			crc = new Crc32c();
+		else {
+			try {
+				digest = MessageDigest.getInstance(algorithm._digestName);
+			}
+			catch(NoSuchAlgorithmException e) {
+				IOException ioe = new IOException(algorithm._digestName + " is not available.");
+				ioe.initCause(e);
+				throw ioe;
+			}
+		}
+
+		FileInputStream is = new FileInputStream(file);
+		byte[] bytes = BufferPool.getInstance().acquire(BUFFER_SIZE);
+		try {
+			FileChannel channel = is.getChannel();
+			long size = channel.size();
+			if(size < MIN_MAPPED_SIZE) {
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				int n;
+				while((n = channel.read(buffer)) != -1) {
+					update(digest, crc, bytes, n);
+					buffer.clear();
+				}
+			}
+			else {
+				for(long position = 0; position < size; position += MAPPED_WINDOW_SIZE) {
+					ByteBuffer window =
+						channel.map(
+							FileChannel.MapMode.READ_ONLY,
+							position,
+							Math.min(MAPPED_WINDOW_SIZE, size - position)
+						);
+					if(digest != null)
+						digest.update(window);
+					else {
+						while(window.hasRemaining()) {
+							int n = Math.min(bytes.length, window.remaining());
+							window.get(bytes, 0, n);
+							crc.update(bytes, 0, n);
+						}
+					}
+				}
+			}
+		}
+		finally {
+			is.close();
+			BufferPool.getInstance().release(bytes);
+		}
+
+		if(digest != null)
+			return toHex(digest.digest());
+
+		long value = crc.getValue();
+		return
+			toHex(
+				new byte[] {
+					(byte)(value >>> 24),
+					(byte)(value >>> 16),
+					(byte)(value >>> 8),
+					(byte)value
+				}
+			);
+	}
+
+	private static void update(MessageDigest digest, Crc32c crc, byte[] bytes, int length)
+	{
+		if(digest != null)
+			digest.update(bytes, 0, length);
+		else
+			crc.update(bytes, 0, length);
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		char[] chars = new char[bytes.length * 2];
+		for(int i = 0; i < bytes.length; i++) {
+			chars[i * 2] = HEX_DIGITS[(bytes[i] >>> 4) & 0x0f];
+			chars[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+		}
+		return new String(chars);
+	}
+
+
+	private synchronized void put(String key, Record record)
+	{
+		_records.put(key, record);
+		Iterator<Record> it = _records.values().iterator();
+		while(_records.size() > _maxEntries && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+		if(_storeWriter == null)
+			return;
+
+		try {
+			writeRecord(_storeWriter, key, record);
+			_storeWriter.flush();
+			if(++_numberOfStoreLines > 2 * _maxEntries)
+				compact();
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.WARNING, "Writing the checksum store failed.", e);
+		}
+	}
+
+	private static void writeRecord(Writer writer, String key, Record record)
+		throws
+			IOException
+	{
+		int i = key.indexOf('\t');
+		writer.write(
+			key.substring(0, i) + "\t" + record.size + "\t" + record.lastModified + "\t"
+				+ record.checksum + key.substring(i) + "\n"
+		);
+	}
+
+
+	/**
+	 * Reads the store. Each line has an algorithm, a file size, a modification time,
+	 * a checksum and a canonical path separated with tabs. Later lines override earlier
+	 * ones.
+	 */
+	private synchronized void load()
+	{
+		if(_store.exists()) {
+			try {
+				BufferedReader reader =
+					new BufferedReader(
+						new InputStreamReader(new FileInputStream(_store), "UTF-8")
+					);
+				try {
+					String line;
+					while((line = reader.readLine()) != null) {
+						String[] fields = line.split("\t", 5);
+						if(fields.length != 5)
+							continue;
+
+						try {
+							_records.put(
+								fields[0] + "\t" + fields[4],
+								new Record(
+									Long.parseLong(fields[1]),
+									Long.parseLong(fields[2]),
+									fields[3]
+								)
+							);
+							_numberOfStoreLines++;
+						}
+						catch(NumberFormatException e) {
+							// Skips broken lines.
+						}
+					}
+				}
+				finally {
+					reader.close();
+				}
+			}
+			catch(IOException e) {
+				LOGGER.log(Level.WARNING, "'" + _store + "' cannot be read.", e);
+			}
+		}
+		try {
+			if(_records.size() > _maxEntries || _numberOfStoreLines > _records.size())
+				compact();
+			else
+				openStore();
+		}
+		catch(IOException e) {
+			LOGGER.log(
+				Level.WARNING,
+				"'" + _store + "' cannot be written. Checksums are not persisted.",
+				e
+			);
+		}
+	}
+
+	private void openStore()
+		throws
+			IOException
+	{
+		_storeWriter =
+			new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(_store, true), "UTF-8")
+			);
+	}
+
+	/**
+	 * Writes the store again with only the current (i.e. the most recently used)
+	 * records.
+	 */
+	private void compact()
+		throws
+			IOException
+	{
+		if(_storeWriter != null) {
+			_storeWriter.close();
+			_storeWriter = null;
+		}
+
+		Iterator<Record> it = _records.values().iterator();
+		while(_records.size() > _maxEntries && it.hasNext()) {
+			it.next();
+			it.remove();
+		}
+
+		File temp = new File(_store.getPath() + ".tmp");
+		Writer writer =
+			new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+		try {
+			for(Map.Entry<String, Record> entry : _records.entrySet())
+				writeRecord(writer, entry.getKey(), entry.getValue());
+		}
+		finally {
+			writer.close();
+		}
+		_store.delete();
+		if(!temp.renameTo(_store))
+			throw new IOException("'" + temp + "' cannot be renamed to '" + _store + "'.");
+		_numberOfStoreLines = _records.size();
+		openStore();
+	}
+
+
+	private static class Record
+	{
+		final long size;
+		final long lastModified;
+		final String checksum;
+
+		Record(long size, long lastModified, String checksum)
+		{
+			this.size = size;
+			this.lastModified = lastModified;
+			this.checksum = checksum;
+		}
+	}
+
+
+	private static class Known
+		implements
+			Callable<String>
+	{
+		private final String _checksum;
+
+		Known(String checksum)
+		{
+			_checksum = checksum;
+		}
+
+		public String call()
+		{
+			return _checksum;
+		}
+	}
+}
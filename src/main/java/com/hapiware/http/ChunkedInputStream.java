@@ -0,0 +1,136 @@
+package com.hapiware.http;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * {@code ChunkedInputStream} decodes a message body sent with HTTP/1.1 chunked transfer
+ * coding. Chunk extensions and trailer fields are skipped, but the trailer is limited by
+ * {@link HeaderLimit}. The stream ends after the last
+ * chunk and the trailer, so that the next request of a persistent connection stays in
+ * the underlying stream. Closing the stream does not close the underlying stream.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see ChunkedOutputStream
+ */
+public class ChunkedInputStream
+	extends
+		FilterInputStream
+{
+	private final static int MAX_LINE_LENGTH = 4096;
+
+
+	private long _remaining = 0;
+	private boolean _eof = false;
+
+
+	public ChunkedInputStream(InputStream is)
+	{
+		super(is);
+	}
+
+
+	public int read()
+		throws
+			IOException
+	{
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len)
+		throws
+			IOException
+	{
+		if(_eof)
+			return -1;
+		if(len == 0)
+			return 0;
+
+		if(_remaining == 0) {
+			nextChunk();
+			if(_eof)
+				return -1;
+		}
+		int n = in.read(b, off, (int)Math.min(len, _remaining));
+		if(n == -1)
+			throw new EOFException("The chunked message body ended too early.");
+		_remaining -= n;
+		if(_remaining == 0)
+			readLine(); // CRLF after the chunk data.
+		return n;
+	}
+
+	public long skip(long n)
+		throws
+			IOException
+	{
+		byte[] buffer = new byte[(int)Math.min(n, 8192)];
+		int skipped = read(buffer, 0, buffer.length);
+		return skipped == -1 ? 0 : skipped;
+	}
+
+	public int available()
+		throws
+			IOException
+	{
+		return _eof ? 0 : (int)Math.min(in.available(), _remaining);
+	}
+
+	public boolean markSupported()
+	{
+		return false;
+	}
+
+	public void close()
+	{
+		// The underlying stream belongs to the connection.
+	}
+
+
+	private void nextChunk()
+		throws
+			IOException
+	{
+		String line = readLine();
+		int i = line.indexOf(';');
+		String size = (i == -1 ? line : line.substring(0, i)).trim();
+		try {
+			_remaining = Long.parseLong(size, 16);
+		}
+		catch(NumberFormatException e) {
+			throw new IOException("Invalid chunk size: " + line);
+		}
+		if(_remaining < 0)
+			throw new IOException("Invalid chunk size: " + line);
+
+		if(_remaining == 0) {
+			// Skips the trailer fields.
+			HeaderLimit limit = new HeaderLimit();
+			String trailer;
+			while((trailer = readLine()).length() > 0)
+				limit.addLine(trailer.length() + 2);
+			_eof = true;
+		}
+	}
+
+	private String readLine()
+		throws
+			IOException
+	{
+		StringBuilder line = new StringBuilder();
+		int b;
+		while((b = in.read()) != '\n') {
+			if(b == -1)
+				throw new EOFException("The chunked message body ended too early.");
+			if(line.length() >= MAX_LINE_LENGTH)
+				throw new IOException("Too long line in a chunked message body.");
+			if(b != '\r')
+				line.append((char)b);
+		}
+		return line.toString();
+	}
+}
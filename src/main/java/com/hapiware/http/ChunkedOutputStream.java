@@ -0,0 +1,69 @@
+package com.hapiware.http;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * {@code ChunkedOutputStream} writes HTTP/1.1 chunked transfer coding. Every
+ * {@code write()} produces one chunk so the caller decides the chunk sizes. {@link #finish()}
+ * writes the last (empty) chunk. Closing the stream does not close the underlying stream.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ChunkedOutputStream
+	extends
+		FilterOutputStream
+{
+	private final static byte[] CRLF = { '\r', '\n' };
+	private final static byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+
+
+	public ChunkedOutputStream(OutputStream os)
+	{
+		super(os);
+	}
+
+
+	public void write(int b)
+		throws
+			IOException
+	{
+		write(new byte[] { (byte)b }, 0, 1);
+	}
+
+	public void write(byte[] b, int off, int len)
+		throws
+			IOException
+	{
+		if(len == 0)
+			return;
+
+		out.write(Integer.toHexString(len).getBytes("US-ASCII"));
+		out.write(CRLF);
+		out.write(b, off, len);
+		out.write(CRLF);
+	}
+
+
+	/**
+	 * Writes the last chunk which ends the content.
+	 *
+	 * @throws IOException
+	 */
+	public void finish()
+		throws
+			IOException
+	{
+		out.write(LAST_CHUNK);
+	}
+
+	public void close()
+		throws
+			IOException
+	{
+		flush();
+	}
+}
@@ -0,0 +1,320 @@
+package com.hapiware.http;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * {@code ConcurrencyLimiter} adjusts the number of connections the {@link FairScheduler}
+ * serves at the same time by the observed latency and queue wait. The thread pool is
+ * the upper bound of the limit and {@code fileweb.adaptive.minThreads} the lower bound.
+ * <p/>
+ * Once a second the limiter compares the average latency of the small requests (e.g.
+ * listings, checksums and small files) of the last second to a slowly moving baseline:
+ * <ul>
+ * 	<li>If the latency is over {@value #TOLERANCE} times the baseline, the server is
+ * 		overloaded (e.g. disks thrashing during a listing storm) and the limit is decreased
+ * 		multiplicatively by the ratio of the baseline and the latency (at most by half).</li>
+ * 	<li>Otherwise, if connections have been waiting because all the workers were taken,
+ * 		the limit is increased additively by the square root of the limit. Connections
+ * 		waiting only for the other connections of their own client (i.e.
+ * 		{@code fileweb.client.maxConnections}) do not count, because more concurrency would
+ * 		not let them run.</li>
+ * </ul>
+ *
+ * Big downloads and long polling (e.g. {@code ?op=follow}) are not used for the latency
+ * because their duration depends on the client rather than the server. Every change of
+ * the limit and its reason are kept for the {@code com.hapiware.http:type=ConcurrencyLimiting}
+ * MBean.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ConcurrencyLimiter
+{
+	private final static Logger LOGGER = Logger.getLogger(ConcurrencyLimiter.class.getName());
+	private final static long INTERVAL_MS = 1000;
+	private final static double TOLERANCE = 2.0;
+	private final static double MIN_GRADIENT = 0.5;
+	private final static double BASELINE_WEIGHT = 0.05;
+	private final static int MIN_NUMBER_OF_SAMPLES = 5;
+	private final static long MAX_SAMPLE_BYTES = 256 * 1024;
+	private final static long MAX_SAMPLE_NS = TimeUnit.SECONDS.toNanos(10);
+	private final static long QUEUE_WAIT_TARGET_NS = TimeUnit.MILLISECONDS.toNanos(5);
+	private final static int MAX_NUMBER_OF_DECISIONS = 32;
+
+
+	private final FairScheduler _scheduler;
+	private final AtomicLong _latencyNs = new AtomicLong();
+	private final AtomicLong _numberOfLatencySamples = new AtomicLong();
+	private final LinkedList<String> _decisions = new LinkedList<String>();
+	private boolean _enabled;
+	private int _minLimit;
+	private int _maxLimit;
+	private int _limit;
+	private long _baselineNs = 0;
+	private long _lastLatencyNs = 0;
+	private long _lastQueueWaitNs = 0;
+	private long _numberOfIncreases = 0;
+	private long _numberOfDecreases = 0;
+
+
+	/**
+	 * Creates a limiter and starts its thread.
+	 *
+	 * @param scheduler
+	 * 		The scheduler whose concurrency is adjusted.
+	 *
+	 * @param maxLimit
+	 * 		The upper bound of the limit, i.e. the number of threads.
+	 *
+	 * @param minLimit
+	 * 		The lower bound of the limit.
+	 *
+	 * @param enabled
+	 * 		{@code true} to adjust the limit. Otherwise the limit is always the upper bound.
+	 */
+	public ConcurrencyLimiter(FairScheduler scheduler, int maxLimit, int minLimit, boolean enabled)
+	{
+		_scheduler = scheduler;
+		_maxLimit = Math.max(1, maxLimit);
+		_minLimit = Math.max(1, Math.min(minLimit, _maxLimit));
+		_limit = _maxLimit;
+		_enabled = enabled;
+		Thread thread =
+			new Thread("fileweb-concurrency-limiter") {
+				public void run()
+				{
+					adjustLoop();
+				}
+			};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Records a finished request. Only short requests sending little data are used.
+	 *
+	 * @param durationNs
+	 * 		The time used for the request in nanoseconds.
+	 *
+	 * @param bytesSent
+	 * 		The number of bytes sent.
+	 */
+	public void recordRequest(long durationNs, long bytesSent)
+	{
+		if(bytesSent > MAX_SAMPLE_BYTES || durationNs > MAX_SAMPLE_NS || durationNs < 0)
+			return;
+
+		_latencyNs.addAndGet(durationNs);
+		_numberOfLatencySamples.incrementAndGet();
+	}
+
+
+	private void adjustLoop()
+	{
+		while(true) {
+			try {
+				Thread.sleep(INTERVAL_MS);
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+			try {
+				adjust();
+			}
+			catch(RuntimeException e) {
+				LOGGER.log(Level.WARNING, "Adjusting the concurrency limit failed.", e);
+			}
+		}
+	}
+
+	synchronized void adjust()
+	{
+		long numberOfLatencySamples = _numberOfLatencySamples.getAndSet(0);
+		long latencyNs = _latencyNs.getAndSet(0);
+		boolean saturated = _scheduler.takeSaturated();
+		_lastQueueWaitNs = _scheduler.takeQueueWait();
+		boolean haveLatency = numberOfLatencySamples >= MIN_NUMBER_OF_SAMPLES;
+		if(haveLatency) {
+			_lastLatencyNs = latencyNs / numberOfLatencySamples;
+			if(_baselineNs == 0)
+				_baselineNs = _lastLatencyNs;
+		}
+		if(!_enabled)
+			return;
+
+		if(haveLatency && _lastLatencyNs > TOLERANCE * _baselineNs) {
+			double gradient = Math.max(MIN_GRADIENT, (double)_baselineNs / _lastLatencyNs);
+			int limit = Math.max(_minLimit, (int)(_limit * gradient));
+			if(limit < _limit) {
+				_numberOfDecreases++;
+				change(
+					limit,
+					"latency " + toMs(_lastLatencyNs) + " ms is over " + TOLERANCE
+						+ " times the baseline " + toMs(_baselineNs) + " ms"
+				);
+			}
+		}
+		else if(saturated || _lastQueueWaitNs > QUEUE_WAIT_TARGET_NS) {
+			int limit = Math.min(_maxLimit, _limit + (int)Math.ceil(Math.sqrt(_limit)));
+			if(limit > _limit) {
+				_numberOfIncreases++;
+				change(
+					limit,
+					"connections waited for a worker, queue wait " + toMs(_lastQueueWaitNs)
+						+ " ms, latency " + (haveLatency ? toMs(_lastLatencyNs) + " ms" : "unknown")
+				);
+			}
+		}
+
+		// The baseline follows the latency slowly, so a sudden rise is seen as overload
+		// but a permanent change (e.g. a different kind of load) is accepted over time.
+		if(haveLatency)
+			_baselineNs =
+				(long)((1 - BASELINE_WEIGHT) * _baselineNs + BASELINE_WEIGHT * _lastLatencyNs);
+	}
+
+	private void change(int limit, String reason)
+	{
+		_scheduler.setConcurrency(limit);
+		if(limit == _limit)
+			return;
+
+		String decision =
+			new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()) + " " + _limit
+				+ " -> " + limit + ": " + reason;
+		LOGGER.fine("Concurrency limit " + decision);
+		_decisions.addFirst(decision);
+		if(_decisions.size() > MAX_NUMBER_OF_DECISIONS)
+			_decisions.removeLast();
+		_limit = limit;
+	}
+
+	private static String toMs(long ns)
+	{
+		return String.format("%.1f", ns / 1000000.0);
+	}
+
+
+	public synchronized boolean isEnabled()
+	{
+		return _enabled;
+	}
+
+	/**
+	 * Turns adjusting on or off. When turned off, the limit goes back to the upper bound.
+	 *
+	 * @param enabled
+	 * 		{@code true} to adjust the limit.
+	 */
+	public synchronized void setEnabled(boolean enabled)
+	{
+		if(_enabled == enabled)
+			return;
+
+		_enabled = enabled;
+		if(!enabled)
+			change(_maxLimit, "adaptive concurrency was turned off");
+	}
+
+	public synchronized int getLimit()
+	{
+		return _limit;
+	}
+
+	public synchronized int getMinLimit()
+	{
+		return _minLimit;
+	}
+
+	public synchronized void setMinLimit(int minLimit)
+	{
+		_minLimit = Math.max(1, Math.min(minLimit, _maxLimit));
+		if(_limit < _minLimit)
+			change(_minLimit, "the lower bound was raised");
+	}
+
+	public synchronized int getMaxLimit()
+	{
+		return _maxLimit;
+	}
+
+	/**
+	 * Sets the upper bound of the limit. This is called when the thread pool is resized.
+	 *
+	 * @param maxLimit
+	 * 		The number of threads.
+	 */
+	public synchronized void setMaxLimit(int maxLimit)
+	{
+		_maxLimit = Math.max(1, maxLimit);
+		_minLimit = Math.min(_minLimit, _maxLimit);
+		if(!_enabled || _limit > _maxLimit)
+			change(_maxLimit, "the number of threads was set to " + _maxLimit);
+	}
+
+	/**
+	 * Returns the average latency of the small requests during the last second.
+	 *
+	 * @return
+	 * 		Microseconds.
+	 */
+	public synchronized long getLatency()
+	{
+		return TimeUnit.NANOSECONDS.toMicros(_lastLatencyNs);
+	}
+
+	/**
+	 * Returns the moving baseline of the latency.
+	 *
+	 * @return
+	 * 		Microseconds.
+	 */
+	public synchronized long getLatencyBaseline()
+	{
+		return TimeUnit.NANOSECONDS.toMicros(_baselineNs);
+	}
+
+	/**
+	 * Returns the average time connections waited for a worker during the last second
+	 * because all the workers were taken.
+	 *
+	 * @return
+	 * 		Microseconds.
+	 */
+	public synchronized long getQueueWait()
+	{
+		return TimeUnit.NANOSECONDS.toMicros(_lastQueueWaitNs);
+	}
+
+	public synchronized long getNumberOfIncreases()
+	{
+		return _numberOfIncreases;
+	}
+
+	public synchronized long getNumberOfDecreases()
+	{
+		return _numberOfDecreases;
+	}
+
+	/**
+	 * Returns the latest changes of the limit, newest first. The form is:
+	 * <pre>
+	 * 	yyyy-MM-dd HH:mm:ss OLD -> NEW: REASON
+	 * </pre>
+	 *
+	 * @return
+	 * 		A line for each change.
+	 */
+	public synchronized String[] getDecisions()
+	{
+		return _decisions.toArray(new String[_decisions.size()]);
+	}
+}
@@ -0,0 +1,81 @@
+package com.hapiware.http;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+/**
+ * {@code ContentLengthInputStream} reads a message body whose length is given with
+ * {@code Content-Length}. The stream ends after the body so that the next request of
+ * a persistent connection stays in the underlying stream. Closing the stream does not
+ * close the underlying stream.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ContentLengthInputStream
+	extends
+		FilterInputStream
+{
+	private long _remaining;
+
+
+	public ContentLengthInputStream(InputStream is, long length)
+	{
+		super(is);
+		_remaining = length;
+	}
+
+
+	public int read()
+		throws
+			IOException
+	{
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len)
+		throws
+			IOException
+	{
+		if(_remaining <= 0)
+			return -1;
+		if(len == 0)
+			return 0;
+
+		int n = in.read(b, off, (int)Math.min(len, _remaining));
+		if(n == -1)
+			throw new EOFException("The message body ended " + _remaining + " bytes too early.");
+		_remaining -= n;
+		return n;
+	}
+
+	public long skip(long n)
+		throws
+			IOException
+	{
+		long skipped = in.skip(Math.min(n, _remaining));
+		_remaining -= skipped;
+		return skipped;
+	}
+
+	public int available()
+		throws
+			IOException
+	{
+		return (int)Math.min(in.available(), _remaining);
+	}
+
+	public boolean markSupported()
+	{
+		return false;
+	}
+
+	public void close()
+	{
+		// The underlying stream belongs to the connection.
+	}
+}
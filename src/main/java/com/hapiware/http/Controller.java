@@ -1,9 +1,13 @@
 package com.hapiware.http;
 
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 
 /**
  * {@code Controller} is an utility class for collecting some statistical information about
- * running {@link FileWeb}. All the utility methods are synchronized. 
+ * running {@link FileWeb}. The counters are atomic, so updating and reading them never
+ * blocks a request thread. 
  * 
  * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
  *
@@ -12,11 +16,13 @@ public class Controller
 {
 	private final FileWeb _fileWeb;
 
-	private int _numberOfCurrentRequests = 0;
-	private long _numberOfRequests = 0;
-	private long _numberOfTotalRequests = 0;
-	private long _numberOfErrors = 0;
-	private long _startTime;
+	private final AtomicInteger _numberOfCurrentRequests = new AtomicInteger();
+	private final AtomicLong _numberOfRequests = new AtomicLong();
+	private final AtomicLong _numberOfTotalRequests = new AtomicLong();
+	private final AtomicLong _numberOfErrors = new AtomicLong();
+	private final AtomicLong _numberOfStalledConnections = new AtomicLong();
+	private final AtomicLong _numberOfSlowConnections = new AtomicLong();
+	private volatile long _startTime;
 	
 	public Controller(FileWeb fileWeb)
 	{
@@ -24,71 +30,181 @@ public class Controller
 		resetStartTime();
  	}
 
-	public synchronized void enter()
+	public void enter()
 	{
-		_numberOfCurrentRequests++;
-		_numberOfRequests++;
-		_numberOfTotalRequests++;
+		_numberOfCurrentRequests.incrementAndGet();
+		_numberOfRequests.incrementAndGet();
+		_numberOfTotalRequests.incrementAndGet();
 	}
 	
-	public synchronized void exit()
+	public void exit()
 	{
-		if(_numberOfCurrentRequests > 0)
-			_numberOfCurrentRequests--;
+		while(true) {
+			int current = _numberOfCurrentRequests.get();
+			if(current <= 0 || _numberOfCurrentRequests.compareAndSet(current, current - 1))
+				return;
+		}
 	}
 	
-	public synchronized int getNumberOfCurrentRequests()
+	public int getNumberOfCurrentRequests()
 	{
-		return _numberOfCurrentRequests;
+		return _numberOfCurrentRequests.get();
 	}
 
-	public synchronized long getNumberOfRequests()
+	public long getNumberOfRequests()
 	{
-		return _numberOfRequests;
+		return _numberOfRequests.get();
 	}
 
-	public synchronized long getNumberOfTotalRequests()
+	public long getNumberOfTotalRequests()
 	{
-		return _numberOfTotalRequests;
+		return _numberOfTotalRequests.get();
 	}
 
-	public synchronized void registerError()
+	public void registerError()
 	{
-		_numberOfErrors++;
+		_numberOfErrors.incrementAndGet();
 	}
 	
-	public synchronized long getNumberOfErrors()
+	public long getNumberOfErrors()
 	{
-		return _numberOfErrors;
+		return _numberOfErrors.get();
 	}
 
-	public synchronized void resetNumberOfRequests()
+	public void registerStalledConnection()
+	{
+		_numberOfStalledConnections.incrementAndGet();
+	}
+	
+	public long getNumberOfStalledConnections()
+	{
+		return _numberOfStalledConnections.get();
+	}
+	
+	public void registerSlowConnection()
+	{
+		_numberOfSlowConnections.incrementAndGet();
+	}
+	
+	public long getNumberOfSlowConnections()
+	{
+		return _numberOfSlowConnections.get();
+	}
+	
+	public void resetReclaimedConnections()
+	{
+		_numberOfStalledConnections.set(0);
+		_numberOfSlowConnections.set(0);
+	}
+	
+	public void resetNumberOfRequests()
 	{
-		_numberOfRequests = 0;
+		_numberOfRequests.set(0);
 	}
 	
-	public synchronized void resetStartTime()
+	public void resetStartTime()
 	{
 		_startTime = System.currentTimeMillis();
 	}
 	
-	public synchronized long getStartTime()
+	public long getStartTime()
 	{
 		return _startTime;
 	}
 	
-	public synchronized long getUptime()
+	public long getUptime()
 	{
 		return (System.currentTimeMillis() - _startTime) / 1000;
 	}
 	
-	public synchronized void stopServer()
+	public void stopServer()
 	{
 		_fileWeb.stop();
 	}
 	
-	public synchronized void resetErrors()
+	public int getNumberOfThreads()
+	{
+		return _fileWeb.getNumberOfThreads();
+	}
+	
+	public void setNumberOfThreads(int numberOfThreads)
+	{
+		_fileWeb.setNumberOfThreads(numberOfThreads);
+	}
+	
+	public int getPoolSize()
+	{
+		return _fileWeb.getPoolSize();
+	}
+	
+	public int getNumberOfBusyThreads()
+	{
+		return _fileWeb.getScheduler().getNumberOfRunning();
+	}
+	
+	/**
+	 * Returns the share of the threads serving connections.
+	 * 
+	 * @return
+	 * 		Percentage (0 - 100).
+	 */
+	public int getThreadUtilisation()
+	{
+		return Math.min(100, 100 * getNumberOfBusyThreads() / Math.max(1, getNumberOfThreads()));
+	}
+	
+	public int getReadTimeout()
+	{
+		return _fileWeb.getReadTimeout();
+	}
+	
+	public void setReadTimeout(int readTimeout)
+	{
+		_fileWeb.setReadTimeout(readTimeout);
+	}
+	
+	public int getIdleTimeout()
+	{
+		return _fileWeb.getIdleTimeout();
+	}
+	
+	public void setIdleTimeout(int idleTimeout)
+	{
+		_fileWeb.setIdleTimeout(idleTimeout);
+	}
+	
+	public long getStallTimeout()
+	{
+		return _fileWeb.getSendWatchdog().getStallTimeout();
+	}
+	
+	public void setStallTimeout(long stallTimeout)
+	{
+		_fileWeb.getSendWatchdog().setStallTimeout(stallTimeout);
+	}
+	
+	public long getMinRate()
+	{
+		return _fileWeb.getSendWatchdog().getMinRate();
+	}
+	
+	public void setMinRate(long minRate)
+	{
+		_fileWeb.getSendWatchdog().setMinRate(minRate);
+	}
+	
+	public int getAcceptBacklog()
+	{
+		return _fileWeb.getAcceptBacklog();
+	}
+	
+	public void resetErrors()
+	{
+		_numberOfErrors.set(0);
+	}
+	
+	public int reloadMimeTypes()
 	{
-		_numberOfErrors = 0;
+		return DocTypeRegistry.reload();
 	}
 }
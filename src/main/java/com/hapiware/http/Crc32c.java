@@ -0,0 +1,76 @@
+package com.hapiware.http;
+
+import java.util.zip.Checksum;
+
+
+/**
+ * {@code Crc32c} calculates a CRC-32C (Castagnoli) checksum. The algorithm is table driven
+ * and processes four bytes at a time (slicing-by-4).
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class Crc32c
+	implements
+		Checksum
+{
+	private final static int POLYNOMIAL = 0x82f63b78;
+	private final static int[][] TABLES = createTables();
+
+
+	private int _crc = 0xffffffff;
+
+
+	private static int[][] createTables()
+	{
+		int[][] tables = new int[4][256];
+		for(int i = 0; i < 256; i++) {
+			int crc = i;
+			for(int bit = 0; bit < 8; bit++)
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+			tables[0][i] = crc;
+		}
+		for(int i = 0; i < 256; i++)
+			for(int t = 1; t < 4; t++)
+				tables[t][i] = (tables[t - 1][i] >>> 8) ^ tables[0][tables[t - 1][i] & 0xff];
+		return tables;
+	}
+
+
+	public void update(int b)
+	{
+		_crc = (_crc >>> 8) ^ TABLES[0][(_crc ^ b) & 0xff];
+	}
+
+	public void update(byte[] b, int off, int len)
+	{
+		int[] t0 = TABLES[0];
+		int[] t1 = TABLES[1];
+		int[] t2 = TABLES[2];
+		int[] t3 = TABLES[3];
+		int crc = _crc;
+		int end = off + len;
+		while(end - off >= 4) {
+			crc ^=
+				(b[off] & 0xff) | (b[off + 1] & 0xff) << 8 | (b[off + 2] & 0xff) << 16
+					| (b[off + 3] & 0xff) << 24;
+			crc =
+				t3[crc & 0xff] ^ t2[(crc >>> 8) & 0xff] ^ t1[(crc >>> 16) & 0xff]
+					^ t0[crc >>> 24];
+			off += 4;
+		}
+		while(off < end)
+			crc = (crc >>> 8) ^ t0[(crc ^ b[off++]) & 0xff];
+		_crc = crc;
+	}
+
+	public long getValue()
+	{
+		return ~_crc & 0xffffffffl;
+	}
+
+	public void reset()
+	{
+		_crc = 0xffffffff;
+	}
+}
@@ -0,0 +1,468 @@
+package com.hapiware.http;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * {@code DeltaSyncClient} updates a local copy of a file served by 'fileweb' to the current
+ * version by fetching only the changed blocks (the rsync algorithm):
+ * <ol>
+ * 	<li>The block signatures of the file are fetched with {@code ?op=signatures}.</li>
+ * 	<li>The local file is searched for the blocks at every byte position with
+ * 		{@link RollingChecksum}. Candidates are confirmed with MD5.</li>
+ * 	<li>The missing blocks are fetched with multi-range requests. {@code If-Range} makes
+ * 		sure the file has not changed in between.</li>
+ * 	<li>The new version is written to a temporary file which then replaces the local
+ * 		file.</li>
+ * </ol>
+ *
+ * Usage: {@code java -jar fileweb.jar sync URL FILE [BLOCK_SIZE]}
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see SignatureCache
+ */
+public class DeltaSyncClient
+{
+	private final static int MAX_RANGES_PER_REQUEST = 64;
+	private final static int SEARCH_BUFFER_SIZE = 4 * 1024 * 1024;
+	private final static int CONNECT_TIMEOUT_MS = 10000;
+	private final static int READ_TIMEOUT_MS = 60000;
+
+
+	private final URL _url;
+	private final File _file;
+	private final int _blockSize;
+	private final MessageDigest _md5;
+
+	private long _length;
+	private String _etag;
+	private int _signatureBlockSize;
+	private int[] _weak;
+	private byte[][] _strong;
+
+	private long _bytesReceived = 0;
+	private int _numberOfRequests = 0;
+	private int _numberOfReusedBlocks = 0;
+
+
+	public static void main(String[] args)
+	{
+		if(args.length < 2 || args.length > 3) {
+			System.out.println("Usage: java -jar fileweb.jar sync URL FILE [BLOCK_SIZE]");
+			System.exit(-1);
+		}
+
+		try {
+			DeltaSyncClient client =
+				new DeltaSyncClient(
+					new URL(args[0]),
+					new File(args[1]),
+					args.length == 3 ? Integer.parseInt(args[2]) : SignatureCache.DEFAULT_BLOCK_SIZE
+				);
+			client.sync();
+			System.out.println(client.getReport());
+		}
+		catch(NumberFormatException e) {
+			System.err.println("'" + args[2] + "' is not a valid block size.");
+			System.exit(1);
+		}
+		catch(IOException e) {
+			System.err.println("Sync failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+
+	/**
+	 * Creates a client.
+	 *
+	 * @param url
+	 * 		The URL of the file.
+	 *
+	 * @param file
+	 * 		The local copy. It does not have to exist.
+	 *
+	 * @param blockSize
+	 * 		The requested block size. Smaller blocks find more unchanged data but make
+	 * 		the signatures bigger.
+	 *
+	 * @throws IOException
+	 */
+	public DeltaSyncClient(URL url, File file, int blockSize)
+		throws
+			IOException
+	{
+		_url = url;
+		_file = file;
+		_blockSize = blockSize;
+		try {
+			_md5 = MessageDigest.getInstance("MD5");
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IOException("MD5 is not supported.");
+		}
+	}
+
+
+	/**
+	 * Updates the local file.
+	 *
+	 * @throws IOException
+	 * 		If the sync fails. The local file is not changed.
+	 */
+	public void sync()
+		throws
+			IOException
+	{
+		fetchSignatures();
+		int numberOfBlocks = _weak.length;
+		long[] localOffsets = findLocalBlocks();
+
+		File directory = _file.getAbsoluteFile().getParentFile();
+		File temp = File.createTempFile(".fileweb-sync-", ".tmp", directory);
+		boolean succeeded = false;
+		try {
+			RandomAccessFile out = new RandomAccessFile(temp, "rw");
+			try {
+				out.setLength(_length);
+				copyLocalBlocks(localOffsets, out);
+
+				List<long[]> ranges = new ArrayList<long[]>();
+				for(int i = 0; i < numberOfBlocks; i++) {
+					if(localOffsets[i] != -1)
+						continue;
+					long first = (long)i * _signatureBlockSize;
+					long last = Math.min(first + _signatureBlockSize, _length) - 1;
+					long[] previous = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+					if(previous != null && previous[1] + 1 == first)
+						previous[1] = last;
+					else
+						ranges.add(new long[] { first, last });
+				}
+				for(int i = 0; i < ranges.size(); i += MAX_RANGES_PER_REQUEST)
+					fetchRanges(
+						ranges.subList(i, Math.min(i + MAX_RANGES_PER_REQUEST, ranges.size())),
+						out
+					);
+			}
+			finally {
+				out.close();
+			}
+
+			if(!temp.renameTo(_file) && !(_file.delete() && temp.renameTo(_file)))
+				throw new IOException("'" + temp + "' cannot be renamed to '" + _file + "'.");
+			succeeded = true;
+		}
+		finally {
+			if(!succeeded)
+				temp.delete();
+		}
+	}
+
+
+	/**
+	 * Returns a summary of the last sync.
+	 *
+	 * @return
+	 * 		The summary.
+	 */
+	public String getReport()
+	{
+		long saved = Math.max(0, _length - _bytesReceived);
+		return
+			_file + ": " + _length + " bytes, " + _bytesReceived + " bytes received in "
+				+ _numberOfRequests + " requests, " + _numberOfReusedBlocks + "/" + _weak.length
+				+ " blocks reused, " + saved + " bytes ("
+				+ (_length == 0 ? 0 : saved * 100 / _length) + " %) saved.";
+	}
+
+
+	private HttpURLConnection open(String query)
+		throws
+			IOException
+	{
+		URL url = query == null ? _url : new URL(_url, _url.getPath() + "?" + query);
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+		connection.setReadTimeout(READ_TIMEOUT_MS);
+		connection.setUseCaches(false);
+		_numberOfRequests++;
+		return connection;
+	}
+
+
+	private void fetchSignatures()
+		throws
+			IOException
+	{
+		HttpURLConnection connection = open("op=signatures&block=" + _blockSize);
+		if(connection.getResponseCode() != HttpURLConnection.HTTP_OK)
+			throw
+				new IOException(
+					"Server responded " + connection.getResponseCode() + " to the signature request."
+				);
+
+		DataInputStream in =
+			new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+		try {
+			byte[] magic = new byte[SignatureCache.MAGIC.length];
+			in.readFully(magic);
+			if(!Arrays.equals(magic, SignatureCache.MAGIC))
+				throw new IOException("The server sent unknown signatures.");
+			_signatureBlockSize = in.readInt();
+			_length = in.readLong();
+			_etag = in.readUTF();
+			int numberOfBlocks = (int)((_length + _signatureBlockSize - 1) / _signatureBlockSize);
+			_weak = new int[numberOfBlocks];
+			_strong = new byte[numberOfBlocks][SignatureCache.STRONG_CHECKSUM_LENGTH];
+			for(int i = 0; i < numberOfBlocks; i++) {
+				_weak[i] = in.readInt();
+				in.readFully(_strong[i]);
+			}
+			_bytesReceived +=
+				magic.length + 4 + 8 + 2 + _etag.length()
+					+ numberOfBlocks * (4 + SignatureCache.STRONG_CHECKSUM_LENGTH);
+		}
+		finally {
+			in.close();
+		}
+	}
+
+
+	/**
+	 * Searches the local file for the blocks of the server's file.
+	 *
+	 * @return
+	 * 		The local offset of each block or -1 if the block was not found.
+	 */
+	private long[] findLocalBlocks()
+		throws
+			IOException
+	{
+		int blockSize = _signatureBlockSize;
+		long[] localOffsets = new long[_weak.length];
+		Arrays.fill(localOffsets, -1);
+		if(!_file.isFile())
+			return localOffsets;
+
+		// Only full blocks are searched. The last (short) block is always fetched.
+		Map<Integer, List<Integer>> blocksByWeak = new HashMap<Integer, List<Integer>>();
+		boolean[] weakHashes = new boolean[1 << 16];
+		int numberOfMissingBlocks = 0;
+		for(int i = 0; i < _weak.length; i++) {
+			if((long)(i + 1) * blockSize > _length)
+				break;
+			List<Integer> blocks = blocksByWeak.get(_weak[i]);
+			if(blocks == null) {
+				blocks = new ArrayList<Integer>(1);
+				blocksByWeak.put(_weak[i], blocks);
+			}
+			blocks.add(i);
+			weakHashes[hash(_weak[i])] = true;
+			numberOfMissingBlocks++;
+		}
+
+		RandomAccessFile in = new RandomAccessFile(_file, "r");
+		try {
+			byte[] buffer = new byte[Math.max(SEARCH_BUFFER_SIZE, 2 * blockSize)];
+			long bufferOffset = 0;
+			int start = 0;
+			int end = 0;
+			boolean eof = false;
+			boolean newWindow = true;
+			RollingChecksum rolling = new RollingChecksum();
+			while(numberOfMissingBlocks > 0) {
+				// The window and the byte after it must be in the buffer.
+				if(end - start <= blockSize) {
+					if(eof)
+						break;
+					System.arraycopy(buffer, start, buffer, 0, end - start);
+					bufferOffset += start;
+					end -= start;
+					start = 0;
+					int n = in.read(buffer, end, buffer.length - end);
+					if(n == -1)
+						eof = true;
+					else
+						end += n;
+					if(end - start < blockSize)
+						break;
+				}
+				if(newWindow) {
+					rolling.reset(buffer, start, blockSize);
+					newWindow = false;
+				}
+
+				boolean matched = false;
+				int weak = rolling.getValue();
+				if(weakHashes[hash(weak)] && blocksByWeak.containsKey(weak)) {
+					_md5.update(buffer, start, blockSize);
+					byte[] strong = _md5.digest();
+					for(int block : blocksByWeak.get(weak)) {
+						if(Arrays.equals(strong, _strong[block])) {
+							matched = true;
+							if(localOffsets[block] == -1) {
+								localOffsets[block] = bufferOffset + start;
+								numberOfMissingBlocks--;
+							}
+						}
+					}
+				}
+				if(matched) {
+					start += blockSize;
+					newWindow = true;
+				}
+				else if(start + blockSize < end) {
+					rolling.roll(buffer[start], buffer[start + blockSize]);
+					start++;
+				}
+				else if(eof)
+					break;
+			}
+		}
+		finally {
+			in.close();
+		}
+		return localOffsets;
+	}
+
+	private static int hash(int weak)
+	{
+		return (weak ^ (weak >>> 16)) & 0xffff;
+	}
+
+
+	private void copyLocalBlocks(long[] localOffsets, RandomAccessFile out)
+		throws
+			IOException
+	{
+		RandomAccessFile in = null;
+		try {
+			byte[] block = new byte[_signatureBlockSize];
+			for(int i = 0; i < localOffsets.length; i++) {
+				if(localOffsets[i] == -1)
+					continue;
+				if(in == null)
+					in = new RandomAccessFile(_file, "r");
+				in.seek(localOffsets[i]);
+				in.readFully(block);
+				out.seek((long)i * _signatureBlockSize);
+				out.write(block);
+				_numberOfReusedBlocks++;
+			}
+		}
+		finally {
+			if(in != null)
+				in.close();
+		}
+	}
+
+
+	/**
+	 * Fetches ranges of the file with a single request and writes them to their places.
+	 */
+	private void fetchRanges(List<long[]> ranges, RandomAccessFile out)
+		throws
+			IOException
+	{
+		StringBuilder range = new StringBuilder("bytes=");
+		for(int i = 0; i < ranges.size(); i++) {
+			if(i > 0)
+				range.append(',');
+			range.append(ranges.get(i)[0]).append('-').append(ranges.get(i)[1]);
+		}
+		HttpURLConnection connection = open(null);
+		connection.setRequestProperty("Range", range.toString());
+		connection.setRequestProperty("If-Range", _etag);
+		int statusCode = connection.getResponseCode();
+		if(statusCode == HttpURLConnection.HTTP_OK)
+			throw new IOException("The file changed on the server during the sync. Try again.");
+		if(statusCode != HttpURLConnection.HTTP_PARTIAL)
+			throw new IOException("Server responded " + statusCode + " to a range request.");
+
+		try {
+			_bytesReceived += Long.parseLong(connection.getHeaderField("Content-Length"));
+		}
+		catch(NumberFormatException e) {
+			// Counted as the parts are read.
+		}
+		InputStream is = connection.getInputStream();
+		try {
+			String boundary = MultipartReader.getBoundary(connection.getContentType());
+			if(boundary == null)
+				writeRange(is, connection.getHeaderField("Content-Range"), out);
+			else {
+				MultipartReader reader = new MultipartReader(is, boundary);
+				while(reader.nextPart())
+					writeRange(
+						reader.getPartInputStream(),
+						reader.getPartHeaders().get("Content-Range"),
+						out
+					);
+			}
+		}
+		finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * Writes a fetched range and checks the MD5 checksums of its blocks.
+	 */
+	private void writeRange(InputStream is, String contentRange, RandomAccessFile out)
+		throws
+			IOException
+	{
+		long first;
+		long last;
+		try {
+			String range = contentRange.substring("bytes ".length(), contentRange.indexOf('/'));
+			int i = range.indexOf('-');
+			first = Long.parseLong(range.substring(0, i));
+			last = Long.parseLong(range.substring(i + 1));
+		}
+		catch(RuntimeException e) {
+			throw new IOException("Invalid Content-Range: " + contentRange);
+		}
+		if(first % _signatureBlockSize != 0 || last >= _length)
+			throw new IOException("Unexpected Content-Range: " + contentRange);
+
+		out.seek(first);
+		byte[] block = new byte[_signatureBlockSize];
+		for(long position = first; position <= last; ) {
+			int index = (int)(position / _signatureBlockSize);
+			int blockLength = (int)Math.min(_signatureBlockSize, last + 1 - position);
+			int n = 0;
+			while(n < blockLength) {
+				int read = is.read(block, n, blockLength - n);
+				if(read == -1)
+					throw new EOFException("The server sent less than requested.");
+				n += read;
+			}
+			_md5.update(block, 0, blockLength);
+			if(
+				blockLength == Math.min(_signatureBlockSize, _length - position)
+				&& !Arrays.equals(_md5.digest(), _strong[index])
+			)
+				throw new IOException("Block " + index + " does not match its signature.");
+			_md5.reset();
+			out.write(block, 0, blockLength);
+			position += blockLength;
+		}
+	}
+}
@@ -0,0 +1,382 @@
+package com.hapiware.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * {@code DirectoryWatcher} detects files created, modified and deleted in watched
+ * directories. Each directory is registered once no matter how many clients watch it.
+ * A single background thread compares the directory content to the previous snapshot
+ * (see {@code fileweb.watch.interval}) and numbers the detected changes as events.
+ * <p/>
+ * The latest events of a directory are kept in a bounded ring (see
+ * {@code fileweb.watch.queueSize}). Every watcher has only a cursor (i.e. the number of
+ * the last event it has seen) to the ring, so a slow watcher cannot make the server run
+ * out of memory. If a watcher falls so far behind that its events have been overwritten
+ * it gets a resync signal and must list the directory again.
+ * <p/>
+ * A directory is kept registered for a while after the last watcher has left so that
+ * long-polling clients can continue from their cursor.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class DirectoryWatcher
+{
+	private final static String INTERVAL_PROPERTY = "fileweb.watch.interval";
+	private final static String QUEUE_SIZE_PROPERTY = "fileweb.watch.queueSize";
+	private final static long DEFAULT_INTERVAL_MS = 1000;
+	private final static int DEFAULT_QUEUE_SIZE = 1024;
+	private final static long LINGER_MS = 60000;
+	private final static DirectoryWatcher INSTANCE =
+		new DirectoryWatcher(
+			Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MS),
+			Integer.getInteger(QUEUE_SIZE_PROPERTY, DEFAULT_QUEUE_SIZE)
+		);
+
+	public enum EventType { CREATE, MODIFY, DELETE };
+
+
+	private final long _interval;
+	private final int _queueSize;
+	private final ConcurrentMap<String, WatchedDirectory> _directories =
+		new ConcurrentHashMap<String, WatchedDirectory>();
+	private Timer _timer;
+
+
+	/**
+	 * Returns the watcher shared by the whole server.
+	 *
+	 * @return
+	 * 		The directory watcher.
+	 */
+	public static DirectoryWatcher getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	public DirectoryWatcher(long interval, int queueSize)
+	{
+		_interval = interval;
+		_queueSize = queueSize;
+	}
+
+
+	/**
+	 * Starts watching a directory.
+	 *
+	 * @param directory
+	 * 		The directory.
+	 *
+	 * @param since
+	 * 		The number of the last event the client has already seen or -1 to get only
+	 * 		the events happening from now on.
+	 *
+	 * @return
+	 * 		A subscription which must be closed with {@link Subscription#close()}.
+	 *
+	 * @throws IOException
+	 */
+	public Subscription watch(File directory, long since)
+		throws
+			IOException
+	{
+		String key = directory.getCanonicalPath();
+		while(true) {
+			WatchedDirectory watched = _directories.get(key);
+			if(watched == null) {
+				watched = new WatchedDirectory(new File(key), _queueSize);
+				WatchedDirectory existing = _directories.putIfAbsent(key, watched);
+				if(existing != null)
+					watched = existing;
+			}
+			synchronized(watched) {
+				// A directory without watchers may just have been removed by the poller.
+				if(!watched.removed) {
+					watched.numberOfWatchers++;
+					startPolling();
+					return new Subscription(watched, since < 0 ? watched.lastSequence : since);
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the number of directories being watched.
+	 *
+	 * @return
+	 * 		Number of directories.
+	 */
+	public int getNumberOfWatchedDirectories()
+	{
+		return _directories.size();
+	}
+
+
+	private synchronized void startPolling()
+	{
+		if(_timer != null)
+			return;
+
+		_timer = new Timer("fileweb-watch", true);
+		_timer.schedule(
+			new TimerTask() {
+				public void run()
+				{
+					poll();
+				}
+			},
+			_interval,
+			_interval
+		);
+	}
+
+	private void poll()
+	{
+		long now = System.currentTimeMillis();
+		Iterator<WatchedDirectory> it = _directories.values().iterator();
+		while(it.hasNext()) {
+			WatchedDirectory watched = it.next();
+			synchronized(watched) {
+				if(watched.numberOfWatchers == 0 && now - watched.lastUse > LINGER_MS) {
+					watched.removed = true;
+					it.remove();
+					continue;
+				}
+			}
+			watched.poll();
+		}
+	}
+
+
+	/**
+	 * A change in a watched directory.
+	 */
+	public final static class Event
+	{
+		private final long _sequence;
+		private final EventType _type;
+		private final String _name;
+		private final boolean _directory;
+
+		Event(long sequence, EventType type, String name, boolean directory)
+		{
+			_sequence = sequence;
+			_type = type;
+			_name = name;
+			_directory = directory;
+		}
+
+		/**
+		 * Returns the number of the event. Numbers grow by one within a directory.
+		 *
+		 * @return
+		 * 		The event number.
+		 */
+		public long getSequence()
+		{
+			return _sequence;
+		}
+
+		public EventType getType()
+		{
+			return _type;
+		}
+
+		/**
+		 * Returns the name of the changed file (without the directory).
+		 *
+		 * @return
+		 * 		The file name.
+		 */
+		public String getName()
+		{
+			return _name;
+		}
+
+		public boolean isDirectory()
+		{
+			return _directory;
+		}
+	}
+
+
+	/**
+	 * A watcher's cursor to the events of a directory.
+	 */
+	public final static class Subscription
+	{
+		private final WatchedDirectory _watched;
+		private long _sequence;
+		private boolean _closed = false;
+
+		Subscription(WatchedDirectory watched, long sequence)
+		{
+			_watched = watched;
+			_sequence = sequence;
+		}
+
+		/**
+		 * Returns the number of the last event returned by {@link #next(long)}.
+		 *
+		 * @return
+		 * 		The event number.
+		 */
+		public long getSequence()
+		{
+			return _sequence;
+		}
+
+		/**
+		 * Waits for events.
+		 *
+		 * @param timeout
+		 * 		Maximum waiting time in milliseconds.
+		 *
+		 * @return
+		 * 		New events, an empty list if nothing happened during the timeout or
+		 * 		{@code null} if events have been lost and the client must resync. After
+		 * 		a resync signal the subscription continues from the latest event.
+		 *
+		 * @throws InterruptedException
+		 */
+		public List<Event> next(long timeout)
+			throws
+				InterruptedException
+		{
+			long deadline = System.currentTimeMillis() + timeout;
+			synchronized(_watched) {
+				while(_sequence == _watched.lastSequence) {
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0)
+						return new ArrayList<Event>(0);
+					_watched.wait(remaining);
+				}
+				List<Event> events = _watched.eventsAfter(_sequence);
+				_sequence = _watched.lastSequence;
+				return events;
+			}
+		}
+
+		/**
+		 * Stops watching the directory.
+		 */
+		public void close()
+		{
+			synchronized(_watched) {
+				if(!_closed) {
+					_closed = true;
+					_watched.numberOfWatchers--;
+					_watched.lastUse = System.currentTimeMillis();
+				}
+			}
+		}
+	}
+
+
+	private final static class WatchedDirectory
+	{
+		final File directory;
+		int numberOfWatchers = 0;
+		boolean removed = false;
+		long lastUse = System.currentTimeMillis();
+
+		/**
+		 * Event numbers of a directory start from a time based value so that cursors
+		 * given to the clients by an earlier registration are not mistaken as valid.
+		 */
+		final long firstSequence = System.currentTimeMillis() * 1000;
+		long lastSequence = firstSequence;
+		private final Event[] _events;
+		private Map<String, long[]> _snapshot;
+
+		WatchedDirectory(File directory, int queueSize)
+		{
+			this.directory = directory;
+			_events = new Event[Math.max(1, queueSize)];
+			_snapshot = snapshot();
+		}
+
+		private Map<String, long[]> snapshot()
+		{
+			Map<String, long[]> snapshot = new HashMap<String, long[]>();
+			File[] files = directory.listFiles();
+			if(files != null)
+				for(File f : files)
+					// Uploads in progress are reported only when they are complete.
+					if(!UploadSupport.isTemporaryFile(f.getName()))
+						snapshot.put(
+							f.getName(),
+							new long[] { f.length(), f.lastModified(), f.isDirectory() ? 1 : 0 }
+						);
+			return snapshot;
+		}
+
+		/**
+		 * Compares the directory content to the previous snapshot and publishes
+		 * the differences.
+		 */
+		void poll()
+		{
+			Map<String, long[]> snapshot = snapshot();
+			List<Object[]> changes = new ArrayList<Object[]>();
+			for(Map.Entry<String, long[]> entry : snapshot.entrySet()) {
+				long[] previous = _snapshot.get(entry.getKey());
+				long[] current = entry.getValue();
+				if(previous == null)
+					changes.add(new Object[] { EventType.CREATE, entry.getKey(), current });
+				else if(previous[0] != current[0] || previous[1] != current[1])
+					changes.add(new Object[] { EventType.MODIFY, entry.getKey(), current });
+			}
+			for(Map.Entry<String, long[]> entry : _snapshot.entrySet())
+				if(!snapshot.containsKey(entry.getKey()))
+					changes.add(new Object[] { EventType.DELETE, entry.getKey(), entry.getValue() });
+			_snapshot = snapshot;
+			if(!changes.isEmpty())
+				publish(changes);
+		}
+
+		private synchronized void publish(List<Object[]> changes)
+		{
+			for(Object[] change : changes) {
+				long sequence = ++lastSequence;
+				_events[(int)(sequence % _events.length)] =
+					new Event(
+						sequence,
+						(EventType)change[0],
+						(String)change[1],
+						((long[])change[2])[2] == 1
+					);
+			}
+			notifyAll();
+		}
+
+		/**
+		 * Returns the events after a given event or {@code null} if some of them are not
+		 * in the ring anymore (or the cursor is not from this registration).
+		 */
+		List<Event> eventsAfter(long sequence)
+		{
+			long oldest = Math.max(firstSequence + 1, lastSequence - _events.length + 1);
+			if(sequence < oldest - 1 || sequence > lastSequence)
+				return null;
+
+			List<Event> events = new ArrayList<Event>((int)(lastSequence - sequence));
+			for(long s = sequence + 1; s <= lastSequence; s++)
+				events.add(_events[(int)(s % _events.length)]);
+			return events;
+		}
+	}
+}
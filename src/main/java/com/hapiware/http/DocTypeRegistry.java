@@ -0,0 +1,270 @@
+package com.hapiware.http;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+
+/**
+ * {@code DocTypeRegistry} maps file name endings to MIME types and document classes. The
+ * mappings are read from (in this order, later ones override earlier ones):
+ * 	<ol>
+ * 		<li>{@code mime-types.conf} inside of fileweb.jar (fixed endings)</li>
+ * 		<li>{@code application-xml.conf} inside of fileweb.jar</li>
+ * 		<li>{@code plain-text.conf} inside of fileweb.jar</li>
+ * 		<li>an external file given with {@code fileweb.mimeTypes} system property</li>
+ * 	</ol>
+ *
+ * The external file has the same format as {@code mime-types.conf}. It is checked for
+ * changes periodically and it can also be reloaded with {@link #reload()}.
+ * <p/>
+ * The mappings are kept in an immutable snapshot behind a volatile reference. A reload
+ * builds a new snapshot and swaps it in, so lookups never lock.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see HttpResponse.DocType
+ */
+public class DocTypeRegistry
+{
+	private final static Logger LOGGER = Logger.getLogger(DocTypeRegistry.class.getName());
+
+	private final static String FILE_PROPERTY = "fileweb.mimeTypes";
+	private final static String CHECK_INTERVAL_PROPERTY = "fileweb.mimeTypes.checkInterval";
+	private final static long DEFAULT_CHECK_INTERVAL_MS = 5000;
+	private final static Pattern COMMENT_PATTERN = Pattern.compile("^ *#.*");
+	private final static Pattern SEPARATOR_PATTERN = Pattern.compile("\\s+");
+
+	private static volatile Snapshot _snapshot = load();
+	private static long _lastModified;
+	private static long _lastLength;
+	private static Timer _timer;
+
+
+	/**
+	 * Finds the mapping for a file name.
+	 *
+	 * @param fileName
+	 * 		A file name in lower case.
+	 *
+	 * @return
+	 * 		The mapping of the longest matching ending or {@code null} if there is no match.
+	 */
+	public static Mapping lookup(String fileName)
+	{
+		Snapshot snapshot = _snapshot;
+		for(int length : snapshot.endingLengths) {
+			if(length > fileName.length())
+				continue;
+
+			String ending = fileName.substring(fileName.length() - length);
+			Mapping mapping = snapshot.mappings.get(ending);
+			if(mapping != null)
+				return mapping;
+		}
+		return null;
+	}
+
+
+	/**
+	 * Reads all the mappings again and swaps them in.
+	 *
+	 * @return
+	 * 		Number of mapped endings.
+	 */
+	public static synchronized int reload()
+	{
+		_snapshot = load();
+		LOGGER.info("MIME types were loaded. " + _snapshot.mappings.size() + " endings.");
+		return _snapshot.mappings.size();
+	}
+
+
+	/**
+	 * Starts checking the external file for changes in the background. Does nothing if
+	 * the external file has not been configured.
+	 */
+	public static synchronized void startWatching()
+	{
+		if(_timer != null || System.getProperty(FILE_PROPERTY) == null)
+			return;
+
+		long interval = Long.getLong(CHECK_INTERVAL_PROPERTY, DEFAULT_CHECK_INTERVAL_MS);
+		_timer = new Timer("fileweb-mime-types", true);
+		_timer.schedule(
+			new TimerTask() {
+				public void run()
+				{
+					reloadIfChanged();
+				}
+			},
+			interval,
+			interval
+		);
+	}
+
+	private static synchronized void reloadIfChanged()
+	{
+		File file = new File(System.getProperty(FILE_PROPERTY));
+		if(file.lastModified() != _lastModified || file.length() != _lastLength)
+			reload();
+	}
+
+
+	private static synchronized Snapshot load()
+	{
+		Map<String, Mapping> mappings = new HashMap<String, Mapping>();
+		readMappings(resource("mime-types.conf"), "mime-types.conf", mappings, null);
+		readMappings(
+			resource("application-xml.conf"),
+			"application-xml.conf",
+			mappings,
+			new Mapping("xml", "application/xml")
+		);
+		readMappings(
+			resource("plain-text.conf"),
+			"plain-text.conf",
+			mappings,
+			new Mapping("text", "text/plain")
+		);
+
+		String fileName = System.getProperty(FILE_PROPERTY);
+		if(fileName != null) {
+			File file = new File(fileName);
+			_lastModified = file.lastModified();
+			_lastLength = file.length();
+			try {
+				readMappings(new FileInputStream(file), fileName, mappings, null);
+			}
+			catch(IOException e) {
+				LOGGER.log(Level.WARNING, "'" + fileName + "' cannot be read.", e);
+			}
+		}
+		return new Snapshot(mappings);
+	}
+
+	private static InputStream resource(String name)
+	{
+		return Thread.currentThread().getContextClassLoader().getResourceAsStream(name);
+	}
+
+	/**
+	 * Reads mappings from a stream. Each line has an ending and optionally a MIME type and
+	 * a document class. Empty lines and lines starting with {@code #} are skipped.
+	 *
+	 * @param is
+	 * 		The source. Closed after reading.
+	 *
+	 * @param name
+	 * 		The name of the source for logging.
+	 *
+	 * @param mappings
+	 * 		Read mappings are put here.
+	 *
+	 * @param defaultMapping
+	 * 		The mapping for lines having only an ending or {@code null} if lines must have all
+	 * 		the fields.
+	 */
+	private static void readMappings(
+		InputStream is,
+		String name,
+		Map<String, Mapping> mappings,
+		Mapping defaultMapping
+	)
+	{
+		if(is == null) {
+			LOGGER.log(Level.WARNING, "'" + name + "' is missing.");
+			return;
+		}
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(is, "UTF-8"));
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(line.trim().length() == 0 || COMMENT_PATTERN.matcher(line).matches())
+					continue;
+
+				String[] fields = SEPARATOR_PATTERN.split(line.trim());
+				String ending = fields[0].toLowerCase();
+				if(fields.length == 1 && defaultMapping != null)
+					mappings.put(ending, defaultMapping);
+				else if(fields.length == 2)
+					mappings.put(ending, new Mapping("unknown", fields[1]));
+				else if(fields.length == 3)
+					mappings.put(ending, new Mapping(fields[2], fields[1]));
+				else
+					LOGGER.warning("'" + name + "' has an invalid line: " + line);
+			}
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.WARNING, "'" + name + "' cannot be read.", e);
+		}
+		finally {
+			try {
+				is.close();
+			}
+			catch(IOException e) {
+				// Does nothing.
+			}
+		}
+	}
+
+
+	/**
+	 * An immutable mapping from an ending to a document class and a MIME type.
+	 */
+	public final static class Mapping
+	{
+		private final String _documentClass;
+		private final String _mimeType;
+
+		public Mapping(String documentClass, String mimeType)
+		{
+			_documentClass = documentClass;
+			_mimeType = mimeType;
+		}
+
+		public String getDocumentClass()
+		{
+			return _documentClass;
+		}
+
+		public String getMimeType()
+		{
+			return _mimeType;
+		}
+	}
+
+
+	private final static class Snapshot
+	{
+		final Map<String, Mapping> mappings;
+
+		/**
+		 * Distinct ending lengths, longest first.
+		 */
+		final int[] endingLengths;
+
+		Snapshot(Map<String, Mapping> mappings)
+		{
+			this.mappings = Collections.unmodifiableMap(mappings);
+			TreeSet<Integer> lengths = new TreeSet<Integer>(Collections.reverseOrder());
+			for(String ending : mappings.keySet())
+				lengths.add(ending.length());
+			endingLengths = new int[lengths.size()];
+			int i = 0;
+			for(int length : lengths)
+				endingLengths[i++] = length;
+		}
+	}
+}
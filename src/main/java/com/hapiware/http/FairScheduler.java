@@ -0,0 +1,463 @@
+package com.hapiware.http;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * {@code FairScheduler} dispatches accepted connections to an {@link Executor} so that no
+ * single client can monopolise the worker threads.
+ * <p/>
+ * Each client (i.e. IP address) has its own queue of waiting connections. When a worker
+ * becomes available the next connection is taken from the client queues in round-robin
+ * order. A client may have at most {@code maxConnectionsPerClient} connections running at
+ * the same time and at most {@code maxQueuedPerClient} connections waiting. Connections over
+ * the queue limit are rejected. Zero means unlimited for both limits.
+ * <p/>
+ * A connection which has waited longer than {@code maxQueueWait} milliseconds is closed
+ * without handling it, because its client has most likely given up already. A worker
+ * waiting for the next request of a kept-alive connection should check
+ * {@link #hasWaitingConnections(InetAddress)} and close the connection to give its slot
+ * to a waiting connection.
+ * <p/>
+ * The scheduler keeps track of the time connections wait only because all the workers are
+ * taken (i.e. not counting the time a client waits for its own connections) and whether
+ * clients under their own limit have been waiting since the previous check. These tell
+ * {@link ConcurrencyLimiter} if more concurrency would help.
+ * <p/>
+ * All the methods changing the state are synchronized. The concurrency and the counters
+ * can be read without locking.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class FairScheduler
+{
+	private final static Logger LOGGER = Logger.getLogger(FairScheduler.class.getName());
+	private final static long EXPIRY_INTERVAL_MS = 500;
+
+
+	private final Executor _executor;
+	private final Map<InetAddress, ClientQueue> _clients = new HashMap<InetAddress, ClientQueue>();
+	private final LinkedList<ClientQueue> _readyClients = new LinkedList<ClientQueue>();
+	private volatile int _concurrency;
+	private int _maxConnectionsPerClient;
+	private int _maxQueuedPerClient;
+	private long _maxQueueWait;
+	private volatile int _numberOfRunning = 0;
+	private volatile int _numberOfQueued = 0;
+	private volatile long _numberOfRejected = 0;
+	private volatile long _numberOfExpired = 0;
+	private long _blockedWaitNs = 0;
+	private long _numberOfDispatched = 0;
+	private boolean _saturated = false;
+
+
+	/**
+	 * Creates a scheduler.
+	 *
+	 * @param executor
+	 * 		The executor running the connections.
+	 *
+	 * @param concurrency
+	 * 		Maximum number of connections handed to the executor at the same time. This should
+	 * 		be the number of worker threads.
+	 *
+	 * @param maxConnectionsPerClient
+	 * 		Maximum number of running connections per client. Zero means unlimited.
+	 *
+	 * @param maxQueuedPerClient
+	 * 		Maximum number of waiting connections per client. Zero means unlimited.
+	 *
+	 * @param maxQueueWait
+	 * 		Maximum time in milliseconds a connection can wait for a worker before it is
+	 * 		closed. Zero means unlimited.
+	 */
+	public FairScheduler(
+		Executor executor,
+		int concurrency,
+		int maxConnectionsPerClient,
+		int maxQueuedPerClient,
+		long maxQueueWait
+	)
+	{
+		_executor = executor;
+		_concurrency = concurrency;
+		_maxConnectionsPerClient = maxConnectionsPerClient;
+		_maxQueuedPerClient = maxQueuedPerClient;
+		_maxQueueWait = maxQueueWait;
+		Thread thread =
+			new Thread("fileweb-scheduler") {
+				public void run()
+				{
+					expireLoop();
+				}
+			};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Queues a connection task of a client.
+	 *
+	 * @param socket
+	 * 		The accepted connection. It is closed if it waits too long.
+	 *
+	 * @param task
+	 * 		The task handling the connection.
+	 *
+	 * @return
+	 * 		{@code false} if the client has too many waiting connections and the task was
+	 * 		rejected.
+	 *
+	 * @throws RejectedExecutionException
+	 * 		If the executor does not accept new tasks.
+	 */
+	public synchronized boolean submit(Socket socket, Runnable task)
+	{
+		InetAddress client = socket.getInetAddress();
+		ClientQueue clientQueue = _clients.get(client);
+		if(clientQueue == null) {
+			clientQueue = new ClientQueue(client);
+			_clients.put(client, clientQueue);
+		}
+		if(_maxQueuedPerClient > 0 && clientQueue.tasks.size() >= _maxQueuedPerClient) {
+			_numberOfRejected++;
+			return false;
+		}
+
+		clientQueue.tasks.addLast(new Waiting(socket, task));
+		_numberOfQueued++;
+		makeReady(clientQueue);
+		dispatch();
+		return true;
+	}
+
+	private void makeReady(ClientQueue clientQueue)
+	{
+		if(
+			!clientQueue.ready
+			&& !clientQueue.tasks.isEmpty()
+			&& (_maxConnectionsPerClient <= 0 || clientQueue.active < _maxConnectionsPerClient)
+		) {
+			clientQueue.ready = true;
+			clientQueue.readyNs = System.nanoTime();
+			_readyClients.addLast(clientQueue);
+		}
+	}
+
+	private void dispatch()
+	{
+		while(_numberOfRunning < _concurrency && !_readyClients.isEmpty()) {
+			final ClientQueue clientQueue = _readyClients.removeFirst();
+			clientQueue.ready = false;
+			Waiting waiting = clientQueue.tasks.removeFirst();
+			final Runnable task = waiting.task;
+			_numberOfQueued--;
+			// The task has been blocked by the other clients only since both it was queued
+			// and its client was under its own limit.
+			_blockedWaitNs += Math.max(0, System.nanoTime() - Math.max(waiting.queuedNs, clientQueue.readyNs));
+			_numberOfDispatched++;
+			clientQueue.active++;
+			_numberOfRunning++;
+			makeReady(clientQueue);
+			try {
+				_executor.execute(
+					new Runnable() {
+						public void run()
+						{
+							try {
+								task.run();
+							}
+							finally {
+								complete(clientQueue);
+							}
+						}
+					}
+				);
+			}
+			catch(RejectedExecutionException e) {
+				clientQueue.active--;
+				_numberOfRunning--;
+				removeIfIdle(clientQueue);
+				throw e;
+			}
+		}
+		if(!_readyClients.isEmpty())
+			_saturated = true;
+	}
+
+	private synchronized void complete(ClientQueue clientQueue)
+	{
+		clientQueue.active--;
+		_numberOfRunning--;
+		makeReady(clientQueue);
+		removeIfIdle(clientQueue);
+		try {
+			dispatch();
+		}
+		catch(RejectedExecutionException e) {
+			LOGGER.log(Level.FINE, "Queued connections were dropped.", e);
+		}
+	}
+
+	private void removeIfIdle(ClientQueue clientQueue)
+	{
+		if(clientQueue.active == 0 && clientQueue.tasks.isEmpty())
+			_clients.remove(clientQueue.client);
+	}
+
+	private void expireLoop()
+	{
+		while(true) {
+			try {
+				Thread.sleep(EXPIRY_INTERVAL_MS);
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+			for(Socket socket : expire()) {
+				try {
+					socket.close();
+				}
+				catch(IOException e) {
+					// Does nothing.
+				}
+			}
+		}
+	}
+
+	/**
+	 * Removes the connections which have waited too long from the queues.
+	 *
+	 * @return
+	 * 		The sockets of the removed connections. They are closed outside the lock.
+	 */
+	private synchronized List<Socket> expire()
+	{
+		List<Socket> retVal = new ArrayList<Socket>();
+		if(_maxQueueWait <= 0 || _numberOfQueued == 0)
+			return retVal;
+
+		long oldest = System.currentTimeMillis() - _maxQueueWait;
+		Iterator<ClientQueue> clientIterator = _clients.values().iterator();
+		while(clientIterator.hasNext()) {
+			ClientQueue clientQueue = clientIterator.next();
+			// Tasks are in the order they were queued, so the expired ones are first.
+			while(!clientQueue.tasks.isEmpty() && clientQueue.tasks.getFirst().queued < oldest) {
+				retVal.add(clientQueue.tasks.removeFirst().socket);
+				_numberOfQueued--;
+				_numberOfExpired++;
+			}
+			if(clientQueue.tasks.isEmpty()) {
+				if(clientQueue.ready) {
+					clientQueue.ready = false;
+					_readyClients.remove(clientQueue);
+				}
+				if(clientQueue.active == 0)
+					clientIterator.remove();
+			}
+		}
+		if(!retVal.isEmpty())
+			LOGGER.fine(retVal.size() + " connections waited over " + _maxQueueWait + " ms.");
+		return retVal;
+	}
+
+
+	/**
+	 * Checks if a connection is waiting for a slot which would be freed if a connection of
+	 * the given client ended. That is, the client has queued connections of its own or
+	 * the workers are all taken while other clients are waiting.
+	 *
+	 * @param client
+	 * 		The client address.
+	 *
+	 * @return
+	 * 		{@code true} if an idle connection of the client should be closed.
+	 */
+	public synchronized boolean hasWaitingConnections(InetAddress client)
+	{
+		if(!_readyClients.isEmpty())
+			return true;
+
+		ClientQueue clientQueue = _clients.get(client);
+		return clientQueue != null && !clientQueue.tasks.isEmpty();
+	}
+
+
+	/**
+	 * Checks if clients under their own limit have been waiting because all the workers were
+	 * taken since the previous call. A client waiting only for its own connections does not
+	 * count, because more concurrency would not help it.
+	 *
+	 * @return
+	 * 		{@code true} if the concurrency has been the bottleneck.
+	 */
+	public synchronized boolean takeSaturated()
+	{
+		boolean retVal = _saturated;
+		_saturated = !_readyClients.isEmpty();
+		return retVal;
+	}
+
+	/**
+	 * Returns the average time the connections dispatched since the previous call waited
+	 * because all the workers were taken. The time a connection waited for the other
+	 * connections of its own client is not included.
+	 *
+	 * @return
+	 * 		The average wait in nanoseconds or zero if nothing was dispatched.
+	 */
+	public synchronized long takeQueueWait()
+	{
+		long retVal = _numberOfDispatched == 0 ? 0 : _blockedWaitNs / _numberOfDispatched;
+		_blockedWaitNs = 0;
+		_numberOfDispatched = 0;
+		return retVal;
+	}
+
+
+	public int getConcurrency()
+	{
+		return _concurrency;
+	}
+
+	/**
+	 * Changes the maximum number of connections handed to the executor at the same time.
+	 *
+	 * @param concurrency
+	 * 		The new concurrency (at least 1).
+	 */
+	public synchronized void setConcurrency(int concurrency)
+	{
+		_concurrency = Math.max(1, concurrency);
+		dispatch();
+	}
+
+	public synchronized int getMaxConnectionsPerClient()
+	{
+		return _maxConnectionsPerClient;
+	}
+
+	public synchronized void setMaxConnectionsPerClient(int maxConnectionsPerClient)
+	{
+		_maxConnectionsPerClient = maxConnectionsPerClient;
+		for(ClientQueue clientQueue : _clients.values())
+			makeReady(clientQueue);
+		dispatch();
+	}
+
+	public synchronized int getMaxQueuedPerClient()
+	{
+		return _maxQueuedPerClient;
+	}
+
+	public synchronized void setMaxQueuedPerClient(int maxQueuedPerClient)
+	{
+		_maxQueuedPerClient = maxQueuedPerClient;
+	}
+
+	public synchronized long getMaxQueueWait()
+	{
+		return _maxQueueWait;
+	}
+
+	public synchronized void setMaxQueueWait(long maxQueueWait)
+	{
+		_maxQueueWait = maxQueueWait;
+	}
+
+	public int getNumberOfRunning()
+	{
+		return _numberOfRunning;
+	}
+
+	public int getNumberOfQueued()
+	{
+		return _numberOfQueued;
+	}
+
+	public long getNumberOfRejected()
+	{
+		return _numberOfRejected;
+	}
+
+	/**
+	 * Returns the number of connections closed because they waited longer than
+	 * {@code maxQueueWait}.
+	 *
+	 * @return
+	 * 		Number of connections.
+	 */
+	public long getNumberOfExpired()
+	{
+		return _numberOfExpired;
+	}
+
+	public synchronized int getNumberOfClients()
+	{
+		return _clients.size();
+	}
+
+	/**
+	 * Returns the active and the queued connections of each client. The form is:
+	 * <pre>
+	 * 	ADDRESS: active=N, queued=M
+	 * </pre>
+	 *
+	 * @return
+	 * 		A line for each client.
+	 */
+	public synchronized String[] getClientConnections()
+	{
+		List<String> retVal = new ArrayList<String>(_clients.size());
+		for(ClientQueue clientQueue : _clients.values())
+			retVal.add(
+				clientQueue.client.getHostAddress() + ": active=" + clientQueue.active
+					+ ", queued=" + clientQueue.tasks.size()
+			);
+		return retVal.toArray(new String[retVal.size()]);
+	}
+
+
+	private static class ClientQueue
+	{
+		final InetAddress client;
+		final LinkedList<Waiting> tasks = new LinkedList<Waiting>();
+		int active = 0;
+		boolean ready = false;
+		long readyNs = 0;
+
+		ClientQueue(InetAddress client)
+		{
+			this.client = client;
+		}
+	}
+
+
+	private static class Waiting
+	{
+		final Socket socket;
+		final Runnable task;
+		final long queued = System.currentTimeMillis();
+		final long queuedNs = System.nanoTime();
+
+		Waiting(Socket socket, Runnable task)
+		{
+			this.socket = socket;
+			this.task = task;
+		}
+	}
+}
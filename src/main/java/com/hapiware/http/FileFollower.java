@@ -0,0 +1,405 @@
+package com.hapiware.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * {@code FileFollower} delivers bytes appended to growing files (e.g. logs) to any number
+ * of followers. A single background thread polls the sizes of all the followed files
+ * (see {@code fileweb.follow.interval}) and reads the appended bytes once. The bytes are
+ * published as a linked list of {@link Chunk}s which every follower of the file walks
+ * through on its own pace, so the cost of reading a file does not depend on the number
+ * of its followers. Chunks nobody refers to anymore are garbage collected.
+ * <p/>
+ * A follower which cannot keep up (e.g. a slow or throttled client) would keep every
+ * chunk published after its position reachable. When a follower is more than
+ * {@value #MAX_LAG} bytes behind, it is moved forward to the newest chunks and it gets a
+ * gap chunk (see {@link Chunk#isGap()}) telling how many bytes it missed. Notice that
+ * this happens to all the followers if more than that is appended between two polls.
+ * <p/>
+ * If a file shrinks (i.e. it has been truncated or replaced) a truncation chunk is
+ * published and the file is followed again from the beginning.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class FileFollower
+{
+	private final static Logger LOGGER = Logger.getLogger(FileFollower.class.getName());
+
+	private final static String INTERVAL_PROPERTY = "fileweb.follow.interval";
+	private final static long DEFAULT_INTERVAL_MS = 500;
+	private final static int MAX_CHUNK_SIZE = 256 * 1024;
+	private final static long MAX_LAG = 4 * 1024 * 1024;
+	private final static FileFollower INSTANCE =
+		new FileFollower(Long.getLong(INTERVAL_PROPERTY, DEFAULT_INTERVAL_MS));
+
+
+	private final long _interval;
+	private final ConcurrentMap<String, FollowedFile> _files =
+		new ConcurrentHashMap<String, FollowedFile>();
+	private Timer _timer;
+
+
+	/**
+	 * Returns the follower shared by the whole server.
+	 *
+	 * @return
+	 * 		The file follower.
+	 */
+	public static FileFollower getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	public FileFollower(long interval)
+	{
+		_interval = interval;
+	}
+
+
+	/**
+	 * Starts following a file.
+	 *
+	 * @param file
+	 * 		The file.
+	 *
+	 * @return
+	 * 		A subscription which must be closed with {@link Subscription#close()}.
+	 *
+	 * @throws IOException
+	 */
+	public Subscription follow(File file)
+		throws
+			IOException
+	{
+		String key = file.getCanonicalPath();
+		while(true) {
+			FollowedFile followed = _files.get(key);
+			if(followed == null) {
+				followed = new FollowedFile(new File(key));
+				FollowedFile existing = _files.putIfAbsent(key, followed);
+				if(existing != null)
+					followed = existing;
+			}
+			synchronized(followed) {
+				// A file without followers may just have been removed by the poller.
+				if(!followed.removed) {
+					Subscription subscription = new Subscription(followed, followed.last);
+					followed.subscriptions.add(subscription);
+					startPolling();
+					return subscription;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the number of files being followed.
+	 *
+	 * @return
+	 * 		Number of files.
+	 */
+	public int getNumberOfFollowedFiles()
+	{
+		return _files.size();
+	}
+
+
+	private synchronized void startPolling()
+	{
+		if(_timer != null)
+			return;
+
+		_timer = new Timer("fileweb-follow", true);
+		_timer.schedule(
+			new TimerTask() {
+				public void run()
+				{
+					poll();
+				}
+			},
+			_interval,
+			_interval
+		);
+	}
+
+	private void poll()
+	{
+		Iterator<FollowedFile> it = _files.values().iterator();
+		while(it.hasNext()) {
+			FollowedFile followed = it.next();
+			synchronized(followed) {
+				if(followed.subscriptions.isEmpty()) {
+					followed.removed = true;
+					it.remove();
+					continue;
+				}
+			}
+			try {
+				followed.poll();
+			}
+			catch(IOException e) {
+				LOGGER.log(Level.WARNING, "Reading '" + followed.file + "' failed.", e);
+			}
+		}
+	}
+
+
+	/**
+	 * A piece of a followed file. The first chunk of a subscription is an empty chunk
+	 * which only tells where the file ended when the subscription was made.
+	 */
+	public final static class Chunk
+	{
+		private final long _position;
+		private final byte[] _data;
+		private final boolean _truncated;
+		// Bytes published for the file up to the end of this chunk.
+		private final long _sequence;
+		private final long _skipped;
+		private Chunk _next;
+
+		Chunk(long position, byte[] data, boolean truncated, long sequence, long skipped)
+		{
+			_position = position;
+			_data = data;
+			_truncated = truncated;
+			_sequence = sequence;
+			_skipped = skipped;
+		}
+
+		/**
+		 * Returns the file position of the first byte of the data.
+		 *
+		 * @return
+		 * 		The position.
+		 */
+		public long getPosition()
+		{
+			return _position;
+		}
+
+		/**
+		 * Returns the data. The array is shared and must not be modified.
+		 *
+		 * @return
+		 * 		The data.
+		 */
+		public byte[] getData()
+		{
+			return _data;
+		}
+
+		/**
+		 * Checks if the file was truncated. The following chunks start from the beginning
+		 * of the file.
+		 *
+		 * @return
+		 * 		{@code true} if this chunk marks a truncation.
+		 */
+		public boolean isTruncated()
+		{
+			return _truncated;
+		}
+
+		/**
+		 * Checks if the follower was too far behind and chunks were skipped. The
+		 * following chunks start at {@link #getPosition()}.
+		 *
+		 * @return
+		 * 		{@code true} if this chunk marks skipped data.
+		 */
+		public boolean isGap()
+		{
+			return _skipped > 0;
+		}
+
+		/**
+		 * Returns the number of bytes skipped.
+		 *
+		 * @return
+		 * 		Number of bytes. Zero if this is not a gap.
+		 */
+		public long getSkipped()
+		{
+			return _skipped;
+		}
+	}
+
+
+	/**
+	 * A follower's position in the chunk list of a file.
+	 */
+	public final static class Subscription
+	{
+		private final FollowedFile _followed;
+		// Guarded by _followed.
+		private Chunk _current;
+		private long _skipped = 0;
+		private boolean _closed = false;
+
+		Subscription(FollowedFile followed, Chunk current)
+		{
+			_followed = followed;
+			_current = current;
+		}
+
+		/**
+		 * Returns the file position after which the chunks of this subscription start.
+		 *
+		 * @return
+		 * 		The position.
+		 */
+		public long getStartPosition()
+		{
+			return _followed.startPosition(_current);
+		}
+
+		/**
+		 * Waits for the next chunk.
+		 *
+		 * @param timeout
+		 * 		Maximum waiting time in milliseconds.
+		 *
+		 * @return
+		 * 		The next chunk or {@code null} if nothing was appended during the timeout.
+		 *
+		 * @throws InterruptedException
+		 */
+		public Chunk next(long timeout)
+			throws
+				InterruptedException
+		{
+			long deadline = System.currentTimeMillis() + timeout;
+			synchronized(_followed) {
+				if(_skipped > 0) {
+					Chunk gap =
+						new Chunk(
+							_followed.startPosition(_current),
+							new byte[0],
+							false,
+							_current._sequence,
+							_skipped
+						);
+					_skipped = 0;
+					return gap;
+				}
+				while(_current._next == null) {
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0)
+						return null;
+					_followed.wait(remaining);
+				}
+				_current = _current._next;
+				return _current;
+			}
+		}
+
+		/**
+		 * Stops following the file.
+		 */
+		public void close()
+		{
+			synchronized(_followed) {
+				if(!_closed) {
+					_closed = true;
+					_followed.subscriptions.remove(this);
+				}
+			}
+		}
+	}
+
+
+	private final static class FollowedFile
+	{
+		final File file;
+		final List<Subscription> subscriptions = new ArrayList<Subscription>();
+		boolean removed = false;
+		Chunk last;
+		private long _size;
+		private long _published = 0;
+
+		FollowedFile(File file)
+		{
+			this.file = file;
+			_size = file.length();
+			last = new Chunk(_size, new byte[0], false, 0, 0);
+		}
+
+		synchronized long startPosition(Chunk chunk)
+		{
+			return chunk._position + chunk._data.length;
+		}
+
+		/**
+		 * Checks the size of the file and reads the appended bytes. The file is opened only
+		 * if it has changed.
+		 */
+		void poll()
+			throws
+				IOException
+		{
+			long size = file.length();
+			if(size == _size)
+				return;
+
+			if(size < _size) {
+				_size = 0;
+				publish(0, new byte[0], true);
+				if(size == 0)
+					return;
+			}
+
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+			try {
+				size = randomAccessFile.length();
+				while(_size < size) {
+					byte[] data = new byte[(int)Math.min(MAX_CHUNK_SIZE, size - _size)];
+					randomAccessFile.seek(_size);
+					randomAccessFile.readFully(data);
+					publish(_size, data, false);
+					_size += data.length;
+				}
+			}
+			finally {
+				randomAccessFile.close();
+			}
+		}
+
+		/**
+		 * Appends a chunk. Followers lagging more than {@value #MAX_LAG} bytes behind are
+		 * moved to the previous last chunk, so they get the new chunk next and the chunks
+		 * before it can be collected.
+		 */
+		private synchronized void publish(long position, byte[] data, boolean truncated)
+		{
+			_published += data.length;
+			Chunk chunk = new Chunk(position, data, truncated, _published, 0);
+			Chunk previous = last;
+			previous._next = chunk;
+			last = chunk;
+			for(Subscription subscription : subscriptions) {
+				long lag = _published - subscription._current._sequence;
+				if(lag > MAX_LAG) {
+					subscription._skipped += previous._sequence - subscription._current._sequence;
+					subscription._current = previous;
+				}
+			}
+			notifyAll();
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.hapiware.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * {@code FileRegionInputStream} reads a region of a file with positional reads. Because the
+ * position of the {@link FileChannel} is never changed several streams can share the same
+ * channel.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class FileRegionInputStream
+	extends
+		InputStream
+{
+	private final FileChannel _channel;
+	private final long _end;
+	private long _position;
+
+
+	/**
+	 * Creates a stream for a region of a file.
+	 *
+	 * @param channel
+	 * 		The file.
+	 *
+	 * @param position
+	 * 		The position of the first byte.
+	 *
+	 * @param length
+	 * 		The length of the region.
+	 */
+	public FileRegionInputStream(FileChannel channel, long position, long length)
+	{
+		_channel = channel;
+		_position = position;
+		_end = position + length;
+	}
+
+
+	public int read()
+		throws
+			IOException
+	{
+		byte[] b = new byte[1];
+		return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+	}
+
+	public int read(byte[] b, int off, int len)
+		throws
+			IOException
+	{
+		if(len == 0)
+			return 0;
+		if(_position >= _end)
+			return -1;
+
+		int count = (int)Math.min(len, _end - _position);
+		int n = _channel.read(ByteBuffer.wrap(b, off, count), _position);
+		if(n <= 0)
+			return -1;
+		_position += n;
+		return n;
+	}
+
+	public long skip(long n)
+	{
+		long skipped = Math.max(0, Math.min(n, _end - _position));
+		_position += skipped;
+		return skipped;
+	}
+
+	public int available()
+	{
+		return (int)Math.min(Integer.MAX_VALUE, _end - _position);
+	}
+}
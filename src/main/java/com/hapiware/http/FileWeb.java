@@ -3,13 +3,16 @@ package com.hapiware.http;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.channels.ServerSocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -21,6 +24,7 @@ import javax.management.MalformedObjectNameException;
 import javax.management.NotCompliantMBeanException;
 import javax.management.ObjectName;
 import javax.management.ReflectionException;
+import javax.net.ssl.SSLException;
 
 
 
@@ -36,19 +40,79 @@ public class FileWeb
 	private final static Logger LOGGER = Logger.getLogger(FileWeb.class.getName());
 	
 	private final static int CONNECTION_TIMEOUT_MS = 2000;
+	private final static int DEFAULT_READ_TIMEOUT_MS = 30000;
+	private final static int DEFAULT_IDLE_TIMEOUT_MS = 5000;
+	private final static int IDLE_CHECK_INTERVAL_MS = 250;
+	private final static int DEFAULT_ACCEPT_BACKLOG = 50;
+	private final static int MAX_REQUESTS_PER_CONNECTION = 100;
 	private final static int DEFAULT_PORT = 80;
+	private final static int DEFAULT_TLS_PORT = 443;
 	private final static int DEFAULT_NUMBER_OF_THREADS = 20;
 	private final static int MAX_NUMBER_OF_THREADS = 100;
 	private final static String CONTROLLING_NAME = "com.hapiware.http:type=Controlling";
+	private final static String THROTTLING_NAME = "com.hapiware.http:type=Throttling";
+	private final static String SCHEDULING_NAME = "com.hapiware.http:type=Scheduling";
+	private final static String COALESCING_NAME = "com.hapiware.http:type=Coalescing";
+	private final static String UPLOADING_NAME = "com.hapiware.http:type=Uploading";
+	private final static String MIRRORING_NAME = "com.hapiware.http:type=Mirroring";
+	private final static String BUFFER_POOLING_NAME = "com.hapiware.http:type=BufferPooling";
+	private final static String RECORDING_NAME = "com.hapiware.http:type=Recording";
+	private final static String CONCURRENCY_LIMITING_NAME =
+		"com.hapiware.http:type=ConcurrencyLimiting";
+	private final static String GLOBAL_LIMIT_PROPERTY = "fileweb.throttle.global";
+	private final static String PER_CLIENT_LIMIT_PROPERTY = "fileweb.throttle.perClient";
+	private final static String MAX_CONNECTIONS_PROPERTY = "fileweb.client.maxConnections";
+	private final static String MAX_QUEUED_PROPERTY = "fileweb.client.maxQueued";
+	private final static int DEFAULT_MAX_CONNECTIONS_PER_CLIENT = 8;
+	private final static int DEFAULT_MAX_QUEUED_PER_CLIENT = 100;
+	private final static String MAX_QUEUE_WAIT_PROPERTY = "fileweb.client.maxQueueWait";
+	private final static long DEFAULT_MAX_QUEUE_WAIT_MS = 10000;
+	private final static String STALL_TIMEOUT_PROPERTY = "fileweb.send.stallTimeout";
+	private final static String MIN_RATE_PROPERTY = "fileweb.send.minRate";
+	private final static long DEFAULT_STALL_TIMEOUT_S = 60;
+	private final static long DEFAULT_MIN_RATE = 500;
+	private final static String READ_TIMEOUT_PROPERTY = "fileweb.timeout.read";
+	private final static String IDLE_TIMEOUT_PROPERTY = "fileweb.timeout.idle";
+	private final static String ACCEPT_BACKLOG_PROPERTY = "fileweb.acceptBacklog";
+	private final static String ADAPTIVE_PROPERTY = "fileweb.adaptive";
+	private final static String ADAPTIVE_MIN_THREADS_PROPERTY = "fileweb.adaptive.minThreads";
+	private final static int DEFAULT_ADAPTIVE_MIN_THREADS = 4;
+	private final static String HTTP2_PROPERTY = "fileweb.http2";
+	private final static String HTTP2_MAX_STREAMS_PROPERTY = "fileweb.http2.maxConcurrentStreams";
+	private final static int DEFAULT_HTTP2_MAX_STREAMS = 8;
 
 	
-	private final ExecutorService _executorService;
+	private final ThreadPoolExecutor _executorService;
+	private final FairScheduler _scheduler;
+	private final ConcurrencyLimiter _concurrencyLimiter;
 	private final Controller _controller;
+	private final Throttle _throttle;
+	private final SendWatchdog _sendWatchdog;
+	private final TlsSupport _tlsSupport;
+	private final AccessLog _accessLog;
 	private final int _port;
+	private final int _acceptBacklog;
+	private final boolean _http2;
+	private final int _http2MaxStreams;
+	private volatile int _readTimeout;
+	private volatile int _idleTimeout;
 	
 	
 	public static void main(String[] args)
 	{
+		if(args.length > 0 && args[0].equals("sync")) {
+			String[] syncArgs = new String[args.length - 1];
+			System.arraycopy(args, 1, syncArgs, 0, syncArgs.length);
+			DeltaSyncClient.main(syncArgs);
+			return;
+		}
+		if(args.length > 0 && args[0].equals("get")) {
+			String[] getArgs = new String[args.length - 1];
+			System.arraycopy(args, 1, getArgs, 0, getArgs.length);
+			SegmentedDownloader.main(getArgs);
+			return;
+		}
+
 		if(args.length > 2)
 			usageAndExit(-1);
 
@@ -65,7 +129,24 @@ public class FileWeb
 				showVersionAndExit();
 		}
 		
-		int port = DEFAULT_PORT;
+		TlsSupport tlsSupport = null;
+		try {
+			tlsSupport = TlsSupport.fromSystemProperties();
+		}
+		catch(Throwable t) {
+			LOGGER.log(Level.SEVERE, "Cannot initialise TLS", t);
+			System.exit(1);
+		}
+		AccessLog accessLog = null;
+		try {
+			accessLog = AccessLog.fromSystemProperties();
+		}
+		catch(Throwable t) {
+			LOGGER.log(Level.SEVERE, "Cannot open the access log", t);
+			System.exit(1);
+		}
+		
+		int port = tlsSupport == null ? DEFAULT_PORT : DEFAULT_TLS_PORT;
 		int numberOfThreads = DEFAULT_NUMBER_OF_THREADS;
 		if(args.length == 1 || args.length == 2) {
 			try {
@@ -94,7 +175,7 @@ public class FileWeb
 		}
 		
 		try {
-			registerAndStartFileWeb(port, numberOfThreads);
+			registerAndStartFileWeb(port, numberOfThreads, tlsSupport, accessLog);
 		}
 		catch(Throwable t) {
 			LOGGER.log(Level.SEVERE, "Cannot start fileweb", t);
@@ -121,24 +202,154 @@ public class FileWeb
 		System.out.println();
 		System.out.println("Usage: " + fileWeb + " [-? | -h | -help | --help | --version]");
 		System.out.println("       " + fileWeb + " [PORT [NUM_OF_THREADS]]");
+		System.out.println("       " + fileWeb + " sync URL FILE [BLOCK_SIZE]");
+		System.out.println("       " + fileWeb + " get URL TARGET [CONNECTIONS]");
 		System.out.println();
 		System.out.println("       PORT:");
-		System.out.println("           A port number. Default port is " + DEFAULT_PORT + ".");
+		System.out.println(
+			"           A port number. Default port is " + DEFAULT_PORT + " (" + DEFAULT_TLS_PORT
+				+ " with TLS)."
+		);
 		System.out.println();
 		System.out.println("       NUM_OF_THREADS:");
 		System.out.println("           Maximum number of threads in the thread pool (1 - " + MAX_NUMBER_OF_THREADS + ").");
 		System.out.println("           Default number of threads is " + DEFAULT_NUMBER_OF_THREADS + ".");
 		System.out.println();
+		System.out.println("       sync URL FILE [BLOCK_SIZE]:");
+		System.out.println("           Updates a local FILE to the version served at URL by another");
+		System.out.println("           'fileweb' fetching only the changed blocks. Default BLOCK_SIZE is");
+		System.out.println("           " + SignatureCache.DEFAULT_BLOCK_SIZE + " bytes.");
+		System.out.println();
+		System.out.println("       get URL TARGET [CONNECTIONS]:");
+		System.out.println("           Downloads a file or a directory tree (URL ending with '/') from");
+		System.out.println("           another 'fileweb' using CONNECTIONS (1 - " + SegmentedDownloader.MAX_NUMBER_OF_CONNECTIONS + ") parallel range");
+		System.out.println("           requests. Default is " + SegmentedDownloader.DEFAULT_NUMBER_OF_CONNECTIONS + ". An interrupted download is resumed when");
+		System.out.println("           run again.");
+		System.out.println();
+		System.out.println("System properties:");
+		System.out.println("    fileweb.tls.keystore:");
+		System.out.println("           A keystore file for serving HTTPS. If not set plain HTTP is used.");
+		System.out.println("    fileweb.tls.keystorePassword, fileweb.tls.keyPassword:");
+		System.out.println("           Passwords for the keystore and the key.");
+		System.out.println("    fileweb.tls.keystoreType:");
+		System.out.println("           A keystore type (e.g. JKS or PKCS12).");
+		System.out.println("    fileweb.tls.sessionCacheSize, fileweb.tls.sessionTimeout:");
+		System.out.println("           TLS session cache size and session lifetime in seconds.");
+		System.out.println("    fileweb.throttle.global, fileweb.throttle.perClient:");
+		System.out.println("           Bandwidth limits in bytes per second for all the clients together");
+		System.out.println("           and for each client IP. Default is 0 (unlimited).");
+		System.out.println("    fileweb.accessLog:");
+		System.out.println("           An access log file. If not set the access log is not written.");
+		System.out.println("    fileweb.accessLog.format:");
+		System.out.println("           'common' or 'combined' (default) log format.");
+		System.out.println("    fileweb.accessLog.maxSize, fileweb.accessLog.maxFiles:");
+		System.out.println("           The access log is rotated when it is bigger than maxSize bytes");
+		System.out.println("           (default 100 MB) and maxFiles (default 5) rotated logs are kept.");
+		System.out.println("    fileweb.mimeTypes:");
+		System.out.println("           A file with 'ENDING MIME_TYPE DOCUMENT_CLASS' lines overriding the");
+		System.out.println("           built-in file types. The file is reloaded when it changes.");
+		System.out.println("    fileweb.timeout.read, fileweb.timeout.idle:");
+		System.out.println("           Milliseconds to wait for a request from a new connection (default");
+		System.out.println("           " + DEFAULT_READ_TIMEOUT_MS + ") and for the next request of a kept-alive connection");
+		System.out.println("           (default " + DEFAULT_IDLE_TIMEOUT_MS + ").");
+		System.out.println("    fileweb.http2, fileweb.http2.maxConcurrentStreams:");
+		System.out.println("           If 'true' (default), plain HTTP clients can use HTTP/2 with prior");
+		System.out.println("           knowledge. Each connection serves at most maxConcurrentStreams");
+		System.out.println("           requests at the same time (default " + DEFAULT_HTTP2_MAX_STREAMS + ").");
+		System.out.println("    fileweb.acceptBacklog:");
+		System.out.println("           Maximum number of connections waiting to be accepted. Default is " + DEFAULT_ACCEPT_BACKLOG + ".");
+		System.out.println("    fileweb.adaptive, fileweb.adaptive.minThreads:");
+		System.out.println("           If 'true', the number of connections served at the same time is");
+		System.out.println("           adjusted between minThreads (default " + DEFAULT_ADAPTIVE_MIN_THREADS + ") and NUM_OF_THREADS by");
+		System.out.println("           the observed latency and queue wait.");
+		System.out.println("    fileweb.send.stallTimeout:");
+		System.out.println("           Seconds a write to a client can be blocked before the connection is");
+		System.out.println("           closed. Default is " + DEFAULT_STALL_TIMEOUT_S + ", 0 means unlimited.");
+		System.out.println("    fileweb.send.minRate:");
+		System.out.println("           Minimum rate in bytes per second a client must read a response. A");
+		System.out.println("           slower client is disconnected. Default is " + DEFAULT_MIN_RATE + ", 0 means no limit.");
+		System.out.println("    fileweb.client.maxConnections:");
+		System.out.println("           Maximum number of connections a client IP can have served at the same");
+		System.out.println("           time. Default is " + DEFAULT_MAX_CONNECTIONS_PER_CLIENT + ", 0 means unlimited.");
+		System.out.println("    fileweb.client.maxQueued:");
+		System.out.println("           Maximum number of connections a client IP can have waiting. Default is");
+		System.out.println("           " + DEFAULT_MAX_QUEUED_PER_CLIENT + ", 0 means unlimited.");
+		System.out.println("    fileweb.client.maxQueueWait:");
+		System.out.println("           Milliseconds a connection can wait for a thread before it is closed.");
+		System.out.println("           Default is " + DEFAULT_MAX_QUEUE_WAIT_MS + ", 0 means unlimited.");
+		System.out.println("    fileweb.archive.cacheSize:");
+		System.out.println("           Maximum number of archives kept open for '?op=extract'. Default is 16.");
+		System.out.println("    fileweb.checksum.store:");
+		System.out.println("           A file where calculated checksums are kept. Default is");
+		System.out.println("           'fileweb-checksums.txt' in the temporary directory.");
+		System.out.println("    fileweb.checksum.threads, fileweb.checksum.maxEntries:");
+		System.out.println("           Number of threads calculating checksums (default is the number of");
+		System.out.println("           processors, at most 4) and maximum number of stored checksums");
+		System.out.println("           (default 10000).");
+		System.out.println("    fileweb.lineIndex.cacheSize:");
+		System.out.println("           Maximum number of files having a cached line index for '?op=view'.");
+		System.out.println("           Default is 64.");
+		System.out.println("    fileweb.follow.interval:");
+		System.out.println("           How often (ms) followed files are checked for new data. Default is 500.");
+		System.out.println("    fileweb.watch.interval, fileweb.watch.queueSize:");
+		System.out.println("           How often (ms) watched directories are checked for changes (default");
+		System.out.println("           1000) and how many events are kept for slow watchers (default 1024).");
+		System.out.println("    fileweb.upload.users:");
+		System.out.println("           A file with 'USER:PASSWORD' lines. If set, the users can upload files");
+		System.out.println("           with PUT and POST (HTTP Basic authentication).");
+		System.out.println("    fileweb.upload.maxSize:");
+		System.out.println("           Maximum size of an uploaded file in bytes. Default is 1 GB, 0 means");
+		System.out.println("           unlimited.");
+		System.out.println("    fileweb.manifest.threads:");
+		System.out.println("           Number of threads listing directories for ?op=manifest. Default is");
+		System.out.println("           4.");
+		System.out.println("    fileweb.mirror.upstream:");
+		System.out.println("           A base URL of another 'fileweb' (e.g. http://host:8080). If set, the");
+		System.out.println("           files of the upstream are served through a disk cache instead of");
+		System.out.println("           the local directory tree.");
+		System.out.println("    fileweb.mirror.directory, fileweb.mirror.quota:");
+		System.out.println("           The cache directory (default 'fileweb-mirror' in the temp directory)");
+		System.out.println("           and its maximum size in bytes (default 10 GB).");
+		System.out.println("    fileweb.mirror.maxAge:");
+		System.out.println("           Seconds a cached file is served before it is revalidated from the");
+		System.out.println("           upstream. Default is 60.");
+		System.out.println("    fileweb.signature.cacheSize:");
+		System.out.println("           Maximum size in bytes of the block signatures kept in memory for");
+		System.out.println("           ?op=signatures. Default is 64 MB.");
+		System.out.println("    fileweb.bufferPool.maxSize:");
+		System.out.println("           Maximum size in bytes of the pooled I/O buffers. Default is 32 MB.");
+		System.out.println("    fileweb.bufferPool.debug:");
+		System.out.println("           If 'true', buffers not released by the end of a connection are");
+		System.out.println("           logged with the stack trace of their allocation.");
+		System.out.println("    fileweb.metrics.path:");
+		System.out.println("           A path serving the statistics in the Prometheus text format. Default");
+		System.out.println("           is '/metrics', an empty value disables the metrics.");
+		System.out.println("    fileweb.recorder, fileweb.recorder.size:");
+		System.out.println("           If 'true', request events are recorded from the start. Recording");
+		System.out.println("           is controlled and dumped with the Recording MBean. Default size is");
+		System.out.println("           10000 newest events.");
+		System.out.println();
 		System.out.println("Examples:");
 		System.out.println("    " + fileWeb + " -?");
 		System.out.println("    " + fileWeb);
 		System.out.println("    " + fileWeb + " 50001");
 		System.out.println("    " + fileWeb + " 50001 35");
+		System.out.println("    " + fileWeb + " sync http://host:50001/images/disk.img disk.img");
+		System.out.println("    " + fileWeb + " get http://host:50001/builds/ builds 8");
+		System.out.println(
+			"    java -Dfileweb.tls.keystore=fileweb.p12 -Dfileweb.tls.keystorePassword=secret"
+				+ " -jar fileweb.jar 8443"
+		);
 		System.out.println();
 		System.exit(status);
 	}
 	
-	private static void registerAndStartFileWeb(int port, int numberOfThreads)
+	private static void registerAndStartFileWeb(
+		int port,
+		int numberOfThreads,
+		TlsSupport tlsSupport,
+		AccessLog accessLog
+	)
 		throws
 			InstanceAlreadyExistsException,
 			NotCompliantMBeanException,
@@ -148,7 +359,7 @@ public class FileWeb
 			InstanceNotFoundException,
 			MBeanException
 	{
-		FileWeb fileWeb = new FileWeb(port, numberOfThreads);
+		FileWeb fileWeb = new FileWeb(port, numberOfThreads, tlsSupport, accessLog);
 		MBeanServer beanServer = ManagementFactory.getPlatformMBeanServer();
 		ObjectName ControllingName = new ObjectName(CONTROLLING_NAME);
 		beanServer.createMBean(
@@ -157,15 +368,122 @@ public class FileWeb
 			new Object[] { fileWeb.getController() },
 			new String[] { fileWeb.getController().getClass().getName() }
 		);
+		beanServer.createMBean(
+			"com.hapiware.http.jmx.Throttling",
+			new ObjectName(THROTTLING_NAME),
+			new Object[] { fileWeb.getThrottle() },
+			new String[] { fileWeb.getThrottle().getClass().getName() }
+		);
+		beanServer.createMBean(
+			"com.hapiware.http.jmx.Scheduling",
+			new ObjectName(SCHEDULING_NAME),
+			new Object[] { fileWeb.getScheduler() },
+			new String[] { fileWeb.getScheduler().getClass().getName() }
+		);
+		beanServer.createMBean(
+			"com.hapiware.http.jmx.Coalescing",
+			new ObjectName(COALESCING_NAME),
+			new Object[] { RequestCoalescer.getInstance() },
+			new String[] { RequestCoalescer.class.getName() }
+		);
+		beanServer.createMBean(
+			"com.hapiware.http.jmx.Uploading",
+			new ObjectName(UPLOADING_NAME),
+			new Object[] { UploadSupport.getInstance() },
+			new String[] { UploadSupport.class.getName() }
+		);
+		beanServer.createMBean(
+			"com.hapiware.http.jmx.BufferPooling",
+			new ObjectName(BUFFER_POOLING_NAME),
+			new Object[] { BufferPool.getInstance() },
+			new String[] { BufferPool.class.getName() }
+		);
+		beanServer.createMBean(
+			"com.hapiware.http.jmx.Recording",
+			new ObjectName(RECORDING_NAME),
+			new Object[] { FlightRecorder.getInstance() },
+			new String[] { FlightRecorder.class.getName() }
+		);
+		beanServer.createMBean(
+			"com.hapiware.http.jmx.ConcurrencyLimiting",
+			new ObjectName(CONCURRENCY_LIMITING_NAME),
+			new Object[] { fileWeb.getConcurrencyLimiter() },
+			new String[] { ConcurrencyLimiter.class.getName() }
+		);
+		if(MirrorCache.getInstance() != null)
+			beanServer.createMBean(
+				"com.hapiware.http.jmx.Mirroring",
+				new ObjectName(MIRRORING_NAME),
+				new Object[] { MirrorCache.getInstance() },
+				new String[] { MirrorCache.class.getName() }
+			);
 		fileWeb.start();
 	}
 
 	
 	public FileWeb(Integer port, Integer numberOfThreads)
+	{
+		this(port, numberOfThreads, null, null);
+	}
+	
+	public FileWeb(
+		Integer port,
+		Integer numberOfThreads,
+		TlsSupport tlsSupport,
+		AccessLog accessLog
+	)
 	{
 		_port = port;
-		_executorService = Executors.newFixedThreadPool(numberOfThreads);
+		_tlsSupport = tlsSupport;
+		_accessLog = accessLog;
+		_acceptBacklog =
+			Math.max(1, Integer.getInteger(ACCEPT_BACKLOG_PROPERTY, DEFAULT_ACCEPT_BACKLOG));
+		_readTimeout =
+			Math.max(1, Integer.getInteger(READ_TIMEOUT_PROPERTY, DEFAULT_READ_TIMEOUT_MS));
+		_idleTimeout =
+			Math.max(1, Integer.getInteger(IDLE_TIMEOUT_PROPERTY, DEFAULT_IDLE_TIMEOUT_MS));
+		// HTTP/2 needs ALPN over TLS, so only cleartext connections can use it.
+		_http2 =
+			tlsSupport == null && Boolean.parseBoolean(System.getProperty(HTTP2_PROPERTY, "true"));
+		_http2MaxStreams =
+			Math.max(1, Integer.getInteger(HTTP2_MAX_STREAMS_PROPERTY, DEFAULT_HTTP2_MAX_STREAMS));
+		// A fixed pool which can be resized at runtime (see setNumberOfThreads()).
+		_executorService =
+			new ThreadPoolExecutor(
+				numberOfThreads,
+				numberOfThreads,
+				0,
+				TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>()
+			);
+		_scheduler =
+			new FairScheduler(
+				_executorService,
+				numberOfThreads,
+				Integer.getInteger(MAX_CONNECTIONS_PROPERTY, DEFAULT_MAX_CONNECTIONS_PER_CLIENT),
+				Integer.getInteger(MAX_QUEUED_PROPERTY, DEFAULT_MAX_QUEUED_PER_CLIENT),
+				Long.getLong(MAX_QUEUE_WAIT_PROPERTY, DEFAULT_MAX_QUEUE_WAIT_MS)
+			);
+		_concurrencyLimiter =
+			new ConcurrencyLimiter(
+				_scheduler,
+				numberOfThreads,
+				Integer.getInteger(ADAPTIVE_MIN_THREADS_PROPERTY, DEFAULT_ADAPTIVE_MIN_THREADS),
+				Boolean.getBoolean(ADAPTIVE_PROPERTY)
+			);
 		_controller = new Controller(this);
+		_sendWatchdog =
+			new SendWatchdog(
+				_controller,
+				Long.getLong(STALL_TIMEOUT_PROPERTY, DEFAULT_STALL_TIMEOUT_S),
+				Long.getLong(MIN_RATE_PROPERTY, DEFAULT_MIN_RATE)
+			);
+		_throttle =
+			new Throttle(
+				Long.getLong(GLOBAL_LIMIT_PROPERTY, 0),
+				Long.getLong(PER_CLIENT_LIMIT_PROPERTY, 0)
+			);
+		Metrics.getInstance().setFileWeb(this);
 		addHooks();
 	}
 	
@@ -176,6 +494,8 @@ public class FileWeb
 				public void run()
 				{
 					_executorService.shutdown();
+					if(_accessLog != null)
+						_accessLog.close();
 					System.out.println("fileweb shutdown.");
 				}
 			}
@@ -183,74 +503,239 @@ public class FileWeb
 	}
 	
 	
-	private static void handleRequest(Socket socket) throws IOException
+	/**
+	 * Handles requests of a single connection. The connection is kept open (HTTP/1.1
+	 * persistent connection) as long as both the client and the response allow it so that
+	 * the style sheet and the images of a directory listing can be loaded without opening
+	 * a new connection for each of them.
+	 * <p/>
+	 * A cleartext connection starting with the HTTP/2 connection preface is served as an
+	 * HTTP/2 connection (see {@link Http2Connection}).
+	 * 
+	 * @param socket
+	 * 		An accepted client socket.
+	 * 
+	 * @throws IOException
+	 */
+	private void handleRequest(Socket socket) throws IOException
+	{
+		HttpConnection connection = new HttpConnection(socket, _throttle);
+		InputStream is = connection.getInputStream();
+		
+		_sendWatchdog.register(connection);
+		try {
+			for(int i = 1; i <= MAX_REQUESTS_PER_CONNECTION; i++) {
+				if(!awaitRequest(socket, is, i > 1))
+					return;
+				
+				if(i == 1 && _http2 && Http2Connection.hasPreface(is)) {
+					new Http2Connection(this, connection, _http2MaxStreams).serve();
+					return;
+				}
+				if(!serve(connection, i < MAX_REQUESTS_PER_CONNECTION).isKeepAlive())
+					return;
+			}
+		}
+		finally {
+			_sendWatchdog.unregister(connection);
+			connection.release();
+		}
+	}
+	
+	/**
+	 * Reads a request from the connection and writes its response. The response is
+	 * flushed and logged.
+	 * 
+	 * @param connection
+	 * 		The connection of the request. For HTTP/2 this is the connection of a stream.
+	 * 
+	 * @param keepAliveAllowed
+	 * 		{@code true} if the connection can be kept open for the next request.
+	 * 
+	 * @return
+	 * 		The response written.
+	 * 
+	 * @throws IOException
+	 */
+	HttpResponse serve(HttpConnection connection, boolean keepAliveAllowed) throws IOException
+	{
+		_controller.enter();
+		long startTime = System.currentTimeMillis();
+		long startNs = System.nanoTime();
+		long bytesSent = connection.getBytesSent();
+		HttpRequest request = null;
+		HttpResponse response = null;
+		try {
+			long parseNs = FlightRecorder.getInstance().begin();
+			request = new HttpRequest(connection.getInputStream());
+			FlightRecorder.getInstance().commit(
+				FlightRecorder.EventType.PARSE,
+				parseNs,
+				-1,
+				request.getRequestLine()
+			);
+			response = new HttpResponse(request, keepAliveAllowed);
+			response.write(connection);
+			connection.flush();
+			return response;
+		}
+		finally {
+			_controller.exit();
+			HttpStatusCode statusCode = response == null ? null : response.getStatusCode();
+			long responseBytes = connection.getBytesSent() - bytesSent;
+			long durationNs = System.nanoTime() - startNs;
+			Metrics.getInstance().recordResponse(statusCode, durationNs, responseBytes);
+			_concurrencyLimiter.recordRequest(durationNs, responseBytes);
+			if(_accessLog != null)
+				_accessLog.log(
+					connection.getSocket().getInetAddress(),
+					startTime,
+					request,
+					statusCode,
+					responseBytes - (response == null ? 0 : response.getHeaderBytes()),
+					durationNs
+				);
+		}
+	}
+	
+	/**
+	 * Waits for the next request with a blocking read. Notice that for TLS connections
+	 * the first read also runs the handshake.
+	 * <p/>
+	 * Between the requests of a kept-alive connection the thread is idle, so the wait is
+	 * given up as soon as another connection is waiting for the thread (or for the slot
+	 * of the client, see {@link FairScheduler#hasWaitingConnections}).
+	 * The idle timeout is therefore waited in short slices.
+	 * 
+	 * @param socket
+	 * 		The client socket.
+	 * 
+	 * @param is
+	 * 		The input stream of the connection.
+	 * 
+	 * @param keptAlive
+	 * 		{@code true} if the connection has already served a request.
+	 * 
+	 * @return
+	 * 		{@code true} if a request is available, {@code false} if the connection should
+	 * 		be closed.
+	 * 
+	 * @throws IOException
+	 */
+	private boolean awaitRequest(Socket socket, InputStream is, boolean keptAlive)
+		throws
+			IOException
 	{
-		int retries = 60;
-		InputStream is = socket.getInputStream();
-		while(
-			retries > 0
-			&& socket.isConnected()
-			&& !socket.isOutputShutdown() 
-			&& !socket.isInputShutdown()
-		) {
-			if(is.available() > 0) {
-				HttpRequest request = new HttpRequest(is);
-				HttpResponse response = new HttpResponse(request);
-				response.write(socket.getOutputStream());
+		int timeout = keptAlive ? _idleTimeout : _readTimeout;
+		long deadline = System.currentTimeMillis() + timeout;
+		while(true) {
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0) {
+				LOGGER.fine("No request was received in " + timeout + " ms.");
+				return false;
+			}
+			socket.setSoTimeout(
+				(int)(keptAlive ? Math.min(IDLE_CHECK_INTERVAL_MS, remaining) : remaining)
+			);
+			try {
+				is.mark(1);
+				if(is.read() == -1)
+					return false;
+				is.reset();
 				break;
 			}
-			else {
-				retries--;
-				try {
-					Thread.sleep(500);
-				}
-				catch(InterruptedException e) {
-					retries = 0;
+			catch(SocketTimeoutException e) {
+				if(keptAlive && _scheduler.hasWaitingConnections(socket.getInetAddress())) {
+					LOGGER.fine("An idle connection was closed for a waiting connection.");
+					return false;
 				}
 			}
 		}
+		// The short idle timeout is only for waiting the next request. Reading
+		// the rest of the request (e.g. an upload) is allowed to take longer.
+		socket.setSoTimeout(_readTimeout);
+		return true;
 	}
 	
-	private void start()
+	/**
+	 * Creates a server socket. Plain HTTP sockets are created through a channel to make
+	 * zero-copy sending possible.
+	 * 
+	 * @return
+	 * 		A bound server socket.
+	 * 
+	 * @throws IOException
+	 */
+	private ServerSocket createServerSocket()
+		throws
+			IOException
 	{
-		LOGGER.info("fileweb started.");
+		if(_tlsSupport != null)
+			return _tlsSupport.createServerSocket(_port, _acceptBacklog);
+		
+		ServerSocket serverSocket = ServerSocketChannel.open().socket();
+		serverSocket.bind(new InetSocketAddress(_port), _acceptBacklog);
+		return serverSocket;
+	}
+	
+	void start()
+	{
+		LOGGER.info("fileweb started" + (_tlsSupport == null ? "." : " with TLS."));
+		DocTypeRegistry.startWatching();
 		try {
-			ServerSocket serverSocket = new ServerSocket(_port);
+			ServerSocket serverSocket = createServerSocket();
 			serverSocket.setSoTimeout(CONNECTION_TIMEOUT_MS);
 			while(!_executorService.isShutdown()) {
 				try {
 					final Socket socket = serverSocket.accept();
-					_executorService.execute(
+					final long recordedNs = FlightRecorder.getInstance().begin();
+					Runnable task =
 						new Runnable() {
 							public void run()
 							{
+								FlightRecorder.getInstance().commit(
+									FlightRecorder.EventType.ACCEPT,
+									recordedNs,
+									-1,
+									socket.getInetAddress()
+								);
 								try {
-									_controller.enter();
 									handleRequest(socket);
 								}
 								catch(SocketException e) {
 									LOGGER.log(Level.FINE, "Protocol problem.", e);
 								}
+								catch(SSLException e) {
+									LOGGER.log(Level.FINE, "TLS problem.", e);
+								}
 								catch(RuntimeException e) {
 									_controller.registerError();
+									recordError(e);
 									throw e;
 								}
 								catch(Throwable t) {
 									_controller.registerError();
+									recordError(t);
 									LOGGER.log(Level.WARNING, "", t);
 								}
 								finally {
-									_controller.exit();
-									try {
-										socket.close();
-									}
-									catch(IOException e) {
-										// Does nothing.
-									}
+									close(socket);
+									BufferPool.getInstance().checkLeaks();
 								}
 							}
+						};
+					try {
+						if(!_scheduler.submit(socket, task)) {
+							LOGGER.fine(
+								"Too many connections from " + socket.getInetAddress() + "."
+							);
+							close(socket);
 						}
-					);
+					}
+					catch(RejectedExecutionException e) {
+						close(socket);
+						throw e;
+					}
 				}
 				catch(RejectedExecutionException e) {
 					if(!_executorService.isShutdown())
@@ -266,6 +751,22 @@ public class FileWeb
 		}
 	}
 	
+	private static void recordError(Throwable t)
+	{
+		FlightRecorder recorder = FlightRecorder.getInstance();
+		recorder.commit(FlightRecorder.EventType.ERROR, recorder.begin(), -1, t);
+	}
+	
+	private static void close(Socket socket)
+	{
+		try {
+			socket.close();
+		}
+		catch(IOException e) {
+			// Does nothing.
+		}
+	}
+	
 	public void stop()
 	{
 		_executorService.shutdown();
@@ -276,4 +777,97 @@ public class FileWeb
 	{
 		return _controller;
 	}
+	
+	public Throttle getThrottle()
+	{
+		return _throttle;
+	}
+	
+	public FairScheduler getScheduler()
+	{
+		return _scheduler;
+	}
+	
+	public SendWatchdog getSendWatchdog()
+	{
+		return _sendWatchdog;
+	}
+	
+	public ConcurrencyLimiter getConcurrencyLimiter()
+	{
+		return _concurrencyLimiter;
+	}
+	
+	public int getNumberOfThreads()
+	{
+		return _executorService.getCorePoolSize();
+	}
+	
+	/**
+	 * Resizes the thread pool. Connections being served are not interrupted, so extra
+	 * threads end when they become idle.
+	 * 
+	 * @param numberOfThreads
+	 * 		The new number of threads (1 - {@value #MAX_NUMBER_OF_THREADS}).
+	 * 
+	 * @throws IllegalArgumentException
+	 * 		If the number of threads is out of range.
+	 */
+	public synchronized void setNumberOfThreads(int numberOfThreads)
+	{
+		if(numberOfThreads < 1 || numberOfThreads > MAX_NUMBER_OF_THREADS)
+			throw
+				new IllegalArgumentException(
+					"Number of threads must be something between 1 - " + MAX_NUMBER_OF_THREADS + "."
+				);
+		
+		// The maximum size cannot be smaller than the core size at any moment.
+		if(numberOfThreads > _executorService.getMaximumPoolSize()) {
+			_executorService.setMaximumPoolSize(numberOfThreads);
+			_executorService.setCorePoolSize(numberOfThreads);
+		}
+		else {
+			_executorService.setCorePoolSize(numberOfThreads);
+			_executorService.setMaximumPoolSize(numberOfThreads);
+		}
+		_concurrencyLimiter.setMaxLimit(numberOfThreads);
+		LOGGER.info("The number of threads was set to " + numberOfThreads + ".");
+	}
+	
+	/**
+	 * Returns the number of threads alive in the pool. This can be bigger than
+	 * {@link #getNumberOfThreads()} for a while after the pool has been shrunk.
+	 * 
+	 * @return
+	 * 		Number of threads.
+	 */
+	public int getPoolSize()
+	{
+		return _executorService.getPoolSize();
+	}
+	
+	public int getReadTimeout()
+	{
+		return _readTimeout;
+	}
+	
+	public void setReadTimeout(int readTimeout)
+	{
+		_readTimeout = Math.max(1, readTimeout);
+	}
+	
+	public int getIdleTimeout()
+	{
+		return _idleTimeout;
+	}
+	
+	public void setIdleTimeout(int idleTimeout)
+	{
+		_idleTimeout = Math.max(1, idleTimeout);
+	}
+	
+	public int getAcceptBacklog()
+	{
+		return _acceptBacklog;
+	}
 }
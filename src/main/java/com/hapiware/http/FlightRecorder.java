@@ -0,0 +1,296 @@
+package com.hapiware.http;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * {@code FlightRecorder} records the life cycle of requests (accepting, parsing, routing,
+ * listing rendering, file sending, peeking and errors) as timed events to a ring buffer in
+ * memory. The newest events can be dumped to a file at any time, for example right after
+ * a stall, and lined up with the GC log by their timestamps.
+ * <p/>
+ * The recorder is meant to be left on in production. Recording an event only creates a
+ * small object and stores it to the ring buffer without locking and nothing is formatted
+ * before the dump. When the recorder is stopped, the cost is a single volatile read per
+ * event. Recording is started with {@code fileweb.recorder} or with the
+ * {@code com.hapiware.http:type=Recording} MBean, and the size of the ring buffer is
+ * set with {@code fileweb.recorder.size}.
+ * <p/>
+ * Usage:
+ * <pre>
+ * 	FlightRecorder recorder = FlightRecorder.getInstance();
+ * 	long startNs = recorder.begin();
+ * 	...
+ * 	recorder.commit(FlightRecorder.EventType.SEND, startNs, bytes, path);
+ * </pre>
+ *
+ * {@link #begin()} returns zero when the recorder is stopped, so a caller can skip
+ * building the detail of an event that will not be recorded.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class FlightRecorder
+{
+	private final static String RECORDING_PROPERTY = "fileweb.recorder";
+	private final static String SIZE_PROPERTY = "fileweb.recorder.size";
+	private final static int DEFAULT_SIZE = 10000;
+	private final static FlightRecorder INSTANCE =
+		new FlightRecorder(
+			Math.max(1, Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE)),
+			Boolean.getBoolean(RECORDING_PROPERTY)
+		);
+
+
+	/**
+	 * The recorded events.
+	 */
+	public static enum EventType
+	{
+		/**
+		 * A connection was accepted. The duration is the time the connection waited for
+		 * a thread.
+		 */
+		ACCEPT,
+
+		/**
+		 * The request line and the header fields were read.
+		 */
+		PARSE,
+
+		/**
+		 * A whole response. The detail tells the handler, the status code and the path.
+		 */
+		ROUTE,
+
+		/**
+		 * An HTML listing of a directory or an archive was created.
+		 */
+		LISTING,
+
+		/**
+		 * A file (or a range of it) was sent.
+		 */
+		SEND,
+
+		/**
+		 * The content of an archive was listed for {@code ?op=peek}.
+		 */
+		PEEK,
+
+		/**
+		 * An error page was sent or handling a connection failed.
+		 */
+		ERROR;
+	}
+
+
+	private final AtomicReferenceArray<Event> _events;
+	private final AtomicLong _numberOfEvents = new AtomicLong();
+	private volatile boolean _recording;
+
+
+	/**
+	 * Returns the recorder shared by the whole server.
+	 *
+	 * @return
+	 * 		The recorder.
+	 */
+	public static FlightRecorder getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	/**
+	 * Creates a recorder.
+	 *
+	 * @param size
+	 * 		The number of the newest events kept.
+	 *
+	 * @param recording
+	 * 		{@code true} to start recording right away.
+	 */
+	public FlightRecorder(int size, boolean recording)
+	{
+		_events = new AtomicReferenceArray<Event>(size);
+		_recording = recording;
+	}
+
+
+	/**
+	 * Marks the start of a timed event.
+	 *
+	 * @return
+	 * 		The start time for {@link #commit(EventType, long, long, Object)} or zero if
+	 * 		the recorder is stopped.
+	 */
+	public long begin()
+	{
+		return _recording ? System.nanoTime() : 0;
+	}
+
+
+	/**
+	 * Records an event. Nothing is recorded if the recorder was stopped when the event
+	 * began or it has been stopped since.
+	 *
+	 * @param type
+	 * 		The type of the event.
+	 *
+	 * @param startNs
+	 * 		The start time returned by {@link #begin()}.
+	 *
+	 * @param bytes
+	 * 		The number of bytes handled or -1 if not relevant.
+	 *
+	 * @param detail
+	 * 		A short description (e.g. the path) or {@code null}. {@code toString()} is
+	 * 		called only when the dump is written.
+	 */
+	public void commit(EventType type, long startNs, long bytes, Object detail)
+	{
+		if(startNs == 0 || !_recording)
+			return;
+
+		long now = System.nanoTime();
+		long sequence = _numberOfEvents.getAndIncrement();
+		_events.set(
+			(int)(sequence % _events.length()),
+			new Event(
+				type,
+				System.currentTimeMillis(),
+				now - startNs,
+				Thread.currentThread().getName(),
+				bytes,
+				detail
+			)
+		);
+	}
+
+
+	/**
+	 * Writes the recorded events, oldest first, to a file as tab separated lines:
+	 * the end time, the type, the duration in milliseconds, the thread, the number of bytes
+	 * and the detail.
+	 *
+	 * @param file
+	 * 		The target file. An existing file is overwritten.
+	 *
+	 * @return
+	 * 		The number of events written.
+	 *
+	 * @throws IOException
+	 * 		If the file cannot be written.
+	 */
+	public int dump(File file)
+		throws
+			IOException
+	{
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+		long last = _numberOfEvents.get();
+		long first = Math.max(0, last - _events.length());
+		int numberOfWritten = 0;
+		Writer writer =
+			new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+		try {
+			for(long i = first; i < last; i++) {
+				Event event = _events.get((int)(i % _events.length()));
+				if(event == null)
+					continue;
+				writer.write(format.format(new Date(event._time)));
+				writer.write('\t');
+				writer.write(event._type.name());
+				writer.write('\t');
+				writer.write(String.format("%.3f", event._durationNs / 1000000.0));
+				writer.write('\t');
+				writer.write(event._thread);
+				writer.write('\t');
+				writer.write(event._bytes < 0 ? "-" : Long.toString(event._bytes));
+				writer.write('\t');
+				writer.write(event._detail == null ? "-" : event._detail.toString());
+				writer.write('\n');
+				numberOfWritten++;
+			}
+		}
+		finally {
+			writer.close();
+		}
+		return numberOfWritten;
+	}
+
+
+	public boolean isRecording()
+	{
+		return _recording;
+	}
+
+	public void start()
+	{
+		_recording = true;
+	}
+
+	public void stop()
+	{
+		_recording = false;
+	}
+
+	/**
+	 * Forgets all the recorded events.
+	 */
+	public void clear()
+	{
+		for(int i = 0; i < _events.length(); i++)
+			_events.set(i, null);
+	}
+
+	public int getSize()
+	{
+		return _events.length();
+	}
+
+	/**
+	 * Returns the number of events recorded since the server was started. Only the
+	 * newest {@link #getSize()} events are kept.
+	 *
+	 * @return
+	 * 		Number of events.
+	 */
+	public long getNumberOfEvents()
+	{
+		return _numberOfEvents.get();
+	}
+
+
+	/**
+	 * A recorded event.
+	 */
+	private final static class Event
+	{
+		private final EventType _type;
+		private final long _time;
+		private final long _durationNs;
+		private final String _thread;
+		private final long _bytes;
+		private final Object _detail;
+
+		Event(EventType type, long time, long durationNs, String thread, long bytes, Object detail)
+		{
+			_type = type;
+			_time = time;
+			_durationNs = Math.max(0, durationNs);
+			_thread = thread;
+			_bytes = bytes;
+			_detail = detail;
+		}
+	}
+}
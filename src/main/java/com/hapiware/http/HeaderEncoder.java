@@ -0,0 +1,299 @@
+package com.hapiware.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+
+/**
+ * {@code HeaderEncoder} writes HTTP response header lines as US-ASCII bytes. Status lines and
+ * fixed header lines are encoded once and written from pre-encoded templates. The
+ * {@code Date} header line is formatted (RFC 1123) at most once per second and shared by all
+ * the threads. Header lines with a variable value are encoded straight to the stream without
+ * creating intermediate {@code String}s.
+ * <p/>
+ * Field names and values often come from file names, so control characters (e.g. CR and
+ * LF) are replaced with {@code ?} like non US-ASCII characters. This way a value can never
+ * end the header line and add header fields of its own.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public final class HeaderEncoder
+{
+	private final static String HTTP_VERSION = "HTTP/1.1";
+	private final static int MAX_CACHED_LINES = 256;
+
+	public final static byte[] CRLF = encode("\r\n");
+	public final static byte[] SERVER = encode("Server: FileWeb/1.0 (Java/5.0)\r\n");
+	public final static byte[] CONNECTION_CLOSE = encode("Connection: close\r\n");
+	public final static byte[] CONNECTION_KEEP_ALIVE = encode("Connection: keep-alive\r\n");
+	public final static byte[] ALLOW = allowLine(HttpRequest.SupportedRequestMethod.values());
+	public final static byte[] ALLOW_GET = allowLine(HttpRequest.SupportedRequestMethod.GET);
+
+	private final static byte[][] STATUS_LINES = statusLines();
+	private final static byte[] CONTENT_LENGTH = encode("Content-Length: ");
+	private final static ConcurrentMap<String, byte[]> CACHED_LINES =
+		new ConcurrentHashMap<String, byte[]>();
+
+	private static volatile DateLine _dateLine = new DateLine(0, null);
+
+
+	private HeaderEncoder()
+	{
+		// Static methods only.
+	}
+
+
+	private static byte[] encode(String value)
+	{
+		byte[] bytes = new byte[value.length()];
+		for(int i = 0; i < bytes.length; i++) {
+			char c = value.charAt(i);
+			bytes[i] = (byte)(c < 128 ? c : '?');
+		}
+		return bytes;
+	}
+
+	private static byte[][] statusLines()
+	{
+		HttpStatusCode[] statusCodes = HttpStatusCode.values();
+		byte[][] retVal = new byte[statusCodes.length][];
+		for(HttpStatusCode statusCode : statusCodes)
+			retVal[statusCode.ordinal()] =
+				encode(
+					HTTP_VERSION + " " + statusCode.getStatusCode() + " "
+						+ statusCode.getReasonPhrase() + "\r\n"
+				);
+		return retVal;
+	}
+
+	private static char toAscii(char c)
+	{
+		return (c >= ' ' && c < 127) || c == '\t' ? c : '?';
+	}
+
+	private static String toAscii(String value)
+	{
+		StringBuilder retVal = new StringBuilder(value.length());
+		for(int i = 0; i < value.length(); i++)
+			retVal.append(toAscii(value.charAt(i)));
+		return retVal.toString();
+	}
+
+	private static byte[] allowLine(HttpRequest.SupportedRequestMethod... m)
+	{
+		StringBuilder line = new StringBuilder("Allow: ");
+		for(int i = 0; i < m.length; i++) {
+			if(i > 0)
+				line.append(", ");
+			line.append(m[i]);
+		}
+		return encode(line.append("\r\n").toString());
+	}
+
+
+	/**
+	 * Writes a status line (e.g. {@code HTTP/1.1 200 OK}).
+	 *
+	 * @param os
+	 * 		The target stream.
+	 *
+	 * @param statusCode
+	 * 		The status code.
+	 *
+	 * @throws IOException
+	 */
+	public static void writeStatusLine(OutputStream os, HttpStatusCode statusCode)
+		throws
+			IOException
+	{
+		os.write(STATUS_LINES[statusCode.ordinal()]);
+	}
+
+
+	/**
+	 * Writes the {@code Date} header line for the current second.
+	 *
+	 * @param os
+	 * 		The target stream.
+	 *
+	 * @throws IOException
+	 */
+	public static void writeDate(OutputStream os)
+		throws
+			IOException
+	{
+		long second = System.currentTimeMillis() / 1000;
+		DateLine dateLine = _dateLine;
+		if(dateLine.second != second) {
+			dateLine =
+				new DateLine(second, encode("Date: " + formatDate(second * 1000) + "\r\n"));
+			_dateLine = dateLine;
+		}
+		os.write(dateLine.line);
+	}
+
+
+	/**
+	 * Formats a time as an RFC 1123 date (e.g. {@code Sun, 06 Nov 1994 08:49:37 GMT}).
+	 *
+	 * @param time
+	 * 		Time in milliseconds.
+	 *
+	 * @return
+	 * 		The formatted date.
+	 */
+	public static String formatDate(long time)
+	{
+		SimpleDateFormat format =
+			new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(time));
+	}
+
+
+	/**
+	 * Parses an RFC 1123 date (e.g. the value of {@code If-Modified-Since}).
+	 *
+	 * @param date
+	 * 		The date.
+	 *
+	 * @return
+	 * 		Time in milliseconds or -1 if the date cannot be parsed.
+	 */
+	public static long parseDate(String date)
+	{
+		SimpleDateFormat format =
+			new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		try {
+			return format.parse(date.trim()).getTime();
+		}
+		catch(ParseException e) {
+			return -1;
+		}
+	}
+
+
+	/**
+	 * Writes a {@code Content-Length} header line.
+	 *
+	 * @param os
+	 * 		The target stream.
+	 *
+	 * @param contentLength
+	 * 		The content length.
+	 *
+	 * @throws IOException
+	 */
+	public static void writeContentLength(OutputStream os, long contentLength)
+		throws
+			IOException
+	{
+		os.write(CONTENT_LENGTH);
+		writeNumber(os, contentLength);
+		os.write(CRLF);
+	}
+
+
+	/**
+	 * Writes a header line whose value comes from a small set of values (e.g. MIME types).
+	 * The encoded line is cached.
+	 *
+	 * @param os
+	 * 		The target stream.
+	 *
+	 * @param name
+	 * 		The field name.
+	 *
+	 * @param value
+	 * 		The field value.
+	 *
+	 * @throws IOException
+	 */
+	public static void writeCachedField(OutputStream os, String name, String value)
+		throws
+			IOException
+	{
+		String key = name + ':' + value;
+		byte[] line = CACHED_LINES.get(key);
+		if(line == null) {
+			line = encode(toAscii(name) + ": " + toAscii(value) + "\r\n");
+			if(CACHED_LINES.size() < MAX_CACHED_LINES)
+				CACHED_LINES.putIfAbsent(key, line);
+		}
+		os.write(line);
+	}
+
+
+	/**
+	 * Writes a header line with an arbitrary value. Non US-ASCII and control characters
+	 * are replaced with {@code ?}.
+	 *
+	 * @param os
+	 * 		The target stream.
+	 *
+	 * @param name
+	 * 		The field name.
+	 *
+	 * @param value
+	 * 		The field value.
+	 *
+	 * @throws IOException
+	 */
+	public static void writeField(OutputStream os, String name, String value)
+		throws
+			IOException
+	{
+		writeAscii(os, name);
+		os.write(':');
+		os.write(' ');
+		writeAscii(os, value);
+		os.write(CRLF);
+	}
+
+	private static void writeAscii(OutputStream os, String value)
+		throws
+			IOException
+	{
+		for(int i = 0; i < value.length(); i++)
+			os.write(toAscii(value.charAt(i)));
+	}
+
+	private static void writeNumber(OutputStream os, long number)
+		throws
+			IOException
+	{
+		if(number < 0) {
+			os.write('-');
+			number = -number;
+		}
+		long divisor = 1;
+		while(number / divisor >= 10)
+			divisor *= 10;
+		while(divisor > 0) {
+			os.write('0' + (int)(number / divisor % 10));
+			divisor /= 10;
+		}
+	}
+
+
+	private final static class DateLine
+	{
+		final long second;
+		final byte[] line;
+
+		DateLine(long second, byte[] line)
+		{
+			this.second = second;
+			this.line = line;
+		}
+	}
+}
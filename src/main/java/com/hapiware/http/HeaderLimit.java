@@ -0,0 +1,75 @@
+package com.hapiware.http;
+
+import java.io.IOException;
+
+
+/**
+ * {@code HeaderLimit} limits the number of lines and the total size of a block of header
+ * fields. The same limits are used for the request header ({@link HttpRequest}), the part
+ * headers of a multipart body ({@link MultipartReader}) and the trailer of a chunked body
+ * ({@link ChunkedInputStream}), so that a client cannot make the server read header lines
+ * forever. A new {@code HeaderLimit} is used for each block.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class HeaderLimit
+{
+	public final static int MAX_NUMBER_OF_LINES = 100;
+	public final static int MAX_SIZE = 64 * 1024;
+
+
+	private int _numberOfLines = 0;
+	private int _size = 0;
+
+
+	/**
+	 * Counts a line of the block.
+	 *
+	 * @param length
+	 * 		The length of the line in bytes including the line terminator.
+	 *
+	 * @throws ExceededException
+	 * 		If the block has too many lines or it is too big.
+	 */
+	public void addLine(int length)
+		throws
+			ExceededException
+	{
+		_numberOfLines++;
+		_size += length;
+		if(_numberOfLines > MAX_NUMBER_OF_LINES)
+			throw new ExceededException("More than " + MAX_NUMBER_OF_LINES + " header lines.");
+		if(_size > MAX_SIZE)
+			throw new ExceededException("Header lines are bigger than " + MAX_SIZE + " bytes.");
+	}
+
+
+	/**
+	 * Returns the number of bytes the rest of the block can have.
+	 *
+	 * @return
+	 * 		Number of bytes.
+	 */
+	public int getRemaining()
+	{
+		return MAX_SIZE - _size;
+	}
+
+
+	/**
+	 * Thrown when a block of header fields is over the limits. The request should be
+	 * answered with {@code 400 Bad Request}.
+	 */
+	public static class ExceededException
+		extends
+			IOException
+	{
+		private final static long serialVersionUID = 1L;
+
+		public ExceededException(String message)
+		{
+			super(message);
+		}
+	}
+}
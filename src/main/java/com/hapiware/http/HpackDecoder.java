@@ -0,0 +1,429 @@
+package com.hapiware.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+
+/**
+ * {@code HpackDecoder} decodes HTTP/2 header blocks compressed with HPACK (RFC 7541). Every
+ * connection has its own decoder because the dynamic table is shared by all the header
+ * blocks of the connection, so all of them must be decoded in the order they were received
+ * even if the stream is refused.
+ * <p/>
+ * Names and values are returned as ISO-8859-1 strings, that is, one character for each
+ * octet, the same way {@link HttpRequest} reads HTTP/1.1 header fields.
+ * <p/>
+ * The decoded size of a header block is limited because a small block can refer to big
+ * entries of the dynamic table again and again.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class HpackDecoder
+{
+	public final static int DEFAULT_TABLE_SIZE = 4096;
+
+	private final static String CHARSET = "ISO-8859-1";
+	private final static int ENTRY_OVERHEAD = 32;
+	private final static int EOS = 256;
+
+	private final static String[][] STATIC_TABLE = {
+		{ ":authority", "" },
+		{ ":method", "GET" },
+		{ ":method", "POST" },
+		{ ":path", "/" },
+		{ ":path", "/index.html" },
+		{ ":scheme", "http" },
+		{ ":scheme", "https" },
+		{ ":status", "200" },
+		{ ":status", "204" },
+		{ ":status", "206" },
+		{ ":status", "304" },
+		{ ":status", "400" },
+		{ ":status", "404" },
+		{ ":status", "500" },
+		{ "accept-charset", "" },
+		{ "accept-encoding", "gzip, deflate" },
+		{ "accept-language", "" },
+		{ "accept-ranges", "" },
+		{ "accept", "" },
+		{ "access-control-allow-origin", "" },
+		{ "age", "" },
+		{ "allow", "" },
+		{ "authorization", "" },
+		{ "cache-control", "" },
+		{ "content-disposition", "" },
+		{ "content-encoding", "" },
+		{ "content-language", "" },
+		{ "content-length", "" },
+		{ "content-location", "" },
+		{ "content-range", "" },
+		{ "content-type", "" },
+		{ "cookie", "" },
+		{ "date", "" },
+		{ "etag", "" },
+		{ "expect", "" },
+		{ "expires", "" },
+		{ "from", "" },
+		{ "host", "" },
+		{ "if-match", "" },
+		{ "if-modified-since", "" },
+		{ "if-none-match", "" },
+		{ "if-range", "" },
+		{ "if-unmodified-since", "" },
+		{ "last-modified", "" },
+		{ "link", "" },
+		{ "location", "" },
+		{ "max-forwards", "" },
+		{ "proxy-authenticate", "" },
+		{ "proxy-authorization", "" },
+		{ "range", "" },
+		{ "referer", "" },
+		{ "refresh", "" },
+		{ "retry-after", "" },
+		{ "server", "" },
+		{ "set-cookie", "" },
+		{ "strict-transport-security", "" },
+		{ "transfer-encoding", "" },
+		{ "user-agent", "" },
+		{ "vary", "" },
+		{ "via", "" },
+		{ "www-authenticate", "" }
+	};
+
+	/**
+	 * Huffman codes of the symbols 0 - 255 and EOS (RFC 7541, Appendix B). The codes are
+	 * aligned to the right.
+	 */
+	private final static int[] HUFFMAN_CODES = {
+		0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+		0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+		0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+		0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+		0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+		0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+		0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+		0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+		0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+		0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+		0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+		0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+		0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+		0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+		0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+		0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+		0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+		0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+		0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+		0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+		0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+		0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+		0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+		0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+		0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+		0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+		0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+		0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+		0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+		0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+		0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+		0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+		0x3fffffff
+	};
+	private final static byte[] HUFFMAN_LENGTHS = {
+		13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+		28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+		6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+		5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+		13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+		7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+		15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+		6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+		20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+		24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+		22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+		21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+		26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+		19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+		20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+		26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+		30
+	};
+
+	/**
+	 * The decoding tree of the Huffman code. Node {@code n} has its children at
+	 * {@code 2 * n} (bit 0) and {@code 2 * n + 1} (bit 1). A child is either another node
+	 * (a positive number) or a symbol ({@code -1 - symbol}). Zero means no child.
+	 */
+	private final static int[] HUFFMAN_TREE = buildHuffmanTree();
+
+
+	private final int _maxHeaderListSize;
+	private final LinkedList<String[]> _dynamicTable = new LinkedList<String[]>();
+	private final int _maxTableSize;
+	private int _tableCapacity;
+	private int _tableSize = 0;
+
+
+	/**
+	 * Creates a decoder.
+	 *
+	 * @param maxTableSize
+	 * 		The maximum size of the dynamic table (i.e. {@code SETTINGS_HEADER_TABLE_SIZE}
+	 * 		sent to the peer).
+	 *
+	 * @param maxHeaderListSize
+	 * 		The maximum decoded size of a header block counted as in
+	 * 		{@code SETTINGS_MAX_HEADER_LIST_SIZE} (i.e. name + value + 32 for every field).
+	 */
+	public HpackDecoder(int maxTableSize, int maxHeaderListSize)
+	{
+		_maxTableSize = maxTableSize;
+		_tableCapacity = maxTableSize;
+		_maxHeaderListSize = maxHeaderListSize;
+	}
+
+
+	/**
+	 * Decodes a complete header block.
+	 *
+	 * @param block
+	 * 		A buffer containing the block.
+	 *
+	 * @param offset
+	 * 		The start of the block in the buffer.
+	 *
+	 * @param length
+	 * 		The length of the block.
+	 *
+	 * @return
+	 * 		Header fields as {@code {name, value}} pairs in the order they were given.
+	 *
+	 * @throws IOException
+	 * 		If the block cannot be decoded or it is too big. The dynamic table cannot be
+	 * 		trusted after this, so the connection must be closed with
+	 * 		{@code COMPRESSION_ERROR}.
+	 */
+	public List<String[]> decode(byte[] block, int offset, int length)
+		throws
+			IOException
+	{
+		List<String[]> fields = new ArrayList<String[]>();
+		int[] position = { offset };
+		int end = offset + length;
+		long headerListSize = 0;
+		boolean fieldSeen = false;
+		while(position[0] < end) {
+			int b = block[position[0]] & 0xff;
+			String[] field;
+			if((b & 0x80) != 0)
+				// Indexed header field.
+				field = getEntry(decodeInteger(block, position, end, 7));
+			else if((b & 0x40) != 0) {
+				// Literal header field with incremental indexing.
+				field = decodeLiteral(block, position, end, 6);
+				add(field);
+			}
+			else if((b & 0x20) != 0) {
+				// Dynamic table size update. Allowed only at the start of the block.
+				if(fieldSeen)
+					throw new IOException("A dynamic table size update after a header field.");
+				int size = decodeInteger(block, position, end, 5);
+				if(size > _maxTableSize)
+					throw new IOException("A dynamic table size " + size + " is too big.");
+				_tableCapacity = size;
+				evict(0);
+				continue;
+			}
+			else
+				// Literal header field without indexing (0000) or never indexed (0001).
+				field = decodeLiteral(block, position, end, 4);
+
+			fieldSeen = true;
+			headerListSize += field[0].length() + field[1].length() + ENTRY_OVERHEAD;
+			if(headerListSize > _maxHeaderListSize)
+				throw new IOException("A header list is bigger than " + _maxHeaderListSize + " bytes.");
+			fields.add(field);
+		}
+		return fields;
+	}
+
+
+	/**
+	 * Returns the current size of the dynamic table.
+	 *
+	 * @return
+	 * 		The size as defined by HPACK (i.e. name + value + 32 for every entry).
+	 */
+	public int getTableSize()
+	{
+		return _tableSize;
+	}
+
+
+	private String[] decodeLiteral(byte[] block, int[] position, int end, int prefix)
+		throws
+			IOException
+	{
+		int index = decodeInteger(block, position, end, prefix);
+		String name =
+			index == 0 ? decodeString(block, position, end) : getEntry(index)[0];
+		return new String[] { name, decodeString(block, position, end) };
+	}
+
+	private String[] getEntry(int index)
+		throws
+			IOException
+	{
+		if(index <= 0)
+			throw new IOException("An invalid index " + index + ".");
+		if(index <= STATIC_TABLE.length)
+			return STATIC_TABLE[index - 1];
+		int dynamicIndex = index - STATIC_TABLE.length - 1;
+		if(dynamicIndex >= _dynamicTable.size())
+			throw new IOException("An index " + index + " is not in the table.");
+		return _dynamicTable.get(dynamicIndex);
+	}
+
+	private void add(String[] field)
+	{
+		int size = field[0].length() + field[1].length() + ENTRY_OVERHEAD;
+		evict(size);
+		// An entry bigger than the table just empties the table.
+		if(size <= _tableCapacity) {
+			_dynamicTable.addFirst(field);
+			_tableSize += size;
+		}
+	}
+
+	private void evict(int room)
+	{
+		while(!_dynamicTable.isEmpty() && _tableSize + room > _tableCapacity) {
+			String[] field = _dynamicTable.removeLast();
+			_tableSize -= field[0].length() + field[1].length() + ENTRY_OVERHEAD;
+		}
+	}
+
+	/**
+	 * Decodes an integer with an N-bit prefix (RFC 7541, 5.1).
+	 */
+	static int decodeInteger(byte[] block, int[] position, int end, int prefix)
+		throws
+			IOException
+	{
+		int mask = (1 << prefix) - 1;
+		int value = block[position[0]++] & mask;
+		if(value < mask)
+			return value;
+
+		for(int shift = 0; ; shift += 7) {
+			if(position[0] >= end)
+				throw new IOException("An integer ends in the middle.");
+			if(shift > 21)
+				throw new IOException("An integer is too big.");
+			int b = block[position[0]++] & 0xff;
+			value += (b & 0x7f) << shift;
+			if((b & 0x80) == 0)
+				break;
+		}
+		if(value < 0)
+			throw new IOException("An integer is too big.");
+		return value;
+	}
+
+	/**
+	 * Decodes a string literal (RFC 7541, 5.2).
+	 */
+	private static String decodeString(byte[] block, int[] position, int end)
+		throws
+			IOException
+	{
+		if(position[0] >= end)
+			throw new IOException("A string is missing.");
+		boolean huffman = (block[position[0]] & 0x80) != 0;
+		int length = decodeInteger(block, position, end, 7);
+		if(length > end - position[0])
+			throw new IOException("A string is longer than the header block.");
+		int start = position[0];
+		position[0] += length;
+		if(huffman)
+			return decodeHuffman(block, start, length);
+		try {
+			return new String(block, start, length, CHARSET);
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Decodes a Huffman coded string. The padding must be the most significant bits of EOS
+	 * and shorter than 8 bits.
+	 */
+	static String decodeHuffman(byte[] block, int offset, int length)
+		throws
+			IOException
+	{
+		ByteArrayOutputStream decoded = new ByteArrayOutputStream(length * 8 / 5 + 1);
+		int node = 0;
+		int paddingBits = 0;
+		boolean paddingOnes = true;
+		for(int i = offset; i < offset + length; i++) {
+			int b = block[i] & 0xff;
+			for(int bit = 7; bit >= 0; bit--) {
+				int one = (b >>> bit) & 1;
+				int child = HUFFMAN_TREE[2 * node + one];
+				if(child == 0)
+					throw new IOException("An invalid Huffman code.");
+				if(child < 0) {
+					int symbol = -1 - child;
+					if(symbol == EOS)
+						throw new IOException("EOS in a Huffman coded string.");
+					decoded.write(symbol);
+					node = 0;
+					paddingBits = 0;
+					paddingOnes = true;
+				}
+				else {
+					node = child;
+					paddingBits++;
+					paddingOnes &= one == 1;
+				}
+			}
+		}
+		if(paddingBits > 7 || !paddingOnes)
+			throw new IOException("An invalid padding of a Huffman coded string.");
+		try {
+			return decoded.toString(CHARSET);
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static int[] buildHuffmanTree()
+	{
+		// A complete code of 257 symbols has 256 inner nodes.
+		int[] tree = new int[2 * 256];
+		int numberOfNodes = 1;
+		for(int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+			int code = HUFFMAN_CODES[symbol];
+			int node = 0;
+			for(int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+				int i = 2 * node + ((code >>> bit) & 1);
+				if(bit == 0)
+					tree[i] = -1 - symbol;
+				else {
+					if(tree[i] == 0)
+						tree[i] = numberOfNodes++;
+					node = tree[i];
+				}
+			}
+		}
+		return tree;
+	}
+}
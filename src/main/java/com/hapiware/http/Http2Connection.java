@@ -0,0 +1,1488 @@
+package com.hapiware.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * {@code Http2Connection} serves HTTP/2 over cleartext TCP (h2c) to clients which start the
+ * connection with the HTTP/2 connection preface ("prior knowledge", RFC 7540, 3.4). TLS
+ * would need ALPN to negotiate HTTP/2, so HTTPS connections stay on HTTP/1.1.
+ * <p/>
+ * Every stream is served by a thread of its own with the same {@link HttpResponse} as an
+ * HTTP/1.1 request. The request is handed to {@link HttpRequest} as an HTTP/1.1 request
+ * with the version {@code HTTP/2.0} (so the response is never chunked) and the HTTP/1.1
+ * response is turned into a {@code HEADERS} frame and {@code DATA} frames of at most
+ * {@value #MAX_FRAME_SIZE} bytes. The frames of different streams are written through a fair
+ * lock, so a small response (e.g. an icon of a directory listing) is interleaved with the
+ * frames of a big download instead of waiting for its end.
+ * <p/>
+ * Flow control is done for the connection and for every stream in both directions. A stream
+ * waiting for the client to open its window longer than the read timeout is reset. Received
+ * request bodies are buffered up to the stream window ({@value #WINDOW_SIZE} bytes) and the
+ * window is opened again as the body is read.
+ * <p/>
+ * The headers are decoded with {@link HpackDecoder}. The response headers are encoded as
+ * literals without indexing, so the encoder needs no dynamic table. Server push and
+ * priorities are not supported.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class Http2Connection
+{
+	public final static int MAX_FRAME_SIZE = 16384;
+
+	private final static Logger LOGGER = Logger.getLogger(Http2Connection.class.getName());
+	private final static String CHARSET = "ISO-8859-1";
+	private final static byte[] PREFACE = getBytes("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n");
+	private final static int PREFACE_LINE_LENGTH = "PRI * HTTP/2.0\r\n".length();
+	private final static int FRAME_HEADER_SIZE = 9;
+	private final static int WINDOW_SIZE = 65535;
+	private final static long MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+	private final static int MAX_HEADER_BLOCK_SIZE = 64 * 1024;
+	private final static int MAX_HEADER_LIST_SIZE = 64 * 1024;
+	private final static int IDLE_CHECK_INTERVAL_MS = 250;
+	private final static long STREAM_JOIN_TIMEOUT_MS = 1000;
+
+	// Frame types.
+	private final static int DATA = 0x0;
+	private final static int HEADERS = 0x1;
+	private final static int PRIORITY = 0x2;
+	private final static int RST_STREAM = 0x3;
+	private final static int SETTINGS = 0x4;
+	private final static int PUSH_PROMISE = 0x5;
+	private final static int PING = 0x6;
+	private final static int GOAWAY = 0x7;
+	private final static int WINDOW_UPDATE = 0x8;
+	private final static int CONTINUATION = 0x9;
+
+	// Flags.
+	private final static int FLAG_END_STREAM = 0x1;
+	private final static int FLAG_ACK = 0x1;
+	private final static int FLAG_END_HEADERS = 0x4;
+	private final static int FLAG_PADDED = 0x8;
+	private final static int FLAG_PRIORITY = 0x20;
+
+	// Settings.
+	private final static int SETTINGS_ENABLE_PUSH = 0x2;
+	private final static int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	private final static int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	private final static int SETTINGS_MAX_FRAME_SIZE = 0x5;
+	private final static int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+	// Error codes.
+	private final static int NO_ERROR = 0x0;
+	private final static int PROTOCOL_ERROR = 0x1;
+	private final static int INTERNAL_ERROR = 0x2;
+	private final static int FLOW_CONTROL_ERROR = 0x3;
+	private final static int STREAM_CLOSED = 0x5;
+	private final static int FRAME_SIZE_ERROR = 0x6;
+	private final static int REFUSED_STREAM = 0x7;
+	private final static int CANCEL = 0x8;
+	private final static int COMPRESSION_ERROR = 0x9;
+
+	/**
+	 * Response header fields which are only meaningful for an HTTP/1.1 connection.
+	 */
+	private final static String[] CONNECTION_FIELDS =
+		{ "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" };
+
+	/**
+	 * {@code :status} values having an entry in the HPACK static table (indexes 8 - 14).
+	 */
+	private final static String[] INDEXED_STATUSES = { "200", "204", "206", "304", "400", "404", "500" };
+
+
+	private final FileWeb _fileWeb;
+	private final HttpConnection _connection;
+	private final Socket _socket;
+	private final InputStream _is;
+	private final OutputStream _os;
+	private final int _maxConcurrentStreams;
+	private final HpackDecoder _decoder =
+		new HpackDecoder(HpackDecoder.DEFAULT_TABLE_SIZE, MAX_HEADER_LIST_SIZE);
+	private final ReentrantLock _writeLock = new ReentrantLock(true);
+	private final Map<Integer, Stream> _streams = new ConcurrentHashMap<Integer, Stream>();
+	private final List<Thread> _threads = new ArrayList<Thread>();
+	private volatile boolean _closed = false;
+
+	// Used only by the reading thread.
+	private int _lastStreamId = 0;
+	private boolean _goingAway = false;
+
+	// Guarded by this.
+	private long _sendWindow = WINDOW_SIZE;
+	private int _initialSendWindow = WINDOW_SIZE;
+
+
+	/**
+	 * Creates an HTTP/2 connection on top of an accepted connection whose input starts with
+	 * the connection preface (see {@link #hasPreface(InputStream)}).
+	 *
+	 * @param fileWeb
+	 * 		The server serving the requests of the streams.
+	 *
+	 * @param connection
+	 * 		The accepted connection.
+	 *
+	 * @param maxConcurrentStreams
+	 * 		The maximum number of streams served at the same time.
+	 */
+	public Http2Connection(FileWeb fileWeb, HttpConnection connection, int maxConcurrentStreams)
+	{
+		_fileWeb = fileWeb;
+		_connection = connection;
+		_socket = connection.getSocket();
+		_is = connection.getInputStream();
+		_os = connection.getOutputStream();
+		_maxConcurrentStreams = maxConcurrentStreams;
+	}
+
+
+	/**
+	 * Checks if the client starts with the HTTP/2 connection preface. Bytes are read only
+	 * as long as they match the preface, so an HTTP/1.1 request never blocks here. The
+	 * stream is reset to where it was.
+	 *
+	 * @param is
+	 * 		The input stream of the connection. Must support {@code mark()}.
+	 *
+	 * @return
+	 * 		{@code true} if the first line of the preface was received.
+	 *
+	 * @throws IOException
+	 * 		If reading fails.
+	 */
+	public static boolean hasPreface(InputStream is)
+		throws
+			IOException
+	{
+		is.mark(PREFACE_LINE_LENGTH);
+		try {
+			for(int i = 0; i < PREFACE_LINE_LENGTH; i++)
+				if(is.read() != PREFACE[i])
+					return false;
+			return true;
+		}
+		finally {
+			is.reset();
+		}
+	}
+
+
+	/**
+	 * Serves the connection until the client closes it, it has been idle for the idle
+	 * timeout or a connection error occurs. All the streams have ended when this returns.
+	 *
+	 * @throws IOException
+	 * 		If reading or writing fails.
+	 */
+	public void serve()
+		throws
+			IOException
+	{
+		// Frames are flushed as soon as no other stream is waiting to write. Nagle's
+		// algorithm would hold back a small frame (e.g. DATA limited by the flow control
+		// window) until the previous frame has been acknowledged.
+		_socket.setTcpNoDelay(true);
+		byte[] payload = BufferPool.getInstance().acquire(MAX_FRAME_SIZE);
+		try {
+			byte[] preface = new byte[PREFACE.length];
+			readFully(preface, preface.length);
+			for(int i = 0; i < PREFACE.length; i++)
+				if(preface[i] != PREFACE[i])
+					throw new ConnectionError(PROTOCOL_ERROR, "Invalid connection preface.");
+			writeSettings();
+
+			boolean first = true;
+			while(awaitFrame()) {
+				byte[] header = new byte[FRAME_HEADER_SIZE];
+				readFully(header, FRAME_HEADER_SIZE);
+				int length = readInt24(header, 0);
+				int type = header[3] & 0xff;
+				int flags = header[4] & 0xff;
+				int streamId = readInt31(header, 5);
+				if(length > MAX_FRAME_SIZE)
+					throw new ConnectionError(FRAME_SIZE_ERROR, "A frame of " + length + " bytes.");
+				readFully(payload, length);
+				if(first && (type != SETTINGS || (flags & FLAG_ACK) != 0))
+					throw new ConnectionError(PROTOCOL_ERROR, "The preface must end with SETTINGS.");
+				first = false;
+				handleFrame(type, flags, streamId, payload, length);
+			}
+		}
+		catch(ConnectionError e) {
+			LOGGER.log(Level.FINE, "HTTP/2 connection error " + e.getErrorCode() + ".", e);
+			writeGoAway(e.getErrorCode());
+		}
+		catch(EOFException e) {
+			LOGGER.fine("The client closed the HTTP/2 connection.");
+		}
+		finally {
+			BufferPool.getInstance().release(payload);
+			close();
+		}
+	}
+
+	/**
+	 * Waits for the next frame. An idle connection is closed after the idle timeout or as
+	 * soon as another connection is waiting for the thread, the same way as an idle
+	 * HTTP/1.1 connection is.
+	 */
+	private boolean awaitFrame()
+		throws
+			IOException
+	{
+		long idleSince = System.currentTimeMillis();
+		while(true) {
+			if(_goingAway && _streams.isEmpty())
+				return false;
+			_socket.setSoTimeout(IDLE_CHECK_INTERVAL_MS);
+			try {
+				_is.mark(1);
+				if(_is.read() == -1)
+					return false;
+				_is.reset();
+				break;
+			}
+			catch(SocketTimeoutException e) {
+				if(!_streams.isEmpty())
+					idleSince = System.currentTimeMillis();
+				else if(
+					System.currentTimeMillis() - idleSince >= _fileWeb.getIdleTimeout()
+					|| _fileWeb.getScheduler().hasWaitingConnections(_socket.getInetAddress())
+				) {
+					writeGoAway(NO_ERROR);
+					return false;
+				}
+			}
+		}
+		_socket.setSoTimeout(_fileWeb.getReadTimeout());
+		return true;
+	}
+
+	private void handleFrame(int type, int flags, int streamId, byte[] payload, int length)
+		throws
+			IOException
+	{
+		switch(type) {
+			case DATA:
+				handleData(flags, streamId, payload, length);
+				break;
+
+			case HEADERS:
+				handleHeaders(flags, streamId, payload, length);
+				break;
+
+			case PRIORITY:
+				if(streamId == 0)
+					throw new ConnectionError(PROTOCOL_ERROR, "PRIORITY for the connection.");
+				if(length != 5)
+					resetStream(streamId, FRAME_SIZE_ERROR);
+				break;
+
+			case RST_STREAM:
+				if(streamId == 0)
+					throw new ConnectionError(PROTOCOL_ERROR, "RST_STREAM for the connection.");
+				if(length != 4)
+					throw new ConnectionError(FRAME_SIZE_ERROR, "RST_STREAM of " + length + " bytes.");
+				if(streamId > _lastStreamId)
+					throw new ConnectionError(PROTOCOL_ERROR, "RST_STREAM for an idle stream.");
+				Stream reset = _streams.get(streamId);
+				if(reset != null)
+					reset.resetByClient();
+				break;
+
+			case SETTINGS:
+				handleSettings(flags, streamId, payload, length);
+				break;
+
+			case PUSH_PROMISE:
+				throw new ConnectionError(PROTOCOL_ERROR, "A client cannot push.");
+
+			case PING:
+				if(streamId != 0)
+					throw new ConnectionError(PROTOCOL_ERROR, "PING for a stream.");
+				if(length != 8)
+					throw new ConnectionError(FRAME_SIZE_ERROR, "PING of " + length + " bytes.");
+				if((flags & FLAG_ACK) == 0)
+					writeFrame(PING, FLAG_ACK, 0, payload, 0, 8);
+				break;
+
+			case GOAWAY:
+				if(streamId != 0)
+					throw new ConnectionError(PROTOCOL_ERROR, "GOAWAY for a stream.");
+				// The streams already started are finished.
+				_goingAway = true;
+				break;
+
+			case WINDOW_UPDATE:
+				handleWindowUpdate(streamId, payload, length);
+				break;
+
+			case CONTINUATION:
+				throw new ConnectionError(PROTOCOL_ERROR, "CONTINUATION without HEADERS.");
+
+			default:
+				// Unknown frame types are ignored.
+				break;
+		}
+	}
+
+	private void handleSettings(int flags, int streamId, byte[] payload, int length)
+		throws
+			IOException
+	{
+		if(streamId != 0)
+			throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS for a stream.");
+		if((flags & FLAG_ACK) != 0) {
+			if(length != 0)
+				throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS ACK with a payload.");
+			return;
+		}
+		if(length % 6 != 0)
+			throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS of " + length + " bytes.");
+
+		for(int i = 0; i < length; i += 6) {
+			int identifier = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+			long value = readInt32(payload, i + 2) & 0xffffffffl;
+			switch(identifier) {
+				case SETTINGS_ENABLE_PUSH:
+					if(value > 1)
+						throw new ConnectionError(PROTOCOL_ERROR, "ENABLE_PUSH " + value + ".");
+					break;
+
+				case SETTINGS_INITIAL_WINDOW_SIZE:
+					if(value > MAX_WINDOW_SIZE)
+						throw new ConnectionError(FLOW_CONTROL_ERROR, "INITIAL_WINDOW_SIZE " + value + ".");
+					synchronized(this) {
+						long delta = value - _initialSendWindow;
+						_initialSendWindow = (int)value;
+						for(Stream stream : _streams.values()) {
+							stream._sendWindow += delta;
+							if(stream._sendWindow > MAX_WINDOW_SIZE)
+								throw new ConnectionError(FLOW_CONTROL_ERROR, "A stream window overflowed.");
+						}
+						notifyAll();
+					}
+					break;
+
+				case SETTINGS_MAX_FRAME_SIZE:
+					// Frames are never bigger than the default, which every client accepts.
+					if(value < MAX_FRAME_SIZE || value > 0xffffff)
+						throw new ConnectionError(PROTOCOL_ERROR, "MAX_FRAME_SIZE " + value + ".");
+					break;
+
+				default:
+					// The header table size does not matter because the dynamic table is
+					// not used for the responses. Unknown settings are ignored.
+					break;
+			}
+		}
+		writeFrame(SETTINGS, FLAG_ACK, 0, payload, 0, 0);
+	}
+
+	private void handleWindowUpdate(int streamId, byte[] payload, int length)
+		throws
+			IOException
+	{
+		if(length != 4)
+			throw new ConnectionError(FRAME_SIZE_ERROR, "WINDOW_UPDATE of " + length + " bytes.");
+		int increment = readInt31(payload, 0);
+		if(streamId == 0) {
+			if(increment == 0)
+				throw new ConnectionError(PROTOCOL_ERROR, "A connection window increment of 0.");
+			synchronized(this) {
+				_sendWindow += increment;
+				if(_sendWindow > MAX_WINDOW_SIZE)
+					throw new ConnectionError(FLOW_CONTROL_ERROR, "The connection window overflowed.");
+				notifyAll();
+			}
+			return;
+		}
+
+		if(streamId > _lastStreamId)
+			throw new ConnectionError(PROTOCOL_ERROR, "WINDOW_UPDATE for an idle stream.");
+		Stream stream = _streams.get(streamId);
+		if(stream == null)
+			return;
+		if(increment == 0) {
+			resetStream(stream, PROTOCOL_ERROR);
+			return;
+		}
+		boolean overflow;
+		synchronized(this) {
+			stream._sendWindow += increment;
+			overflow = stream._sendWindow > MAX_WINDOW_SIZE;
+			notifyAll();
+		}
+		if(overflow)
+			resetStream(stream, FLOW_CONTROL_ERROR);
+	}
+
+	private void handleData(int flags, int streamId, byte[] payload, int length)
+		throws
+			IOException
+	{
+		if(streamId == 0)
+			throw new ConnectionError(PROTOCOL_ERROR, "DATA for the connection.");
+		if(streamId > _lastStreamId)
+			throw new ConnectionError(PROTOCOL_ERROR, "DATA for an idle stream.");
+		int offset = 0;
+		int dataLength = length;
+		if((flags & FLAG_PADDED) != 0) {
+			int padding = length > 0 ? payload[0] & 0xff : 0;
+			if(length == 0 || padding >= length)
+				throw new ConnectionError(PROTOCOL_ERROR, "Too much padding.");
+			offset = 1;
+			dataLength = length - 1 - padding;
+		}
+		// The connection window is opened right away. The buffered data is limited by
+		// the stream windows.
+		if(length > 0)
+			writeWindowUpdate(0, length);
+
+		Stream stream = _streams.get(streamId);
+		if(stream == null)
+			// A stream already ended (or refused). Whatever the client still sends is dropped.
+			return;
+		if(stream.isRemoteClosed()) {
+			resetStream(stream, STREAM_CLOSED);
+			return;
+		}
+		if(!stream.receive(payload, offset, dataLength, length, (flags & FLAG_END_STREAM) != 0))
+			resetStream(stream, FLOW_CONTROL_ERROR);
+	}
+
+	private void handleHeaders(int flags, int streamId, byte[] payload, int length)
+		throws
+			IOException
+	{
+		if(streamId == 0 || streamId % 2 == 0)
+			throw new ConnectionError(PROTOCOL_ERROR, "HEADERS for a stream " + streamId + ".");
+
+		int offset = 0;
+		int end = length;
+		if((flags & FLAG_PADDED) != 0) {
+			int padding = length > 0 ? payload[0] & 0xff : 0;
+			offset = 1;
+			end = length - padding;
+		}
+		if((flags & FLAG_PRIORITY) != 0)
+			offset += 5;
+		if(offset > end)
+			throw new ConnectionError(PROTOCOL_ERROR, "Too much padding.");
+
+		ByteArrayOutputStream block = new ByteArrayOutputStream(end - offset);
+		block.write(payload, offset, end - offset);
+		boolean endHeaders = (flags & FLAG_END_HEADERS) != 0;
+		while(!endHeaders) {
+			byte[] header = new byte[FRAME_HEADER_SIZE];
+			readFully(header, FRAME_HEADER_SIZE);
+			int continuationLength = readInt24(header, 0);
+			if((header[3] & 0xff) != CONTINUATION || readInt31(header, 5) != streamId)
+				throw new ConnectionError(PROTOCOL_ERROR, "HEADERS must be followed by CONTINUATION.");
+			if(continuationLength > MAX_FRAME_SIZE)
+				throw new ConnectionError(FRAME_SIZE_ERROR, "A frame of " + continuationLength + " bytes.");
+			if(block.size() + continuationLength > MAX_HEADER_BLOCK_SIZE)
+				throw new ConnectionError(COMPRESSION_ERROR, "A header block is too big.");
+			readFully(payload, continuationLength);
+			block.write(payload, 0, continuationLength);
+			endHeaders = (header[4] & FLAG_END_HEADERS) != 0;
+		}
+
+		List<String[]> fields;
+		try {
+			byte[] bytes = block.toByteArray();
+			fields = _decoder.decode(bytes, 0, bytes.length);
+		}
+		catch(IOException e) {
+			throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+		}
+
+		boolean endStream = (flags & FLAG_END_STREAM) != 0;
+		Stream stream = _streams.get(streamId);
+		if(stream != null) {
+			// Trailers end the request body. Their fields are not used.
+			if(stream.isRemoteClosed())
+				resetStream(stream, STREAM_CLOSED);
+			else if(!endStream)
+				resetStream(stream, PROTOCOL_ERROR);
+			else
+				stream.receive(payload, 0, 0, 0, true);
+			return;
+		}
+		if(streamId <= _lastStreamId) {
+			// A stream which has already ended. It may have been reset by the server.
+			writeRstStream(streamId, STREAM_CLOSED);
+			return;
+		}
+		_lastStreamId = streamId;
+		if(_goingAway)
+			return;
+		if(_streams.size() >= _maxConcurrentStreams) {
+			writeRstStream(streamId, REFUSED_STREAM);
+			return;
+		}
+
+		byte[] head = toHttp1Request(fields, endStream);
+		if(head == null) {
+			writeRstStream(streamId, PROTOCOL_ERROR);
+			return;
+		}
+		start(new Stream(streamId, endStream), head, !endStream && !hasField(fields, "content-length"));
+	}
+
+	private static boolean hasField(List<String[]> fields, String name)
+	{
+		for(String[] field : fields)
+			if(field[0].equals(name))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Makes an HTTP/1.1 style request head from the decoded header fields.
+	 *
+	 * @return
+	 * 		The request head or {@code null} if the request is malformed.
+	 */
+	private static byte[] toHttp1Request(List<String[]> fields, boolean endStream)
+	{
+		String method = null;
+		String path = null;
+		String authority = null;
+		boolean regularFields = false;
+		boolean hasHost = false;
+		boolean hasContentLength = false;
+		StringBuilder head = new StringBuilder();
+		for(String[] field : fields) {
+			String name = field[0];
+			String value = field[1];
+			if(name.length() == 0 || !isValid(value, false))
+				return null;
+			if(name.charAt(0) == ':') {
+				// Pseudo-header fields must come first and only once.
+				if(regularFields)
+					return null;
+				if(name.equals(":method") && method == null)
+					method = value;
+				else if(name.equals(":path") && path == null)
+					path = value;
+				else if(name.equals(":authority") && authority == null)
+					authority = value;
+				else if(!name.equals(":scheme"))
+					return null;
+				continue;
+			}
+			regularFields = true;
+			if(!isValid(name, true) || !name.equals(name.toLowerCase()))
+				return null;
+			for(String connectionField : CONNECTION_FIELDS)
+				if(name.equals(connectionField))
+					return null;
+			if(name.equals("te") && !value.equals("trailers"))
+				return null;
+			hasHost |= name.equals("host");
+			hasContentLength |= name.equals("content-length");
+			head.append(name).append(": ").append(value).append("\r\n");
+		}
+		if(
+			method == null
+			|| path == null
+			|| !isValid(method, true)
+			|| !isValid(path, true)
+			|| !path.startsWith("/")
+		)
+			return null;
+
+		if(!hasHost && authority != null)
+			head.insert(0, "host: " + authority + "\r\n");
+		// Without Content-Length the body is framed by END_STREAM, which HttpRequest reads
+		// as chunked transfer coding (see ChunkingInputStream).
+		if(!endStream && !hasContentLength)
+			head.append("transfer-encoding: chunked\r\n");
+		head.insert(0, method + " " + path + " HTTP/2.0\r\n");
+		head.append("\r\n");
+		return getBytes(head.toString());
+	}
+
+	/**
+	 * Checks that a header field does not contain characters which would change the
+	 * meaning of the HTTP/1.1 request made of it.
+	 *
+	 * @param value
+	 * 		A name or a value.
+	 *
+	 * @param token
+	 * 		{@code true} if also spaces and other control characters are rejected (i.e.
+	 * 		names, the method and the path).
+	 */
+	private static boolean isValid(String value, boolean token)
+	{
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '\r' || c == '\n' || c == '\0')
+				return false;
+			if(token && (c <= ' ' || c == 0x7f))
+				return false;
+		}
+		return true;
+	}
+
+	private void start(final Stream stream, final byte[] head, final boolean chunked)
+	{
+		synchronized(this) {
+			stream._sendWindow = _initialSendWindow;
+		}
+		_streams.put(stream._id, stream);
+		Thread thread =
+			new Thread("fileweb-h2-" + _socket.getInetAddress().getHostAddress() + "-" + stream._id) {
+				public void run()
+				{
+					serveStream(stream, head, chunked);
+				}
+			};
+		thread.setDaemon(true);
+		synchronized(_threads) {
+			_threads.add(thread);
+		}
+		thread.start();
+	}
+
+	private void serveStream(Stream stream, byte[] head, boolean chunked)
+	{
+		HttpConnection connection = null;
+		try {
+			InputStream request = new ByteArrayInputStream(head);
+			if(!stream.isRemoteClosed())
+				request = new SequenceInputStream(request, new ChunkingInputStream(stream, chunked));
+			connection = new StreamConnection(stream, request);
+			_fileWeb.serve(connection, false);
+			connection.flush();
+			stream._response.finish();
+			if(!stream.isRemoteClosed())
+				// The response did not need the rest of the body.
+				resetStream(stream, NO_ERROR);
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.FINE, "HTTP/2 stream " + stream._id + " failed.", e);
+			resetStream(stream, stream._reset ? CANCEL : INTERNAL_ERROR);
+		}
+		catch(RuntimeException e) {
+			_fileWeb.getController().registerError();
+			LOGGER.log(Level.WARNING, "", e);
+			resetStream(stream, INTERNAL_ERROR);
+		}
+		finally {
+			if(connection != null)
+				connection.release();
+			stream.release();
+			_streams.remove(stream._id);
+			synchronized(_threads) {
+				_threads.remove(Thread.currentThread());
+			}
+			BufferPool.getInstance().checkLeaks();
+		}
+	}
+
+	/**
+	 * Ends the connection. Writers blocked in the socket are released by closing it, and
+	 * the streams waiting for the client fail.
+	 */
+	private void close()
+	{
+		synchronized(this) {
+			_closed = true;
+			notifyAll();
+		}
+		for(Stream stream : _streams.values())
+			stream.abort();
+		if(!_streams.isEmpty()) {
+			try {
+				_socket.close();
+			}
+			catch(IOException e) {
+				// Does nothing.
+			}
+		}
+		List<Thread> threads;
+		synchronized(_threads) {
+			threads = new ArrayList<Thread>(_threads);
+		}
+		for(Thread thread : threads) {
+			try {
+				thread.join(STREAM_JOIN_TIMEOUT_MS);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		// Nothing is written after this, so the buffers of the connection can be released.
+		_writeLock.lock();
+		_writeLock.unlock();
+	}
+
+	private void resetStream(int streamId, int errorCode)
+	{
+		Stream stream = _streams.get(streamId);
+		if(stream != null)
+			resetStream(stream, errorCode);
+		else {
+			try {
+				writeRstStream(streamId, errorCode);
+			}
+			catch(IOException e) {
+				LOGGER.log(Level.FINE, "RST_STREAM could not be sent.", e);
+			}
+		}
+	}
+
+	private void resetStream(Stream stream, int errorCode)
+	{
+		boolean send;
+		synchronized(stream) {
+			// A stream closed in both directions needs no RST_STREAM.
+			send = !stream._localClosed || !stream._remoteClosed;
+			stream._localClosed = true;
+			stream._remoteClosed = true;
+			stream.notifyAll();
+		}
+		if(errorCode != NO_ERROR)
+			stream.reset();
+		if(send) {
+			try {
+				writeRstStream(stream._id, errorCode);
+			}
+			catch(IOException e) {
+				LOGGER.log(Level.FINE, "RST_STREAM could not be sent.", e);
+			}
+		}
+	}
+
+	/**
+	 * Takes room from the flow control windows of the connection and the stream.
+	 *
+	 * @return
+	 * 		The number of bytes which can be sent, between 1 and {@code wanted}.
+	 */
+	private synchronized int acquireWindow(Stream stream, int wanted)
+		throws
+			IOException
+	{
+		long deadline = System.currentTimeMillis() + _fileWeb.getReadTimeout();
+		while(true) {
+			if(_closed)
+				throw new IOException("The HTTP/2 connection is closed.");
+			if(stream._reset)
+				throw new IOException("The client reset the stream " + stream._id + ".");
+			long window = Math.min(_sendWindow, stream._sendWindow);
+			if(window > 0) {
+				int n = (int)Math.min(wanted, window);
+				_sendWindow -= n;
+				stream._sendWindow -= n;
+				return n;
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if(remaining <= 0)
+				throw new SocketTimeoutException(
+					"The client did not open the flow control window of the stream " + stream._id
+						+ " in " + _fileWeb.getReadTimeout() + " ms."
+				);
+			try {
+				wait(remaining);
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while waiting for the client.");
+			}
+		}
+	}
+
+	private void writeSettings()
+		throws
+			IOException
+	{
+		byte[] payload = new byte[18];
+		writeSetting(payload, 0, SETTINGS_MAX_CONCURRENT_STREAMS, _maxConcurrentStreams);
+		writeSetting(payload, 6, SETTINGS_ENABLE_PUSH, 0);
+		writeSetting(payload, 12, SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+		writeFrame(SETTINGS, 0, 0, payload, 0, payload.length);
+	}
+
+	private static void writeSetting(byte[] payload, int offset, int identifier, int value)
+	{
+		payload[offset] = (byte)(identifier >>> 8);
+		payload[offset + 1] = (byte)identifier;
+		writeInt32(payload, offset + 2, value);
+	}
+
+	private void writeWindowUpdate(int streamId, int increment)
+		throws
+			IOException
+	{
+		byte[] payload = new byte[4];
+		writeInt32(payload, 0, increment);
+		writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+	}
+
+	private void writeRstStream(int streamId, int errorCode)
+		throws
+			IOException
+	{
+		byte[] payload = new byte[4];
+		writeInt32(payload, 0, errorCode);
+		writeFrame(RST_STREAM, 0, streamId, payload, 0, 4);
+	}
+
+	private void writeGoAway(int errorCode)
+	{
+		byte[] payload = new byte[8];
+		writeInt32(payload, 0, _lastStreamId);
+		writeInt32(payload, 4, errorCode);
+		try {
+			writeFrame(GOAWAY, 0, 0, payload, 0, 8);
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.FINE, "GOAWAY could not be sent.", e);
+		}
+	}
+
+	private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length)
+		throws
+			IOException
+	{
+		byte[] frame = new byte[FRAME_HEADER_SIZE + length];
+		writeFrameHeader(frame, 0, length, type, flags, streamId);
+		System.arraycopy(payload, offset, frame, FRAME_HEADER_SIZE, length);
+		writeFrames(frame, frame.length);
+	}
+
+	/**
+	 * Writes complete frames. The frames of different streams are interleaved because the
+	 * lock is fair and every writer holds it for a single frame (or a header block) only.
+	 * The output is flushed unless another writer is already waiting for the lock.
+	 */
+	private void writeFrames(byte[] frames, int length)
+		throws
+			IOException
+	{
+		_writeLock.lock();
+		try {
+			if(_closed)
+				throw new IOException("The HTTP/2 connection is closed.");
+			_os.write(frames, 0, length);
+			if(!_writeLock.hasQueuedThreads())
+				_os.flush();
+		}
+		finally {
+			_writeLock.unlock();
+		}
+	}
+
+	private static void writeFrameHeader(
+		byte[] frame,
+		int offset,
+		int length,
+		int type,
+		int flags,
+		int streamId
+	)
+	{
+		frame[offset] = (byte)(length >>> 16);
+		frame[offset + 1] = (byte)(length >>> 8);
+		frame[offset + 2] = (byte)length;
+		frame[offset + 3] = (byte)type;
+		frame[offset + 4] = (byte)flags;
+		writeInt32(frame, offset + 5, streamId);
+	}
+
+	private void readFully(byte[] buffer, int length)
+		throws
+			IOException
+	{
+		for(int offset = 0; offset < length; ) {
+			int n = _is.read(buffer, offset, length - offset);
+			if(n == -1)
+				throw new EOFException("The connection ended in the middle of a frame.");
+			offset += n;
+		}
+	}
+
+	private static int readInt24(byte[] b, int offset)
+	{
+		return ((b[offset] & 0xff) << 16) | ((b[offset + 1] & 0xff) << 8) | (b[offset + 2] & 0xff);
+	}
+
+	private static int readInt31(byte[] b, int offset)
+	{
+		return readInt32(b, offset) & 0x7fffffff;
+	}
+
+	private static int readInt32(byte[] b, int offset)
+	{
+		return
+			((b[offset] & 0xff) << 24)
+				| ((b[offset + 1] & 0xff) << 16)
+				| ((b[offset + 2] & 0xff) << 8)
+				| (b[offset + 3] & 0xff);
+	}
+
+	private static void writeInt32(byte[] b, int offset, int value)
+	{
+		b[offset] = (byte)(value >>> 24);
+		b[offset + 1] = (byte)(value >>> 16);
+		b[offset + 2] = (byte)(value >>> 8);
+		b[offset + 3] = (byte)value;
+	}
+
+	private static byte[] getBytes(String s)
+	{
+		try {
+			return s.getBytes(CHARSET);
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Encodes a header field as a literal without indexing (RFC 7541, 6.2.2).
+	 */
+	private static void encodeField(ByteArrayOutputStream block, String name, String value)
+	{
+		block.write(0);
+		encodeString(block, name);
+		encodeString(block, value);
+	}
+
+	private static void encodeStatus(ByteArrayOutputStream block, String status)
+	{
+		for(int i = 0; i < INDEXED_STATUSES.length; i++) {
+			if(INDEXED_STATUSES[i].equals(status)) {
+				// An indexed header field.
+				block.write(0x80 | (8 + i));
+				return;
+			}
+		}
+		// A literal with the indexed name :status.
+		block.write(8);
+		encodeString(block, status);
+	}
+
+	private static void encodeString(ByteArrayOutputStream block, String s)
+	{
+		byte[] bytes = getBytes(s);
+		encodeInteger(block, 0, 7, bytes.length);
+		block.write(bytes, 0, bytes.length);
+	}
+
+	private static void encodeInteger(ByteArrayOutputStream block, int first, int prefix, int value)
+	{
+		int mask = (1 << prefix) - 1;
+		if(value < mask) {
+			block.write(first | value);
+			return;
+		}
+		block.write(first | mask);
+		value -= mask;
+		while(value >= 0x80) {
+			block.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		block.write(value);
+	}
+
+
+	/**
+	 * A connection error (RFC 7540, 5.4.1). The connection is closed with {@code GOAWAY}.
+	 */
+	private static class ConnectionError
+		extends
+			IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final int _errorCode;
+
+		public ConnectionError(int errorCode, String message)
+		{
+			super(message);
+			_errorCode = errorCode;
+		}
+
+		public int getErrorCode()
+		{
+			return _errorCode;
+		}
+	}
+
+
+	/**
+	 * A stream. The received request body is kept in a ring buffer which is read by the
+	 * thread serving the stream. The buffer is taken from the {@link BufferPool} when the
+	 * first {@code DATA} frame arrives. Guarded by the stream itself, except the send
+	 * window which is guarded by the connection.
+	 */
+	private final class Stream
+	{
+		private final int _id;
+		private final ResponseStream _response = new ResponseStream(this);
+		private long _sendWindow;
+		private volatile boolean _reset = false;
+		private boolean _remoteClosed;
+		private boolean _localClosed = false;
+		private boolean _released = false;
+		private byte[] _buffer;
+		private int _start = 0;
+		private int _count = 0;
+		private int _receiveWindow = WINDOW_SIZE;
+		private int _consumed = 0;
+
+		public Stream(int id, boolean remoteClosed)
+		{
+			_id = id;
+			_remoteClosed = remoteClosed;
+		}
+
+		public synchronized boolean isRemoteClosed()
+		{
+			return _remoteClosed;
+		}
+
+		/**
+		 * Buffers the data of a {@code DATA} frame.
+		 *
+		 * @return
+		 * 		{@code false} if the client sent more than the window allows.
+		 */
+		public synchronized boolean receive(
+			byte[] data,
+			int offset,
+			int length,
+			int frameLength,
+			boolean endStream
+		)
+		{
+			if(frameLength > _receiveWindow)
+				return false;
+			_receiveWindow -= frameLength;
+			// The padding is given back right away.
+			_consumed += frameLength - length;
+			if(!_released && length > 0) {
+				if(_buffer == null)
+					_buffer = BufferPool.getInstance().acquire(WINDOW_SIZE);
+				for(int i = 0; i < length; i++)
+					_buffer[(_start + _count + i) % _buffer.length] = data[offset + i];
+				_count += length;
+			}
+			if(endStream)
+				_remoteClosed = true;
+			notifyAll();
+			return true;
+		}
+
+		/**
+		 * Reads the request body. Opens the stream window for the client as the body is read.
+		 *
+		 * @return
+		 * 		The number of bytes read or -1 at the end of the body.
+		 */
+		public int read(byte[] b, int offset, int length)
+			throws
+				IOException
+		{
+			int n;
+			int update = 0;
+			synchronized(this) {
+				long deadline = System.currentTimeMillis() + _fileWeb.getReadTimeout();
+				while(_count == 0 && !_remoteClosed) {
+					if(_reset || _closed)
+						throw new IOException("The stream " + _id + " was closed.");
+					long remaining = deadline - System.currentTimeMillis();
+					if(remaining <= 0)
+						throw new SocketTimeoutException("No data received in " + _fileWeb.getReadTimeout() + " ms.");
+					try {
+						wait(remaining);
+					}
+					catch(InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new InterruptedIOException("Interrupted while waiting for the client.");
+					}
+				}
+				if(_reset)
+					throw new IOException("The stream " + _id + " was reset.");
+				if(_count == 0)
+					return -1;
+
+				n = Math.min(length, _count);
+				for(int i = 0; i < n; i++)
+					b[offset + i] = _buffer[(_start + i) % _buffer.length];
+				_start = (_start + n) % _buffer.length;
+				_count -= n;
+				_consumed += n;
+				if(!_remoteClosed && _consumed >= WINDOW_SIZE / 2) {
+					update = _consumed;
+					_receiveWindow += _consumed;
+					_consumed = 0;
+				}
+			}
+			if(update > 0)
+				writeWindowUpdate(_id, update);
+			return n;
+		}
+
+		/**
+		 * Marks the stream reset by the client or because of an error.
+		 */
+		public void reset()
+		{
+			_reset = true;
+			synchronized(Http2Connection.this) {
+				Http2Connection.this.notifyAll();
+			}
+			synchronized(this) {
+				notifyAll();
+			}
+		}
+
+		/**
+		 * Marks the stream reset by the client. No {@code RST_STREAM} is sent back.
+		 */
+		public void resetByClient()
+		{
+			synchronized(this) {
+				_localClosed = true;
+				_remoteClosed = true;
+			}
+			reset();
+		}
+
+		/**
+		 * Wakes up the thread of the stream when the connection has been closed.
+		 */
+		public synchronized void abort()
+		{
+			notifyAll();
+		}
+
+		/**
+		 * Gives the body buffer back to the pool.
+		 */
+		public synchronized void release()
+		{
+			_released = true;
+			BufferPool.getInstance().release(_buffer);
+			_buffer = null;
+			_count = 0;
+		}
+	}
+
+
+	/**
+	 * Reads the request body of a stream and encodes it with chunked transfer coding when
+	 * the client did not give {@code Content-Length}. Otherwise the body is passed as is.
+	 */
+	private final static class ChunkingInputStream
+		extends
+			InputStream
+	{
+		private final static int MAX_CHUNK_SIZE = 8 * 1024;
+
+		private final Stream _stream;
+		private final boolean _chunked;
+		private final byte[] _chunk;
+		private int _position = 0;
+		private int _length = 0;
+		private boolean _ended = false;
+
+		public ChunkingInputStream(Stream stream, boolean chunked)
+		{
+			_stream = stream;
+			_chunked = chunked;
+			_chunk = _chunked ? new byte[MAX_CHUNK_SIZE + 16] : null;
+		}
+
+		public int read()
+			throws
+				IOException
+		{
+			byte[] b = new byte[1];
+			int n = read(b, 0, 1);
+			return n == -1 ? -1 : b[0] & 0xff;
+		}
+
+		public int read(byte[] b, int offset, int length)
+			throws
+				IOException
+		{
+			if(!_chunked)
+				return _stream.read(b, offset, length);
+
+			if(_position == _length) {
+				if(_ended)
+					return -1;
+				fill();
+			}
+			int n = Math.min(length, _length - _position);
+			System.arraycopy(_chunk, _position, b, offset, n);
+			_position += n;
+			return n;
+		}
+
+		private void fill()
+			throws
+				IOException
+		{
+			// Leaves room for the chunk size line in front of the data.
+			int dataOffset = 6;
+			int n = _stream.read(_chunk, dataOffset, MAX_CHUNK_SIZE);
+			if(n == -1) {
+				byte[] last = getBytes("0\r\n\r\n");
+				System.arraycopy(last, 0, _chunk, 0, last.length);
+				_position = 0;
+				_length = last.length;
+				_ended = true;
+				return;
+			}
+			byte[] size = getBytes(Integer.toHexString(n) + "\r\n");
+			_position = dataOffset - size.length;
+			System.arraycopy(size, 0, _chunk, _position, size.length);
+			_chunk[dataOffset + n] = '\r';
+			_chunk[dataOffset + n + 1] = '\n';
+			_length = dataOffset + n + 2;
+		}
+	}
+
+
+	/**
+	 * Turns the HTTP/1.1 response written by {@link HttpResponse} into HTTP/2 frames. The
+	 * head is parsed into a {@code HEADERS} frame (informational responses, e.g.
+	 * {@code 100 Continue}, too) and the rest is sent in {@code DATA} frames as the flow
+	 * control windows allow.
+	 */
+	private final class ResponseStream
+		extends
+			OutputStream
+	{
+		private final Stream _stream;
+		private final ByteArrayOutputStream _head = new ByteArrayOutputStream(512);
+		// The last four bytes of the head, to find the empty line ending it.
+		private int _headEnd = 0;
+		private boolean _headWritten = false;
+		private byte[] _frame;
+		private int _frameLength = 0;
+
+		public ResponseStream(Stream stream)
+		{
+			_stream = stream;
+		}
+
+		public void write(int b)
+			throws
+				IOException
+		{
+			write(new byte[] { (byte)b }, 0, 1);
+		}
+
+		public void write(byte[] b, int offset, int length)
+			throws
+				IOException
+		{
+			while(length > 0 && !_headWritten) {
+				_head.write(b[offset]);
+				_headEnd = (_headEnd << 8) | (b[offset] & 0xff);
+				offset++;
+				length--;
+				if(_head.size() > MAX_HEADER_LIST_SIZE)
+					throw new IOException("A response head is too big.");
+				if(_headEnd == 0x0d0a0d0a)
+					writeHead();
+			}
+			while(length > 0) {
+				if(_frame == null)
+					_frame = new byte[FRAME_HEADER_SIZE + MAX_FRAME_SIZE];
+				int n = Math.min(length, MAX_FRAME_SIZE - _frameLength);
+				System.arraycopy(b, offset, _frame, FRAME_HEADER_SIZE + _frameLength, n);
+				_frameLength += n;
+				offset += n;
+				length -= n;
+				if(_frameLength == MAX_FRAME_SIZE)
+					writeData(false);
+			}
+		}
+
+		public void flush()
+			throws
+				IOException
+		{
+			if(_frameLength > 0)
+				writeData(false);
+		}
+
+		/**
+		 * Sends the rest of the response and ends the stream.
+		 */
+		public void finish()
+			throws
+				IOException
+		{
+			if(!_headWritten)
+				throw new IOException("The response ended before its head.");
+			if(_frame == null)
+				_frame = new byte[FRAME_HEADER_SIZE];
+			writeData(true);
+		}
+
+		private void writeHead()
+			throws
+				IOException
+		{
+			String[] lines;
+			try {
+				lines = _head.toString(CHARSET).split("\r\n");
+			}
+			catch(UnsupportedEncodingException e) {
+				throw new IllegalStateException(e);
+			}
+			_head.reset();
+			_headEnd = 0;
+			String[] statusLine = lines[0].split(" ", 3);
+			if(statusLine.length < 2)
+				throw new IOException("An invalid status line: " + lines[0]);
+			String status = statusLine[1];
+
+			ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+			encodeStatus(block, status);
+			for(int i = 1; i < lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if(colon <= 0)
+					continue;
+				String name = lines[i].substring(0, colon).trim().toLowerCase();
+				String value = lines[i].substring(colon + 1).trim();
+				boolean connectionField = false;
+				for(String field : CONNECTION_FIELDS)
+					connectionField |= name.equals(field);
+				if(!connectionField)
+					encodeField(block, name, value);
+			}
+			// The final response follows an informational one (e.g. 100 Continue).
+			_headWritten = !status.startsWith("1");
+			writeHeaders(block.toByteArray());
+		}
+
+		/**
+		 * Writes a header block as a {@code HEADERS} frame and as many {@code CONTINUATION}
+		 * frames as needed. All of them are written at once because no other frame may
+		 * come in between.
+		 */
+		private void writeHeaders(byte[] block)
+			throws
+				IOException
+		{
+			int numberOfFrames = Math.max(1, (block.length + MAX_FRAME_SIZE - 1) / MAX_FRAME_SIZE);
+			byte[] frames = new byte[numberOfFrames * FRAME_HEADER_SIZE + block.length];
+			int position = 0;
+			for(int i = 0; i < numberOfFrames; i++) {
+				int offset = i * MAX_FRAME_SIZE;
+				int length = Math.min(MAX_FRAME_SIZE, block.length - offset);
+				writeFrameHeader(
+					frames,
+					position,
+					length,
+					i == 0 ? HEADERS : CONTINUATION,
+					i == numberOfFrames - 1 ? FLAG_END_HEADERS : 0,
+					_stream._id
+				);
+				position += FRAME_HEADER_SIZE;
+				System.arraycopy(block, offset, frames, position, length);
+				position += length;
+			}
+			checkOpen();
+			writeFrames(frames, frames.length);
+		}
+
+		/**
+		 * Sends the buffered data in as many frames as the flow control windows require.
+		 */
+		private void writeData(boolean endStream)
+			throws
+				IOException
+		{
+			do {
+				int n = _frameLength == 0 ? 0 : acquireWindow(_stream, _frameLength);
+				boolean last = n == _frameLength;
+				writeFrameHeader(
+					_frame,
+					0,
+					n,
+					DATA,
+					endStream && last ? FLAG_END_STREAM : 0,
+					_stream._id
+				);
+				checkOpen();
+				if(endStream && last) {
+					synchronized(_stream) {
+						_stream._localClosed = true;
+					}
+				}
+				writeFrames(_frame, FRAME_HEADER_SIZE + n);
+				_frameLength -= n;
+				if(_frameLength > 0)
+					System.arraycopy(_frame, FRAME_HEADER_SIZE + n, _frame, FRAME_HEADER_SIZE, _frameLength);
+			}
+			while(_frameLength > 0);
+		}
+
+		private void checkOpen()
+			throws
+				IOException
+		{
+			synchronized(_stream) {
+				if(_stream._reset || _stream._localClosed)
+					throw new IOException("The stream " + _stream._id + " is closed.");
+			}
+		}
+	}
+
+
+	/**
+	 * The connection of a single stream given to {@link HttpResponse}. The client has
+	 * gone when the stream has been reset or the connection has been closed.
+	 */
+	private final class StreamConnection
+		extends
+			HttpConnection
+	{
+		private final Stream _stream;
+
+		public StreamConnection(Stream stream, InputStream request)
+		{
+			super(_socket, request, stream._response, _fileWeb.getThrottle());
+			_stream = stream;
+		}
+
+		public boolean isClosedByClient()
+		{
+			return _stream._reset || _closed;
+		}
+	}
+}
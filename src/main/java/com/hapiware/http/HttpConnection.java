@@ -0,0 +1,476 @@
+package com.hapiware.http;
+
+import java.io.BufferedInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.channels.WritableByteChannel;
+
+import javax.net.ssl.SSLSocket;
+
+
+/**
+ * {@code HttpConnection} wraps an accepted client {@link Socket} and provides the streams
+ * used by {@link HttpRequest} and {@link HttpResponse}.
+ * <p/>
+ * For plain HTTP connections accepted through a channel the socket channel is also available
+ * so that file content can be sent with zero-copy {@code FileChannel.transferTo()}. For TLS
+ * connections the content must be encrypted in user space and thus zero-copy is not
+ * possible. Instead, the output is buffered with a buffer the size of the maximum TLS record
+ * so that every write produces full records.
+ * <p/>
+ * File content senders call {@link #throttle(long)} after each chunk to enforce bandwidth
+ * limits of the {@link Throttle}.
+ * <p/>
+ * The stream buffers are taken from the {@link BufferPool} and they must be given back with
+ * {@link #release()} when the connection is closed.
+ * <p/>
+ * The time spent in blocking writes is measured for the {@link SendWatchdog}. Everything
+ * writing to the socket must be done between {@link #beginWrite()} and
+ * {@link #endWrite(long)}, which the output stream does by itself.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class HttpConnection
+{
+	private final static int TLS_RECORD_SIZE = BufferPool.MEDIUM_SIZE;
+	private final static int BUFFER_SIZE = BufferPool.SMALL_SIZE;
+
+
+	private final Socket _socket;
+	private final PooledInputStream _inputStream;
+	private final PooledOutputStream _outputStream;
+	private final WritableByteChannel _zeroCopyChannel;
+	private final Throttle _throttle;
+	private volatile long _bytesSent = 0;
+	private volatile boolean _writing = false;
+	private volatile long _writeStartNs;
+	private volatile long _writeNs = 0;
+
+
+	public HttpConnection(Socket socket)
+		throws
+			IOException
+	{
+		this(socket, null);
+	}
+
+	public HttpConnection(Socket socket, Throttle throttle)
+		throws
+			IOException
+	{
+		this(
+			socket,
+			socket.getInputStream(),
+			socket.getOutputStream(),
+			socket instanceof SSLSocket ? null : socket.getChannel(),
+			socket instanceof SSLSocket ? TLS_RECORD_SIZE : BUFFER_SIZE,
+			throttle
+		);
+	}
+
+	/**
+	 * Creates a connection whose requests and responses do not go directly through the
+	 * socket (i.e. an HTTP/2 stream, see {@link Http2Connection}). Zero-copy sending is not
+	 * possible.
+	 *
+	 * @param socket
+	 * 		The socket carrying the streams.
+	 *
+	 * @param is
+	 * 		The input stream of the requests.
+	 *
+	 * @param os
+	 * 		The output stream of the responses.
+	 *
+	 * @param throttle
+	 * 		The bandwidth limits or {@code null}.
+	 */
+	HttpConnection(Socket socket, InputStream is, OutputStream os, Throttle throttle)
+	{
+		this(socket, is, os, null, BUFFER_SIZE, throttle);
+	}
+
+	private HttpConnection(
+		Socket socket,
+		InputStream is,
+		OutputStream os,
+		WritableByteChannel zeroCopyChannel,
+		int outputBufferSize,
+		Throttle throttle
+	)
+	{
+		_socket = socket;
+		_throttle = throttle;
+		_zeroCopyChannel = zeroCopyChannel;
+		BufferPool bufferPool = BufferPool.getInstance();
+		_inputStream = new PooledInputStream(is, bufferPool.acquire(BUFFER_SIZE));
+		_outputStream = new PooledOutputStream(os, bufferPool.acquire(outputBufferSize));
+	}
+
+
+	/**
+	 * Returns {@code true} if the connection is encrypted with TLS.
+	 *
+	 * @return
+	 * 		{@code true} for TLS connections.
+	 */
+	public boolean isSecure()
+	{
+		return _socket instanceof SSLSocket;
+	}
+
+
+	/**
+	 * Returns the socket of the connection.
+	 *
+	 * @return
+	 * 		The socket.
+	 */
+	public Socket getSocket()
+	{
+		return _socket;
+	}
+
+
+	/**
+	 * Returns the buffered input stream of the connection.
+	 *
+	 * @return
+	 * 		The input stream.
+	 */
+	public InputStream getInputStream()
+	{
+		return _inputStream;
+	}
+
+
+	/**
+	 * Checks if the client has closed the connection. The check waits for the client at
+	 * most a millisecond and throws away what the client has sent, so it can only be used
+	 * when no more requests are read from the connection (e.g. while a response is streamed
+	 * until the client disconnects).
+	 *
+	 * @return
+	 * 		{@code true} if the client has closed the connection.
+	 *
+	 * @throws IOException
+	 * 		If reading fails (e.g. the connection was reset).
+	 */
+	public boolean isClosedByClient()
+		throws
+			IOException
+	{
+		int timeout = _socket.getSoTimeout();
+		_socket.setSoTimeout(1);
+		try {
+			for(int i = 0; i < BUFFER_SIZE; i++)
+				if(_inputStream.read() == -1)
+					return true;
+			return false;
+		}
+		catch(SocketTimeoutException e) {
+			return false;
+		}
+		finally {
+			_socket.setSoTimeout(timeout);
+		}
+	}
+
+
+	/**
+	 * Returns the buffered output stream of the connection. Remember to call {@link #flush()}
+	 * when the response has been written.
+	 *
+	 * @return
+	 * 		The output stream.
+	 */
+	public OutputStream getOutputStream()
+	{
+		return _outputStream;
+	}
+
+
+	/**
+	 * Returns a channel for zero-copy sending. The output stream is flushed before the
+	 * channel is returned so that the bytes already written keep their order.
+	 *
+	 * @return
+	 * 		The socket channel or {@code null} if zero-copy is not possible for this
+	 * 		connection (e.g. TLS).
+	 *
+	 * @throws IOException
+	 * 		If flushing the output stream fails.
+	 */
+	public WritableByteChannel getZeroCopyChannel()
+		throws
+			IOException
+	{
+		if(_zeroCopyChannel != null)
+			_outputStream.flush();
+		return _zeroCopyChannel;
+	}
+
+
+	/**
+	 * Returns the number of bytes sent to this connection. Bytes written to the output stream
+	 * are counted automatically but bytes sent through the zero-copy channel must be
+	 * registered with {@link #endWrite(long)}.
+	 *
+	 * @return
+	 * 		Number of bytes.
+	 */
+	public long getBytesSent()
+	{
+		return _bytesSent;
+	}
+
+
+	/**
+	 * Marks the start of a blocking write to the socket.
+	 */
+	public void beginWrite()
+	{
+		_writeStartNs = System.nanoTime();
+		_writing = true;
+	}
+
+
+	/**
+	 * Marks the end of a blocking write to the socket.
+	 *
+	 * @param bytes
+	 * 		Number of bytes written to the zero-copy channel. Bytes written to the output
+	 * 		stream are counted already.
+	 */
+	public void endWrite(long bytes)
+	{
+		_writeNs += System.nanoTime() - _writeStartNs;
+		_writing = false;
+		_bytesSent += bytes;
+	}
+
+
+	/**
+	 * Returns how long the current write has been blocked.
+	 *
+	 * @param now
+	 * 		The current {@link System#nanoTime()}.
+	 *
+	 * @return
+	 * 		Nanoseconds or zero if nothing is being written.
+	 */
+	public long getCurrentWriteNs(long now)
+	{
+		return _writing ? now - _writeStartNs : 0;
+	}
+
+
+	/**
+	 * Returns the total time spent in writes.
+	 *
+	 * @param now
+	 * 		The current {@link System#nanoTime()}.
+	 *
+	 * @return
+	 * 		Nanoseconds including the current write.
+	 */
+	public long getWriteNs(long now)
+	{
+		return _writeNs + getCurrentWriteNs(now);
+	}
+
+
+	/**
+	 * Checks if sending to this connection is throttled. Senders should send in small chunks
+	 * when throttled.
+	 *
+	 * @return
+	 * 		{@code true} if bandwidth limits are in use.
+	 */
+	public boolean isThrottled()
+	{
+		return _throttle != null && _throttle.isEnabled();
+	}
+
+
+	/**
+	 * Registers sent bytes and waits until bandwidth limits allow sending more.
+	 *
+	 * @param bytes
+	 * 		The number of bytes sent.
+	 *
+	 * @throws InterruptedIOException
+	 * 		If the thread was interrupted while waiting.
+	 */
+	public void throttle(long bytes)
+		throws
+			InterruptedIOException
+	{
+		if(_throttle != null)
+			_throttle.acquire(_socket.getInetAddress(), bytes);
+	}
+
+
+	/**
+	 * Gives the stream buffers back to the {@link BufferPool}. The streams must not be used
+	 * after this.
+	 */
+	public void release()
+	{
+		BufferPool bufferPool = BufferPool.getInstance();
+		bufferPool.release(_inputStream.detachBuffer());
+		bufferPool.release(_outputStream.detachBuffer());
+	}
+
+
+	/**
+	 * Flushes all buffered output to the client.
+	 *
+	 * @throws IOException
+	 * 		If an I/O error occurs.
+	 */
+	public void flush()
+		throws
+			IOException
+	{
+		_outputStream.flush();
+	}
+	
+	
+	/**
+	 * A buffered input stream using a buffer from the {@link BufferPool}.
+	 */
+	private final static class PooledInputStream
+		extends
+			BufferedInputStream
+	{
+		private byte[] _pooledBuffer;
+		
+		public PooledInputStream(InputStream in, byte[] buffer)
+		{
+			super(in, 1);
+			buf = buffer;
+			_pooledBuffer = buffer;
+		}
+		
+		/**
+		 * Returns the pooled buffer. The stream reads nothing after this.
+		 */
+		public synchronized byte[] detachBuffer()
+		{
+			byte[] buffer = _pooledBuffer;
+			_pooledBuffer = null;
+			buf = new byte[1];
+			count = 0;
+			pos = 0;
+			markpos = -1;
+			return buffer;
+		}
+	}
+	
+	
+	/**
+	 * A buffered output stream using a buffer from the {@link BufferPool}. The stream also
+	 * counts the bytes sent.
+	 */
+	private final class PooledOutputStream
+		extends
+			FilterOutputStream
+	{
+		private byte[] _buffer;
+		private int _count = 0;
+		
+		public PooledOutputStream(OutputStream out, byte[] buffer)
+		{
+			super(out);
+			_buffer = buffer;
+		}
+		
+		public void write(int b)
+			throws
+				IOException
+		{
+			if(_count == _buffer.length)
+				flushBuffer();
+			_buffer[_count++] = (byte)b;
+			_bytesSent++;
+		}
+		
+		public void write(byte[] b, int off, int len)
+			throws
+				IOException
+		{
+			if(len >= _buffer.length) {
+				flushBuffer();
+				// Big arrays are written in pieces so that the watchdog sees the progress.
+				for(int end = off + len; off < end; ) {
+					int n = Math.min(_buffer.length, end - off);
+					beginWrite();
+					try {
+						out.write(b, off, n);
+					}
+					finally {
+						endWrite(0);
+					}
+					off += n;
+					_bytesSent += n;
+				}
+			}
+			else {
+				if(len > _buffer.length - _count)
+					flushBuffer();
+				System.arraycopy(b, off, _buffer, _count, len);
+				_count += len;
+				_bytesSent += len;
+			}
+		}
+		
+		public void flush()
+			throws
+				IOException
+		{
+			flushBuffer();
+			beginWrite();
+			try {
+				out.flush();
+			}
+			finally {
+				endWrite(0);
+			}
+		}
+		
+		private void flushBuffer()
+			throws
+				IOException
+		{
+			if(_count > 0) {
+				beginWrite();
+				try {
+					out.write(_buffer, 0, _count);
+				}
+				finally {
+					endWrite(0);
+				}
+				_count = 0;
+			}
+		}
+		
+		/**
+		 * Returns the pooled buffer. Unflushed bytes are lost and the stream must not be
+		 * written after this.
+		 */
+		public byte[] detachBuffer()
+		{
+			byte[] buffer = _buffer;
+			_buffer = null;
+			_count = 0;
+			return buffer;
+		}
+	}
+}
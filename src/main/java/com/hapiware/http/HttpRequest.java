@@ -1,24 +1,32 @@
 package com.hapiware.http;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLDecoder;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.StringTokenizer;
+import java.util.TreeMap;
 import java.util.Map.Entry;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 
 /**
- * {@code HttpRequest} parses the incomimg HTTP request. <b>Notice</b> that message body for
- * the request is not used for any purpouse.
+ * {@code HttpRequest} parses the incomimg HTTP request. The message body is used only by
+ * uploads (i.e. {@code PUT} and {@code POST}) and it is read with {@link #getBody()}.
+ * <p/>
+ * Only the request line and the header fields are read from the stream so that the message
+ * body and the next request of a persistent connection stay in the stream. Header field
+ * names are case insensitive. The request line and the header fields are limited by
+ * {@link HeaderLimit} and a bigger request gets {@code 400 Bad Request}.
  * 
  * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
  *
@@ -27,13 +35,19 @@ public class HttpRequest
 {
 	private final static Logger LOGGER = Logger.getLogger(HttpRequest.class.getName());
 	
-	public enum SupportedRequestMethod { GET };
+	public enum SupportedRequestMethod { GET, PUT, POST };
 	
+	private final static String CHARSET = "ISO-8859-1";
+	
+	private final String _requestLine;
 	private final SupportedRequestMethod _requestMethod;
 	private final URI _uri;
 	private final String _httpVersion;
 	private final Map<String, String> _headerFields;
+	private final Map<String, String> _parameters;
 	private final HttpStatusCode _statusCode;
+	private final InputStream _stream;
+	private boolean _bodyRead = false;
 	
 	
 	/**
@@ -45,19 +59,21 @@ public class HttpRequest
 	public HttpRequest(InputStream stream)
 	{
 		HttpStatusCode statusCode = HttpStatusCode.SC500;
+		String requestLine = null;
 		SupportedRequestMethod requestMethod =  null;
 		URI uri = null;
 		String httpVersion = null;
-		Map<String, String> headerFields = new HashMap<String, String>();
+		Map<String, String> headerFields =
+			new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		HeaderLimit limit = new HeaderLimit();
 		try {
-			BufferedReader reader =	new BufferedReader(new InputStreamReader(stream));
-			
 			// Reads a request line.
-			String line = reader.readLine();
+			String line = readLine(stream, limit);
 			if(line == null) {
 				// Notice the finally block!
 				return;
 			}
+			requestLine = line;
 
 			StringTokenizer tokenizer = new StringTokenizer(line);
 			requestMethod = SupportedRequestMethod.valueOf(tokenizer.nextToken());
@@ -65,17 +81,22 @@ public class HttpRequest
 			httpVersion = tokenizer.nextToken();
 			
 			// Reads header fields.
-			while((line = reader.readLine()) != null) {
+			while((line = readLine(stream, limit)) != null) {
 				// Breaks when there are no more header fields.
 				if(line.length() == 0)
 					break;
 				
-				StringTokenizer fieldTokenizer = new StringTokenizer(line, ":");
-				headerFields.put(fieldTokenizer.nextToken(), fieldTokenizer.nextToken().trim());
+				int i = line.indexOf(':');
+				if(i > 0)
+					headerFields.put(line.substring(0, i).trim(), line.substring(i + 1).trim());
 			}
 			
-			// Skips the content.
-			statusCode = HttpStatusCode.SC200;
+			// The message body is left to the stream. Only its framing is checked here.
+			statusCode = checkBodyFraming(headerFields);
+		}
+		catch(HeaderLimit.ExceededException e) {
+			statusCode = HttpStatusCode.SC400;
+			LOGGER.info("A request header was rejected: " + e.getMessage());
 		}
 		catch(IOException e) {
 			statusCode = HttpStatusCode.SC500;
@@ -95,14 +116,124 @@ public class HttpRequest
 		}
 		finally {
 			_statusCode = statusCode;
+			_stream = stream;
+			_requestLine = requestLine;
 			_requestMethod = requestMethod;
 			_uri = uri;
 			_httpVersion = httpVersion;
 			_headerFields = Collections.unmodifiableMap(headerFields);
+			_parameters = parseQuery(uri == null ? null : uri.getRawQuery());
 			log();
 		}
 	}
 
+	/**
+	 * Checks that the length of a message body can be determined. Only chunked transfer
+	 * coding is supported.
+	 */
+	private static HttpStatusCode checkBodyFraming(Map<String, String> headerFields)
+	{
+		String transferEncoding = headerFields.get("Transfer-Encoding");
+		if(transferEncoding != null) {
+			if(!transferEncoding.equalsIgnoreCase("chunked"))
+				return HttpStatusCode.SC501;
+			return HttpStatusCode.SC200;
+		}
+		String contentLength = headerFields.get("Content-Length");
+		if(contentLength != null) {
+			try {
+				if(Long.parseLong(contentLength) < 0)
+					return HttpStatusCode.SC400;
+			}
+			catch(NumberFormatException e) {
+				return HttpStatusCode.SC400;
+			}
+		}
+		return HttpStatusCode.SC200;
+	}
+
+	/**
+	 * Parses {@code name=value} pairs of a query string. Names and values are URL decoded.
+	 * 
+	 * @param rawQuery
+	 * 		The query string before decoding.
+	 * 
+	 * @return
+	 * 		Query parameters. If a parameter is given several times the first one is used.
+	 */
+	private static Map<String, String> parseQuery(String rawQuery)
+	{
+		if(rawQuery == null || rawQuery.length() == 0)
+			return Collections.emptyMap();
+		
+		Map<String, String> parameters = new HashMap<String, String>();
+		for(String pair : rawQuery.split("&")) {
+			int i = pair.indexOf('=');
+			String name = decode(i == -1 ? pair : pair.substring(0, i));
+			String value = i == -1 ? "" : decode(pair.substring(i + 1));
+			if(!parameters.containsKey(name))
+				parameters.put(name, value);
+		}
+		return Collections.unmodifiableMap(parameters);
+	}
+	
+	private static String decode(String value)
+	{
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		}
+		catch(UnsupportedEncodingException e) {
+			return value;
+		}
+		catch(IllegalArgumentException e) {
+			// Malformed escapes are used as is.
+			return value;
+		}
+	}
+	
+	/**
+	 * Reads a single line terminated by LF (or CRLF). Reads the stream one byte at a time to
+	 * avoid reading ahead of the request header.
+	 * 
+	 * @param stream
+	 * 		The source of the request.
+	 * 
+	 * @param limit
+	 * 		The limit of the request header.
+	 * 
+	 * @return
+	 * 		The line without the line terminator or {@code null} if the stream ended before
+	 * 		any byte was read.
+	 * 
+	 * @throws HeaderLimit.ExceededException
+	 * 		If the request header is too big.
+	 * 
+	 * @throws IOException
+	 * 		If an I/O error occurs.
+	 */
+	private static String readLine(InputStream stream, HeaderLimit limit)
+		throws
+			IOException
+	{
+		ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+		int b;
+		while((b = stream.read()) != -1) {
+			if(b == '\n')
+				break;
+			if(line.size() >= limit.getRemaining())
+				throw new HeaderLimit.ExceededException("Too long request header line.");
+			line.write(b);
+		}
+		if(b == -1 && line.size() == 0)
+			return null;
+		
+		limit.addLine(line.size() + 1);
+		String retVal = line.toString(CHARSET);
+		if(retVal.endsWith("\r"))
+			retVal = retVal.substring(0, retVal.length() - 1);
+		return retVal;
+	}
+	
 	/**
 	 * Makes some logging about the request. The logging level affects how much information
 	 * is shown. Levels used are, FINE, FINER and FINEST.
@@ -131,7 +262,9 @@ public class HttpRequest
 			if(LOGGER.isLoggable(Level.FINEST)) {
 				level = Level.FINEST;
 				reqStr += "->\n";
-				reqStr += "-> [Message body is not supported]\n";
+				reqStr +=
+					hasBody() ?
+						"-> [Message body is not logged]\n" : "-> [No message body]\n";
 			}
 			LOGGER.log(level, reqStr);
 		}
@@ -150,6 +283,18 @@ public class HttpRequest
 	}
 	
 	
+	/**
+	 * Returns the request line as it was received.
+	 * 
+	 * @return
+	 * 		Request line or {@code null} if the request line could not be read.
+	 */
+	public String getRequestLine()
+	{
+		return _requestLine;
+	}
+	
+	
 	/**
 	 * Returns the request method.
 	 * 
@@ -186,9 +331,121 @@ public class HttpRequest
 	}
 
 
+	/**
+	 * Returns a query parameter.
+	 * 
+	 * @param name
+	 * 		The parameter name.
+	 * 
+	 * @return
+	 * 		The decoded value or {@code null} if the parameter was not given.
+	 */
+	public String getParameter(String name)
+	{
+		return _parameters.get(name);
+	}
+	
+	
+	/**
+	 * Checks if the request has a message body.
+	 * 
+	 * @return
+	 * 		{@code true} if the body is chunked or its length is not zero.
+	 */
+	public boolean hasBody()
+	{
+		return
+			_headerFields.containsKey("Transfer-Encoding")
+			|| (
+				_headerFields.containsKey("Content-Length")
+				&& !_headerFields.get("Content-Length").equals("0")
+			);
+	}
+	
+	
+	/**
+	 * Returns the length of the message body.
+	 * 
+	 * @return
+	 * 		The value of {@code Content-Length}, 0 if there is no body or -1 if the length is
+	 * 		not known in advance (i.e. the body is chunked).
+	 */
+	public long getContentLength()
+	{
+		if(_headerFields.containsKey("Transfer-Encoding"))
+			return -1;
+		String contentLength = _headerFields.get("Content-Length");
+		return contentLength == null ? 0 : Long.parseLong(contentLength);
+	}
+	
+	
+	/**
+	 * Returns a stream for reading the message body. The stream ends at the end of the body
+	 * and closing it does not close the connection. The body can be read only once.
+	 * 
+	 * @return
+	 * 		The message body.
+	 */
+	public InputStream getBody()
+	{
+		InputStream body =
+			_headerFields.containsKey("Transfer-Encoding") ?
+				new ChunkedInputStream(_stream) :
+				new ContentLengthInputStream(_stream, getContentLength());
+		return
+			new FilterInputStream(body) {
+				public int read()
+					throws
+						IOException
+				{
+					return eof(super.read());
+				}
+				
+				public int read(byte[] b, int off, int len)
+					throws
+						IOException
+				{
+					return eof(super.read(b, off, len));
+				}
+				
+				private int eof(int n)
+				{
+					if(n == -1)
+						_bodyRead = true;
+					return n;
+				}
+			};
+	}
+	
+	
+	/**
+	 * Checks if the client wants to keep the connection open for further requests.
+	 * HTTP/1.1 connections are persistent unless {@code Connection: close} is given and
+	 * HTTP/1.0 connections only if {@code Connection: keep-alive} is given. Requests with
+	 * a message body are persistent only if the whole body has been read.
+	 * 
+	 * @return
+	 * 		{@code true} if the connection can be kept open.
+	 */
+	public boolean isKeepAlive()
+	{
+		if(_statusCode != HttpStatusCode.SC200)
+			return false;
+		
+		if(hasBody() && !_bodyRead)
+			return false;
+		
+		String connection = _headerFields.get("Connection");
+		if("HTTP/1.1".equals(_httpVersion))
+			return connection == null || !connection.equalsIgnoreCase("close");
+		else
+			return connection != null && connection.equalsIgnoreCase("keep-alive");
+	}
+
+
 	/**
 	 * Returns header fields as a {@link Map}. The {@code key} contains the field name and
-	 * the {@code value} has the value of the field.
+	 * the {@code value} has the value of the field. Field names are case insensitive.
 	 * 
 	 * @return
 	 * 		Header fields.
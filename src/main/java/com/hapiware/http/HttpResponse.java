@@ -1,30 +1,45 @@
 package com.hapiware.http;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.StringTokenizer;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
 
 
 /**
  * {@code HttpResponse} gets the {@link HttpRequest} and writes the HTTP response to
- * {@link OutputStream}.
+ * {@link HttpConnection}.
  * <p/>
  * In general the response is a HTML representation of the current directory. However, if
  * a file is requested then what happens depends on the ending of the file name. Basically
@@ -33,7 +48,7 @@ import java.util.zip.ZipFile;
  * files are downloaded. See {@link DocType} how different file name endings are handled.
  * 
  * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
- * @see #write(OutputStream)
+ * @see #write(HttpConnection)
  * @see DocType
  */
 public class HttpResponse
@@ -61,7 +76,6 @@ public class HttpResponse
 
 	
 	private final static String HTTP_VERSION = "HTTP/1.1";
-	private final static String CRLF = "\r\n";
 	private final static String HOME_CLASS = "home";
 	private final static String PARENT_CLASS = "parent";
 	private final static String DIR_CLASS = "directory";
@@ -72,11 +86,75 @@ public class HttpResponse
 	private final static String CSS_ROOT =  RESOURCE_ROOT + CSS;
 	private final static String CSS_NAME = "style.css";
 	private final static String TEXT_PLAIN = "text/plain";
-	private final static String APPLICATION_XML = "application/xml";
+	private final static String ARCHIVE_SEPARATOR = "!/";
 	private final static int MAX_NUMBER_OF_ZIP_ENTRIES = 500;
+	private final static int DEFAULT_NUMBER_OF_LINES = 100;
+	private final static int MAX_NUMBER_OF_LINES = 100000;
+	private final static int DEFAULT_NUMBER_OF_FOLLOW_LINES = 10;
+	private final static int MAX_FOLLOW_BACKLOG = 1024 * 1024;
+	private final static int MAX_TAIL_SIZE = 16 * 1024 * 1024;
+	private final static long SSE_HEARTBEAT_MS = 15000;
+	private final static long MANIFEST_TIME_MARGIN_MS = 2000;
+	private final static long FOLLOW_DISCONNECT_CHECK_MS = 1000;
+	private final static String EVENT_STREAM = "text/event-stream";
+	private final static String APPLICATION_JSON = "application/json";
+	private final static String APPLICATION_NDJSON = "application/x-ndjson";
+	private final static String APPLICATION_OCTET_STREAM = "application/octet-stream";
+	private final static int MAX_RANGES = 64;
+	private final static long DEFAULT_WATCH_TIMEOUT_S = 30;
+	private final static long MAX_WATCH_TIMEOUT_S = 120;
+	private final static int STREAM_BUFFER_SIZE = BufferPool.MEDIUM_SIZE;
+	private final static int THROTTLED_CHUNK_SIZE = 16 * 1024;
+	private final static int ZERO_COPY_CHUNK_SIZE = 64 * 1024;
+	private final static String STATIC_RESOURCE_CACHE_CONTROL = "public, max-age=86400";
+	private final static byte[] GZIP_HEADER = { 0x1f, (byte)0x8b, 8, 0, 0, 0, 0, 0, 0, (byte)0xff };
+	private final static int GZIP_TRAILER_SIZE = 8;
+	private final static ConcurrentMap<String, byte[]> RESOURCES =
+		new ConcurrentHashMap<String, byte[]>();
+	private final static byte[] SSE_DATA = "data: ".getBytes();
+	private final static byte[] SSE_NEXT_DATA = "\ndata: ".getBytes();
+	private final static byte[] SSE_HEARTBEAT = ":\n\n".getBytes();
+	private final static byte[] SSE_TRUNCATED = "event: truncated\ndata:\n\n".getBytes();
+	private final static byte[] SSE_RESYNC = "event: resync\ndata:\n\n".getBytes();
+	private final static String[] RELAYED_REQUEST_FIELDS =
+		{ "Accept", "Accept-Encoding", "Last-Event-ID" };
+	private final static String[] RELAYED_RESPONSE_FIELDS = { "Content-Encoding", "Vary" };
 	
 	
 	private final HttpRequest _request;
+	private HttpConnection _connection;
+	private final boolean _keepAliveAllowed;
+	private boolean _keepAlive;
+	private HttpStatusCode _statusCode;
+	
+	/**
+	 * Number of bytes of the written header(s). The access log reports only the body bytes.
+	 */
+	private long _headerBytes = 0;
+	
+	/**
+	 * {@code Cache-Control} header value for the response or {@code null} if the header
+	 * is not written.
+	 */
+	private String _cacheControl;
+	
+	/**
+	 * {@code ETag} and {@code Last-Modified} header values for the response or {@code null}
+	 * if the headers are not written.
+	 */
+	private String _etag;
+	private String _lastModified;
+	
+	/**
+	 * Additional header fields as name-value pairs or {@code null} if there are none.
+	 */
+	private List<String[]> _headerFields;
+	
+	/**
+	 * Additional header fields whose values vary from response to response (and are not
+	 * worth caching) or {@code null} if there are none.
+	 */
+	private List<String[]> _variableHeaderFields;
 	
 	/**
 	 * This variable is only for logging purpouses.
@@ -85,55 +163,173 @@ public class HttpResponse
 	
 	
 	public HttpResponse(HttpRequest request)
+	{
+		this(request, false);
+	}
+	
+	/**
+	 * Creates a response which keeps the connection open if both the client and
+	 * the server allow it.
+	 * 
+	 * @param request
+	 * 		The request to respond to.
+	 * 
+	 * @param keepAliveAllowed
+	 * 		{@code true} if the server allows the connection to be kept open after
+	 * 		the response.
+	 */
+	public HttpResponse(HttpRequest request, boolean keepAliveAllowed)
 	{
 		_request = request;
+		_keepAliveAllowed = keepAliveAllowed;
+		_keepAlive = keepAliveAllowed && request.isKeepAlive();
+	}
+	
+	
+	/**
+	 * Returns the status code of the written response.
+	 * 
+	 * @return
+	 * 		Status code or {@code null} if the response header has not been written.
+	 */
+	public HttpStatusCode getStatusCode()
+	{
+		return _statusCode;
+	}
+	
+	
+	/**
+	 * Returns the number of header bytes written to the connection.
+	 * 
+	 * @return
+	 * 		Number of bytes.
+	 */
+	public long getHeaderBytes()
+	{
+		return _headerBytes;
+	}
+	
+	
+	/**
+	 * Checks if the connection can be used for the next request after this response has
+	 * been written. A failed response always closes the connection.
+	 * 
+	 * @return
+	 * 		{@code true} if the connection can be kept open.
+	 */
+	public boolean isKeepAlive()
+	{
+		return _keepAlive;
 	}
 
 	
 	/**
-	 * Writes the HTTP response to a given {@link OutputStream}.
+	 * Writes the HTTP response to a given {@link HttpConnection}. The output is not flushed.
 	 * 
-	 * @param os
-	 * 		The {@link OutputStream} where the HTTP response is to be written.
+	 * @param connection
+	 * 		The {@link HttpConnection} where the HTTP response is to be written.
 	 * 
 	 * @throws IOException
 	 * 		If an I/O error occurs.
 	 */
-	public void write(OutputStream os)
+	public void write(HttpConnection connection)
+		throws
+			IOException
+	{
+		_connection = connection;
+		FlightRecorder recorder = FlightRecorder.getInstance();
+		long startNs = recorder.begin();
+		String handler = route(connection.getOutputStream());
+		if(startNs != 0)
+			recorder.commit(
+				FlightRecorder.EventType.ROUTE,
+				startNs,
+				-1,
+				handler + " " + (_statusCode == null ? "-" : _statusCode.getStatusCode()) + " "
+					+ (_request.getUri() == null ? "-" : _request.getUri().getPath())
+			);
+	}
+	
+	
+	/**
+	 * Selects the handler for the request and writes the response with it.
+	 * 
+	 * @param os
+	 * 
+	 * @return
+	 * 		The name of the handler for the flight recorder.
+	 * 
+	 * @throws IOException
+	 */
+	private String route(OutputStream os)
 		throws
 			IOException
 	{
 		if(_request.getStatusCode() != HttpStatusCode.SC200) {
 			String contentType = "text/html";
 			writeHeader(os, _request.getStatusCode(), contentType, 0);
-			return;
+			return "invalid";
 		}
 		
 		String uriPath = _request.getUri().getPath();
 		
+		// Handles uploads (PUT and POST).
+		if(_request.getRequestMethod() != HttpRequest.SupportedRequestMethod.GET) {
+			writeUpload(os);
+			return "upload";
+		}
+		
+		// Handles the metrics for monitoring.
+		if(uriPath.equals(Metrics.getInstance().getPath())) {
+			writeMetrics(os);
+			return "metrics";
+		}
+		
 		// Handles favicon.ico
 		if(uriPath.contains("favicon.ico")) {
 			writeFavicon(os);
-			return;
+			return "favicon";
 		}
 		
 		// Handles CSS style sheet request.
 		if(uriPath.equals(CSS_ROOT + CSS_NAME)) {
 			writeCss(os);
-			return;
+			return "css";
 		}
 		
 		// Handles required resources by url values (images).
 		if(uriPath.contains(CSS_ROOT)) {
 			writeImage(os, uriPath.substring(CSS_ROOT.length()));
-			return;
+			return "image";
+		}
+		
+		// A mirror serves the upstream instead of the local directory tree.
+		if(MirrorCache.getInstance() != null) {
+			writeMirrored(os);
+			return "mirror";
+		}
+		
+		// Handles paths inside of archives (e.g. /app.ear!/lib/x.jar!/META-INF/).
+		if(uriPath.contains(ARCHIVE_SEPARATOR) && !new File(".", uriPath).exists()) {
+			writeArchivePath(os);
+			return "archive";
 		}
 		
 		// Handles directories and files.
-		if(uriPath.endsWith("/"))
+		if(uriPath.endsWith("/") && "watch".equals(_request.getParameter("op"))) {
+			writeWatch(os);
+			return "watch";
+		}
+		if(uriPath.endsWith("/") && "manifest".equals(_request.getParameter("op"))) {
+			writeManifest(os);
+			return "manifest";
+		}
+		if(uriPath.endsWith("/")) {
 			writeDirectories(os);
-		else
-			writeFiles(os);
+			return "directory";
+		}
+		writeFiles(os);
+		return "file";
 	}
 	
 
@@ -167,7 +363,7 @@ public class HttpResponse
 			linkForFileName = "<a href=\"" + uriPath + fileName + "\">" + fileName + "</a>";
 		String peekLink  = "";
 		if(documentClass.equals(ZIP_CLASS) || documentClass.equals(JAR_CLASS))
-			peekLink = "<a href=\"" + uriPath + fileName + "?op=peek" + "\"/>";
+			peekLink = "<a href=\"" + uriPath + fileName + ARCHIVE_SEPARATOR + "\"/>";
 		return 
 			addTableRowFixed(
 				documentClass,
@@ -225,6 +421,57 @@ public class HttpResponse
 	}
 	
 	
+	/**
+	 * Adds a header field to be written with the response header.
+	 * 
+	 * @param name
+	 * 		The field name.
+	 * 
+	 * @param value
+	 * 		The field value.
+	 */
+	private void addHeaderField(String name, String value)
+	{
+		if(_headerFields == null)
+			_headerFields = new ArrayList<String[]>(2);
+		_headerFields.add(new String[] { name, value });
+	}
+	
+	/**
+	 * Adds a header field whose value varies from response to response (e.g.
+	 * {@code Content-Range}).
+	 * 
+	 * @param name
+	 * 		The field name.
+	 * 
+	 * @param value
+	 * 		The field value.
+	 */
+	private void addVariableHeaderField(String name, String value)
+	{
+		if(_variableHeaderFields == null)
+			_variableHeaderFields = new ArrayList<String[]>(2);
+		_variableHeaderFields.add(new String[] { name, value });
+	}
+	
+	
+	/**
+	 * Writes the response header from pre-encoded templates.
+	 * 
+	 * @param os
+	 * 
+	 * @param statusCode
+	 * 
+	 * @param contentType
+	 * 		MIME type or an empty string if the response has no content.
+	 * 
+	 * @param contentLength
+	 * 		Content length or -1 if the length is not known beforehand.
+	 * 
+	 * @throws IOException
+	 * 
+	 * @see HeaderEncoder
+	 */
 	private void writeHeader(
 		OutputStream os,
 		HttpStatusCode statusCode,
@@ -232,24 +479,33 @@ public class HttpResponse
 		long contentLength
 	) throws IOException
 	{
-		String responseHeader = HTTP_VERSION + " ";
-		responseHeader += statusCode.getStatusCode() + " " + statusCode.getReasonPhrase() + CRLF;
-		if(statusCode == HttpStatusCode.SC405) {
-			responseHeader += "Allow: ";
-			HttpRequest.SupportedRequestMethod m[] = HttpRequest.SupportedRequestMethod.values();
-			for(int i = 0; i < m.length - 1; i++)
-				responseHeader += m[i] + ", ";
-			responseHeader += m[m.length - 1];
-		}
-		DateFormat df = DateFormat.getDateTimeInstance(DateFormat.LONG, DateFormat.FULL);
-		responseHeader += "Date: " + df.format(new Date()) + CRLF;
-		responseHeader += "Server: FileWeb/1.0 (Java/5.0)" + CRLF;
-		responseHeader += "Content-Type: " + contentType + CRLF;
-		responseHeader += "Content-Length: " + contentLength + CRLF;
-		responseHeader += "Connection: close" + CRLF;
-		responseHeader += CRLF;
-		log(responseHeader, statusCode);
-		os.write(responseHeader.getBytes());
+		long bytesSent = _connection.getBytesSent();
+		_statusCode = statusCode;
+		HeaderEncoder.writeStatusLine(os, statusCode);
+		if(statusCode == HttpStatusCode.SC405)
+			os.write(isUploadEnabled() ? HeaderEncoder.ALLOW : HeaderEncoder.ALLOW_GET);
+		HeaderEncoder.writeDate(os);
+		os.write(HeaderEncoder.SERVER);
+		if(contentType.length() > 0)
+			HeaderEncoder.writeCachedField(os, "Content-Type", contentType);
+		if(contentLength >= 0)
+			HeaderEncoder.writeContentLength(os, contentLength);
+		if(_cacheControl != null)
+			HeaderEncoder.writeCachedField(os, "Cache-Control", _cacheControl);
+		if(_etag != null)
+			HeaderEncoder.writeField(os, "ETag", _etag);
+		if(_lastModified != null)
+			HeaderEncoder.writeField(os, "Last-Modified", _lastModified);
+		if(_headerFields != null)
+			for(String[] field : _headerFields)
+				HeaderEncoder.writeCachedField(os, field[0], field[1]);
+		if(_variableHeaderFields != null)
+			for(String[] field : _variableHeaderFields)
+				HeaderEncoder.writeField(os, field[0], field[1]);
+		os.write(_keepAlive ? HeaderEncoder.CONNECTION_KEEP_ALIVE : HeaderEncoder.CONNECTION_CLOSE);
+		os.write(HeaderEncoder.CRLF);
+		_headerBytes += _connection.getBytesSent() - bytesSent;
+		log(statusCode, contentType, contentLength);
 	}
 	
 	
@@ -257,17 +513,71 @@ public class HttpResponse
 		throws
 			IOException
 	{
-		HttpStatusCode statusCode = HttpStatusCode.SC404;
+		writeError(os, HttpStatusCode.SC404);
+	}
+	
+	private void writeError(OutputStream os, HttpStatusCode statusCode)
+		throws
+			IOException
+	{
+		_headerFields = null;
+		_variableHeaderFields = null;
+		writeErrorPage(os, statusCode);
+	}
+	
+	private void writeUnauthorized(OutputStream os)
+		throws
+			IOException
+	{
+		_headerFields = null;
+		_variableHeaderFields = null;
+		addHeaderField("WWW-Authenticate", "Basic realm=\"fileweb\"");
+		writeErrorPage(os, HttpStatusCode.SC401);
+	}
+	
+	private void writeErrorPage(OutputStream os, HttpStatusCode statusCode)
+		throws
+			IOException
+	{
+		FlightRecorder recorder = FlightRecorder.getInstance();
+		long startNs = recorder.begin();
+		if(startNs != 0)
+			recorder.commit(
+				FlightRecorder.EventType.ERROR,
+				startNs,
+				-1,
+				statusCode.getStatusCode() + " " + _request.getUri()
+			);
 		String content =
 			htmlBody(
 				statusCode.getStatusCode() + " : " + statusCode.getReasonPhrase() + "\n"
 			);
 		_contentForLogging = content;
-		writeHeader(os, statusCode, "text/html", content.length());
-		os.write(content.getBytes());
+		byte[] bytes = content.getBytes();
+		writeHeader(os, statusCode, "text/html", bytes.length);
+		os.write(bytes);
 	}
 	
 
+	/**
+	 * Writes the server statistics in the Prometheus text format.
+	 * 
+	 * @param os
+	 * 
+	 * @throws IOException
+	 */
+	private void writeMetrics(OutputStream os)
+		throws
+			IOException
+	{
+		byte[] bytes = Metrics.getInstance().render();
+		_contentForLogging = "metrics";
+		_cacheControl = "no-cache";
+		writeHeader(os, HttpStatusCode.SC200, Metrics.CONTENT_TYPE, bytes.length);
+		os.write(bytes);
+	}
+	
+	
 	/**
 	 * Fetches a requested favicon.ico and writes it to {@link OutputStream}.
 	 * 
@@ -279,33 +589,17 @@ public class HttpResponse
 		throws
 			IOException
 	{
-		InputStream is = null;
-		try {
-			is =
-				Thread
-					.currentThread()
-					.getContextClassLoader()
-					.getResourceAsStream("img/favicon.ico");
-			if(is == null) {
-				writeHeader(os, HttpStatusCode.SC204, "", 0);
-				return;
-			}
-			
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			int b;
-			while((b = is.read()) != -1)
-				out.write(b);
-			byte[] favicon = out.toByteArray();
-			out.close();
-			_contentForLogging = "favicon.ico";
-			String contentType = "image/x-icon";
-			writeHeader(os, HttpStatusCode.SC200, contentType, favicon.length);
-			os.write(favicon);
-		}
-		finally {
-			if(is != null)
-				is.close();
+		byte[] favicon = getResource("img/favicon.ico");
+		if(favicon == null) {
+			writeHeader(os, HttpStatusCode.SC204, "", 0);
+			return;
 		}
+		
+		_contentForLogging = "favicon.ico";
+		_cacheControl = STATIC_RESOURCE_CACHE_CONTROL;
+		String contentType = "image/x-icon";
+		writeHeader(os, HttpStatusCode.SC200, contentType, favicon.length);
+		os.write(favicon);
 	}
 	
 	/**
@@ -319,33 +613,17 @@ public class HttpResponse
 		throws
 			IOException
 	{
-		InputStream is = null;
-		try {
-			is =
-				Thread
-					.currentThread()
-					.getContextClassLoader()
-					.getResourceAsStream(CSS + CSS_NAME);
-			if(is == null) {
-				writeHeader(os, HttpStatusCode.SC204, "", 0);
-				throw new IllegalStateException(CSS + CSS_NAME + " is missing.");
-			}
-			
-			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			int b;
-			while((b = is.read()) != -1)
-				out.write(b);
-			byte[] styleSheet = out.toByteArray();
-			out.close();
-			_contentForLogging = CSS_ROOT + CSS_NAME;
-			String contentType = "text/css";
-			writeHeader(os, HttpStatusCode.SC200, contentType, styleSheet.length);
-			os.write(styleSheet);
-		}
-		finally {
-			if(is != null)
-				is.close();
+		byte[] styleSheet = getResource(CSS + CSS_NAME);
+		if(styleSheet == null) {
+			writeHeader(os, HttpStatusCode.SC204, "", 0);
+			throw new IllegalStateException(CSS + CSS_NAME + " is missing.");
 		}
+		
+		_contentForLogging = CSS_ROOT + CSS_NAME;
+		_cacheControl = STATIC_RESOURCE_CACHE_CONTROL;
+		String contentType = "text/css";
+		writeHeader(os, HttpStatusCode.SC200, contentType, styleSheet.length);
+		os.write(styleSheet);
 	}
 	
 	
@@ -362,33 +640,63 @@ public class HttpResponse
 		throws
 			IOException
 	{
-		InputStream is = null;
+		byte[] image = getResource(imageName);
+		if(image == null) {
+			writeHeader(os, HttpStatusCode.SC204, "", 0);
+			throw new IllegalStateException("Image '" + imageName + "' was not found.");
+		}
+		
+		_contentForLogging = imageName;
+		_cacheControl = STATIC_RESOURCE_CACHE_CONTROL;
+		DocType docType = new DocType(imageName);
+		writeHeader(os, HttpStatusCode.SC200, docType.getMimeType(), image.length);
+		os.write(image);
+	}
+	
+	
+	/**
+	 * Returns a resource (e.g. an image) of the jar. Resources do not change, so they are
+	 * read only once.
+	 * 
+	 * @param name
+	 * 		The resource name.
+	 * 
+	 * @return
+	 * 		The content or {@code null} if the resource does not exist. The array is shared
+	 * 		and must not be modified.
+	 * 
+	 * @throws IOException
+	 */
+	private static byte[] getResource(String name)
+		throws
+			IOException
+	{
+		byte[] content = RESOURCES.get(name);
+		if(content != null)
+			return content;
+		
+		InputStream is =
+			Thread
+				.currentThread()
+				.getContextClassLoader()
+				.getResourceAsStream(name);
+		if(is == null)
+			return null;
+		
+		byte[] buffer = BufferPool.getInstance().acquire(BufferPool.SMALL_SIZE);
 		try {
-			is =
-				Thread
-					.currentThread()
-					.getContextClassLoader()
-					.getResourceAsStream(imageName);
-			if(is == null) {
-				writeHeader(os, HttpStatusCode.SC204, "", 0);
-				throw new IllegalStateException("Image '" + imageName + "' was not found.");
-			}
-			
 			ByteArrayOutputStream out = new ByteArrayOutputStream();
-			int b;
-			while((b = is.read()) != -1)
-				out.write(b);
-			byte[] image = out.toByteArray();
-			out.close();
-			_contentForLogging = imageName;
-			DocType docType = new DocType(imageName);
-			writeHeader(os, HttpStatusCode.SC200, docType.getMimeType(), image.length);
-			os.write(image);
+			int n;
+			while((n = is.read(buffer)) != -1)
+				out.write(buffer, 0, n);
+			content = out.toByteArray();
 		}
 		finally {
-			if(is != null)
-				is.close();
+			BufferPool.getInstance().release(buffer);
+			is.close();
 		}
+		RESOURCES.putIfAbsent(name, content);
+		return content;
 	}
 
 	
@@ -403,31 +711,55 @@ public class HttpResponse
 		throws
 			IOException
 	{
-		String uriPath = _request.getUri().getPath();
-		File directory = new File(".", uriPath);
+		final String uriPath = _request.getUri().getPath();
+		final File directory = new File(".", uriPath);
 		if(!directory.exists()) {
 			LOGGER.info(uriPath + " was not found.");
 			writeError(os);
 			return;
 		}
 		
-		String fileList = "<h1>" + uriPath + "</h1>\n";
-		fileList += "<table>\n";
-		if(!uriPath.equals("/")) {
-			String parent = uriPath.substring(0, uriPath.length() - 2);
-			int i = parent.lastIndexOf("/");
-			fileList +=
-				addTableRowFixed(HOME_CLASS, "<a href=\"/\">root</a>", "", null, "", "");
-			fileList += 
-				addTableRowFixed(
-					PARENT_CLASS,
-					"<a href=\"" + parent.substring(0, i) + "/\">..</a>",
-					"",
-					null,
-					"",
-					""
-				);
-		}
+		// Concurrent requests for the same unchanged directory share one listing.
+		byte[] bytes =
+			RequestCoalescer.getInstance().execute(
+				"list\t" + uriPath + "\t" + directory.lastModified(),
+				new Callable<byte[]>() {
+					public byte[] call()
+					{
+						FlightRecorder recorder = FlightRecorder.getInstance();
+						long startNs = recorder.begin();
+						byte[] listing = createDirectoryListing(uriPath, directory).getBytes();
+						recorder.commit(
+							FlightRecorder.EventType.LISTING,
+							startNs,
+							listing.length,
+							uriPath
+						);
+						return listing;
+					}
+				}
+			);
+		_contentForLogging = uriPath;
+		writeHeader(os, HttpStatusCode.SC200, "text/html", bytes.length);
+		os.write(bytes);
+	}
+	
+	
+	/**
+	 * Creates an HTML listing of a directory. Directories are listed first.
+	 * 
+	 * @param uriPath
+	 * 		The requested path.
+	 * 
+	 * @param directory
+	 * 		The directory.
+	 * 
+	 * @return
+	 * 		The HTML document.
+	 */
+	private String createDirectoryListing(String uriPath, File directory)
+	{
+		String fileList = listingHead(uriPath);
 		DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.SHORT);
 		DateFormat timeFormat = DateFormat.getTimeInstance(DateFormat.SHORT);
 		for(File f : directory.listFiles()) {
@@ -445,7 +777,7 @@ public class HttpResponse
 			}
 		}
 		for(File f : directory.listFiles()) {
-			if(f.isFile()) {
+			if(f.isFile() && !UploadSupport.isTemporaryFile(f.getName())) {
 				Date d = new Date(f.lastModified());
 				DocType type = new DocType(f.getName());
 				fileList +=
@@ -460,145 +792,1935 @@ public class HttpResponse
 			}
 		}
 		fileList += "</table>\n";
-		String content = htmlBody(fileList);
-		_contentForLogging = content;
-		writeHeader(os, HttpStatusCode.SC200, "text/html", content.length());
-		os.write(content.getBytes());
+		if(isUploadEnabled()) {
+			fileList +=
+				"<form method=\"post\" enctype=\"multipart/form-data\" action=\"" + uriPath + "\">\n";
+			fileList += "  <input type=\"file\" name=\"file\" multiple=\"multiple\"/>\n";
+			fileList += "  <input type=\"submit\" value=\"Upload\"/>\n";
+			fileList += "</form>\n";
+		}
+		return htmlBody(fileList);
 	}
 	
 	
 	/**
-	 * Writes a requested file with a correct MIME type to {@link OutputStream}.
+	 * Pushes changes of a directory to the client. Clients accepting
+	 * {@code text/event-stream} get a stream of Server-Sent Events (the event id is
+	 * the event number, so {@code Last-Event-ID} continues where a dropped connection
+	 * ended). Other clients long-poll; the response is sent as soon as there are events
+	 * after {@code since} or {@code timeout} seconds have passed, for example:
+	 * <pre>
+	 * 	{"sequence":1287654321000003,"resync":false,"events":[
+	 * 		{"type":"create","name":"build-42.zip","directory":false}]}
+	 * </pre>
+	 * 
+	 * The next request gives {@code sequence} as {@code since}. If events have been lost
+	 * {@code resync} is {@code true} and the client should list the directory again.
 	 * 
 	 * @param os
 	 * 
 	 * @throws IOException
+	 * 
+	 * @see DirectoryWatcher
 	 */
-	private void writeFiles(OutputStream os)
+	private void writeWatch(OutputStream os)
 		throws
 			IOException
 	{
 		String uriPath = _request.getUri().getPath();
-		BufferedInputStream is = null;
+		File directory = new File(".", uriPath);
+		if(!directory.isDirectory()) {
+			LOGGER.info(uriPath + " was not found.");
+			writeError(os);
+			return;
+		}
+		
+		String accept = _request.getHeaderFields().get("Accept");
+		boolean sse = accept != null && accept.contains(EVENT_STREAM);
+		String since = _request.getParameter("since");
+		if(sse && _request.getHeaderFields().get("Last-Event-ID") != null)
+			since = _request.getHeaderFields().get("Last-Event-ID");
+		long timeout =
+			Math.min(
+				parseNumber(_request.getParameter("timeout"), DEFAULT_WATCH_TIMEOUT_S),
+				MAX_WATCH_TIMEOUT_S
+			);
+		
+		_contentForLogging = uriPath + " : watch()";
+		_cacheControl = "no-cache";
+		DirectoryWatcher.Subscription subscription =
+			DirectoryWatcher.getInstance().watch(directory, parseNumber(since, -1));
 		try {
-			File f = new File(".", uriPath);
-			if(f.exists()) {
-				DocType docType = new DocType(f.getName());
-				String query = _request.getUri().getQuery(); 
-				if(query != null && query.equals("op=peek")) {
-					// Lists the content of jar and zip files.
-					
-					_contentForLogging = f.getName() + " : peek()";
-					if(
-						docType.getDocumentClass().equals(JAR_CLASS) ||
-						docType.getDocumentClass().equals(ZIP_CLASS)
-					) {
-						ZipFile z = new ZipFile(f);
-						int numOfZipEntries = 0;
-						Enumeration<? extends ZipEntry> entries = z.entries();
-						String list = "";
-						while(
-							numOfZipEntries++ < MAX_NUMBER_OF_ZIP_ENTRIES
-							&& entries.hasMoreElements()
-						)
-							list += entries.nextElement().getName() + "\n";
-						
-						if(numOfZipEntries >= MAX_NUMBER_OF_ZIP_ENTRIES)
-							list += "... entries. First " + numOfZipEntries + " was shown.\n";
-						
-						writeHeader(os, HttpStatusCode.SC200, TEXT_PLAIN, list.length());
-						os.write(list.getBytes());
-					}
-					else {
-						LOGGER.warning("An attempt to peek uri: " + uriPath);
-						writeError(os);
+			if(sse)
+				streamWatchEvents(os, subscription);
+			else {
+				List<DirectoryWatcher.Event> events =
+					subscription.next(Math.max(0, timeout) * 1000);
+				StringBuilder content = new StringBuilder(256);
+				content.append("{\"sequence\":").append(subscription.getSequence());
+				content.append(",\"resync\":").append(events == null);
+				content.append(",\"events\":[");
+				if(events != null) {
+					for(int i = 0; i < events.size(); i++) {
+						if(i > 0)
+							content.append(',');
+						content.append("{\"type\":\"");
+						content.append(events.get(i).getType().name().toLowerCase());
+						content.append("\",");
+						appendEventFields(content, events.get(i));
+						content.append('}');
 					}
 				}
-				else {
-					_contentForLogging = f.getName();
-					writeHeader(os, HttpStatusCode.SC200, docType.getMimeType(), f.length());
-					is = new BufferedInputStream(new FileInputStream(f));
-					byte[] buffer = new byte[4096];
-					while((is.read(buffer)) != -1)
-						os.write(buffer);
-				}
-			}
-			else {
-				LOGGER.info(uriPath + " was not found.");
-				writeError(os);
+				content.append("]}\n");
+				byte[] bytes = content.toString().getBytes("UTF-8");
+				writeHeader(os, HttpStatusCode.SC200, APPLICATION_JSON, bytes.length);
+				os.write(bytes);
 			}
 		}
-		catch(FileNotFoundException e) {
-			LOGGER.log(Level.INFO, uriPath + " was not found.", e);
-		}
-		catch(IOException e) {
-			LOGGER.log(Level.SEVERE, "Error reading file: " + uriPath, e);
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			_keepAlive = false;
 		}
 		finally {
-			try {
-				if(is != null)
-					is.close();
-			}
-			catch(IOException e) {
-				// Does nothing.
-			}
+			subscription.close();
 		}
 	}
 	
-	
 	/**
-	 * Makes some logging about the response. The logging level affects how much information
-	 * is shown. Levels used are, FINE, FINER and FINEST.
-	 * 
-	 * @param responseHeader
-	 * 		A header to be parsed.
-	 * 
-	 * @param statusCode
-	 * 		Current status code.
+	 * Streams directory events until the client disconnects. Each follower reserves
+	 * a worker thread.
+	 */
+	private void streamWatchEvents(OutputStream os, DirectoryWatcher.Subscription subscription)
+		throws
+			IOException,
+			InterruptedException
+	{
+		_keepAlive = false;
+		boolean chunked = "HTTP/1.1".equals(_request.getHttpVersion());
+		if(chunked)
+			addHeaderField("Transfer-Encoding", "chunked");
+		writeHeader(os, HttpStatusCode.SC200, EVENT_STREAM, -1);
+		OutputStream out = chunked ? new ChunkedOutputStream(os) : os;
+		out.flush();
+		try {
+			while(true) {
+				List<DirectoryWatcher.Event> events = subscription.next(SSE_HEARTBEAT_MS);
+				if(events == null)
+					out.write(SSE_RESYNC);
+				else if(events.isEmpty())
+					out.write(SSE_HEARTBEAT);
+				else {
+					StringBuilder content = new StringBuilder(128 * events.size());
+					for(DirectoryWatcher.Event event : events) {
+						content.append("id: ").append(event.getSequence()).append('\n');
+						content.append("event: ");
+						content.append(event.getType().name().toLowerCase()).append('\n');
+						content.append("data: {");
+						appendEventFields(content, event);
+						content.append("}\n\n");
+					}
+					out.write(content.toString().getBytes("UTF-8"));
+				}
+				out.flush();
+			}
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.FINE, "A watcher of " + _request.getUri() + " disconnected.", e);
+		}
+	}
+	
+	private static void appendEventFields(StringBuilder content, DirectoryWatcher.Event event)
+	{
+		content.append("\"name\":");
+		appendJsonString(content, event.getName());
+		content.append(",\"directory\":").append(event.isDirectory());
+	}
+	
+	private static void appendJsonString(StringBuilder content, String value)
+	{
+		content.append('"');
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '"' || c == '\\')
+				content.append('\\').append(c);
+			else if(c < 0x20)
+				content.append(String.format("\\u%04x", (int)c));
+			else
+				content.append(c);
+		}
+		content.append('"');
+	}
+	
+	
+	/**
+	 * Writes a recursive listing of a directory as newline delimited JSON. The first line
+	 * tells the server time when the listing was started (less a margin of
+	 * {@value #MANIFEST_TIME_MARGIN_MS} ms), the other lines describe
+	 * the files and directories, for example:
+	 * <pre>
+	 * 	{"time":1287654321000,"since":0}
+	 * 	{"path":"lib","mtime":1287654000000,"directory":true}
+	 * 	{"path":"lib/x.jar","size":1234,"mtime":1287654000000,"sha256":"9f86d0..."}
+	 * </pre>
+	 * 
+	 * With {@code since} only the entries modified at or after the given time (e.g. the time
+	 * of the previous manifest) are listed. The margin covers file systems storing times
+	 * with a coarse (e.g. one or two second) precision and files modified while the listing
+	 * is made, so a file may be listed twice but it is never missed. Deleted entries can be found only by comparing full
+	 * manifests. With {@code hash} (e.g. {@code hash=sha256}) the checksums already known
+	 * by {@link ChecksumCache} are added, but no checksums are calculated. The listing is
+	 * gzipped if the client accepts it.
+	 * 
+	 * @param os
+	 * 
+	 * @throws IOException
+	 * 
+	 * @see TreeWalker
+	 */
+	private void writeManifest(OutputStream os)
+		throws
+			IOException
+	{
+		String uriPath = _request.getUri().getPath();
+		File directory = new File(".", uriPath);
+		long since = parseNumber(_request.getParameter("since"), 0);
+		String hash = _request.getParameter("hash");
+		ChecksumCache.Algorithm algorithm = ChecksumCache.Algorithm.forName(hash);
+		if(!directory.isDirectory() || since < 0 || (hash != null && algorithm == null)) {
+			LOGGER.info("An invalid manifest request: " + _request.getUri());
+			writeError(os, directory.isDirectory() ? HttpStatusCode.SC400 : HttpStatusCode.SC404);
+			return;
+		}
+		
+		long time = System.currentTimeMillis() - MANIFEST_TIME_MARGIN_MS;
+		boolean chunked = "HTTP/1.1".equals(_request.getHttpVersion());
+		boolean gzip = acceptsGzip();
+		_contentForLogging = uriPath + " : manifest()";
+		TreeWalker.Walk walk = TreeWalker.getInstance().walk(directory, since);
+		try {
+			_cacheControl = "no-cache";
+			if(chunked)
+				addHeaderField("Transfer-Encoding", "chunked");
+			else
+				_keepAlive = false;
+			addHeaderField("Vary", "Accept-Encoding");
+			if(gzip)
+				addHeaderField("Content-Encoding", "gzip");
+			writeHeader(os, HttpStatusCode.SC200, APPLICATION_NDJSON, -1);
+			
+			ChunkedOutputStream chunkedOs = chunked ? new ChunkedOutputStream(os) : null;
+			BufferedOutputStream buffered =
+				new BufferedOutputStream(chunked ? chunkedOs : os, STREAM_BUFFER_SIZE);
+			GZIPOutputStream gzipOs = gzip ? new GZIPOutputStream(buffered, STREAM_BUFFER_SIZE) : null;
+			OutputStream out = gzip ? gzipOs : buffered;
+			
+			out.write(("{\"time\":" + time + ",\"since\":" + since + "}\n").getBytes("UTF-8"));
+			List<TreeWalker.Item> batch;
+			while((batch = walk.next()) != null) {
+				StringBuilder lines = new StringBuilder(batch.size() * 80);
+				for(TreeWalker.Item item : batch) {
+					lines.append("{\"path\":");
+					appendJsonString(lines, item.getPath());
+					if(!item.isDirectory())
+						lines.append(",\"size\":").append(item.getSize());
+					lines.append(",\"mtime\":").append(item.getLastModified());
+					if(item.isDirectory())
+						lines.append(",\"directory\":true");
+					else if(algorithm != null) {
+						String checksum =
+							ChecksumCache.getInstance().getKnownChecksum(item.getFile(), algorithm);
+						if(checksum != null)
+							lines
+								.append(",\"").append(algorithm.getName()).append("\":\"")
+								.append(checksum).append('"');
+					}
+					lines.append("}\n");
+				}
+				byte[] bytes = lines.toString().getBytes("UTF-8");
+				out.write(bytes);
+				_connection.throttle(bytes.length);
+			}
+			if(gzip)
+				gzipOs.finish();
+			buffered.flush();
+			if(chunked)
+				chunkedOs.finish();
+		}
+		catch(IOException e) {
+			_keepAlive = false;
+			LOGGER.log(Level.FINE, "Writing a manifest of " + uriPath + " failed.", e);
+		}
+		finally {
+			walk.close();
+		}
+	}
+	
+	
+	/**
+	 * Creates the beginning of a directory listing, i.e. the title and the links to the root
+	 * and to the parent directory.
+	 * 
+	 * @param uriPath
+	 * 		The path of the listed directory ending with {@code /}.
+	 * 
+	 * @return
+	 * 		The listing up to the first directory entry.
+	 */
+	private String listingHead(String uriPath)
+	{
+		String fileList = "<h1>" + uriPath + "</h1>\n";
+		fileList += "<table>\n";
+		if(!uriPath.equals("/")) {
+			String parent = uriPath.substring(0, uriPath.length() - 2);
+			int i = parent.lastIndexOf("/");
+			fileList +=
+				addTableRowFixed(HOME_CLASS, "<a href=\"/\">root</a>", "", null, "", "");
+			fileList += 
+				addTableRowFixed(
+					PARENT_CLASS,
+					"<a href=\"" + parent.substring(0, i) + "/\">..</a>",
+					"",
+					null,
+					"",
+					""
+				);
+		}
+		return fileList;
+	}
+	
+	
+	/**
+	 * Writes a directory or a file inside of an archive to {@link OutputStream}. Archives are
+	 * separated from the path inside of them with {@code !/}, for example
+	 * {@code /app.ear!/lib/x.jar!/META-INF/}. Nested archives are read directly from
+	 * the outer file, so they must be stored (i.e. not compressed) in the outer archive.
+	 * Opened archives are cached by {@link ArchiveCache}.
+	 * 
+	 * @param os
+	 * 
+	 * @throws IOException
+	 */
+	private void writeArchivePath(OutputStream os)
+		throws
+			IOException
+	{
+		String uriPath = _request.getUri().getPath();
+		String[] parts = uriPath.split(ARCHIVE_SEPARATOR, -1);
+		File f = new File(".", parts[0]);
+		if(!f.isFile() || !isArchive(new DocType(f.getName()))) {
+			LOGGER.info(uriPath + " was not found.");
+			writeError(os);
+			return;
+		}
+		
+		ArchiveCache cache = ArchiveCache.getInstance();
+		List<ZipArchive> acquired = new ArrayList<ZipArchive>(parts.length - 1);
+		try {
+			ZipArchive archive = cache.acquire(f);
+			acquired.add(archive);
+			String nestedName = "";
+			for(int i = 1; i < parts.length - 1; i++) {
+				ZipArchive.Entry entry = archive.getEntry(parts[i]);
+				if(entry == null || !isArchive(new DocType(parts[i]))) {
+					LOGGER.info(uriPath + " was not found.");
+					writeError(os);
+					return;
+				}
+				if(entry.getMethod() != ZipArchive.STORED) {
+					LOGGER.info(
+						"'" + parts[i] + "' is compressed and cannot be opened as a nested archive."
+					);
+					writeError(os, HttpStatusCode.SC501);
+					return;
+				}
+				nestedName += (i > 1 ? ARCHIVE_SEPARATOR : "") + parts[i];
+				archive =
+					cache.acquire(
+						f,
+						archive.getDataPosition(entry),
+						entry.getCompressedSize(),
+						nestedName
+					);
+				acquired.add(archive);
+			}
+			
+			String path = parts[parts.length - 1];
+			if(path.length() == 0 || path.endsWith("/")) {
+				writeArchiveDirectory(os, uriPath, archive, path);
+			}
+			else {
+				ZipArchive.Entry entry = archive.getEntry(path);
+				if(entry == null || entry.isDirectory()) {
+					LOGGER.info(uriPath + " was not found.");
+					writeError(os);
+					return;
+				}
+				_contentForLogging = uriPath;
+				writeEntry(os, archive, entry);
+			}
+		}
+		catch(ZipException e) {
+			LOGGER.log(Level.INFO, uriPath + " is not a valid archive.", e);
+			if(_statusCode == null)
+				writeError(os);
+			else
+				_keepAlive = false;
+		}
+		catch(IOException e) {
+			_keepAlive = false;
+			LOGGER.log(Level.SEVERE, "Error reading archive: " + uriPath, e);
+		}
+		finally {
+			for(ZipArchive archive : acquired)
+				cache.release(archive);
+		}
+	}
+	
+	
+	/**
+	 * Writes a directory inside of an archive as an HTML document. Archives do not
+	 * necessarily have entries for directories so the directories are derived from
+	 * the entry names.
+	 * 
+	 * @param os
+	 * 
+	 * @param uriPath
+	 * 		The requested path.
+	 * 
+	 * @param archive
+	 * 		The innermost archive.
+	 * 
+	 * @param directory
+	 * 		The directory inside of the archive, an empty string for the root. Ends with
+	 * 		{@code /} otherwise.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeArchiveDirectory(
+		OutputStream os,
+		final String uriPath,
+		final ZipArchive archive,
+		final String directory
+	) throws IOException
+	{
+		// Concurrent requests for the same unchanged archive directory share one listing.
+		File file = archive.getFile();
+		byte[] bytes =
+			RequestCoalescer.getInstance().execute(
+				"archive\t" + uriPath + "\t" + file.length() + "\t" + file.lastModified(),
+				new Callable<byte[]>() {
+					public byte[] call()
+					{
+						FlightRecorder recorder = FlightRecorder.getInstance();
+						long startNs = recorder.begin();
+						String listing = createArchiveListing(uriPath, archive, directory);
+						if(listing == null)
+							return null;
+						byte[] content = listing.getBytes();
+						recorder.commit(
+							FlightRecorder.EventType.LISTING,
+							startNs,
+							content.length,
+							uriPath
+						);
+						return content;
+					}
+				}
+			);
+		if(bytes == null) {
+			LOGGER.info(uriPath + " was not found.");
+			writeError(os);
+			return;
+		}
+		
+		_contentForLogging = uriPath;
+		writeHeader(os, HttpStatusCode.SC200, "text/html", bytes.length);
+		os.write(bytes);
+	}
+	
+	
+	/**
+	 * Creates an HTML listing of a directory inside of an archive.
+	 * 
+	 * @param uriPath
+	 * 		The requested path.
+	 * 
+	 * @param archive
+	 * 		The innermost archive.
+	 * 
+	 * @param directory
+	 * 		The directory inside of the archive.
+	 * 
+	 * @return
+	 * 		The HTML document or {@code null} if the directory does not exist.
+	 */
+	private String createArchiveListing(String uriPath, ZipArchive archive, String directory)
+	{
+		Map<String, ZipArchive.Entry> directories = new TreeMap<String, ZipArchive.Entry>();
+		Map<String, ZipArchive.Entry> files = new TreeMap<String, ZipArchive.Entry>();
+		for(ZipArchive.Entry entry : archive.getEntries()) {
+			String name = entry.getName();
+			if(!name.startsWith(directory) || name.length() == directory.length())
+				continue;
+			
+			String rest = name.substring(directory.length());
+			int i = rest.indexOf('/');
+			if(i == -1)
+				files.put(rest, entry);
+			else if(i == rest.length() - 1)
+				directories.put(rest.substring(0, i), entry);
+			else if(!directories.containsKey(rest.substring(0, i)))
+				directories.put(rest.substring(0, i), null);
+		}
+		if(directory.length() > 0 && directories.isEmpty() && files.isEmpty())
+			return null;
+		
+		String fileList = listingHead(uriPath);
+		DateFormat dateFormat = DateFormat.getDateInstance(DateFormat.SHORT);
+		DateFormat timeFormat = DateFormat.getTimeInstance(DateFormat.SHORT);
+		for(Map.Entry<String, ZipArchive.Entry> d : directories.entrySet()) {
+			Date date = d.getValue() == null ? null : new Date(d.getValue().getTime());
+			fileList +=
+				addTableRow(
+					DIR_CLASS,
+					uriPath,
+					d.getKey(),
+					null,
+					date == null ? "" : dateFormat.format(date),
+					date == null ? "" : timeFormat.format(date)
+				);
+		}
+		for(Map.Entry<String, ZipArchive.Entry> f : files.entrySet()) {
+			Date date = new Date(f.getValue().getTime());
+			DocType type = new DocType(f.getKey());
+			fileList +=
+				addTableRow(
+					type.getDocumentClass(),
+					uriPath,
+					f.getKey(),
+					f.getValue().getSize(),
+					dateFormat.format(date),
+					timeFormat.format(date)
+				);
+		}
+		fileList += "</table>\n";
+		return htmlBody(fileList);
+	}
+	
+	
+	/**
+	 * Writes a file of the upstream 'fileweb' from the mirror cache. Directory listings and
+	 * requests with a query (e.g. {@code ?op=peek}) are not cached but relayed to
+	 * the upstream.
+	 * 
+	 * @param os
+	 * 
+	 * @throws IOException
+	 * 
+	 * @see MirrorCache
+	 */
+	private void writeMirrored(OutputStream os)
+		throws
+			IOException
+	{
+		String rawPath = _request.getUri().getRawPath();
+		// Only absolute paths may be appended to the upstream URL (see MirrorCache).
+		if(rawPath == null || !rawPath.startsWith("/")) {
+			LOGGER.info("Not an absolute path: " + _request.getUri());
+			writeError(os, HttpStatusCode.SC400);
+			return;
+		}
+		if(rawPath.endsWith("/") || _request.getUri().getRawQuery() != null) {
+			writeRelayed(os);
+			return;
+		}
+		
+		MirrorCache mirrorCache = MirrorCache.getInstance();
+		MirrorCache.Entry entry;
+		try {
+			entry = mirrorCache.get(rawPath);
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.WARNING, rawPath + " cannot be fetched from the upstream.", e);
+			writeError(os, HttpStatusCode.SC502);
+			return;
+		}
+		if(entry == null) {
+			LOGGER.info(rawPath + " was not found from the upstream.");
+			writeError(os);
+			return;
+		}
+		
+		boolean headerWritten = false;
+		try {
+			if(isNotModified(entry.getETag(), entry.getLastModified())) {
+				writeNotModified(os);
+				return;
+			}
+			
+			FileInputStream is = new FileInputStream(entry.getFile());
+			try {
+				FileChannel fileChannel = is.getChannel();
+				String contentType = entry.getContentType();
+				if(contentType == null)
+					contentType = new DocType(rawPath).getMimeType();
+				if(entry.getLength() < 0)
+					_keepAlive = false;
+				_contentForLogging = rawPath + " : mirrored";
+				writeHeader(os, HttpStatusCode.SC200, contentType, entry.getLength());
+				headerWritten = true;
+				
+				// Sends the file while it is being filled.
+				long position = 0;
+				long available;
+				while((available = entry.await(position)) > position) {
+					sendRegion(os, fileChannel, position, available - position);
+					position = available;
+				}
+			}
+			finally {
+				is.close();
+			}
+		}
+		catch(IOException e) {
+			_keepAlive = false;
+			LOGGER.log(Level.WARNING, "Sending a mirrored " + rawPath + " failed.", e);
+			if(!headerWritten)
+				writeError(os, HttpStatusCode.SC500);
+		}
+		finally {
+			mirrorCache.release(entry);
+		}
+	}
+	
+	
+	/**
+	 * Relays a request to the upstream 'fileweb' and streams the response to the client.
+	 * 
+	 * @param os
+	 * 
+	 * @throws IOException
+	 */
+	private void writeRelayed(OutputStream os)
+		throws
+			IOException
+	{
+		String rawPath = _request.getUri().getRawPath();
+		String rawQuery = _request.getUri().getRawQuery();
+		HttpURLConnection connection;
+		InputStream is;
+		try {
+			connection =
+				MirrorCache.getInstance().openUpstream(rawPath + (rawQuery == null ? "" : "?" + rawQuery));
+			for(String name : RELAYED_REQUEST_FIELDS) {
+				String value = _request.getHeaderFields().get(name);
+				if(value != null)
+					connection.setRequestProperty(name, value);
+			}
+			HttpStatusCode statusCode = HttpStatusCode.forStatusCode(connection.getResponseCode());
+			if(statusCode == null || statusCode != HttpStatusCode.SC200) {
+				LOGGER.info("Upstream responded " + connection.getResponseCode() + " to " + rawPath);
+				writeError(os, statusCode == null ? HttpStatusCode.SC502 : statusCode);
+				return;
+			}
+			is = connection.getInputStream();
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.WARNING, "Relaying " + rawPath + " to the upstream failed.", e);
+			writeError(os, HttpStatusCode.SC502);
+			return;
+		}
+		
+		try {
+			long length = -1;
+			try {
+				length = Long.parseLong(connection.getHeaderField("Content-Length"));
+			}
+			catch(NumberFormatException e) {
+				// The end of the content is told by closing the connection.
+				_keepAlive = false;
+			}
+			_cacheControl = connection.getHeaderField("Cache-Control");
+			for(String name : RELAYED_RESPONSE_FIELDS) {
+				String value = connection.getHeaderField(name);
+				if(value != null)
+					addHeaderField(name, value);
+			}
+			String contentType = connection.getContentType();
+			_contentForLogging = rawPath + " : relayed";
+			writeHeader(os, HttpStatusCode.SC200, contentType == null ? "" : contentType, length);
+			
+			// Streams (e.g. ?op=follow) are flushed as soon as the upstream sends something.
+			byte[] buffer = BufferPool.getInstance().acquire(STREAM_BUFFER_SIZE);
+			try {
+				int n;
+				while((n = is.read(buffer)) != -1) {
+					os.write(buffer, 0, n);
+					_connection.throttle(n);
+					if(is.available() == 0)
+						_connection.flush();
+				}
+			}
+			finally {
+				BufferPool.getInstance().release(buffer);
+			}
+		}
+		catch(IOException e) {
+			_keepAlive = false;
+			LOGGER.log(Level.FINE, "Relaying " + rawPath + " ended.", e);
+		}
+		finally {
+			is.close();
+		}
+	}
+	
+	
+	/**
+	 * Parses the {@code Range} header field. Only byte ranges are supported. The field is
+	 * ignored if {@code If-Range} does not match the current version of the file.
+	 * 
+	 * @param length
+	 * 		The length of the file.
+	 * 
+	 * @param etag
+	 * 		The ETag of the file.
+	 * 
+	 * @param lastModified
+	 * 		The modification date (RFC 1123) of the file.
+	 * 
+	 * @return
+	 * 		The requested ranges as {@code {first, last}} pairs, {@code null} if the whole file
+	 * 		is to be sent or an empty list if none of the ranges can be satisfied.
+	 */
+	private List<long[]> getRanges(long length, String etag, String lastModified)
+	{
+		String range = _request.getHeaderFields().get("Range");
+		if(range == null || !range.startsWith("bytes="))
+			return null;
+		String ifRange = _request.getHeaderFields().get("If-Range");
+		if(ifRange != null && !ifRange.equals(etag) && !ifRange.equals(lastModified))
+			return null;
+		return parseRanges(range.substring("bytes=".length()), length);
+	}
+	
+	
+	/**
+	 * Parses a byte range set (e.g. {@code 0-499,1000-}). The ranges are sorted and
+	 * overlapping or adjacent ranges are merged, so no byte is sent twice. The whole file
+	 * is sent instead if there are more than {@value #MAX_RANGES} ranges or the ranges
+	 * together are longer than the file (e.g. {@code 0-,0-,0-}), because such a request
+	 * only multiplies the response.
+	 * 
+	 * @param rangeSet
+	 * 		The value of the {@code Range} header field without {@code bytes=}.
+	 * 
+	 * @param length
+	 * 		The length of the file.
+	 * 
+	 * @return
+	 * 		The ranges as {@code {first, last}} pairs in ascending order, {@code null} if
+	 * 		the whole file is to be sent or an empty list if none of the ranges can be
+	 * 		satisfied.
+	 */
+	static List<long[]> parseRanges(String rangeSet, long length)
+	{
+		String[] specs = rangeSet.split(",");
+		if(specs.length > MAX_RANGES)
+			return null;
+		
+		List<long[]> ranges = new ArrayList<long[]>(specs.length);
+		long total = 0;
+		try {
+			for(String spec : specs) {
+				spec = spec.trim();
+				int i = spec.indexOf('-');
+				if(i == -1)
+					return null;
+				
+				long first;
+				long last = length - 1;
+				if(i == 0)
+					// A suffix (e.g. -500 for the last 500 bytes).
+					first = Math.max(0, length - Long.parseLong(spec.substring(1)));
+				else {
+					first = Long.parseLong(spec.substring(0, i));
+					if(i < spec.length() - 1) {
+						long requestedLast = Long.parseLong(spec.substring(i + 1));
+						if(requestedLast < first)
+							return null;
+						last = Math.min(requestedLast, last);
+					}
+				}
+				if(first <= last) {
+					ranges.add(new long[] { first, last });
+					total += last - first + 1;
+				}
+			}
+		}
+		catch(NumberFormatException e) {
+			return null;
+		}
+		if(total > length)
+			return null;
+		
+		Collections.sort(
+			ranges,
+			new Comparator<long[]>() {
+				public int compare(long[] r1, long[] r2)
+				{
+					return r1[0] < r2[0] ? -1 : (r1[0] == r2[0] ? 0 : 1);
+				}
+			}
+		);
+		List<long[]> merged = new ArrayList<long[]>(ranges.size());
+		for(long[] range : ranges) {
+			long[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+			if(previous != null && range[0] <= previous[1] + 1)
+				previous[1] = Math.max(previous[1], range[1]);
+			else
+				merged.add(range);
+		}
+		return merged;
+	}
+	
+	
+	/**
+	 * Writes parts of a file with {@code 206 Partial Content}. A single range is sent as is
+	 * and several ranges as {@code multipart/byteranges}.
+	 * 
+	 * @param os
+	 * 
+	 * @param fileChannel
+	 * 		The file.
+	 * 
+	 * @param ranges
+	 * 		The ranges returned by {@link #getRanges(long, String, String)}.
+	 * 
+	 * @param contentType
+	 * 		The MIME type of the file.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeRanges(
+		OutputStream os,
+		FileChannel fileChannel,
+		List<long[]> ranges,
+		String contentType
+	) throws IOException
+	{
+		long length = fileChannel.size();
+		if(ranges.isEmpty()) {
+			_headerFields = null;
+			_variableHeaderFields = null;
+			addVariableHeaderField("Content-Range", "bytes */" + length);
+			writeErrorPage(os, HttpStatusCode.SC416);
+			return;
+		}
+		
+		if(ranges.size() == 1) {
+			long[] range = ranges.get(0);
+			addVariableHeaderField("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+			writeHeader(os, HttpStatusCode.SC206, contentType, range[1] - range[0] + 1);
+			sendRegion(os, fileChannel, range[0], range[1] - range[0] + 1);
+			return;
+		}
+		
+		// The length of the whole response is calculated beforehand, so the connection can
+		// be kept open.
+		String boundary = "fileweb-" + Long.toHexString(System.nanoTime());
+		byte[][] partHeaders = new byte[ranges.size()][];
+		long contentLength = 0;
+		for(int i = 0; i < partHeaders.length; i++) {
+			long[] range = ranges.get(i);
+			partHeaders[i] =
+				(
+					"\r\n--" + boundary + "\r\nContent-Type: " + contentType
+						+ "\r\nContent-Range: bytes " + range[0] + "-" + range[1] + "/" + length
+						+ "\r\n\r\n"
+				).getBytes("ISO-8859-1");
+			contentLength += partHeaders[i].length + range[1] - range[0] + 1;
+		}
+		byte[] closeDelimiter = ("\r\n--" + boundary + "--\r\n").getBytes("ISO-8859-1");
+		contentLength += closeDelimiter.length;
+		
+		addVariableHeaderField("Content-Type", "multipart/byteranges; boundary=" + boundary);
+		writeHeader(os, HttpStatusCode.SC206, "", contentLength);
+		for(int i = 0; i < partHeaders.length; i++) {
+			long[] range = ranges.get(i);
+			os.write(partHeaders[i]);
+			sendRegion(os, fileChannel, range[0], range[1] - range[0] + 1);
+		}
+		os.write(closeDelimiter);
+	}
+	
+	
+	/**
+	 * Sets the validators of the response and checks them against the conditional header
+	 * fields of the request. {@code If-None-Match} is used instead of
+	 * {@code If-Modified-Since} if both are given.
+	 * 
+	 * @param etag
+	 * 		The entity tag of the content or {@code null}.
+	 * 
+	 * @param lastModified
+	 * 		The modification date (RFC 1123) of the content or {@code null}.
+	 * 
+	 * @return
+	 * 		{@code true} if the client already has the current content.
+	 */
+	private boolean isNotModified(String etag, String lastModified)
+	{
+		_etag = etag;
+		_lastModified = lastModified;
+		String ifNoneMatch = _request.getHeaderFields().get("If-None-Match");
+		if(ifNoneMatch != null) {
+			if(etag == null)
+				return false;
+			for(String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if(tag.startsWith("W/"))
+					tag = tag.substring(2);
+				if(tag.equals("*") || tag.equals(etag))
+					return true;
+			}
+			return false;
+		}
+		String ifModifiedSince = _request.getHeaderFields().get("If-Modified-Since");
+		if(ifModifiedSince != null && lastModified != null) {
+			long since = HeaderEncoder.parseDate(ifModifiedSince);
+			long modified = HeaderEncoder.parseDate(lastModified);
+			return since != -1 && modified != -1 && modified <= since;
+		}
+		return false;
+	}
+	
+	/**
+	 * Creates an ETag from the length and the modification time of a file.
+	 */
+	private static String createETag(File f)
+	{
+		return "\"" + Long.toHexString(f.length()) + "-" + Long.toHexString(f.lastModified()) + "\"";
+	}
+	
+	private void writeNotModified(OutputStream os)
+		throws
+			IOException
+	{
+		_contentForLogging = "";
+		writeHeader(os, HttpStatusCode.SC304, "", -1);
+	}
+	
+	
+	/**
+	 * Checks if {@code PUT} and {@code POST} are accepted. Uploads are disabled when
+	 * the server is a mirror, because the files belong to the upstream.
+	 * 
+	 * @return
+	 * 		{@code true} if uploads are enabled.
+	 */
+	private static boolean isUploadEnabled()
+	{
+		return UploadSupport.getInstance().isEnabled() && MirrorCache.getInstance() == null;
+	}
+	
+	
+	/**
+	 * Stores uploaded files. {@code PUT} writes the message body to the requested path and
+	 * {@code POST} writes the file parts of a {@code multipart/form-data} body (i.e. an HTML
+	 * form) to the requested directory. The body can be chunked. Uploads must be enabled
+	 * and the client authenticated, see {@link UploadSupport}.
+	 * <p/>
+	 * All the checks are done before the body is read, so a client sending
+	 * {@code Expect: 100-continue} does not send a body which would be rejected anyway.
+	 * 
+	 * @param os
+	 * 
+	 * @throws IOException
+	 * 
+	 * @see UploadSupport
+	 */
+	private void writeUpload(OutputStream os)
+		throws
+			IOException
+	{
+		UploadSupport uploadSupport = UploadSupport.getInstance();
+		String uriPath = _request.getUri().getPath();
+		Map<String, String> headerFields = _request.getHeaderFields();
+		if(!isUploadEnabled()) {
+			LOGGER.info("An attempt to upload " + uriPath + " while uploads are disabled.");
+			writeError(os, HttpStatusCode.SC403);
+			return;
+		}
+		if(!uploadSupport.authenticate(headerFields.get("Authorization"))) {
+			LOGGER.info("An unauthorized attempt to upload " + uriPath);
+			writeUnauthorized(os);
+			return;
+		}
+		if(
+			uriPath.contains(ARCHIVE_SEPARATOR)
+			|| uriPath.startsWith(CSS_ROOT)
+			|| ("/" + uriPath + "/").contains("/../")
+		) {
+			LOGGER.warning("An attempt to upload " + uriPath);
+			writeError(os, HttpStatusCode.SC403);
+			return;
+		}
+		long maxSize = uploadSupport.getMaxSize();
+		if(maxSize > 0 && _request.getContentLength() > maxSize) {
+			LOGGER.info(uriPath + " is too large to be uploaded.");
+			writeError(os, HttpStatusCode.SC413);
+			return;
+		}
+		
+		boolean post = _request.getRequestMethod() == HttpRequest.SupportedRequestMethod.POST;
+		File target = new File(".", uriPath);
+		String boundary = null;
+		if(post) {
+			String contentType = headerFields.get("Content-Type");
+			if(contentType != null && contentType.toLowerCase().startsWith("multipart/form-data"))
+				boundary = MultipartReader.getBoundary(contentType);
+			if(!target.isDirectory()) {
+				LOGGER.info(uriPath + " is not a directory.");
+				writeError(os);
+				return;
+			}
+			if(boundary == null) {
+				writeError(os, HttpStatusCode.SC415);
+				return;
+			}
+		}
+		else {
+			if(
+				uriPath.endsWith("/")
+				|| target.isDirectory()
+				|| !target.getAbsoluteFile().getParentFile().isDirectory()
+			) {
+				LOGGER.info(uriPath + " cannot be uploaded as a file.");
+				writeError(os, HttpStatusCode.SC409);
+				return;
+			}
+		}
+		
+		String expect = headerFields.get("Expect");
+		if(expect != null) {
+			if(!expect.equalsIgnoreCase("100-continue")) {
+				writeError(os, HttpStatusCode.SC417);
+				return;
+			}
+			HeaderEncoder.writeStatusLine(os, HttpStatusCode.SC100);
+			os.write(HeaderEncoder.CRLF);
+			_connection.flush();
+		}
+		
+		InputStream body = _request.getBody();
+		HttpStatusCode statusCode = HttpStatusCode.SC200;
+		String summary = "";
+		try {
+			if(post) {
+				MultipartReader reader = new MultipartReader(body, boundary);
+				while(reader.nextPart()) {
+					String fileName =
+						MultipartReader.getDispositionParameter(
+							reader.getPartHeaders().get("Content-Disposition"),
+							"filename"
+						);
+					if(fileName == null)
+						// Other form fields are skipped.
+						continue;
+					
+					// Some browsers send the whole path of the client.
+					fileName =
+						fileName.substring(
+							Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1
+						);
+					File f = new File(target, fileName);
+					if(fileName.length() == 0 || fileName.equals("..") || f.isDirectory()) {
+						summary += uriPath + fileName + " : skipped\n";
+						continue;
+					}
+					long size = uploadSupport.store(reader.getPartInputStream(), f);
+					summary += uriPath + fileName + " : " + size + " bytes\n";
+				}
+				if(summary.length() == 0)
+					summary = "No files were uploaded.\n";
+			}
+			else {
+				boolean existed = target.exists();
+				long size = uploadSupport.store(body, target);
+				summary = uriPath + " : " + size + " bytes\n";
+				if(!existed)
+					statusCode = HttpStatusCode.SC201;
+			}
+			
+			// Reads the rest of the body (e.g. the multipart epilogue) so that the next
+			// request can be read from the connection.
+			byte[] buffer = BufferPool.getInstance().acquire(BufferPool.SMALL_SIZE);
+			try {
+				while(body.read(buffer) != -1)
+					;
+			}
+			finally {
+				BufferPool.getInstance().release(buffer);
+			}
+		}
+		catch(UploadSupport.TooLargeException e) {
+			LOGGER.info(e.getMessage());
+			writeError(os, HttpStatusCode.SC413);
+			return;
+		}
+		catch(HeaderLimit.ExceededException e) {
+			LOGGER.info("Uploading " + uriPath + " was rejected: " + e.getMessage());
+			writeError(os, HttpStatusCode.SC400);
+			return;
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.WARNING, "Uploading " + uriPath + " failed.", e);
+			writeError(os, HttpStatusCode.SC500);
+			return;
+		}
+		
+		_keepAlive = _keepAliveAllowed && _request.isKeepAlive();
+		_contentForLogging = summary;
+		byte[] bytes = summary.getBytes("UTF-8");
+		writeHeader(os, statusCode, TEXT_PLAIN + "; charset=UTF-8", bytes.length);
+		os.write(bytes);
+	}
+	
+	
+	/**
+	 * Writes a requested file with a correct MIME type to {@link OutputStream}. The file
+	 * content is sent with zero-copy if the connection allows it.
+	 * 
+	 * @param os
+	 * 
+	 * @throws IOException
+	 */
+	private void writeFiles(OutputStream os)
+		throws
+			IOException
+	{
+		String uriPath = _request.getUri().getPath();
+		FileInputStream is = null;
+		try {
+			File f = new File(".", uriPath);
+			if(f.exists()) {
+				DocType docType = new DocType(f.getName());
+				String op = _request.getParameter("op");
+				if("peek".equals(op)) {
+					// Lists the content of jar and zip files.
+					
+					_contentForLogging = f.getName() + " : peek()";
+					if(isArchive(docType)) {
+						final File archiveFile = f;
+						byte[] bytes =
+							RequestCoalescer.getInstance().execute(
+								"peek\t" + uriPath + "\t" + f.length() + "\t" + f.lastModified(),
+								new Callable<byte[]>() {
+									public byte[] call()
+										throws
+											IOException
+									{
+										FlightRecorder recorder = FlightRecorder.getInstance();
+										long startNs = recorder.begin();
+										byte[] list = createPeekList(archiveFile).getBytes();
+										recorder.commit(
+											FlightRecorder.EventType.PEEK,
+											startNs,
+											list.length,
+											archiveFile
+										);
+										return list;
+									}
+								}
+							);
+						writeHeader(os, HttpStatusCode.SC200, TEXT_PLAIN, bytes.length);
+						os.write(bytes);
+					}
+					else {
+						LOGGER.warning("An attempt to peek uri: " + uriPath);
+						writeError(os);
+					}
+				}
+				else if("extract".equals(op)) {
+					writeExtractedEntry(os, f, docType);
+				}
+				else if("view".equals(op) || "tail".equals(op)) {
+					writeLines(os, f, "tail".equals(op));
+				}
+				else if("follow".equals(op)) {
+					writeFollow(os, f);
+				}
+				else if("signatures".equals(op)) {
+					long blockSize =
+						parseNumber(_request.getParameter("block"), SignatureCache.DEFAULT_BLOCK_SIZE);
+					if(
+						!f.isFile()
+						|| blockSize < SignatureCache.MIN_BLOCK_SIZE
+						|| blockSize > SignatureCache.MAX_BLOCK_SIZE
+					) {
+						LOGGER.info("An invalid signature request: " + _request.getUri());
+						writeError(os, f.isFile() ? HttpStatusCode.SC400 : HttpStatusCode.SC404);
+					}
+					else {
+						_contentForLogging = f.getName() + " : signatures()";
+						byte[] bytes =
+							SignatureCache.getInstance().getSignatures(f, (int)blockSize, createETag(f));
+						writeHeader(os, HttpStatusCode.SC200, APPLICATION_OCTET_STREAM, bytes.length);
+						os.write(bytes);
+					}
+				}
+				else if("checksum".equals(op)) {
+					ChecksumCache.Algorithm algorithm =
+						ChecksumCache.Algorithm.forName(_request.getParameter("alg"));
+					if(_request.getParameter("alg") == null)
+						algorithm = ChecksumCache.Algorithm.SHA256;
+					if(algorithm == null || !f.isFile()) {
+						LOGGER.info("An invalid checksum request: " + _request.getUri());
+						writeError(
+							os,
+							algorithm == null ? HttpStatusCode.SC400 : HttpStatusCode.SC404
+						);
+					}
+					else
+						writeChecksums(os, new File[] { f }, algorithm);
+				}
+				else {
+					_contentForLogging = f.getName();
+					String etag = createETag(f);
+					String lastModified = HeaderEncoder.formatDate(f.lastModified());
+					if(isNotModified(etag, lastModified)) {
+						writeNotModified(os);
+						return;
+					}
+					addHeaderField("Accept-Ranges", "bytes");
+					is = new FileInputStream(f);
+					FileChannel fileChannel = is.getChannel();
+					long length = fileChannel.size();
+					List<long[]> ranges = getRanges(length, etag, lastModified);
+					if(ranges != null)
+						writeRanges(os, fileChannel, ranges, docType.getMimeType());
+					else {
+						writeHeader(os, HttpStatusCode.SC200, docType.getMimeType(), length);
+						sendRegion(os, fileChannel, 0, length);
+					}
+				}
+			}
+			else if(!writeVirtualChecksumFile(os, f)) {
+				LOGGER.info(uriPath + " was not found.");
+				writeError(os);
+			}
+		}
+		catch(FileNotFoundException e) {
+			_keepAlive = false;
+			LOGGER.log(Level.INFO, uriPath + " was not found.", e);
+		}
+		catch(IOException e) {
+			_keepAlive = false;
+			LOGGER.log(Level.SEVERE, "Error reading file: " + uriPath, e);
+		}
+		finally {
+			try {
+				if(is != null)
+					is.close();
+			}
+			catch(IOException e) {
+				// Does nothing.
+			}
+		}
+	}
+	
+	
+	/**
+	 * Writes a page of lines of a text file as plain text. The page is given with
+	 * {@code from} (the first line, starting from 1) and {@code lines} query parameters.
+	 * In tail mode the page is the last {@code lines} lines of the file but at most
+	 * {@value #MAX_TAIL_SIZE} bytes. Lines are found with {@link LineIndex} so any page of
+	 * a huge file can be sent without reading the whole file.
+	 * 
+	 * @param os
+	 * 
+	 * @param f
+	 * 		The file.
+	 * 
+	 * @param tail
+	 * 		{@code true} for the last lines of the file.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeLines(OutputStream os, File f, boolean tail)
+		throws
+			IOException
+	{
+		long from = parseNumber(_request.getParameter("from"), 1);
+		long lines = parseNumber(_request.getParameter("lines"), DEFAULT_NUMBER_OF_LINES);
+		if(lines >= 0)
+			lines = Math.min(lines, MAX_NUMBER_OF_LINES);
+		// The end line (from - 1 + lines) must not overflow.
+		if(!f.isFile() || lines < 0 || from < 1 || from > Long.MAX_VALUE - lines) {
+			LOGGER.info("An invalid line request: " + _request.getUri());
+			writeError(os, f.isFile() ? HttpStatusCode.SC400 : HttpStatusCode.SC404);
+			return;
+		}
+		
+		_contentForLogging = f.getName() + (tail ? " : tail(" : " : view(") + lines + ")";
+		FileInputStream is = new FileInputStream(f);
+		try {
+			FileChannel fileChannel = is.getChannel();
+			long start;
+			long end;
+			if(tail) {
+				end = fileChannel.size();
+				start = LineIndex.getTailPosition(fileChannel, lines, MAX_TAIL_SIZE);
+			}
+			else {
+				LineIndex index = LineIndex.forFile(f);
+				long lastModified = f.lastModified();
+				start = index.getPosition(fileChannel, lastModified, from - 1);
+				end = index.getPosition(fileChannel, lastModified, from - 1 + lines);
+				if(start == -1)
+					start = end = 0;
+				else if(end == -1)
+					end = fileChannel.size();
+			}
+			writeHeader(os, HttpStatusCode.SC200, TEXT_PLAIN, end - start);
+			sendRegion(os, fileChannel, start, end - start);
+		}
+		finally {
+			is.close();
+		}
+	}
+	
+	/**
+	 * Streams a growing file (e.g. a log) to the client. The last {@code lines} lines are
+	 * sent first and then the appended bytes as soon as {@link FileFollower} notices them.
+	 * The response has no length; it is sent with chunked transfer coding to HTTP/1.1
+	 * clients and ended by closing the connection. Clients accepting
+	 * {@code text/event-stream} get Server-Sent Events instead of plain text. Each
+	 * follower reserves a worker thread until the client disconnects. While the file is
+	 * quiet, the connection is checked every second so that a disconnected client is
+	 * noticed even if nothing is written to it. A client which falls too far behind
+	 * gets a {@code gap} event, or the plain text response is ended.
+	 * 
+	 * @param os
+	 * 
+	 * @param f
+	 * 		The file.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeFollow(OutputStream os, File f)
+		throws
+			IOException
+	{
+		long lines = parseNumber(_request.getParameter("lines"), DEFAULT_NUMBER_OF_FOLLOW_LINES);
+		if(!f.isFile() || lines < 0) {
+			LOGGER.info("An invalid follow request: " + _request.getUri());
+			writeError(os, f.isFile() ? HttpStatusCode.SC400 : HttpStatusCode.SC404);
+			return;
+		}
+		lines = Math.min(lines, MAX_NUMBER_OF_LINES);
+		
+		String accept = _request.getHeaderFields().get("Accept");
+		boolean sse = accept != null && accept.contains(EVENT_STREAM);
+		boolean chunked = "HTTP/1.1".equals(_request.getHttpVersion());
+		_contentForLogging = f.getName() + " : follow()";
+		FileFollower.Subscription subscription = FileFollower.getInstance().follow(f);
+		try {
+			_keepAlive = false;
+			_cacheControl = "no-cache";
+			if(chunked)
+				addHeaderField("Transfer-Encoding", "chunked");
+			writeHeader(os, HttpStatusCode.SC200, sse ? EVENT_STREAM : TEXT_PLAIN, -1);
+			OutputStream out = chunked ? new ChunkedOutputStream(os) : os;
+			
+			FileInputStream is = new FileInputStream(f);
+			try {
+				FileChannel fileChannel = is.getChannel();
+				long end = Math.min(subscription.getStartPosition(), fileChannel.size());
+				long start =
+					Math.max(
+						Math.min(LineIndex.getTailPosition(fileChannel, lines, MAX_FOLLOW_BACKLOG), end),
+						end - MAX_FOLLOW_BACKLOG
+					);
+				ByteBuffer backlog = ByteBuffer.allocate((int)(end - start));
+				while(backlog.hasRemaining())
+					if(fileChannel.read(backlog, start + backlog.position()) == -1)
+						break;
+				writeFollowData(out, backlog.array(), backlog.position(), sse);
+			}
+			finally {
+				is.close();
+			}
+			out.flush();
+			
+			long lastWrite = System.currentTimeMillis();
+			while(true) {
+				FileFollower.Chunk chunk = subscription.next(FOLLOW_DISCONNECT_CHECK_MS);
+				if(chunk == null) {
+					if(_connection.isClosedByClient()) {
+						LOGGER.fine("A follower of " + f.getName() + " disconnected.");
+						return;
+					}
+					// Lets proxies know the connection is still alive. Plain text has no
+					// way to send nothing.
+					if(sse && System.currentTimeMillis() - lastWrite >= SSE_HEARTBEAT_MS) {
+						out.write(SSE_HEARTBEAT);
+						out.flush();
+						lastWrite = System.currentTimeMillis();
+					}
+					continue;
+				}
+				lastWrite = System.currentTimeMillis();
+				if(chunk.isGap()) {
+					// Plain text has no way to tell that bytes are missing.
+					if(!sse) {
+						LOGGER.info("A follower of " + f.getName() + " fell too far behind.");
+						return;
+					}
+					out.write(("event: gap\ndata: " + chunk.getSkipped() + "\n\n").getBytes());
+					out.flush();
+					continue;
+				}
+				if(chunk.isTruncated()) {
+					if(sse) {
+						out.write(SSE_TRUNCATED);
+						out.flush();
+					}
+					continue;
+				}
+				writeFollowData(out, chunk.getData(), chunk.getData().length, sse);
+				out.flush();
+				_connection.throttle(chunk.getData().length);
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.FINE, "A follower of " + f.getName() + " disconnected.", e);
+		}
+		finally {
+			subscription.close();
+		}
+	}
+	
+	/**
+	 * Writes followed data. An event of Server-Sent Events has a {@code data:} field per
+	 * line.
+	 */
+	private static void writeFollowData(OutputStream out, byte[] data, int length, boolean sse)
+		throws
+			IOException
+	{
+		if(length == 0)
+			return;
+		
+		if(!sse) {
+			out.write(data, 0, length);
+			return;
+		}
+		
+		ByteArrayOutputStream event = new ByteArrayOutputStream(length + 64);
+		event.write(SSE_DATA, 0, SSE_DATA.length);
+		for(int i = 0; i < length; i++) {
+			if(data[i] == '\n')
+				event.write(SSE_NEXT_DATA, 0, SSE_NEXT_DATA.length);
+			else if(data[i] != '\r')
+				event.write(data[i]);
+		}
+		event.write('\n');
+		event.write('\n');
+		event.writeTo(out);
+	}
+	
+	private static long parseNumber(String value, long defaultValue)
+	{
+		if(value == null)
+			return defaultValue;
+		
+		try {
+			return Long.parseLong(value);
+		}
+		catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+	
+	
+	/**
+	 * Lists the entries of a jar or zip file as plain text.
+	 * 
+	 * @param f
+	 * 		The archive file.
+	 * 
+	 * @return
+	 * 		At most {@link #MAX_NUMBER_OF_ZIP_ENTRIES} entry names, one per line.
+	 * 
+	 * @throws IOException
 	 */
-	private void log(String responseHeader, HttpStatusCode statusCode)
+	private static String createPeekList(File f)
+		throws
+			IOException
 	{
-		if(
-			LOGGER.isLoggable(Level.FINE)
-			|| LOGGER.isLoggable(Level.FINER) 
-			|| LOGGER.isLoggable(Level.FINEST)
-		) {
-			String respStr = "";
-			Level level = Level.FINE;
-			respStr += "\n-> HTTP Version: " + HTTP_VERSION + "\n";
-			respStr += "-> Status Code: " + statusCode.getStatusCode() + "\n";
-			respStr += "-> Reason Phrase: " + statusCode.getReasonPhrase() + "\n";
-			if(LOGGER.isLoggable(Level.FINER) || LOGGER.isLoggable(Level.FINEST)) {
-				level = Level.FINER;
-				respStr += "->\n";
-				BufferedReader reader =	new BufferedReader(new StringReader(responseHeader));
-				
-				try {
-					// Reads status line.
-					String line = reader.readLine();
-					
-					// Reads header fields.
-					while((line = reader.readLine()) != null) {
-						// Breaks when there are no more header fields.
-						if(line.length() == 0)
-							break;
-						
-						StringTokenizer fieldTokenizer = new StringTokenizer(line, ":");
-						respStr += 
-							"-> " + fieldTokenizer.nextToken() + " : " 
-								+ fieldTokenizer.nextToken().trim() + "\n";
-					}
+		ZipFile z = new ZipFile(f);
+		int numOfZipEntries = 0;
+		Enumeration<? extends ZipEntry> entries = z.entries();
+		String list = "";
+		while(
+			numOfZipEntries++ < MAX_NUMBER_OF_ZIP_ENTRIES
+			&& entries.hasMoreElements()
+		)
+			list += entries.nextElement().getName() + "\n";
+		
+		if(numOfZipEntries >= MAX_NUMBER_OF_ZIP_ENTRIES)
+			list += "... entries. First " + numOfZipEntries + " was shown.\n";
+		
+		z.close();
+		return list;
+	}
+	
+	
+	/**
+	 * Writes a checksum file which does not exist on the disk but is calculated on request.
+	 * These are sidecar files for single files (e.g. {@code big.iso.sha256}) and checksum
+	 * lists for all the files in a directory (e.g. {@code SHA256SUMS}).
+	 * 
+	 * @param os
+	 * 
+	 * @param f
+	 * 		The requested (non-existing) file.
+	 * 
+	 * @return
+	 * 		{@code true} if {@code f} was a checksum file and it was written.
+	 * 
+	 * @throws IOException
+	 */
+	private boolean writeVirtualChecksumFile(OutputStream os, File f)
+		throws
+			IOException
+	{
+		String name = f.getName();
+		File directory = f.getParentFile();
+		for(ChecksumCache.Algorithm algorithm : ChecksumCache.Algorithm.values()) {
+			if(name.equals(algorithm.getSumsFileName()) && directory.isDirectory()) {
+				File[] listed = directory.listFiles();
+				if(listed == null) {
+					LOGGER.warning(directory + " cannot be listed.");
+					writeError(os, HttpStatusCode.SC500);
+					return true;
 				}
-				catch(IOException e) {
-					LOGGER.log(Level.SEVERE, "Shouldn't come here, but here we are...", e);
+				List<File> files = new ArrayList<File>(listed.length);
+				for(File file : listed)
+					if(file.isFile())
+						files.add(file);
+				File[] sorted = files.toArray(new File[files.size()]);
+				Arrays.sort(sorted);
+				writeChecksums(os, sorted, algorithm);
+				return true;
+			}
+			
+			String ending = algorithm.getSidecarEnding();
+			if(name.endsWith(ending) && name.length() > ending.length()) {
+				File file = new File(directory, name.substring(0, name.length() - ending.length()));
+				if(file.isFile()) {
+					writeChecksums(os, new File[] { file }, algorithm);
+					return true;
 				}
 			}
-			if(LOGGER.isLoggable(Level.FINEST)) {
-				level = Level.FINEST;
-				respStr += "->\n";
-				respStr += "-> " + _contentForLogging + "\n";
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Writes checksums of files in the format of {@code sha256sum} and similar tools (i.e.
+	 * a checksum and a file name per line). The checksums are calculated in parallel.
+	 * 
+	 * @param os
+	 * 
+	 * @param files
+	 * 		The files.
+	 * 
+	 * @param algorithm
+	 * 		The checksum algorithm.
+	 * 
+	 * @throws IOException
+	 * 
+	 * @see ChecksumCache
+	 */
+	private void writeChecksums(OutputStream os, File[] files, ChecksumCache.Algorithm algorithm)
+		throws
+			IOException
+	{
+		ChecksumCache cache = ChecksumCache.getInstance();
+		List<Future<String>> checksums = new ArrayList<Future<String>>(files.length);
+		for(File file : files)
+			checksums.add(cache.submit(file, algorithm));
+		StringBuilder content = new StringBuilder(files.length * 100);
+		for(int i = 0; i < files.length; i++)
+			content
+				.append(ChecksumCache.await(checksums.get(i)))
+				.append("  ")
+				.append(files[i].getName())
+				.append('\n');
+		_contentForLogging = content.toString();
+		byte[] bytes = content.toString().getBytes("UTF-8");
+		writeHeader(os, HttpStatusCode.SC200, TEXT_PLAIN, bytes.length);
+		os.write(bytes);
+	}
+	
+	
+	/**
+	 * Writes a single entry of a jar or zip file to {@link OutputStream} without unpacking
+	 * the archive. The entry is given with {@code entry} query parameter. Stored entries are
+	 * sent as a raw byte range of the archive. Deflated entries are sent as is wrapped to
+	 * a gzip stream if the client accepts {@code gzip} encoding. Otherwise they are inflated
+	 * on the fly.
+	 * 
+	 * @param os
+	 * 
+	 * @param archiveFile
+	 * 		The archive file.
+	 * 
+	 * @param docType
+	 * 		Document type of the archive file.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeExtractedEntry(OutputStream os, File archiveFile, DocType docType)
+		throws
+			IOException
+	{
+		String entryName = _request.getParameter("entry");
+		if(!isArchive(docType) || entryName == null) {
+			LOGGER.warning("An attempt to extract uri: " + _request.getUri());
+			writeError(os);
+			return;
+		}
+		
+		ArchiveCache cache = ArchiveCache.getInstance();
+		ZipArchive archive = cache.acquire(archiveFile);
+		try {
+			ZipArchive.Entry entry = archive.getEntry(entryName);
+			if(entry == null || entry.isDirectory()) {
+				LOGGER.info(archiveFile.getName() + "!" + entryName + " was not found.");
+				writeError(os);
+				return;
+			}
+			_contentForLogging = archiveFile.getName() + "!" + entryName;
+			writeEntry(os, archive, entry);
+		}
+		catch(ZipException e) {
+			LOGGER.log(Level.INFO, archiveFile.getName() + "!" + entryName + " is not valid.", e);
+			if(_statusCode == null)
+				writeError(os);
+			else
+				_keepAlive = false;
+		}
+		finally {
+			cache.release(archive);
+		}
+	}
+	
+	
+	/**
+	 * Writes an archive entry with a MIME type based on the entry name.
+	 * 
+	 * @param os
+	 * 
+	 * @param archive
+	 * 		The archive.
+	 * 
+	 * @param entry
+	 * 		The entry to be sent.
+	 * 
+	 * @throws IOException
+	 */
+	private void writeEntry(OutputStream os, ZipArchive archive, ZipArchive.Entry entry)
+		throws
+			IOException
+	{
+		if(
+			entry.isEncrypted()
+			|| (entry.getMethod() != ZipArchive.STORED && entry.getMethod() != ZipArchive.DEFLATED)
+		) {
+			LOGGER.info(
+				"'" + entry.getName() + "' is encrypted or uses an unsupported compression method."
+			);
+			writeError(os, HttpStatusCode.SC501);
+			return;
+		}
+		
+		String mimeType = new DocType(entry.getName()).getMimeType();
+		long position = archive.getDataPosition(entry);
+		if(entry.getMethod() == ZipArchive.STORED) {
+			writeHeader(os, HttpStatusCode.SC200, mimeType, entry.getCompressedSize());
+			sendRegion(os, archive.getChannel(), position, entry.getCompressedSize());
+			return;
+		}
+		
+		addHeaderField("Vary", "Accept-Encoding");
+		if(acceptsGzip()) {
+			// Raw deflate data is not valid for "Content-Encoding: deflate" (it means zlib
+			// format) but it is the body of a gzip stream as such.
+			addHeaderField("Content-Encoding", "gzip");
+			writeHeader(
+				os,
+				HttpStatusCode.SC200,
+				mimeType,
+				GZIP_HEADER.length + entry.getCompressedSize() + GZIP_TRAILER_SIZE
+			);
+			os.write(GZIP_HEADER);
+			sendRegion(os, archive.getChannel(), position, entry.getCompressedSize());
+			writeIntLE(os, entry.getCrc());
+			writeIntLE(os, entry.getSize());
+		}
+		else {
+			writeHeader(os, HttpStatusCode.SC200, mimeType, entry.getSize());
+			Inflater inflater = new Inflater(true);
+			try {
+				InputStream is =
+					new RawInflaterInputStream(
+						new FileRegionInputStream(
+							archive.getChannel(),
+							position,
+							entry.getCompressedSize()
+						),
+						inflater
+					);
+				sendStream(is, entry.getSize(), os);
+			}
+			finally {
+				inflater.end();
+			}
+		}
+	}
+	
+	private static void writeIntLE(OutputStream os, long value)
+		throws
+			IOException
+	{
+		os.write((int)value);
+		os.write((int)(value >>> 8));
+		os.write((int)(value >>> 16));
+		os.write((int)(value >>> 24));
+	}
+	
+	private boolean acceptsGzip()
+	{
+		String acceptEncoding = _request.getHeaderFields().get("Accept-Encoding");
+		return acceptEncoding != null && acceptEncoding.toLowerCase().contains("gzip");
+	}
+	
+	private static boolean isArchive(DocType docType)
+	{
+		return
+			docType.getDocumentClass().equals(ZIP_CLASS)
+				|| docType.getDocumentClass().equals(JAR_CLASS);
+	}
+	
+	
+	/**
+	 * Sends a region of a file. Zero-copy is used if the connection allows it. The file
+	 * channel is only read with positional operations so it can be shared.
+	 * 
+	 * @param os
+	 * 		The target stream.
+	 * 
+	 * @param fileChannel
+	 * 		The source file.
+	 * 
+	 * @param position
+	 * 		The position of the first byte to be sent.
+	 * 
+	 * @param length
+	 * 		The number of bytes to be sent.
+	 * 
+	 * @throws IOException
+	 */
+	private void sendRegion(OutputStream os, FileChannel fileChannel, long position, long length)
+		throws
+			IOException
+	{
+		FlightRecorder recorder = FlightRecorder.getInstance();
+		long startNs = recorder.begin();
+		WritableByteChannel channel = _connection.getZeroCopyChannel();
+		if(channel != null)
+			sendZeroCopy(fileChannel, position, length, channel);
+		else
+			sendStream(new FileRegionInputStream(fileChannel, position, length), length, os);
+		recorder.commit(FlightRecorder.EventType.SEND, startNs, length, _request.getUri());
+	}
+	
+	
+	/**
+	 * Sends the file content with {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+	 * which lets the kernel copy the data directly from the file to the socket. If the
+	 * connection is throttled the content is transferred in small chunks.
+	 * 
+	 * @param fileChannel
+	 * 		The source file.
+	 * 
+	 * @param position
+	 * 		The position of the first byte to be sent.
+	 * 
+	 * @param length
+	 * 		The number of bytes to be sent.
+	 * 
+	 * @param channel
+	 * 		The target socket channel.
+	 * 
+	 * @throws IOException
+	 * 		If sending fails or the file is shorter than {@code length} (e.g. truncated
+	 * 		while being sent).
+	 */
+	private void sendZeroCopy(
+		FileChannel fileChannel,
+		long position,
+		long length,
+		WritableByteChannel channel
+	) throws IOException
+	{
+		boolean throttled = _connection.isThrottled();
+		long end = position + length;
+		while(position < end) {
+			// Transferring in chunks lets the send watchdog see the progress.
+			long count =
+				Math.min(end - position, throttled ? THROTTLED_CHUNK_SIZE : ZERO_COPY_CHUNK_SIZE);
+			long sent = 0;
+			_connection.beginWrite();
+			try {
+				sent = fileChannel.transferTo(position, count, channel);
+			}
+			finally {
+				_connection.endWrite(Math.max(0, sent));
+			}
+			// The full length is already in Content-Length, so a short body must break
+			// the connection rather than let the client read the next response as its rest.
+			if(sent <= 0 && position >= fileChannel.size())
+				throw new EOFException(
+					"The file ended " + (end - position) + " bytes before the announced length."
+				);
+			position += sent;
+			if(throttled)
+				_connection.throttle(sent);
+		}
+	}
+	
+	/**
+	 * Sends the content by copying it through user space. This is used when zero-copy
+	 * is not possible (e.g. TLS or inflated content). The buffer is the size of the maximum
+	 * TLS record so that each write produces a full record.
+	 * 
+	 * @param is
+	 * 		The source.
+	 * 
+	 * @param length
+	 * 		The number of bytes to be sent.
+	 * 
+	 * @param os
+	 * 		The target stream.
+	 * 
+	 * @throws IOException
+	 * 		If sending fails or the source ends before {@code length} bytes (e.g. a wrong
+	 * 		size in an archive entry).
+	 */
+	private void sendStream(InputStream is, long length, OutputStream os)
+		throws
+			IOException
+	{
+		byte[] buffer = BufferPool.getInstance().acquire(STREAM_BUFFER_SIZE);
+		try {
+			long remaining = length;
+			while(remaining > 0) {
+				int n = is.read(buffer, 0, (int)Math.min(STREAM_BUFFER_SIZE, remaining));
+				if(n == -1)
+					throw new EOFException(
+						"The content ended " + remaining + " bytes before the announced length."
+					);
+				os.write(buffer, 0, n);
+				remaining -= n;
+				_connection.throttle(n);
+			}
+		}
+		finally {
+			BufferPool.getInstance().release(buffer);
+		}
+	}
+	
+	
+	/**
+	 * Makes some logging about the response. The logging level affects how much information
+	 * is shown. Levels used are, FINE, FINER and FINEST.
+	 * 
+	 * @param statusCode
+	 * 		Current status code.
+	 * 
+	 * @param contentType
+	 * 		Content type of the response.
+	 * 
+	 * @param contentLength
+	 * 		Content length of the response.
+	 */
+	private void log(HttpStatusCode statusCode, String contentType, long contentLength)
+	{
+		if(!LOGGER.isLoggable(Level.FINE))
+			return;
+		
+		StringBuilder respStr = new StringBuilder(256);
+		Level level = Level.FINE;
+		respStr.append("\n-> HTTP Version: ").append(HTTP_VERSION).append('\n');
+		respStr.append("-> Status Code: ").append(statusCode.getStatusCode()).append('\n');
+		respStr.append("-> Reason Phrase: ").append(statusCode.getReasonPhrase()).append('\n');
+		if(LOGGER.isLoggable(Level.FINER)) {
+			level = Level.FINER;
+			respStr.append("->\n");
+			respStr.append("-> Content-Type : ").append(contentType).append('\n');
+			respStr.append("-> Content-Length : ").append(contentLength).append('\n');
+			if(_cacheControl != null)
+				respStr.append("-> Cache-Control : ").append(_cacheControl).append('\n');
+			respStr.append("-> Connection : ").append(_keepAlive ? "keep-alive" : "close");
+			respStr.append('\n');
+		}
+		if(LOGGER.isLoggable(Level.FINEST)) {
+			level = Level.FINEST;
+			respStr.append("->\n");
+			respStr.append("-> ").append(_contentForLogging).append('\n');
+		}
+		LOGGER.log(level, respStr.toString());
+	}
+	
+	
+	/**
+	 * Inflates raw deflate data (i.e. without zlib header). The inflater may need one byte
+	 * more than the compressed data has so a dummy byte is given at the end of the input
+	 * (like {@link ZipFile} does).
+	 */
+	private static class RawInflaterInputStream
+		extends
+			InflaterInputStream
+	{
+		private boolean _eof = false;
+		
+		public RawInflaterInputStream(InputStream is, Inflater inflater)
+		{
+			super(is, inflater, STREAM_BUFFER_SIZE);
+		}
+		
+		protected void fill()
+			throws
+				IOException
+		{
+			if(_eof)
+				throw new EOFException("Unexpected end of deflated data.");
+			
+			len = in.read(buf, 0, buf.length);
+			if(len == -1) {
+				buf[0] = 0;
+				len = 1;
+				_eof = true;
 			}
-			LOGGER.log(level, respStr);
+			inf.setInput(buf, 0, len);
 		}
 	}
 	
@@ -608,7 +2730,7 @@ public class HttpResponse
 	 * Document class is used CSS styling purpouses and MIME for obvious reasons.
 	 * <p/>
 	 * Document type recognition is based how file name ends (e.g. .jpg, .txt, .pdf, README, etc).
-	 * There are two kind of recognition endings; fixed and customisable. Fixed endings are:
+	 * The endings are looked up from {@link DocTypeRegistry}. The default endings are:
 	 * 	<ul>
 	 * 		<li>.jpg -> class="picture", MIME = image/jpeg</li>
 	 * 		<li>.jpeg -> class="picture", MIME = image/jpeg</li>
@@ -628,161 +2750,33 @@ public class HttpResponse
 	 * {@code plain/text} and {@code application/xml} and their document classes are
 	 * {@code class="text"} and {@code class="xml"} respectively. To have either MIME type for
 	 * a certain file name ending the respective {@code .conf} file must be edited.
+	 * <p/>
+	 * All of the above can be overridden or extended with an external file given with
+	 * {@code fileweb.mimeTypes} system property. The file is reloaded when it changes.
 	 * 
-	 * If file name does not match either fixed or customisable set of endings then
-	 * {@code class="unknown"} and MIME type is {@code application/octet-stream}.
+	 * If file name does not match any ending then {@code class="unknown"} and MIME type is
+	 * {@code application/octet-stream}.
 	 * 
 	 * 
 	 * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
-	 *
+	 * @see DocTypeRegistry
 	 */
 	public static class DocType {
-		private final static String[] PIC_TYPES = { "jpg", "jpeg", "png", "gif", "tiff" };
-		private final static String[] JAR_TYPES = { "jar", "war", "ear" };
-		private final static String APPLICATION_XML_CONFIG = readConfig("application-xml.conf");
-		private final static String PLAIN_TEXT_CONFIG = readConfig("plain-text.conf");
-		
-
-		/**
-		 * Reads a customisable file name ending file and converts it to {@link String}.
-		 * 
-		 * @param configName
-		 * 		File name for the configuration file.
-		 * 
-		 * @return
-		 * 		Configuration file as {@link String}.
-		 */
-		private final static String readConfig(String configName)
-		{
-			String retVal = "";
-			try {
-				InputStream is =
-					Thread
-						.currentThread()
-						.getContextClassLoader()
-						.getResourceAsStream(configName);
-				if(is == null) {
-					LOGGER.log(Level.WARNING, "'" + configName + "' is missing.");
-					return "";
-				}
-				BufferedReader reader =	new BufferedReader(new InputStreamReader(is));
-				Pattern commentPattern = Pattern.compile("^ *#.*");
-				String line;
-				while((line = reader.readLine()) != null) {
-					if(line.trim().length() == 0 || commentPattern.matcher(line).matches())
-						continue;
-
-					retVal += line + "\n";
-				}
-			}
-			catch(IOException e) {
-				// Does nothing.
-			}
-
-			return retVal;
-		}
-		
-		
 		private final String _documentClass;
 		private final String _mimeType;
 		
 		
-		private DocType(String documentClass, String mimeType)
-		{
-			_documentClass = documentClass;
-			_mimeType = mimeType;
-		}
-		
 		public DocType(String fileName)
 		{
-			fileName = fileName.toLowerCase();
-			DocType docType =
-				getConfiguredType(fileName, PLAIN_TEXT_CONFIG, "text", TEXT_PLAIN);
-			if(docType == null)
-				docType =
-					getConfiguredType(fileName, APPLICATION_XML_CONFIG, "xml", APPLICATION_XML);
-			if(docType == null)
-				docType = getHtmlType(fileName);
-			if(docType == null)
-				docType = getPdfType(fileName);
-			if(docType == null)
-				docType = getPicType(fileName);
-			if(docType == null)
-				docType = getZipType(fileName);
-			if(docType == null)
-				docType = getJarType(fileName);
-			if(docType == null) {
+			DocTypeRegistry.Mapping mapping = DocTypeRegistry.lookup(fileName.toLowerCase());
+			if(mapping == null) {
 				_documentClass = "unknown";
 				_mimeType = "application/octet-stream"; 
 			}
 			else {
-				_documentClass = docType.getDocumentClass();
-				_mimeType = docType.getMimeType();
-			}
-		}
-
-		private static DocType getHtmlType(String fileNameToCheck)
-		{
-			return
-			 	Pattern.matches("^.*\\.html?$", fileNameToCheck) ? 
-			 		new DocType("html", "text/html")
-					: null;
-		}
-		
-		private static DocType getPdfType(String fileNameToCheck)
-		{
-			return
-				fileNameToCheck.endsWith(".pdf") ? new DocType("pdf", "application/pdf") : null;
-		}
-		
-		private static DocType getPicType(String fileNameToCheck)
-		{
-			for(String type : PIC_TYPES)
-				if(fileNameToCheck.endsWith("." + type))
-					return new DocType("image", "image/" + (type.equals("jpg") ? "jpeg" : type));
-			
-			return null;
-		}
-		
-		private static DocType getZipType(String fileNameToCheck)
-		{
-			return
-				fileNameToCheck.endsWith(".zip") ? new DocType(ZIP_CLASS, "application/zip") : null;
-		}
-		
-		private static DocType getJarType(String fileNameToCheck)
-		{
-			for(String type : JAR_TYPES)
-				if(fileNameToCheck.endsWith(type))
-					return new DocType(JAR_CLASS, "application/octet-stream");
-			
-			return null;
-		}
-		
-		private static DocType getConfiguredType(
-			String fileNameToCheck,
-			String config,
-			String documentClass,
-			String mimeType
-		)
-		{
-			try {
-				BufferedReader reader =	new BufferedReader(new StringReader(config));
-				Pattern commentPattern = Pattern.compile("^ *#.*");
-				String line;
-				while((line = reader.readLine()) != null) {
-					if(line.trim().length() == 0 || commentPattern.matcher(line).matches())
-						continue;
-					
-					if(fileNameToCheck.endsWith(line.toLowerCase()))
-						return new DocType(documentClass, mimeType);
-				}
-			}
-			catch(IOException e) {
-				// Does nothing.
+				_documentClass = mapping.getDocumentClass();
+				_mimeType = mapping.getMimeType();
 			}
-			
-			return null;
 		}
 		
 		
@@ -67,4 +67,22 @@ public enum HttpStatusCode
 	{
 		return _reasonPhrase;
 	}
+	
+	/**
+	 * Finds a status code by its number.
+	 * 
+	 * @param statusCode
+	 * 		The number (e.g. 404).
+	 * 
+	 * @return
+	 * 		The status code or {@code null} if the number is unknown.
+	 */
+	public static HttpStatusCode forStatusCode(int statusCode)
+	{
+		String code = Integer.toString(statusCode);
+		for(HttpStatusCode value : values())
+			if(value._statusCode.equals(code))
+				return value;
+		return null;
+	}
 }
@@ -0,0 +1,295 @@
+package com.hapiware.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * {@code LineIndex} finds the positions of lines in a (huge) text file. The index is sparse;
+ * it has the position of every {@link #LINES_PER_CHECKPOINT}th line, so finding any line
+ * needs reading at most that many lines regardless of the file size.
+ * <p/>
+ * The index is built lazily, only as far as the requested lines need, by scanning
+ * the memory-mapped file. A growing file (e.g. a log) is indexed incrementally from where
+ * the previous scan ended. If the file has been truncated or rewritten the index is built
+ * again.
+ * <p/>
+ * Indexes are cached per file (see {@code fileweb.lineIndex.cacheSize}). All the methods
+ * of an index are synchronized.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class LineIndex
+{
+	private final static String CACHE_SIZE_PROPERTY = "fileweb.lineIndex.cacheSize";
+	private final static int DEFAULT_CACHE_SIZE = 64;
+	private final static int LINES_PER_CHECKPOINT = 1024;
+	private final static int MAPPED_WINDOW_SIZE = 64 * 1024 * 1024;
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private final static int CACHE_SIZE =
+		Integer.getInteger(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE);
+	private final static Map<String, LineIndex> CACHE =
+		new LinkedHashMap<String, LineIndex>(16, 0.75f, true) {
+			private final static long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<String, LineIndex> eldest)
+			{
+				return size() > CACHE_SIZE;
+			}
+		};
+
+
+	private long[] _checkpoints = new long[16];
+	private int _numberOfCheckpoints;
+	private long _numberOfLines;
+	private long _indexedEnd;
+	private long _lastLineStart;
+	private long _lastSize;
+	private long _lastModified;
+
+
+	/**
+	 * Returns the cached index of a file.
+	 *
+	 * @param file
+	 * 		The file.
+	 *
+	 * @return
+	 * 		The line index.
+	 *
+	 * @throws IOException
+	 */
+	public static LineIndex forFile(File file)
+		throws
+			IOException
+	{
+		String key = file.getCanonicalPath();
+		synchronized(CACHE) {
+			LineIndex index = CACHE.get(key);
+			if(index == null) {
+				index = new LineIndex();
+				CACHE.put(key, index);
+			}
+			return index;
+		}
+	}
+
+
+	public LineIndex()
+	{
+		reset();
+	}
+
+	private void reset()
+	{
+		_checkpoints[0] = 0;
+		_numberOfCheckpoints = 1;
+		_numberOfLines = 0;
+		_indexedEnd = 0;
+		_lastLineStart = 0;
+		_lastSize = 0;
+		_lastModified = 0;
+	}
+
+
+	/**
+	 * Finds the position of a line.
+	 *
+	 * @param channel
+	 * 		The indexed file.
+	 *
+	 * @param lastModified
+	 * 		The modification time of the file.
+	 *
+	 * @param line
+	 * 		The line number starting from 0.
+	 *
+	 * @return
+	 * 		The position of the first byte of the line or -1 if the file does not have
+	 * 		the line.
+	 *
+	 * @throws IOException
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If {@code line} is negative.
+	 */
+	public synchronized long getPosition(FileChannel channel, long lastModified, long line)
+		throws
+			IOException
+	{
+		if(line < 0)
+			throw new IllegalArgumentException("A negative line number " + line + ".");
+		
+		long size = channel.size();
+		if(size < _indexedEnd || (size == _lastSize && lastModified != _lastModified))
+			reset();
+		_lastSize = size;
+		_lastModified = lastModified;
+
+		if(line > _numberOfLines && _indexedEnd < size)
+			extend(channel, size, line);
+		if(line > _numberOfLines)
+			return -1;
+		if(line == _numberOfLines)
+			return _lastLineStart < size ? _lastLineStart : -1;
+
+		int checkpoint = (int)(line / LINES_PER_CHECKPOINT);
+		return
+			skipLines(
+				channel,
+				_checkpoints[checkpoint],
+				line - (long)checkpoint * LINES_PER_CHECKPOINT
+			);
+	}
+
+
+	/**
+	 * Returns the number of complete (i.e. newline terminated) lines indexed so far.
+	 *
+	 * @return
+	 * 		Number of lines.
+	 */
+	public synchronized long getNumberOfIndexedLines()
+	{
+		return _numberOfLines;
+	}
+
+
+	/**
+	 * Scans the file from the end of the index until {@code line} has been found or
+	 * the end of the file has been reached.
+	 */
+	private void extend(FileChannel channel, long size, long line)
+		throws
+			IOException
+	{
+		long position = _indexedEnd;
+		while(position < size && _numberOfLines < line) {
+			long windowSize = Math.min(MAPPED_WINDOW_SIZE, size - position);
+			MappedByteBuffer window =
+				channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+			int i = 0;
+			while(i < windowSize && _numberOfLines < line) {
+				if(window.get(i++) == '\n') {
+					_numberOfLines++;
+					_lastLineStart = position + i;
+					if(_numberOfLines % LINES_PER_CHECKPOINT == 0)
+						addCheckpoint(_lastLineStart);
+				}
+			}
+			position += i;
+		}
+		_indexedEnd = position;
+	}
+
+	private void addCheckpoint(long position)
+	{
+		if(_numberOfCheckpoints == _checkpoints.length) {
+			long[] checkpoints = new long[_checkpoints.length * 2];
+			System.arraycopy(_checkpoints, 0, checkpoints, 0, _numberOfCheckpoints);
+			_checkpoints = checkpoints;
+		}
+		_checkpoints[_numberOfCheckpoints++] = position;
+	}
+
+
+	/**
+	 * Reads forward over a number of lines.
+	 *
+	 * @param channel
+	 * 		The file.
+	 *
+	 * @param position
+	 * 		The position of the first line.
+	 *
+	 * @param lines
+	 * 		Number of lines to skip.
+	 *
+	 * @return
+	 * 		The position of the line after the skipped lines.
+	 *
+	 * @throws IOException
+	 */
+	private static long skipLines(FileChannel channel, long position, long lines)
+		throws
+			IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		while(lines > 0) {
+			buffer.clear();
+			int n = channel.read(buffer, position);
+			if(n == -1)
+				throw new IOException("The file changed while reading it.");
+			for(int i = 0; i < n; i++) {
+				if(buffer.get(i) == '\n' && --lines == 0)
+					return position + i + 1;
+			}
+			position += n;
+		}
+		return position;
+	}
+
+
+	/**
+	 * Finds the position of the n:th line counted from the end of a file. A newline at
+	 * the very end of the file does not start a new line. No index is needed, but at most
+	 * {@code maxBytes} bytes are read backwards so that a huge file without newlines is
+	 * not read through.
+	 *
+	 * @param channel
+	 * 		The file.
+	 *
+	 * @param lines
+	 * 		Number of lines from the end.
+	 *
+	 * @param maxBytes
+	 * 		Maximum number of bytes to scan from the end.
+	 *
+	 * @return
+	 * 		The position of the first byte of the line, 0 if the file has fewer lines or
+	 * 		{@code size - maxBytes} if the line was not found within {@code maxBytes}.
+	 *
+	 * @throws IOException
+	 */
+	public static long getTailPosition(FileChannel channel, long lines, long maxBytes)
+		throws
+			IOException
+	{
+		long size = channel.size();
+		if(lines <= 0)
+			return size;
+		
+		long limit = Math.max(0, size - maxBytes);
+		long end = size;
+		if(end > 0) {
+			ByteBuffer last = ByteBuffer.allocate(1);
+			channel.read(last, end - 1);
+			if(last.get(0) == '\n')
+				end--;
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		while(end > limit) {
+			int n = (int)Math.min(BUFFER_SIZE, end - limit);
+			long position = end - n;
+			buffer.clear();
+			buffer.limit(n);
+			while(buffer.hasRemaining())
+				if(channel.read(buffer, position + buffer.position()) == -1)
+					throw new IOException("The file changed while reading it.");
+			for(int i = n - 1; i >= 0; i--) {
+				if(buffer.get(i) == '\n' && --lines == 0)
+					return position + i + 1;
+			}
+			end = position;
+		}
+		return limit;
+	}
+}
@@ -0,0 +1,275 @@
+package com.hapiware.http;
+
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * {@code Metrics} serves the statistics of {@link FileWeb} in the Prometheus text format
+ * (version 0.0.4) from a configurable path ({@code fileweb.metrics.path}, default
+ * {@value #DEFAULT_PATH}) so that no JMX exporter is needed for scraping.
+ * <p/>
+ * The response counters, the bytes sent and the latency histogram are collected here with
+ * atomic counters. The rest is read from the {@link Controller}, the {@link FairScheduler},
+ * the caches and the {@link BufferPool}, whose counters can be read without locking, so
+ * a scrape never blocks the request threads.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class Metrics
+{
+	public final static String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final static String PATH_PROPERTY = "fileweb.metrics.path";
+	private final static String DEFAULT_PATH = "/metrics";
+	// Downloads of big files take minutes, so the buckets go further than usual.
+	private final static String[] BUCKET_LABELS = {
+		"0.005", "0.01", "0.025", "0.05", "0.1", "0.25", "0.5", "1", "2.5", "5", "10", "30", "60",
+		"300"
+	};
+	private final static long[] BUCKET_BOUNDS_US = {
+		5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000, 2500000, 5000000, 10000000,
+		30000000, 60000000, 300000000
+	};
+	private final static Metrics INSTANCE =
+		new Metrics(System.getProperty(PATH_PROPERTY, DEFAULT_PATH));
+
+
+	private final String _path;
+	private volatile FileWeb _fileWeb;
+	// Responses by the status class (1xx - 5xx).
+	private final AtomicLongArray _numberOfResponses = new AtomicLongArray(5);
+	private final AtomicLong _bytesSent = new AtomicLong();
+	// Non-cumulative bucket counts. The last one is for the responses over all the bounds.
+	private final AtomicLongArray _buckets = new AtomicLongArray(BUCKET_BOUNDS_US.length + 1);
+	private final AtomicLong _durationUs = new AtomicLong();
+
+
+	/**
+	 * Returns the metrics shared by the whole server.
+	 *
+	 * @return
+	 * 		The metrics.
+	 */
+	public static Metrics getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	/**
+	 * Creates metrics.
+	 *
+	 * @param path
+	 * 		The request path of the metrics or an empty string to disable serving them.
+	 */
+	public Metrics(String path)
+	{
+		_path = path.length() == 0 ? null : path;
+	}
+
+
+	/**
+	 * Sets the server whose controller and scheduler are reported.
+	 *
+	 * @param fileWeb
+	 * 		The server.
+	 */
+	public void setFileWeb(FileWeb fileWeb)
+	{
+		_fileWeb = fileWeb;
+	}
+
+
+	/**
+	 * Returns the request path of the metrics.
+	 *
+	 * @return
+	 * 		The path or {@code null} if the metrics are not served.
+	 */
+	public String getPath()
+	{
+		return _path;
+	}
+
+
+	/**
+	 * Records a finished request.
+	 *
+	 * @param statusCode
+	 * 		The status code of the response or {@code null} if no response was written.
+	 *
+	 * @param durationNs
+	 * 		The time used for the request in nanoseconds.
+	 *
+	 * @param bytesSent
+	 * 		The number of bytes sent.
+	 */
+	public void recordResponse(HttpStatusCode statusCode, long durationNs, long bytesSent)
+	{
+		if(statusCode != null) {
+			int statusClass = statusCode.getStatusCode().charAt(0) - '1';
+			if(statusClass >= 0 && statusClass < _numberOfResponses.length())
+				_numberOfResponses.incrementAndGet(statusClass);
+		}
+		_bytesSent.addAndGet(Math.max(0, bytesSent));
+
+		long durationUs = TimeUnit.NANOSECONDS.toMicros(Math.max(0, durationNs));
+		int bucket = 0;
+		while(bucket < BUCKET_BOUNDS_US.length && durationUs > BUCKET_BOUNDS_US[bucket])
+			bucket++;
+		_buckets.incrementAndGet(bucket);
+		_durationUs.addAndGet(durationUs);
+	}
+
+
+	/**
+	 * Renders the metrics in the Prometheus text format.
+	 *
+	 * @return
+	 * 		The metrics as UTF-8.
+	 */
+	public byte[] render()
+	{
+		StringBuilder sb = new StringBuilder(4096);
+		FileWeb fileWeb = _fileWeb;
+		if(fileWeb != null) {
+			Controller controller = fileWeb.getController();
+			FairScheduler scheduler = fileWeb.getScheduler();
+			header(sb, "fileweb_start_time_seconds", "gauge", "Start time since the epoch.");
+			sample(sb, "fileweb_start_time_seconds", null, controller.getStartTime() / 1000);
+			header(sb, "fileweb_requests_total", "counter", "Requests received.");
+			sample(sb, "fileweb_requests_total", null, controller.getNumberOfTotalRequests());
+			header(sb, "fileweb_requests_in_flight", "gauge", "Requests being handled.");
+			sample(sb, "fileweb_requests_in_flight", null, controller.getNumberOfCurrentRequests());
+			header(sb, "fileweb_errors_total", "counter", "Connections failed unexpectedly.");
+			sample(sb, "fileweb_errors_total", null, controller.getNumberOfErrors());
+			header(
+				sb,
+				"fileweb_reclaimed_connections_total",
+				"counter",
+				"Connections closed because the client did not read the response."
+			);
+			sample(
+				sb,
+				"fileweb_reclaimed_connections_total",
+				"reason=\"stalled\"",
+				controller.getNumberOfStalledConnections()
+			);
+			sample(
+				sb,
+				"fileweb_reclaimed_connections_total",
+				"reason=\"slow\"",
+				controller.getNumberOfSlowConnections()
+			);
+			header(sb, "fileweb_workers", "gauge", "Connections served at the same time at most.");
+			sample(sb, "fileweb_workers", null, scheduler.getConcurrency());
+			header(sb, "fileweb_workers_busy", "gauge", "Connections being served.");
+			sample(sb, "fileweb_workers_busy", null, scheduler.getNumberOfRunning());
+			header(sb, "fileweb_queued_connections", "gauge", "Connections waiting for a worker.");
+			sample(sb, "fileweb_queued_connections", null, scheduler.getNumberOfQueued());
+			header(
+				sb,
+				"fileweb_rejected_connections_total",
+				"counter",
+				"Connections rejected because a client had too many waiting."
+			);
+			sample(sb, "fileweb_rejected_connections_total", null, scheduler.getNumberOfRejected());
+			header(
+				sb,
+				"fileweb_expired_connections_total",
+				"counter",
+				"Connections closed because they waited too long for a worker."
+			);
+			sample(sb, "fileweb_expired_connections_total", null, scheduler.getNumberOfExpired());
+		}
+
+		header(sb, "fileweb_responses_total", "counter", "Responses by the status class.");
+		for(int i = 0; i < _numberOfResponses.length(); i++)
+			sample(
+				sb,
+				"fileweb_responses_total",
+				"code=\"" + (i + 1) + "xx\"",
+				_numberOfResponses.get(i)
+			);
+		header(sb, "fileweb_sent_bytes_total", "counter", "Bytes sent to the clients.");
+		sample(sb, "fileweb_sent_bytes_total", null, _bytesSent.get());
+
+		String histogram = "fileweb_request_duration_seconds";
+		header(sb, histogram, "histogram", "Time used for the requests.");
+		long count = 0;
+		for(int i = 0; i < BUCKET_LABELS.length; i++) {
+			count += _buckets.get(i);
+			sample(sb, histogram + "_bucket", "le=\"" + BUCKET_LABELS[i] + "\"", count);
+		}
+		count += _buckets.get(BUCKET_LABELS.length);
+		sample(sb, histogram + "_bucket", "le=\"+Inf\"", count);
+		sb.append(histogram).append("_sum ").append(_durationUs.get() / 1000000.0).append('\n');
+		sample(sb, histogram + "_count", null, count);
+
+		ArchiveCache archiveCache = ArchiveCache.getInstance();
+		ChecksumCache checksumCache = ChecksumCache.getInstance();
+		MirrorCache mirrorCache = MirrorCache.getInstance();
+		header(sb, "fileweb_cache_hits_total", "counter", "Cache hits.");
+		sample(sb, "fileweb_cache_hits_total", "cache=\"archive\"", archiveCache.getNumberOfHits());
+		sample(sb, "fileweb_cache_hits_total", "cache=\"checksum\"", checksumCache.getNumberOfHits());
+		if(mirrorCache != null)
+			sample(sb, "fileweb_cache_hits_total", "cache=\"mirror\"", mirrorCache.getNumberOfHits());
+		header(sb, "fileweb_cache_misses_total", "counter", "Cache misses.");
+		sample(sb, "fileweb_cache_misses_total", "cache=\"archive\"", archiveCache.getNumberOfMisses());
+		sample(sb, "fileweb_cache_misses_total", "cache=\"checksum\"", checksumCache.getNumberOfMisses());
+		if(mirrorCache != null) {
+			sample(sb, "fileweb_cache_misses_total", "cache=\"mirror\"", mirrorCache.getNumberOfMisses());
+			header(sb, "fileweb_mirror_bytes", "gauge", "Size of the mirrored files on disk.");
+			sample(sb, "fileweb_mirror_bytes", null, mirrorCache.getSize());
+			header(sb, "fileweb_mirror_evictions_total", "counter", "Mirrored files removed.");
+			sample(sb, "fileweb_mirror_evictions_total", null, mirrorCache.getNumberOfEvictions());
+		}
+		header(
+			sb,
+			"fileweb_coalesced_requests_total",
+			"counter",
+			"Requests which got a response created for another request."
+		);
+		sample(
+			sb,
+			"fileweb_coalesced_requests_total",
+			null,
+			RequestCoalescer.getInstance().getNumberOfCoalesced()
+		);
+
+		BufferPool bufferPool = BufferPool.getInstance();
+		header(sb, "fileweb_buffer_pool_bytes", "gauge", "Size of the pooled I/O buffers.");
+		sample(sb, "fileweb_buffer_pool_bytes", null, bufferPool.getSize());
+		header(sb, "fileweb_buffer_pool_idle_bytes", "gauge", "Size of the idle I/O buffers.");
+		sample(sb, "fileweb_buffer_pool_idle_bytes", null, bufferPool.getIdleSize());
+		header(sb, "fileweb_buffer_pool_allocations_total", "counter", "Buffers created for the pool.");
+		sample(sb, "fileweb_buffer_pool_allocations_total", null, bufferPool.getNumberOfAllocations());
+		header(sb, "fileweb_buffer_pool_overflows_total", "counter", "Buffers created outside the pool.");
+		sample(sb, "fileweb_buffer_pool_overflows_total", null, bufferPool.getNumberOfOverflows());
+
+		try {
+			return sb.toString().getBytes("UTF-8");
+		}
+		catch(UnsupportedEncodingException e) {
+			throw new IllegalStateException(e.getMessage());
+		}
+	}
+
+	private static void header(StringBuilder sb, String name, String type, String help)
+	{
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	private static void sample(StringBuilder sb, String name, String labels, long value)
+	{
+		sb.append(name);
+		if(labels != null)
+			sb.append('{').append(labels).append('}');
+		sb.append(' ').append(value).append('\n');
+	}
+}
@@ -0,0 +1,869 @@
+package com.hapiware.http;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * {@code MirrorCache} makes 'fileweb' a caching mirror of another (upstream) 'fileweb'
+ * given with {@code fileweb.mirror.upstream} system property (e.g.
+ * {@code http://builds.example.com:8080}). Files are fetched from the upstream when they
+ * are requested for the first time and kept in a disk cache (see
+ * {@code fileweb.mirror.directory}) which survives restarts.
+ * <p/>
+ * A cached file is served without asking the upstream for {@code fileweb.mirror.maxAge}
+ * seconds. After that it is revalidated with a conditional request, so an unchanged file
+ * is not transferred again. If the upstream cannot be reached the cached copy is served.
+ * <p/>
+ * Concurrent requests of the same file share a single upstream request. The file is
+ * copied to the cache by a background thread and the clients are served from the cache
+ * file while it is still being filled, so the first bytes are sent without waiting for
+ * the whole file. The least recently used files are removed when the cache grows bigger
+ * than {@code fileweb.mirror.quota} bytes. Files bigger than the quota are streamed
+ * through the cache directory but not kept.
+ * <p/>
+ * Only absolute paths are sent to the upstream and the resulting URL is checked to point to
+ * the upstream (i.e. the same protocol, host and port under the base path), so that
+ * a request cannot make the mirror fetch from another host.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class MirrorCache
+{
+	private final static Logger LOGGER = Logger.getLogger(MirrorCache.class.getName());
+
+	private final static String UPSTREAM_PROPERTY = "fileweb.mirror.upstream";
+	private final static String DIRECTORY_PROPERTY = "fileweb.mirror.directory";
+	private final static String QUOTA_PROPERTY = "fileweb.mirror.quota";
+	private final static String MAX_AGE_PROPERTY = "fileweb.mirror.maxAge";
+	private final static long DEFAULT_QUOTA = 10l * 1024 * 1024 * 1024;
+	private final static long DEFAULT_MAX_AGE_S = 60;
+	private final static int CONNECT_TIMEOUT_MS = 10000;
+	private final static int READ_TIMEOUT_MS = 60000;
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private final static String DATA_ENDING = ".data";
+	private final static String META_ENDING = ".meta";
+	private final static String CHARSET = "UTF-8";
+	private final static MirrorCache INSTANCE = createInstance();
+
+
+	private final String _upstream;
+	private final URI _upstreamUri;
+	private final File _directory;
+	private volatile long _quota;
+	private volatile long _maxAge;
+	private final ExecutorService _executorService;
+	private final Map<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+	private final ConcurrentMap<String, FutureTask<Entry>> _inFlight =
+		new ConcurrentHashMap<String, FutureTask<Entry>>();
+	private final AtomicLong _nextFileNumber = new AtomicLong(System.currentTimeMillis());
+	// Updated while holding the lock, read without it.
+	private volatile long _size = 0;
+	private volatile long _numberOfHits = 0;
+	private volatile long _numberOfMisses = 0;
+	private volatile long _numberOfRevalidations = 0;
+	private volatile long _numberOfStaleResponses = 0;
+	private volatile long _numberOfEvictions = 0;
+
+
+	private static MirrorCache createInstance()
+	{
+		String upstream = System.getProperty(UPSTREAM_PROPERTY);
+		if(upstream == null)
+			return null;
+
+		return
+			new MirrorCache(
+				upstream,
+				new File(
+					System.getProperty(
+						DIRECTORY_PROPERTY,
+						new File(System.getProperty("java.io.tmpdir"), "fileweb-mirror").getPath()
+					)
+				),
+				Long.getLong(QUOTA_PROPERTY, DEFAULT_QUOTA),
+				Long.getLong(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE_S) * 1000
+			);
+	}
+
+
+	/**
+	 * Returns the mirror cache shared by the whole server.
+	 *
+	 * @return
+	 * 		The mirror cache or {@code null} if 'fileweb' is not a mirror.
+	 */
+	public static MirrorCache getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	/**
+	 * Creates a mirror cache. Files already in the cache directory are taken into use.
+	 *
+	 * @param upstream
+	 * 		The base URL of the upstream.
+	 *
+	 * @param directory
+	 * 		The cache directory.
+	 *
+	 * @param quota
+	 * 		Maximum size of the cached files in bytes.
+	 *
+	 * @param maxAge
+	 * 		Time in milliseconds a file is served before it is revalidated.
+	 *
+	 * @throws IllegalArgumentException
+	 * 		If {@code upstream} is not a valid URL.
+	 */
+	public MirrorCache(String upstream, File directory, long quota, long maxAge)
+	{
+		_upstream = upstream.endsWith("/") ? upstream.substring(0, upstream.length() - 1) : upstream;
+		try {
+			_upstreamUri = new URL(_upstream + "/").toURI().normalize();
+		}
+		catch(MalformedURLException e) {
+			throw new IllegalArgumentException("Invalid upstream URL: " + upstream, e);
+		}
+		catch(URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid upstream URL: " + upstream, e);
+		}
+		_directory = directory;
+		_quota = quota;
+		_maxAge = maxAge;
+		final AtomicInteger threadNumber = new AtomicInteger();
+		_executorService =
+			Executors.newCachedThreadPool(
+				new ThreadFactory() {
+					public Thread newThread(Runnable r)
+					{
+						Thread thread =
+							new Thread(r, "fileweb-mirror-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}
+			);
+		if(!_directory.isDirectory() && !_directory.mkdirs())
+			LOGGER.severe("Mirror cache directory '" + _directory + "' cannot be created.");
+		load();
+	}
+
+
+	/**
+	 * Opens a connection to the upstream. The connection is not connected yet, so request
+	 * header fields can still be set.
+	 *
+	 * @param path
+	 * 		The raw (i.e. URL encoded) path and the query of the request. The path must
+	 * 		be absolute.
+	 *
+	 * @return
+	 * 		The connection.
+	 *
+	 * @throws IOException
+	 * 		If the path is not absolute or the URL would point outside of the upstream.
+	 */
+	public HttpURLConnection openUpstream(String path)
+		throws
+			IOException
+	{
+		// For example '@evil.com/x' would make the upstream URL's host part a user name.
+		if(!path.startsWith("/"))
+			throw new IOException("Not an absolute path: " + path);
+		URL url = new URL(_upstream + path);
+		if(!isUpstream(url))
+			throw new IOException(path + " points outside of the upstream.");
+
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+		connection.setReadTimeout(READ_TIMEOUT_MS);
+		connection.setUseCaches(false);
+		connection.setInstanceFollowRedirects(false);
+		return connection;
+	}
+
+
+	private boolean isUpstream(URL url)
+	{
+		URI uri;
+		try {
+			uri = url.toURI().normalize();
+		}
+		catch(URISyntaxException e) {
+			return false;
+		}
+		return
+			_upstreamUri.getScheme().equalsIgnoreCase(uri.getScheme())
+				&& _upstreamUri.getHost() != null
+				&& _upstreamUri.getHost().equalsIgnoreCase(uri.getHost())
+				&& port(_upstreamUri) == port(uri)
+				&& (
+					_upstreamUri.getRawUserInfo() == null
+						? uri.getRawUserInfo() == null
+						: _upstreamUri.getRawUserInfo().equals(uri.getRawUserInfo())
+				)
+				&& uri.getRawPath() != null
+				&& uri.getRawPath().startsWith(_upstreamUri.getRawPath());
+	}
+
+	private static int port(URI uri)
+	{
+		if(uri.getPort() != -1)
+			return uri.getPort();
+		return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+	}
+
+
+	/**
+	 * Returns a file from the cache. The file is fetched from the upstream if it is not
+	 * cached and revalidated if it has not been validated for {@code maxAge}. The returned
+	 * entry may still be filling, so it must be read with {@link Entry#await(long)}.
+	 *
+	 * @param path
+	 * 		The raw (i.e. URL encoded) path of the file.
+	 *
+	 * @return
+	 * 		The entry which must be released with {@link #release(Entry)} or {@code null} if
+	 * 		the upstream does not have the file.
+	 *
+	 * @throws IOException
+	 * 		If the file is not cached and it cannot be fetched from the upstream.
+	 */
+	public Entry get(final String path)
+		throws
+			IOException
+	{
+		while(true) {
+			Entry entry;
+			synchronized(this) {
+				entry = _entries.get(path);
+				if(
+					entry != null
+					&& (!entry.isComplete() || System.currentTimeMillis() - entry._validated < _maxAge)
+				) {
+					_numberOfHits++;
+					entry._references++;
+					return entry;
+				}
+			}
+
+			final Entry cached = entry;
+			FutureTask<Entry> task =
+				new FutureTask<Entry>(
+					new Callable<Entry>() {
+						public Entry call()
+							throws
+								IOException
+						{
+							return fetch(path, cached);
+						}
+					}
+				);
+			FutureTask<Entry> inFlight = _inFlight.putIfAbsent(path, task);
+			if(inFlight == null) {
+				try {
+					task.run();
+				}
+				finally {
+					_inFlight.remove(path);
+				}
+				inFlight = task;
+			}
+
+			Entry fetched = await(inFlight);
+			if(fetched == null)
+				return null;
+			synchronized(this) {
+				// The entry may have been replaced or evicted after it was fetched.
+				if(!fetched._removed) {
+					fetched._references++;
+					return fetched;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Releases an entry returned by {@link #get(String)}.
+	 *
+	 * @param entry
+	 * 		The entry.
+	 */
+	public synchronized void release(Entry entry)
+	{
+		entry._references--;
+		deleteIfUnused(entry);
+	}
+
+
+	private static Entry await(FutureTask<Entry> task)
+		throws
+			IOException
+	{
+		try {
+			return task.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the upstream.");
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			IOException ioe = new IOException("Fetching from the upstream failed.");
+			ioe.initCause(e.getCause());
+			throw ioe;
+		}
+	}
+
+
+	/**
+	 * Asks the upstream for a file. A cached copy is revalidated with a conditional request.
+	 * A new (or changed) file is put to the cache and filled in the background.
+	 */
+	private Entry fetch(String path, Entry cached)
+		throws
+			IOException
+	{
+		HttpURLConnection connection = openUpstream(path);
+		if(cached != null) {
+			if(cached._etag != null)
+				connection.setRequestProperty("If-None-Match", cached._etag);
+			if(cached._lastModified != null)
+				connection.setRequestProperty("If-Modified-Since", cached._lastModified);
+		}
+
+		int statusCode;
+		try {
+			statusCode = connection.getResponseCode();
+		}
+		catch(IOException e) {
+			if(cached == null)
+				throw e;
+			LOGGER.log(Level.WARNING, "Upstream cannot be reached. Serving a cached " + path, e);
+			return stale(cached);
+		}
+
+		if(statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+			synchronized(this) {
+				_numberOfRevalidations++;
+				cached._validated = System.currentTimeMillis();
+			}
+			return cached;
+		}
+		if(statusCode == HttpURLConnection.HTTP_NOT_FOUND || statusCode == HttpURLConnection.HTTP_GONE) {
+			discard(connection);
+			synchronized(this) {
+				Entry removed = _entries.get(path);
+				if(removed != null)
+					remove(removed);
+			}
+			return null;
+		}
+		if(statusCode != HttpURLConnection.HTTP_OK) {
+			discard(connection);
+			if(cached == null)
+				throw new IOException("Upstream responded " + statusCode + " to " + path);
+			LOGGER.warning("Upstream responded " + statusCode + ". Serving a cached " + path);
+			return stale(cached);
+		}
+
+		long length = -1;
+		try {
+			length = Long.parseLong(connection.getHeaderField("Content-Length"));
+		}
+		catch(NumberFormatException e) {
+			// The length is known when the file has been filled.
+		}
+		String name = Long.toHexString(_nextFileNumber.incrementAndGet());
+		Entry entry =
+			new Entry(
+				path,
+				connection.getHeaderField("ETag"),
+				connection.getHeaderField("Last-Modified"),
+				connection.getContentType(),
+				length,
+				new File(_directory, name + DATA_ENDING),
+				new File(_directory, name + META_ENDING)
+			);
+		entry._validated = System.currentTimeMillis();
+		InputStream is;
+		OutputStream os;
+		try {
+			is = connection.getInputStream();
+			os = new FileOutputStream(entry._file);
+		}
+		catch(IOException e) {
+			discard(connection);
+			throw e;
+		}
+
+		synchronized(this) {
+			_numberOfMisses++;
+			if(length > _quota)
+				entry._transient = true;
+			else {
+				Entry replaced = _entries.get(path);
+				if(replaced != null)
+					remove(replaced);
+				_entries.put(path, entry);
+				entry._accountedSize = Math.max(0, length);
+				_size += entry._accountedSize;
+				evict();
+			}
+		}
+		fillInBackground(entry, is, os);
+		return entry;
+	}
+
+	private synchronized Entry stale(Entry cached)
+	{
+		// The upstream is not asked again before maxAge has passed.
+		_numberOfStaleResponses++;
+		cached._validated = System.currentTimeMillis();
+		return cached;
+	}
+
+	private static void discard(HttpURLConnection connection)
+	{
+		try {
+			InputStream is = connection.getErrorStream();
+			if(is != null)
+				is.close();
+		}
+		catch(IOException e) {
+			// Does nothing.
+		}
+	}
+
+
+	private void fillInBackground(final Entry entry, final InputStream is, final OutputStream os)
+	{
+		_executorService.execute(
+			new Runnable() {
+				public void run()
+				{
+					fill(entry, is, os);
+				}
+			}
+		);
+	}
+
+	private void fill(Entry entry, InputStream is, OutputStream os)
+	{
+		boolean succeeded = false;
+		try {
+			byte[] buffer = BufferPool.getInstance().acquire(BUFFER_SIZE);
+			try {
+				int n;
+				while((n = is.read(buffer)) != -1) {
+					os.write(buffer, 0, n);
+					entry.advance(n);
+				}
+			}
+			finally {
+				BufferPool.getInstance().release(buffer);
+				os.close();
+				is.close();
+			}
+			if(entry._length >= 0 && entry._written != entry._length)
+				throw new EOFException("Upstream sent only " + entry._written + " bytes.");
+			if(!entry._transient)
+				writeMeta(entry);
+			succeeded = true;
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.WARNING, "Mirroring " + entry._path + " failed.", e);
+		}
+		finally {
+			synchronized(this) {
+				entry.finish(succeeded);
+				if(!succeeded || entry._transient)
+					remove(entry);
+				else {
+					_size += entry._written - entry._accountedSize;
+					entry._accountedSize = entry._written;
+					evict();
+				}
+				deleteIfUnused(entry);
+			}
+		}
+	}
+
+	private void writeMeta(Entry entry)
+		throws
+			IOException
+	{
+		Writer writer = new OutputStreamWriter(new FileOutputStream(entry._metaFile), CHARSET);
+		try {
+			writer.write(entry._path + "\n");
+			writer.write((entry._etag == null ? "" : entry._etag) + "\n");
+			writer.write((entry._lastModified == null ? "" : entry._lastModified) + "\n");
+			writer.write((entry._contentType == null ? "" : entry._contentType) + "\n");
+			writer.write(entry._written + "\n");
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+
+	/**
+	 * Removes the least recently used files until the cache fits in the quota. Files in use
+	 * are skipped.
+	 */
+	private void evict()
+	{
+		Iterator<Entry> it = _entries.values().iterator();
+		while(_size > _quota && it.hasNext()) {
+			Entry entry = it.next();
+			if(entry._references > 0 || !entry.isComplete())
+				continue;
+
+			it.remove();
+			entry._removed = true;
+			_size -= entry._accountedSize;
+			_numberOfEvictions++;
+			deleteIfUnused(entry);
+		}
+	}
+
+	private void remove(Entry entry)
+	{
+		if(_entries.get(entry._path) == entry) {
+			_entries.remove(entry._path);
+			_size -= entry._accountedSize;
+		}
+		entry._removed = true;
+		deleteIfUnused(entry);
+	}
+
+	private void deleteIfUnused(Entry entry)
+	{
+		if(entry._removed && entry._references == 0 && entry.isFinished()) {
+			entry._metaFile.delete();
+			entry._file.delete();
+		}
+	}
+
+
+	/**
+	 * Reads the files cached before the restart. The least recently filled files are
+	 * the first ones to be evicted. Data files without metadata are leftovers of
+	 * interrupted fills and they are deleted.
+	 */
+	private void load()
+	{
+		File[] files = _directory.listFiles();
+		if(files == null)
+			return;
+
+		List<File> metaFiles = new ArrayList<File>();
+		for(File f : files) {
+			String name = f.getName();
+			if(name.endsWith(META_ENDING))
+				metaFiles.add(f);
+			else if(
+				name.endsWith(DATA_ENDING)
+				&& !new File(_directory, name.replace(DATA_ENDING, META_ENDING)).exists()
+			)
+				f.delete();
+		}
+		File[] sorted = metaFiles.toArray(new File[metaFiles.size()]);
+		Arrays.sort(
+			sorted,
+			new Comparator<File>() {
+				public int compare(File f1, File f2)
+				{
+					long m1 = f1.lastModified();
+					long m2 = f2.lastModified();
+					return m1 < m2 ? -1 : (m1 == m2 ? 0 : 1);
+				}
+			}
+		);
+
+		for(File metaFile : sorted) {
+			File dataFile =
+				new File(_directory, metaFile.getName().replace(META_ENDING, DATA_ENDING));
+			try {
+				BufferedReader reader =
+					new BufferedReader(new InputStreamReader(new FileInputStream(metaFile), CHARSET));
+				String[] lines = new String[5];
+				try {
+					for(int i = 0; i < lines.length; i++)
+						lines[i] = reader.readLine();
+				}
+				finally {
+					reader.close();
+				}
+				long length = Long.parseLong(lines[4]);
+				if(dataFile.length() != length)
+					throw new IOException("The length of '" + dataFile + "' does not match.");
+
+				Entry entry =
+					new Entry(
+						lines[0],
+						lines[1].length() == 0 ? null : lines[1],
+						lines[2].length() == 0 ? null : lines[2],
+						lines[3].length() == 0 ? null : lines[3],
+						length,
+						dataFile,
+						metaFile
+					);
+				entry.advance(length);
+				entry.finish(true);
+				entry._accountedSize = length;
+				Entry replaced = _entries.put(entry._path, entry);
+				_size += length;
+				if(replaced != null)
+					remove(replaced);
+			}
+			catch(Exception e) {
+				LOGGER.log(Level.INFO, "Cached file '" + dataFile + "' is discarded.", e);
+				metaFile.delete();
+				dataFile.delete();
+			}
+		}
+		evict();
+		LOGGER.info(_entries.size() + " mirrored files (" + _size + " bytes) in the cache.");
+	}
+
+
+	public String getUpstream()
+	{
+		return _upstream;
+	}
+
+	public long getQuota()
+	{
+		return _quota;
+	}
+
+	public synchronized void setQuota(long quota)
+	{
+		_quota = quota;
+		evict();
+	}
+
+	public long getMaxAge()
+	{
+		return _maxAge;
+	}
+
+	public void setMaxAge(long maxAge)
+	{
+		_maxAge = maxAge;
+	}
+
+	public long getSize()
+	{
+		return _size;
+	}
+
+	public synchronized int getNumberOfFiles()
+	{
+		return _entries.size();
+	}
+
+	public long getNumberOfHits()
+	{
+		return _numberOfHits;
+	}
+
+	public long getNumberOfMisses()
+	{
+		return _numberOfMisses;
+	}
+
+	public long getNumberOfRevalidations()
+	{
+		return _numberOfRevalidations;
+	}
+
+	public long getNumberOfStaleResponses()
+	{
+		return _numberOfStaleResponses;
+	}
+
+	public long getNumberOfEvictions()
+	{
+		return _numberOfEvictions;
+	}
+
+	public synchronized void resetCounters()
+	{
+		_numberOfHits = 0;
+		_numberOfMisses = 0;
+		_numberOfRevalidations = 0;
+		_numberOfStaleResponses = 0;
+		_numberOfEvictions = 0;
+	}
+
+
+	/**
+	 * A mirrored file. The content is read from {@link #getFile()}, but only up to
+	 * the position returned by {@link #await(long)} because the file may still be filling.
+	 */
+	public final static class Entry
+	{
+		private final String _path;
+		private final String _etag;
+		private final String _lastModified;
+		private final String _contentType;
+		private final long _length;
+		private final File _file;
+		private final File _metaFile;
+		private long _written = 0;
+		private boolean _complete = false;
+		private boolean _failed = false;
+
+		// Guarded by the cache.
+		private long _validated;
+		private long _accountedSize = 0;
+		private int _references = 0;
+		private boolean _removed = false;
+		private boolean _transient = false;
+
+		Entry(
+			String path,
+			String etag,
+			String lastModified,
+			String contentType,
+			long length,
+			File file,
+			File metaFile
+		)
+		{
+			_path = path;
+			_etag = etag;
+			_lastModified = lastModified;
+			_contentType = contentType;
+			_length = length;
+			_file = file;
+			_metaFile = metaFile;
+		}
+
+		public String getETag()
+		{
+			return _etag;
+		}
+
+		public String getLastModified()
+		{
+			return _lastModified;
+		}
+
+		public String getContentType()
+		{
+			return _contentType;
+		}
+
+		/**
+		 * Returns the length of the file.
+		 *
+		 * @return
+		 * 		The length or -1 if the upstream did not tell it.
+		 */
+		public long getLength()
+		{
+			return _length;
+		}
+
+		public File getFile()
+		{
+			return _file;
+		}
+
+		/**
+		 * Waits until the file has more bytes than {@code position}.
+		 *
+		 * @param position
+		 * 		The number of bytes already read.
+		 *
+		 * @return
+		 * 		The number of bytes in the file. If it is {@code position} the whole file has
+		 * 		been read.
+		 *
+		 * @throws IOException
+		 * 		If filling the file failed or the waiting was interrupted.
+		 */
+		public synchronized long await(long position)
+			throws
+				IOException
+		{
+			while(_written <= position && !_complete && !_failed) {
+				try {
+					wait();
+				}
+				catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for the upstream.");
+				}
+			}
+			if(_failed)
+				throw new IOException("Mirroring " + _path + " failed.");
+			return _written;
+		}
+
+		synchronized boolean isComplete()
+		{
+			return _complete;
+		}
+
+		synchronized boolean isFinished()
+		{
+			return _complete || _failed;
+		}
+
+		synchronized void advance(long bytes)
+		{
+			_written += bytes;
+			notifyAll();
+		}
+
+		synchronized void finish(boolean succeeded)
+		{
+			_complete = succeeded;
+			_failed = !succeeded;
+			notifyAll();
+		}
+	}
+}
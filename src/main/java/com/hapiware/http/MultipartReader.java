@@ -0,0 +1,326 @@
+package com.hapiware.http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ * {@code MultipartReader} reads a multipart (e.g. {@code multipart/form-data} or
+ * {@code multipart/byteranges}) message body part by part
+ * without keeping a whole part in memory. The data of the current part is read with
+ * the stream returned by {@link #getPartInputStream()}. The header fields of a part are
+ * limited by {@link HeaderLimit}.
+ * <p/>
+ * Usage:
+ * <pre>
+ * 	MultipartReader reader = new MultipartReader(body, boundary);
+ * 	while(reader.nextPart()) {
+ * 		Map&lt;String, String&gt; headers = reader.getPartHeaders();
+ * 		InputStream data = reader.getPartInputStream();
+ * 		...
+ * 	}
+ * </pre>
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class MultipartReader
+{
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private final static int MAX_HEADER_LINE_LENGTH = 8192;
+	private final static String CHARSET = "UTF-8";
+
+
+	private final InputStream _is;
+	private final byte[] _delimiter;
+	private final byte[] _buffer;
+	private int _start = 0;
+	private int _end = 0;
+	private boolean _eof = false;
+	private boolean _finished = false;
+	private boolean _inPart = false;
+	private Map<String, String> _partHeaders;
+
+
+	/**
+	 * Creates a reader.
+	 *
+	 * @param is
+	 * 		The message body.
+	 *
+	 * @param boundary
+	 * 		The boundary given in the {@code Content-Type} header field.
+	 *
+	 * @throws UnsupportedEncodingException
+	 */
+	public MultipartReader(InputStream is, String boundary)
+		throws
+			UnsupportedEncodingException
+	{
+		_is = is;
+		_delimiter = ("\r\n--" + boundary).getBytes("ISO-8859-1");
+		_buffer = new byte[BUFFER_SIZE + _delimiter.length];
+
+		// The first delimiter does not have the leading CRLF, so one is pretended.
+		_buffer[0] = '\r';
+		_buffer[1] = '\n';
+		_end = 2;
+	}
+
+
+	/**
+	 * Extracts the boundary from a {@code Content-Type} header field.
+	 *
+	 * @param contentType
+	 * 		The header field value.
+	 *
+	 * @return
+	 * 		The boundary or {@code null} if the content type is not multipart or it has no
+	 * 		boundary.
+	 */
+	public static String getBoundary(String contentType)
+	{
+		if(contentType == null || !contentType.toLowerCase().startsWith("multipart/"))
+			return null;
+
+		for(String parameter : contentType.split(";")) {
+			parameter = parameter.trim();
+			if(parameter.toLowerCase().startsWith("boundary=")) {
+				String boundary = parameter.substring("boundary=".length());
+				if(boundary.startsWith("\"") && boundary.endsWith("\"") && boundary.length() > 1)
+					boundary = boundary.substring(1, boundary.length() - 1);
+				return boundary.length() == 0 ? null : boundary;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Extracts a parameter (e.g. {@code filename}) of a {@code Content-Disposition} header
+	 * field.
+	 *
+	 * @param contentDisposition
+	 * 		The header field value.
+	 *
+	 * @param name
+	 * 		The parameter name.
+	 *
+	 * @return
+	 * 		The parameter value or {@code null} if the parameter was not given.
+	 */
+	public static String getDispositionParameter(String contentDisposition, String name)
+	{
+		if(contentDisposition == null)
+			return null;
+
+		for(String parameter : contentDisposition.split(";")) {
+			parameter = parameter.trim();
+			int i = parameter.indexOf('=');
+			if(i > 0 && parameter.substring(0, i).trim().equalsIgnoreCase(name)) {
+				String value = parameter.substring(i + 1).trim();
+				if(value.startsWith("\"") && value.endsWith("\"") && value.length() > 1)
+					value = value.substring(1, value.length() - 1);
+				return value;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Moves to the next part. The rest of the current part is skipped.
+	 *
+	 * @return
+	 * 		{@code true} if there is a next part, {@code false} if the closing delimiter
+	 * 		has been reached.
+	 *
+	 * @throws HeaderLimit.ExceededException
+	 * 		If the part has too many or too big header fields.
+	 *
+	 * @throws IOException
+	 * 		If the body is not valid multipart content.
+	 */
+	public boolean nextPart()
+		throws
+			IOException
+	{
+		if(_finished)
+			return false;
+
+		// Skips the preamble or the rest of the current part.
+		byte[] skipped = new byte[BUFFER_SIZE];
+		while(readData(skipped, 0, skipped.length) != -1)
+			;
+		_start += _delimiter.length;
+
+		if(readByte() == '-' && readByte() == '-') {
+			_finished = true;
+			_inPart = false;
+			return false;
+		}
+		// Skips the rest of the delimiter line (i.e. transport padding and CRLF).
+		readHeaderLine();
+
+		Map<String, String> headers = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+		HeaderLimit limit = new HeaderLimit();
+		String line;
+		while((line = readHeaderLine()).length() > 0) {
+			limit.addLine(line.length() + 2);
+			int i = line.indexOf(':');
+			if(i > 0)
+				headers.put(line.substring(0, i).trim(), line.substring(i + 1).trim());
+		}
+		_partHeaders = headers;
+		_inPart = true;
+		return true;
+	}
+
+
+	/**
+	 * Returns the header fields of the current part.
+	 *
+	 * @return
+	 * 		Header fields with case insensitive names.
+	 */
+	public Map<String, String> getPartHeaders()
+	{
+		return _partHeaders;
+	}
+
+
+	/**
+	 * Returns a stream for the data of the current part. The stream ends at the next
+	 * delimiter.
+	 *
+	 * @return
+	 * 		The part data.
+	 */
+	public InputStream getPartInputStream()
+	{
+		return
+			new InputStream() {
+				public int read()
+					throws
+						IOException
+				{
+					byte[] b = new byte[1];
+					return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+				}
+
+				public int read(byte[] b, int off, int len)
+					throws
+						IOException
+				{
+					return _inPart ? readData(b, off, len) : -1;
+				}
+			};
+	}
+
+
+	/**
+	 * Reads data up to the next delimiter. Stops in front of the delimiter.
+	 *
+	 * @return
+	 * 		Number of bytes read or -1 if the delimiter has been reached.
+	 */
+	private int readData(byte[] b, int off, int len)
+		throws
+			IOException
+	{
+		if(len == 0)
+			return 0;
+
+		fill(_delimiter.length);
+		int i = indexOfDelimiter();
+		if(i == _start)
+			return -1;
+
+		int available;
+		if(i != -1)
+			available = i - _start;
+		else if(_eof) {
+			if(_end - _start < _delimiter.length)
+				throw new EOFException("The multipart body ended without a closing delimiter.");
+			available = _end - _start;
+		}
+		else
+			// The end of the buffer can be the beginning of a delimiter.
+			available = _end - _start - (_delimiter.length - 1);
+		int n = Math.min(len, available);
+		System.arraycopy(_buffer, _start, b, off, n);
+		_start += n;
+		return n;
+	}
+
+	private int indexOfDelimiter()
+	{
+		int last = _end - _delimiter.length;
+		for(int i = _start; i <= last; i++) {
+			if(_buffer[i] != _delimiter[0])
+				continue;
+
+			int j = 1;
+			while(j < _delimiter.length && _buffer[i + j] == _delimiter[j])
+				j++;
+			if(j == _delimiter.length)
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Reads more data so that the buffer has at least {@code count} bytes unless the body
+	 * has ended.
+	 */
+	private void fill(int count)
+		throws
+			IOException
+	{
+		if(_end - _start >= count || _eof)
+			return;
+
+		if(_start > 0) {
+			System.arraycopy(_buffer, _start, _buffer, 0, _end - _start);
+			_end -= _start;
+			_start = 0;
+		}
+		while(_end - _start < count && !_eof) {
+			int n = _is.read(_buffer, _end, _buffer.length - _end);
+			if(n == -1)
+				_eof = true;
+			else
+				_end += n;
+		}
+	}
+
+	private int readByte()
+		throws
+			IOException
+	{
+		fill(1);
+		if(_start == _end)
+			throw new EOFException("The multipart body ended too early.");
+		return _buffer[_start++] & 0xff;
+	}
+
+	private String readHeaderLine()
+		throws
+			IOException
+	{
+		byte[] bytes = new byte[MAX_HEADER_LINE_LENGTH];
+		int length = 0;
+		int b;
+		while((b = readByte()) != '\n') {
+			if(length == bytes.length)
+				throw new IOException("Too long header line in a multipart body.");
+			if(b != '\r')
+				bytes[length++] = (byte)b;
+		}
+		return new String(bytes, 0, length, CHARSET);
+	}
+}
@@ -0,0 +1,141 @@
+package com.hapiware.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * {@code RequestCoalescer} makes sure that an expensive response (e.g. a listing of a big
+ * directory) is created only once even if many clients ask for it at the same time. The
+ * first request for a key creates the response and the requests arriving while it is being
+ * created wait and get the same bytes. Nothing is cached after the creation has finished.
+ * <p/>
+ * The key must identify the operation, the path and a validator (e.g. the modification
+ * time) so that only identical responses are shared.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class RequestCoalescer
+{
+	private final static RequestCoalescer INSTANCE = new RequestCoalescer();
+
+
+	private final ConcurrentMap<String, FutureTask<byte[]>> _inFlight =
+		new ConcurrentHashMap<String, FutureTask<byte[]>>();
+	private final AtomicLong _numberOfExecutions = new AtomicLong();
+	private final AtomicLong _numberOfCoalesced = new AtomicLong();
+
+
+	/**
+	 * Returns the coalescer shared by the whole server.
+	 *
+	 * @return
+	 * 		The request coalescer.
+	 */
+	public static RequestCoalescer getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	/**
+	 * Creates a response or waits for an identical response being created by another
+	 * thread. The returned array is shared and must not be modified.
+	 *
+	 * @param key
+	 * 		Identifies the response.
+	 *
+	 * @param creator
+	 * 		Creates the response content. Called in the current thread if there is no
+	 * 		creation in progress for {@code key}.
+	 *
+	 * @return
+	 * 		The response content.
+	 *
+	 * @throws IOException
+	 * 		If the creation failed or the waiting was interrupted.
+	 */
+	public byte[] execute(String key, Callable<byte[]> creator)
+		throws
+			IOException
+	{
+		FutureTask<byte[]> task = new FutureTask<byte[]>(creator);
+		FutureTask<byte[]> inFlight = _inFlight.putIfAbsent(key, task);
+		if(inFlight == null) {
+			_numberOfExecutions.incrementAndGet();
+			try {
+				task.run();
+			}
+			finally {
+				_inFlight.remove(key, task);
+			}
+			return get(task);
+		}
+
+		_numberOfCoalesced.incrementAndGet();
+		return get(inFlight);
+	}
+
+	private static byte[] get(FutureTask<byte[]> task)
+		throws
+			IOException
+	{
+		try {
+			return task.get();
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a response.");
+		}
+		catch(ExecutionException e) {
+			if(e.getCause() instanceof IOException)
+				throw (IOException)e.getCause();
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			IOException ioe = new IOException("Creating a response failed.");
+			ioe.initCause(e.getCause());
+			throw ioe;
+		}
+	}
+
+
+	/**
+	 * Returns the number of responses actually created.
+	 *
+	 * @return
+	 * 		Number of executions.
+	 */
+	public long getNumberOfExecutions()
+	{
+		return _numberOfExecutions.get();
+	}
+
+	/**
+	 * Returns the number of requests which got a response created for another request.
+	 *
+	 * @return
+	 * 		Number of coalesced requests.
+	 */
+	public long getNumberOfCoalesced()
+	{
+		return _numberOfCoalesced.get();
+	}
+
+	public int getNumberOfInFlight()
+	{
+		return _inFlight.size();
+	}
+
+	public void resetCounters()
+	{
+		_numberOfExecutions.set(0);
+		_numberOfCoalesced.set(0);
+	}
+}
@@ -0,0 +1,90 @@
+package com.hapiware.http;
+
+
+/**
+ * {@code RollingChecksum} is the weak checksum of rsync. The checksum of a window moved by
+ * one byte is calculated from the previous checksum in constant time, so a block can be
+ * searched at every position of a file.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class RollingChecksum
+{
+	private int _a;
+	private int _b;
+	private int _length;
+
+
+	/**
+	 * Calculates the checksum of a new window.
+	 *
+	 * @param bytes
+	 * 		The data.
+	 *
+	 * @param offset
+	 * 		The start of the window.
+	 *
+	 * @param length
+	 * 		The length of the window.
+	 */
+	public void reset(byte[] bytes, int offset, int length)
+	{
+		int a = 0;
+		int b = 0;
+		for(int i = 0; i < length; i++) {
+			int x = bytes[offset + i] & 0xff;
+			a += x;
+			b += (length - i) * x;
+		}
+		_a = a & 0xffff;
+		_b = b & 0xffff;
+		_length = length;
+	}
+
+
+	/**
+	 * Moves the window forward by one byte.
+	 *
+	 * @param out
+	 * 		The first byte of the current window.
+	 *
+	 * @param in
+	 * 		The byte after the current window.
+	 */
+	public void roll(byte out, byte in)
+	{
+		int x = out & 0xff;
+		_a = (_a - x + (in & 0xff)) & 0xffff;
+		_b = (_b - _length * x + _a) & 0xffff;
+	}
+
+
+	public int getValue()
+	{
+		return _a | (_b << 16);
+	}
+
+
+	/**
+	 * Calculates the checksum of a block.
+	 *
+	 * @param bytes
+	 * 		The data.
+	 *
+	 * @param offset
+	 * 		The start of the block.
+	 *
+	 * @param length
+	 * 		The length of the block.
+	 *
+	 * @return
+	 * 		The checksum.
+	 */
+	public static int checksum(byte[] bytes, int offset, int length)
+	{
+		RollingChecksum checksum = new RollingChecksum();
+		checksum.reset(bytes, offset, length);
+		return checksum.getValue();
+	}
+}
@@ -0,0 +1,717 @@
+package com.hapiware.http;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * {@code SegmentedDownloader} downloads a file or a whole directory tree from 'fileweb'
+ * using several connections at the same time:
+ * <ul>
+ * 	<li>A file is split to segments of {@value #SEGMENT_SIZE} bytes which are fetched with
+ * 		range requests by a pool of threads. {@code HttpURLConnection} keeps the
+ * 		connections alive between the requests.</li>
+ * 	<li>The segments are written with positional {@link FileChannel} writes to a
+ * 		preallocated {@code .fileweb-part} file next to the target.</li>
+ * 	<li>Finished segments are recorded to a {@code .fileweb-state} file, so an
+ * 		interrupted download continues from where it stopped if the file has not changed
+ * 		on the server ({@code If-Range}).</li>
+ * 	<li>A finished file is verified with the SHA-256 checksum given by the server
+ * 		({@code ?op=checksum}) before it is renamed to the target.</li>
+ * </ul>
+ *
+ * A directory tree (a URL ending with {@code /}) is listed with {@code ?op=manifest} and
+ * its files are downloaded to the target directory sharing the same connections. The paths
+ * of the manifest are checked to stay in the target directory (see
+ * {@link #resolve(File, String)}), so a compromised server cannot write elsewhere.
+ * <p/>
+ * Usage: {@code java -jar fileweb.jar get URL TARGET [CONNECTIONS]}
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class SegmentedDownloader
+{
+	public final static int DEFAULT_NUMBER_OF_CONNECTIONS = 4;
+	public final static int MAX_NUMBER_OF_CONNECTIONS = 32;
+
+	private final static int SEGMENT_SIZE = 4 * 1024 * 1024;
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private final static int CONNECT_TIMEOUT_MS = 10000;
+	private final static int READ_TIMEOUT_MS = 60000;
+	private final static String PART_ENDING = ".fileweb-part";
+	private final static String STATE_ENDING = ".fileweb-state";
+
+
+	private final URL _url;
+	private final File _target;
+	private final ExecutorService _executorService;
+	private final AtomicInteger _numberOfPendingTasks = new AtomicInteger();
+	private final List<String> _failures = new ArrayList<String>();
+
+	private final AtomicInteger _numberOfFiles = new AtomicInteger();
+	private final AtomicInteger _numberOfRequests = new AtomicInteger();
+	private final AtomicInteger _numberOfResumedSegments = new AtomicInteger();
+	private final AtomicLong _bytesReceived = new AtomicLong();
+	private long _time;
+
+
+	public static void main(String[] args)
+	{
+		if(args.length < 2 || args.length > 3) {
+			System.out.println("Usage: java -jar fileweb.jar get URL TARGET [CONNECTIONS]");
+			System.exit(-1);
+		}
+
+		try {
+			int numberOfConnections = DEFAULT_NUMBER_OF_CONNECTIONS;
+			if(args.length == 3) {
+				numberOfConnections = Integer.parseInt(args[2]);
+				if(numberOfConnections < 1 || numberOfConnections > MAX_NUMBER_OF_CONNECTIONS)
+					throw new NumberFormatException();
+			}
+
+			// Otherwise HttpURLConnection keeps only 5 idle connections per server alive.
+			if(System.getProperty("http.maxConnections") == null)
+				System.setProperty("http.maxConnections", String.valueOf(numberOfConnections));
+
+			SegmentedDownloader downloader =
+				new SegmentedDownloader(new URL(args[0]), new File(args[1]), numberOfConnections);
+			downloader.download();
+			System.out.println(downloader.getReport());
+		}
+		catch(NumberFormatException e) {
+			System.err.println(
+				"Number of connections must be 1 - " + MAX_NUMBER_OF_CONNECTIONS + "."
+			);
+			System.exit(1);
+		}
+		catch(IOException e) {
+			System.err.println("Download failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+
+	/**
+	 * Creates a downloader.
+	 *
+	 * @param url
+	 * 		The URL of a file or a directory (ending with {@code /}).
+	 *
+	 * @param target
+	 * 		The target file or directory.
+	 *
+	 * @param numberOfConnections
+	 * 		The number of concurrent requests.
+	 */
+	public SegmentedDownloader(URL url, File target, int numberOfConnections)
+	{
+		_url = url;
+		_target = target;
+		final AtomicInteger threadNumber = new AtomicInteger();
+		_executorService =
+			Executors.newFixedThreadPool(
+				numberOfConnections,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r)
+					{
+						Thread thread =
+							new Thread(r, "fileweb-download-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}
+			);
+	}
+
+
+	/**
+	 * Downloads the file or the directory tree and waits until all the files are done.
+	 *
+	 * @throws IOException
+	 * 		If any of the files failed. The other files are downloaded anyway and the
+	 * 		failed ones can be resumed.
+	 */
+	public void download()
+		throws
+			IOException
+	{
+		long startTime = System.currentTimeMillis();
+		try {
+			if(_url.getPath().endsWith("/")) {
+				for(String path : fetchManifest()) {
+					String encodedPath = "";
+					for(String name : path.split("/"))
+						encodedPath +=
+							(encodedPath.length() == 0 ? "" : "/")
+								+ URLEncoder.encode(name, "UTF-8").replace("+", "%20");
+					submit(new Download(new URL(_url, encodedPath), resolve(_target, path)));
+				}
+			}
+			else
+				submit(new Download(_url, _target));
+
+			synchronized(_numberOfPendingTasks) {
+				while(_numberOfPendingTasks.get() > 0)
+					_numberOfPendingTasks.wait();
+			}
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted.");
+		}
+		finally {
+			_executorService.shutdownNow();
+			_time = System.currentTimeMillis() - startTime;
+		}
+
+		synchronized(_failures) {
+			if(!_failures.isEmpty()) {
+				for(String failure : _failures)
+					System.err.println(failure);
+				throw new IOException(_failures.size() + " of " + _numberOfFiles + " files failed.");
+			}
+		}
+	}
+
+
+	/**
+	 * Returns a summary of the download.
+	 *
+	 * @return
+	 * 		The summary.
+	 */
+	public String getReport()
+	{
+		long bytes = _bytesReceived.get();
+		return
+			_numberOfFiles + " files, " + bytes + " bytes received in " + _time + " ms ("
+				+ (bytes * 1000 / Math.max(1, _time) / 1024) + " KB/s), "
+				+ _numberOfRequests + " requests, " + _numberOfResumedSegments
+				+ " segments resumed.";
+	}
+
+
+	private void submit(final Runnable task)
+	{
+		_numberOfPendingTasks.incrementAndGet();
+		_executorService.execute(
+			new Runnable() {
+				public void run()
+				{
+					try {
+						task.run();
+					}
+					finally {
+						// Tasks submit their subtasks before they end, so the counter cannot
+						// reach zero too early.
+						if(_numberOfPendingTasks.decrementAndGet() == 0) {
+							synchronized(_numberOfPendingTasks) {
+								_numberOfPendingTasks.notifyAll();
+							}
+						}
+					}
+				}
+			}
+		);
+	}
+
+
+	private HttpURLConnection open(URL url)
+		throws
+			IOException
+	{
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+		connection.setReadTimeout(READ_TIMEOUT_MS);
+		connection.setUseCaches(false);
+		_numberOfRequests.incrementAndGet();
+		return connection;
+	}
+
+	/**
+	 * Reads the rest of an error response so that the connection can be reused.
+	 */
+	private static void discard(HttpURLConnection connection)
+	{
+		try {
+			InputStream is = connection.getErrorStream();
+			if(is == null)
+				is = connection.getInputStream();
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				while(is.read(buffer) != -1)
+					;
+			}
+			finally {
+				is.close();
+			}
+		}
+		catch(IOException e) {
+			// The connection is not reused.
+		}
+	}
+
+
+	/**
+	 * Creates the directories of the directory tree and returns the paths of its files.
+	 */
+	private List<String> fetchManifest()
+		throws
+			IOException
+	{
+		HttpURLConnection connection = open(new URL(_url, _url.getPath() + "?op=manifest"));
+		if(connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+			discard(connection);
+			throw
+				new IOException(
+					"Server responded " + connection.getResponseCode() + " to the manifest request."
+				);
+		}
+
+		List<String> paths = new ArrayList<String>();
+		BufferedReader reader =
+			new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+		try {
+			String line;
+			while((line = reader.readLine()) != null) {
+				if(!line.startsWith("{\"path\":"))
+					continue;
+				StringBuilder path = new StringBuilder();
+				int end = parseJsonString(line, "{\"path\":".length(), path);
+				if(line.indexOf(",\"directory\":true", end) == -1)
+					paths.add(path.toString());
+				else {
+					// Empty directories are created too.
+					File directory = resolve(_target, path.toString());
+					if(!directory.isDirectory() && !directory.mkdirs())
+						throw new IOException("'" + directory + "' cannot be created.");
+				}
+			}
+		}
+		finally {
+			reader.close();
+		}
+		return paths;
+	}
+
+	/**
+	 * Resolves a path of the manifest against the target directory. Only relative paths
+	 * of plain names are accepted, that is, no empty, {@code .} or {@code ..} names. The
+	 * resolved file must also be under the target after the path has been made canonical,
+	 * which catches the rest (e.g. backslashes and drive letters on Windows or symbolic
+	 * links).
+	 *
+	 * @param target
+	 * 		The target directory.
+	 *
+	 * @param path
+	 * 		A path given by the server ({@code /} separated).
+	 *
+	 * @return
+	 * 		The file in the target directory.
+	 *
+	 * @throws IOException
+	 * 		If the path would point outside of the target directory.
+	 */
+	static File resolve(File target, String path)
+		throws
+			IOException
+	{
+		for(String name : path.split("/", -1))
+			if(name.length() == 0 || name.equals(".") || name.equals("..") || name.indexOf('\0') != -1)
+				throw new IOException("An unsafe path in the manifest: " + path);
+
+		File file = new File(target, path);
+		String targetPath = target.getCanonicalPath();
+		if(!targetPath.endsWith(File.separator))
+			targetPath += File.separator;
+		if(!file.getCanonicalPath().startsWith(targetPath))
+			throw new IOException("A path of the manifest points outside of the target: " + path);
+		return file;
+	}
+
+	/**
+	 * Parses a JSON string written by the manifest.
+	 *
+	 * @return
+	 * 		The index after the closing quote.
+	 */
+	private static int parseJsonString(String line, int i, StringBuilder value)
+		throws
+			IOException
+	{
+		try {
+			for(i++; line.charAt(i) != '"'; i++) {
+				char c = line.charAt(i);
+				if(c == '\\') {
+					c = line.charAt(++i);
+					if(c == 'u') {
+						c = (char)Integer.parseInt(line.substring(i + 1, i + 5), 16);
+						i += 4;
+					}
+				}
+				value.append(c);
+			}
+			return i + 1;
+		}
+		catch(RuntimeException e) {
+			throw new IOException("Invalid manifest line: " + line);
+		}
+	}
+
+
+	/**
+	 * A download of a single file. The first request fetches the first segment and tells
+	 * the size of the file. The other segments are fetched in parallel and the last one
+	 * finishes the file.
+	 */
+	private final class Download
+		implements
+			Runnable
+	{
+		private final URL _fileUrl;
+		private final File _file;
+		private final File _partFile;
+		private final File _stateFile;
+		private final AtomicInteger _numberOfRemainingSegments = new AtomicInteger();
+		private volatile boolean _failed = false;
+
+		private String _etag;
+		private long _length;
+		private RandomAccessFile _part;
+		private FileChannel _channel;
+		private FileOutputStream _state;
+
+		Download(URL fileUrl, File file)
+		{
+			_fileUrl = fileUrl;
+			_file = file;
+			_partFile = new File(file.getPath() + PART_ENDING);
+			_stateFile = new File(file.getPath() + STATE_ENDING);
+			_numberOfFiles.incrementAndGet();
+		}
+
+		public void run()
+		{
+			try {
+				start();
+			}
+			catch(IOException e) {
+				fail(e);
+			}
+		}
+
+		private void start()
+			throws
+				IOException
+		{
+			File directory = _file.getAbsoluteFile().getParentFile();
+			if(!directory.isDirectory() && !directory.mkdirs())
+				throw new IOException("'" + directory + "' cannot be created.");
+
+			// The segments done by an earlier run.
+			BitSet done = new BitSet();
+			String resumedETag = null;
+			long resumedLength = -1;
+			if(_stateFile.isFile() && _partFile.isFile()) {
+				BufferedReader reader = new BufferedReader(new FileReader(_stateFile));
+				try {
+					resumedETag = reader.readLine();
+					resumedLength = Long.parseLong(reader.readLine());
+					String line;
+					while((line = reader.readLine()) != null)
+						done.set(Integer.parseInt(line));
+				}
+				catch(RuntimeException e) {
+					resumedETag = null;
+				}
+				finally {
+					reader.close();
+				}
+			}
+
+			// A resumed download only checks whether the file has changed (its ETag),
+			// otherwise the first segment is fetched right away.
+			HttpURLConnection connection = open(_fileUrl);
+			connection.setRequestProperty(
+				"Range",
+				"bytes=0-" + (resumedETag == null ? SEGMENT_SIZE - 1 : 0)
+			);
+			int statusCode = connection.getResponseCode();
+			_etag = connection.getHeaderField("ETag");
+			if(statusCode == HttpURLConnection.HTTP_OK) {
+				// Ranges are not supported, so the file is received as a single stream.
+				_stateFile.delete();
+				_part = new RandomAccessFile(_partFile, "rw");
+				_part.setLength(0);
+				_channel = _part.getChannel();
+				receive(connection, 0);
+				finish();
+				return;
+			}
+			if(statusCode != HttpURLConnection.HTTP_PARTIAL && statusCode != 416) {
+				discard(connection);
+				throw new IOException("Server responded " + statusCode + ".");
+			}
+
+			String contentRange = connection.getHeaderField("Content-Range");
+			try {
+				_length = Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1));
+			}
+			catch(RuntimeException e) {
+				discard(connection);
+				throw new IOException("Invalid Content-Range: " + contentRange);
+			}
+
+			int numberOfSegments = (int)((_length + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+			boolean resumed =
+				resumedETag != null
+					&& resumedETag.equals(_etag)
+					&& resumedLength == _length
+					&& statusCode == HttpURLConnection.HTTP_PARTIAL;
+			if(!resumed)
+				done.clear();
+			openPartFile(resumed);
+			_numberOfResumedSegments.addAndGet(done.cardinality());
+
+			if(resumedETag == null && statusCode == HttpURLConnection.HTTP_PARTIAL) {
+				receive(connection, 0);
+				segmentDone(0);
+				done.set(0);
+			}
+			else
+				discard(connection);
+
+			List<Integer> segments = new ArrayList<Integer>();
+			for(int i = 0; i < numberOfSegments; i++)
+				if(!done.get(i))
+					segments.add(i);
+			if(segments.isEmpty()) {
+				finish();
+				return;
+			}
+
+			_numberOfRemainingSegments.set(segments.size());
+			for(final int segment : segments) {
+				submit(
+					new Runnable() {
+						public void run()
+						{
+							fetchSegment(segment);
+						}
+					}
+				);
+			}
+		}
+
+		private void openPartFile(boolean resumed)
+			throws
+				IOException
+		{
+			_part = new RandomAccessFile(_partFile, "rw");
+			_channel = _part.getChannel();
+			if(!resumed) {
+				_part.setLength(0);
+				if(_length > 0)
+					_part.setLength(_length);
+				FileOutputStream state = new FileOutputStream(_stateFile);
+				state.write((_etag + "\n" + _length + "\n").getBytes("UTF-8"));
+				state.close();
+			}
+			_state = new FileOutputStream(_stateFile, true);
+		}
+
+		private void fetchSegment(int segment)
+		{
+			if(_failed)
+				return;
+
+			try {
+				long first = (long)segment * SEGMENT_SIZE;
+				long last = Math.min(first + SEGMENT_SIZE, _length) - 1;
+				HttpURLConnection connection = open(_fileUrl);
+				connection.setRequestProperty("Range", "bytes=" + first + "-" + last);
+				connection.setRequestProperty("If-Range", _etag);
+				int statusCode = connection.getResponseCode();
+				if(statusCode != HttpURLConnection.HTTP_PARTIAL) {
+					discard(connection);
+					throw
+						new IOException(
+							statusCode == HttpURLConnection.HTTP_OK ?
+								"The file changed on the server during the download."
+								: "Server responded " + statusCode + "."
+						);
+				}
+				String expected = "bytes " + first + "-" + last + "/" + _length;
+				if(!expected.equals(connection.getHeaderField("Content-Range"))) {
+					discard(connection);
+					throw
+						new IOException(
+							"Unexpected Content-Range: " + connection.getHeaderField("Content-Range")
+						);
+				}
+				receive(connection, first);
+				segmentDone(segment);
+				if(_numberOfRemainingSegments.decrementAndGet() == 0)
+					finish();
+			}
+			catch(IOException e) {
+				fail(e);
+			}
+		}
+
+		/**
+		 * Writes a response body to the part file at the given position.
+		 */
+		private void receive(HttpURLConnection connection, long position)
+			throws
+				IOException
+		{
+			InputStream is = connection.getInputStream();
+			try {
+				byte[] bytes = new byte[BUFFER_SIZE];
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				int n;
+				while((n = is.read(bytes)) != -1) {
+					if(_failed)
+						throw new IOException("Cancelled.");
+					buffer.clear().limit(n);
+					while(buffer.hasRemaining())
+						position += _channel.write(buffer, position);
+					_bytesReceived.addAndGet(n);
+				}
+			}
+			finally {
+				is.close();
+			}
+		}
+
+		private synchronized void segmentDone(int segment)
+			throws
+				IOException
+		{
+			if(_state != null)
+				_state.write((segment + "\n").getBytes("UTF-8"));
+		}
+
+		private void finish()
+			throws
+				IOException
+		{
+			close();
+			verify();
+			if(!_partFile.renameTo(_file) && !(_file.delete() && _partFile.renameTo(_file)))
+				throw new IOException("'" + _partFile + "' cannot be renamed to '" + _file + "'.");
+			_stateFile.delete();
+		}
+
+		/**
+		 * Compares the SHA-256 checksum of the part file to the checksum calculated by the
+		 * server. A corrupted file is downloaded again from the beginning next time.
+		 */
+		private void verify()
+			throws
+				IOException
+		{
+			HttpURLConnection connection =
+				open(new URL(_fileUrl, _fileUrl.getPath() + "?op=checksum&alg=sha256"));
+			if(connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				discard(connection);
+				throw
+					new IOException(
+						"Server responded " + connection.getResponseCode()
+							+ " to the checksum request."
+					);
+			}
+			BufferedReader reader =
+				new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"));
+			String expected;
+			try {
+				String line = reader.readLine();
+				expected = line == null ? "" : line.split(" ")[0];
+			}
+			finally {
+				reader.close();
+			}
+
+			MessageDigest sha256;
+			try {
+				sha256 = MessageDigest.getInstance("SHA-256");
+			}
+			catch(NoSuchAlgorithmException e) {
+				throw new IOException("SHA-256 is not supported.");
+			}
+			FileInputStream is = new FileInputStream(_partFile);
+			try {
+				byte[] buffer = new byte[BUFFER_SIZE];
+				int n;
+				while((n = is.read(buffer)) != -1)
+					sha256.update(buffer, 0, n);
+			}
+			finally {
+				is.close();
+			}
+			StringBuilder actual = new StringBuilder();
+			for(byte b : sha256.digest())
+				actual.append(String.format("%02x", b & 0xff));
+
+			if(!expected.equalsIgnoreCase(actual.toString())) {
+				_stateFile.delete();
+				_partFile.delete();
+				throw new IOException("Checksum mismatch.");
+			}
+		}
+
+		private void fail(IOException e)
+		{
+			synchronized(this) {
+				if(_failed)
+					return;
+				_failed = true;
+			}
+			close();
+			synchronized(_failures) {
+				_failures.add(_fileUrl + ": " + e.getMessage());
+			}
+		}
+
+		private synchronized void close()
+		{
+			try {
+				if(_part != null)
+					_part.close();
+				if(_state != null)
+					_state.close();
+			}
+			catch(IOException e) {
+				// Does nothing.
+			}
+			_part = null;
+			_state = null;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package com.hapiware.http;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * {@code SendWatchdog} frees the threads blocked by clients that do not read their responses.
+ * A blocking socket write has no timeout in Java, so a client that stops reading in the
+ * middle of a download would keep a thread of the pool forever. The watchdog checks the
+ * registered connections every second and closes the socket, which makes the blocked write
+ * fail, if
+ * <ul>
+ * 	<li>a single write (at most 64 KB) has been blocked longer than the stall timeout
+ * 		({@code fileweb.send.stallTimeout}), or</li>
+ * 	<li>the connection has spent most of the last {@value #RATE_WINDOW_S} seconds waiting
+ * 		for the client to read and the client has read less than the minimum rate
+ * 		({@code fileweb.send.minRate}) during that time.</li>
+ * </ul>
+ *
+ * Connections waiting for something else than the client (e.g. {@code ?op=follow} waiting
+ * for new data or the bandwidth {@link Throttle}) are never reclaimed because only the time
+ * spent inside the writes counts.
+ * <p>
+ * The socket is reset (linger zero) and closed in a thread of its own. Closing a TLS socket
+ * normally sends {@code close_notify}, which needs the lock held by the blocked writer, and
+ * that must never stop the watchdog from checking the other connections.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class SendWatchdog
+{
+	private final static Logger LOGGER = Logger.getLogger(SendWatchdog.class.getName());
+	private final static long CHECK_INTERVAL_MS = 1000;
+	private final static long RATE_WINDOW_S = 30;
+	private final static long RATE_WINDOW_NS = TimeUnit.SECONDS.toNanos(RATE_WINDOW_S);
+
+
+	private final Controller _controller;
+	private final ConcurrentMap<HttpConnection, Sample> _connections =
+		new ConcurrentHashMap<HttpConnection, Sample>();
+	private volatile long _stallTimeoutNs;
+	private volatile long _minRate;
+
+
+	/**
+	 * Creates a watchdog and starts its thread.
+	 *
+	 * @param controller
+	 * 		Gets the counts of reclaimed connections.
+	 *
+	 * @param stallTimeout
+	 * 		Maximum time in seconds a single write can be blocked. Zero disables the check.
+	 *
+	 * @param minRate
+	 * 		Minimum rate in bytes per second a client must read when the server is waiting
+	 * 		for it. Zero disables the check.
+	 */
+	public SendWatchdog(Controller controller, long stallTimeout, long minRate)
+	{
+		_controller = controller;
+		setStallTimeout(stallTimeout);
+		setMinRate(minRate);
+		Thread thread =
+			new Thread("fileweb-send-watchdog") {
+				public void run()
+				{
+					checkLoop();
+				}
+			};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Starts watching a connection.
+	 *
+	 * @param connection
+	 * 		The connection.
+	 */
+	public void register(HttpConnection connection)
+	{
+		_connections.put(connection, new Sample(connection, System.nanoTime()));
+	}
+
+
+	/**
+	 * Stops watching a connection.
+	 *
+	 * @param connection
+	 * 		The connection.
+	 */
+	public void unregister(HttpConnection connection)
+	{
+		_connections.remove(connection);
+	}
+
+
+	public long getStallTimeout()
+	{
+		return TimeUnit.NANOSECONDS.toSeconds(_stallTimeoutNs);
+	}
+
+	public void setStallTimeout(long stallTimeout)
+	{
+		_stallTimeoutNs = TimeUnit.SECONDS.toNanos(Math.max(0, stallTimeout));
+	}
+
+	public long getMinRate()
+	{
+		return _minRate;
+	}
+
+	public void setMinRate(long minRate)
+	{
+		_minRate = Math.max(0, minRate);
+	}
+
+
+	private void checkLoop()
+	{
+		while(true) {
+			try {
+				Thread.sleep(CHECK_INTERVAL_MS);
+			}
+			catch(InterruptedException e) {
+				return;
+			}
+			long now = System.nanoTime();
+			for(Map.Entry<HttpConnection, Sample> entry : _connections.entrySet()) {
+				try {
+					check(entry.getKey(), entry.getValue(), now);
+				}
+				catch(RuntimeException e) {
+					LOGGER.log(Level.WARNING, "Checking a connection failed.", e);
+				}
+			}
+		}
+	}
+
+	private void check(HttpConnection connection, Sample sample, long now)
+	{
+		long stallTimeoutNs = _stallTimeoutNs;
+		long blockedNs = connection.getCurrentWriteNs(now);
+		if(stallTimeoutNs > 0 && blockedNs > stallTimeoutNs) {
+			_controller.registerStalledConnection();
+			reclaim(
+				connection,
+				"has not read anything in " + TimeUnit.NANOSECONDS.toSeconds(blockedNs) + " s"
+			);
+			return;
+		}
+
+		if(now - sample._time < RATE_WINDOW_NS)
+			return;
+
+		long minRate = _minRate;
+		long waitedNs = connection.getWriteNs(now) - sample._writeNs;
+		long bytes = connection.getBytesSent() - sample._bytesSent;
+		if(minRate > 0 && waitedNs > RATE_WINDOW_NS / 2 && bytes < minRate * RATE_WINDOW_S) {
+			_controller.registerSlowConnection();
+			reclaim(
+				connection,
+				"read only " + bytes + " bytes in " + RATE_WINDOW_S + " s"
+			);
+			return;
+		}
+		_connections.replace(connection, sample, new Sample(connection, now));
+	}
+
+	private void reclaim(HttpConnection connection, String reason)
+	{
+		_connections.remove(connection);
+		LOGGER.info(
+			"Closing the connection of " + connection.getSocket().getInetAddress() + " which "
+				+ reason + "."
+		);
+		final Socket socket = connection.getSocket();
+		try {
+			socket.setSoLinger(true, 0);
+		}
+		catch(IOException e) {
+			// Does nothing.
+		}
+		Thread closer =
+			new Thread("fileweb-send-watchdog-close") {
+				public void run()
+				{
+					try {
+						socket.close();
+					}
+					catch(IOException e) {
+						// Does nothing.
+					}
+				}
+			};
+		closer.setDaemon(true);
+		closer.start();
+	}
+
+
+	/**
+	 * The state of a connection at the start of a rate window.
+	 */
+	private final static class Sample
+	{
+		private final long _time;
+		private final long _writeNs;
+		private final long _bytesSent;
+
+		Sample(HttpConnection connection, long time)
+		{
+			_time = time;
+			_writeNs = connection.getWriteNs(time);
+			_bytesSent = connection.getBytesSent();
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package com.hapiware.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+
+/**
+ * {@code SignatureCache} creates block signatures of files for delta synchronisation (see
+ * {@link DeltaSyncClient}). A file is split to blocks and every block gets a weak
+ * {@link RollingChecksum} and a strong MD5 checksum. A client having an older version of
+ * the file finds the unchanged blocks with the signatures and fetches only the rest.
+ * <p/>
+ * Signatures are kept in memory (see {@code fileweb.signature.cacheSize}) by the path,
+ * the size, the modification time and the block size of the file, so a changed file gets
+ * new signatures. Concurrent requests for the same signatures are calculated only once.
+ * <p/>
+ * The signatures are encoded as follows (big-endian):
+ * <pre>
+ * 	"FWS1"          magic
+ * 	int             block size
+ * 	long            file length
+ * 	UTF             ETag of the file (see {@link DataOutputStream#writeUTF(String)})
+ * 	{ int, byte[16] } weak and strong checksum for each block
+ * </pre>
+ *
+ * The last block can be shorter than the block size.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class SignatureCache
+{
+	public final static byte[] MAGIC = { 'F', 'W', 'S', '1' };
+	public final static int DEFAULT_BLOCK_SIZE = 64 * 1024;
+	public final static int MIN_BLOCK_SIZE = 1024;
+	public final static int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+	public final static int STRONG_CHECKSUM_LENGTH = 16;
+
+	private final static String CACHE_SIZE_PROPERTY = "fileweb.signature.cacheSize";
+	private final static long DEFAULT_CACHE_SIZE = 64 * 1024 * 1024;
+	private final static int MAX_NUMBER_OF_BLOCKS = 1024 * 1024;
+	private final static SignatureCache INSTANCE =
+		new SignatureCache(Long.getLong(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE));
+
+
+	private final long _maxSize;
+	private final Map<String, byte[]> _signatures =
+		new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long _size = 0;
+
+
+	/**
+	 * Returns the cache shared by the whole server.
+	 *
+	 * @return
+	 * 		The signature cache.
+	 */
+	public static SignatureCache getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	/**
+	 * Creates a signature cache.
+	 *
+	 * @param maxSize
+	 * 		Maximum size of the cached signatures in bytes.
+	 */
+	public SignatureCache(long maxSize)
+	{
+		_maxSize = maxSize;
+	}
+
+
+	/**
+	 * Returns the encoded block signatures of a file.
+	 *
+	 * @param file
+	 * 		The file.
+	 *
+	 * @param blockSize
+	 * 		The requested block size. A bigger block size is used for files having too many
+	 * 		blocks.
+	 *
+	 * @param etag
+	 * 		The ETag of the current version of the file.
+	 *
+	 * @return
+	 * 		The signatures. The array is shared and must not be modified.
+	 *
+	 * @throws IOException
+	 * 		If the file cannot be read.
+	 */
+	public byte[] getSignatures(final File file, int blockSize, final String etag)
+		throws
+			IOException
+	{
+		long length = file.length();
+		while(blockSize < MAX_BLOCK_SIZE && length / blockSize >= MAX_NUMBER_OF_BLOCKS)
+			blockSize *= 2;
+		final int actualBlockSize = blockSize;
+		final String key =
+			file.getCanonicalPath() + "\t" + length + "\t" + file.lastModified() + "\t" + blockSize;
+		synchronized(this) {
+			byte[] signatures = _signatures.get(key);
+			if(signatures != null)
+				return signatures;
+		}
+
+		return
+			RequestCoalescer.getInstance().execute(
+				"signatures\t" + key,
+				new Callable<byte[]>() {
+					public byte[] call()
+						throws
+							IOException
+					{
+						byte[] signatures = calculate(file, actualBlockSize, etag);
+						put(key, signatures);
+						return signatures;
+					}
+				}
+			);
+	}
+
+	private synchronized void put(String key, byte[] signatures)
+	{
+		if(signatures.length > _maxSize)
+			return;
+
+		byte[] replaced = _signatures.put(key, signatures);
+		if(replaced != null)
+			_size -= replaced.length;
+		_size += signatures.length;
+		Iterator<byte[]> it = _signatures.values().iterator();
+		while(_size > _maxSize && it.hasNext()) {
+			_size -= it.next().length;
+			it.remove();
+		}
+	}
+
+
+	private static byte[] calculate(File file, int blockSize, String etag)
+		throws
+			IOException
+	{
+		MessageDigest md5;
+		try {
+			md5 = MessageDigest.getInstance("MD5");
+		}
+		catch(NoSuchAlgorithmException e) {
+			throw new IOException("MD5 is not supported.");
+		}
+
+		FileInputStream is = new FileInputStream(file);
+		try {
+			long length = is.getChannel().size();
+			int numberOfBlocks = (int)((length + blockSize - 1) / blockSize);
+			ByteArrayOutputStream bytes =
+				new ByteArrayOutputStream(
+					64 + numberOfBlocks * (4 + STRONG_CHECKSUM_LENGTH)
+				);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.write(MAGIC);
+			out.writeInt(blockSize);
+			out.writeLong(length);
+			out.writeUTF(etag);
+
+			byte[] block = new byte[blockSize];
+			for(long remaining = length; remaining > 0; ) {
+				int blockLength = (int)Math.min(blockSize, remaining);
+				int n = 0;
+				while(n < blockLength) {
+					int read = is.read(block, n, blockLength - n);
+					if(read == -1)
+						throw new EOFException(file + " was truncated while reading it.");
+					n += read;
+				}
+				out.writeInt(RollingChecksum.checksum(block, 0, blockLength));
+				md5.update(block, 0, blockLength);
+				out.write(md5.digest());
+				remaining -= blockLength;
+			}
+			out.flush();
+			return bytes.toByteArray();
+		}
+		finally {
+			is.close();
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package com.hapiware.http;
+
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * {@code Throttle} enforces bandwidth limits for sending file content. There are two limits
+ * both of which are implemented with a {@link TokenBucket}:
+ * 	<ul>
+ * 		<li>a global limit shared by all the clients</li>
+ * 		<li>a per client limit which is applied to each client IP address separately</li>
+ * 	</ul>
+ *
+ * A limit of zero means unlimited. Limits can be changed at runtime.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class Throttle
+{
+	private final static long IDLE_CLIENT_NS = 60 * 1000000000l;
+	private final static int PURGE_INTERVAL = 1024;
+
+
+	private final TokenBucket _globalBucket;
+	private final ConcurrentMap<InetAddress, TokenBucket> _clientBuckets =
+		new ConcurrentHashMap<InetAddress, TokenBucket>();
+	private volatile long _perClientLimit;
+	private final AtomicLong _waitTimeNs = new AtomicLong();
+	private final AtomicLong _numberOfWaits = new AtomicLong();
+	private final AtomicLong _numberOfAcquires = new AtomicLong();
+
+
+	/**
+	 * Creates a throttle.
+	 *
+	 * @param globalLimit
+	 * 		Bytes per second for all the clients together. Zero means unlimited.
+	 *
+	 * @param perClientLimit
+	 * 		Bytes per second for a single client IP. Zero means unlimited.
+	 */
+	public Throttle(long globalLimit, long perClientLimit)
+	{
+		_globalBucket = new TokenBucket(globalLimit);
+		_perClientLimit = perClientLimit;
+	}
+
+
+	/**
+	 * Checks if any of the limits are in use.
+	 *
+	 * @return
+	 * 		{@code true} if sending must be throttled.
+	 */
+	public boolean isEnabled()
+	{
+		return _globalBucket.getRate() > 0 || _perClientLimit > 0;
+	}
+
+
+	/**
+	 * Registers bytes sent to a client and blocks the calling thread until the limits allow
+	 * more bytes to be sent.
+	 *
+	 * @param client
+	 * 		The client address.
+	 *
+	 * @param bytes
+	 * 		The number of bytes sent.
+	 *
+	 * @throws InterruptedIOException
+	 * 		If the thread was interrupted while waiting.
+	 */
+	public void acquire(InetAddress client, long bytes)
+		throws
+			InterruptedIOException
+	{
+		if(!isEnabled())
+			return;
+
+		if(_numberOfAcquires.incrementAndGet() % PURGE_INTERVAL == 0)
+			purgeIdleClients();
+
+		long waitNs = _globalBucket.reserve(bytes);
+		if(_perClientLimit > 0)
+			waitNs = Math.max(waitNs, clientBucket(client).reserve(bytes));
+		if(waitNs <= 0)
+			return;
+
+		_numberOfWaits.incrementAndGet();
+		_waitTimeNs.addAndGet(waitNs);
+		try {
+			Thread.sleep(waitNs / 1000000, (int)(waitNs % 1000000));
+		}
+		catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while throttling.");
+		}
+	}
+
+	private TokenBucket clientBucket(InetAddress client)
+	{
+		TokenBucket bucket = _clientBuckets.get(client);
+		if(bucket == null) {
+			TokenBucket newBucket = new TokenBucket(_perClientLimit);
+			bucket = _clientBuckets.putIfAbsent(client, newBucket);
+			if(bucket == null)
+				bucket = newBucket;
+		}
+		return bucket;
+	}
+
+	private void purgeIdleClients()
+	{
+		long now = System.nanoTime();
+		Iterator<TokenBucket> it = _clientBuckets.values().iterator();
+		while(it.hasNext())
+			if(now - it.next().getLastUse() > IDLE_CLIENT_NS)
+				it.remove();
+	}
+
+
+	public long getGlobalLimit()
+	{
+		return _globalBucket.getRate();
+	}
+
+	public void setGlobalLimit(long bytesPerSecond)
+	{
+		_globalBucket.setRate(bytesPerSecond);
+	}
+
+	public long getPerClientLimit()
+	{
+		return _perClientLimit;
+	}
+
+	public void setPerClientLimit(long bytesPerSecond)
+	{
+		_perClientLimit = bytesPerSecond;
+		for(TokenBucket bucket : _clientBuckets.values())
+			bucket.setRate(bytesPerSecond);
+	}
+
+	public int getNumberOfTrackedClients()
+	{
+		return _clientBuckets.size();
+	}
+
+	public long getWaitTime()
+	{
+		return _waitTimeNs.get() / 1000000;
+	}
+
+	public long getNumberOfWaits()
+	{
+		return _numberOfWaits.get();
+	}
+
+	public void resetWaitTime()
+	{
+		_waitTimeNs.set(0);
+		_numberOfWaits.set(0);
+	}
+}
@@ -0,0 +1,150 @@
+package com.hapiware.http;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSessionContext;
+
+
+/**
+ * {@code TlsSupport} creates server sockets for serving HTTPS. The server key and certificate
+ * are loaded from a local keystore file which is given with system properties:
+ * 	<ul>
+ * 		<li>{@code fileweb.tls.keystore}, a path to the keystore file. If this is not set
+ * 			then TLS is not used at all.</li>
+ * 		<li>{@code fileweb.tls.keystorePassword}, a password for the keystore.</li>
+ * 		<li>{@code fileweb.tls.keyPassword}, a password for the key. Defaults to the keystore
+ * 			password.</li>
+ * 		<li>{@code fileweb.tls.keystoreType}, a keystore type (e.g. JKS or PKCS12). Defaults to
+ * 			the platform default type.</li>
+ * 		<li>{@code fileweb.tls.sessionCacheSize}, a maximum number of cached TLS sessions.</li>
+ * 		<li>{@code fileweb.tls.sessionTimeout}, a lifetime of a cached TLS session in
+ * 			seconds.</li>
+ * 	</ul>
+ *
+ * Sessions are cached (and session tickets enabled when the platform supports them) so that
+ * returning clients can resume a session instead of doing a full handshake for every
+ * connection.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class TlsSupport
+{
+	private final static String KEYSTORE_PROPERTY = "fileweb.tls.keystore";
+	private final static String KEYSTORE_PASSWORD_PROPERTY = "fileweb.tls.keystorePassword";
+	private final static String KEY_PASSWORD_PROPERTY = "fileweb.tls.keyPassword";
+	private final static String KEYSTORE_TYPE_PROPERTY = "fileweb.tls.keystoreType";
+	private final static String SESSION_CACHE_SIZE_PROPERTY = "fileweb.tls.sessionCacheSize";
+	private final static String SESSION_TIMEOUT_PROPERTY = "fileweb.tls.sessionTimeout";
+	private final static String SESSION_TICKET_PROPERTY =
+		"jdk.tls.server.enableSessionTicketExtension";
+	private final static int DEFAULT_SESSION_CACHE_SIZE = 10000;
+	private final static int DEFAULT_SESSION_TIMEOUT_S = 24 * 60 * 60;
+
+
+	private final SSLContext _sslContext;
+
+
+	/**
+	 * Creates {@code TlsSupport} from the {@code fileweb.tls.*} system properties.
+	 *
+	 * @return
+	 * 		{@code TlsSupport} or {@code null} if a keystore has not been configured.
+	 *
+	 * @throws IOException
+	 * 		If the keystore cannot be read.
+	 *
+	 * @throws GeneralSecurityException
+	 * 		If the keystore or the key cannot be loaded.
+	 */
+	public static TlsSupport fromSystemProperties()
+		throws
+			IOException,
+			GeneralSecurityException
+	{
+		String keystore = System.getProperty(KEYSTORE_PROPERTY);
+		if(keystore == null)
+			return null;
+
+		String keystorePassword = System.getProperty(KEYSTORE_PASSWORD_PROPERTY, "");
+		return
+			new TlsSupport(
+				keystore,
+				System.getProperty(KEYSTORE_TYPE_PROPERTY, KeyStore.getDefaultType()),
+				keystorePassword.toCharArray(),
+				System.getProperty(KEY_PASSWORD_PROPERTY, keystorePassword).toCharArray(),
+				Integer.getInteger(SESSION_CACHE_SIZE_PROPERTY, DEFAULT_SESSION_CACHE_SIZE),
+				Integer.getInteger(SESSION_TIMEOUT_PROPERTY, DEFAULT_SESSION_TIMEOUT_S)
+			);
+	}
+
+
+	public TlsSupport(
+		String keystore,
+		String keystoreType,
+		char[] keystorePassword,
+		char[] keyPassword,
+		int sessionCacheSize,
+		int sessionTimeout
+	)
+		throws
+			IOException,
+			GeneralSecurityException
+	{
+		// Stateless session tickets must be enabled before the context is created.
+		if(System.getProperty(SESSION_TICKET_PROPERTY) == null)
+			System.setProperty(SESSION_TICKET_PROPERTY, "true");
+
+		KeyStore keyStore = KeyStore.getInstance(keystoreType);
+		InputStream is = new FileInputStream(keystore);
+		try {
+			keyStore.load(is, keystorePassword);
+		}
+		finally {
+			is.close();
+		}
+		KeyManagerFactory keyManagerFactory =
+			KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, keyPassword);
+
+		_sslContext = SSLContext.getInstance("TLS");
+		_sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+		SSLSessionContext sessionContext = _sslContext.getServerSessionContext();
+		sessionContext.setSessionCacheSize(sessionCacheSize);
+		sessionContext.setSessionTimeout(sessionTimeout);
+	}
+
+
+	/**
+	 * Creates a TLS server socket bound to the given port.
+	 *
+	 * @param port
+	 * 		A port number.
+	 *
+	 * @param backlog
+	 * 		The maximum number of connections waiting to be accepted.
+	 *
+	 * @return
+	 * 		A bound server socket.
+	 *
+	 * @throws IOException
+	 * 		If the socket cannot be created.
+	 */
+	public ServerSocket createServerSocket(int port, int backlog)
+		throws
+			IOException
+	{
+		SSLServerSocket serverSocket =
+			(SSLServerSocket)_sslContext.getServerSocketFactory().createServerSocket(port, backlog);
+		serverSocket.setNeedClientAuth(false);
+		return serverSocket;
+	}
+}
@@ -0,0 +1,117 @@
+package com.hapiware.http;
+
+
+/**
+ * {@code TokenBucket} limits a byte rate. The bucket is refilled continuously with
+ * {@code rate} tokens (bytes) per second and it can hold at most one second worth of tokens.
+ * <p/>
+ * A caller reserves tokens for bytes it has sent (or is about to send). Reservations are
+ * always granted but they may drive the bucket into debt. In that case the caller is told
+ * how long it must wait before the debt has been paid. This keeps several concurrent users of
+ * the same bucket fairly paced. All the methods are synchronized.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class TokenBucket
+{
+	private final static double NANOS_PER_SECOND = 1000000000d;
+
+
+	private long _rate;
+	private double _tokens;
+	private long _lastRefill;
+	private long _lastUse;
+
+
+	/**
+	 * Creates a full bucket.
+	 *
+	 * @param rate
+	 * 		Bytes per second. Zero (or negative) means unlimited.
+	 */
+	public TokenBucket(long rate)
+	{
+		_rate = rate;
+		_tokens = rate;
+		_lastRefill = System.nanoTime();
+		_lastUse = _lastRefill;
+	}
+
+
+	private void refill(long now)
+	{
+		double tokens = _tokens + (now - _lastRefill) * _rate / NANOS_PER_SECOND;
+		_tokens = Math.min(_rate, tokens);
+		_lastRefill = now;
+	}
+
+
+	/**
+	 * Reserves tokens for the given number of bytes.
+	 *
+	 * @param bytes
+	 * 		Number of bytes.
+	 *
+	 * @return
+	 * 		Time in nanoseconds the caller must wait before sending more. Zero if there were
+	 * 		enough tokens or the bucket is unlimited.
+	 */
+	public synchronized long reserve(long bytes)
+	{
+		long now = System.nanoTime();
+		_lastUse = now;
+		if(_rate <= 0)
+			return 0;
+
+		refill(now);
+		_tokens -= bytes;
+		if(_tokens >= 0)
+			return 0;
+
+		return (long)(-_tokens * NANOS_PER_SECOND / _rate);
+	}
+
+
+	/**
+	 * Changes the rate. Existing debt is kept but extra tokens are dropped.
+	 *
+	 * @param rate
+	 * 		Bytes per second. Zero (or negative) means unlimited.
+	 */
+	public synchronized void setRate(long rate)
+	{
+		long now = System.nanoTime();
+		if(_rate > 0)
+			refill(now);
+		else
+			_tokens = rate;
+		_lastRefill = now;
+		_rate = rate;
+		_tokens = Math.min(_tokens, Math.max(rate, 0));
+	}
+
+
+	/**
+	 * Returns the rate.
+	 *
+	 * @return
+	 * 		Bytes per second. Zero (or negative) means unlimited.
+	 */
+	public synchronized long getRate()
+	{
+		return _rate;
+	}
+
+
+	/**
+	 * Returns the time of the last reservation.
+	 *
+	 * @return
+	 * 		Time in {@link System#nanoTime()} units.
+	 */
+	public synchronized long getLastUse()
+	{
+		return _lastUse;
+	}
+}
@@ -0,0 +1,323 @@
+package com.hapiware.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * {@code TreeWalker} lists a directory tree recursively. Directories are listed in
+ * parallel by a thread pool shared by the whole server (see
+ * {@code fileweb.manifest.threads}), which hides the latency of listing directories on
+ * slow (e.g. network) disks. The entries are delivered in batches through a queue.
+ * <p/>
+ * The pool threads never wait for a client. When the queue of a walk is full (i.e.
+ * the client reads slowly) its remaining directories are parked and they are handed to
+ * the pool again as the client drains the queue. A walk also has at most as many
+ * directories being listed at the same time as there are threads in the pool, so a slow
+ * client neither stalls nor crowds out the other walks.
+ * <p/>
+ * The order of the entries is not defined. Directories are followed only once, so
+ * symbolic links cannot make the walk loop.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class TreeWalker
+{
+	private final static String THREADS_PROPERTY = "fileweb.manifest.threads";
+	private final static int DEFAULT_NUMBER_OF_THREADS = 4;
+	private final static int BATCH_SIZE = 256;
+	private final static int MAX_QUEUED_BATCHES = 64;
+	private final static List<Item> END = new ArrayList<Item>(0);
+	private final static TreeWalker INSTANCE =
+		new TreeWalker(Integer.getInteger(THREADS_PROPERTY, DEFAULT_NUMBER_OF_THREADS));
+
+
+	private final ExecutorService _executorService;
+	private final int _numberOfThreads;
+
+
+	/**
+	 * Returns the tree walker shared by the whole server.
+	 *
+	 * @return
+	 * 		The tree walker.
+	 */
+	public static TreeWalker getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	public TreeWalker(int numberOfThreads)
+	{
+		_numberOfThreads = Math.max(1, numberOfThreads);
+		final AtomicInteger threadNumber = new AtomicInteger();
+		_executorService =
+			Executors.newFixedThreadPool(
+				_numberOfThreads,
+				new ThreadFactory() {
+					public Thread newThread(Runnable r)
+					{
+						Thread thread =
+							new Thread(r, "fileweb-manifest-" + threadNumber.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				}
+			);
+	}
+
+
+	/**
+	 * Starts walking a directory tree.
+	 *
+	 * @param root
+	 * 		The directory.
+	 *
+	 * @param since
+	 * 		Only entries modified at or after this time (in milliseconds) are returned. All
+	 * 		the directories are walked anyway.
+	 *
+	 * @return
+	 * 		The walk which must be closed with {@link Walk#close()}.
+	 *
+	 * @throws IOException
+	 */
+	public Walk walk(File root, long since)
+		throws
+			IOException
+	{
+		Walk walk = new Walk(since);
+		walk._visited.put(root.getCanonicalPath(), Boolean.TRUE);
+		synchronized(walk) {
+			walk._directories.add(new Directory(root, ""));
+			walk.schedule();
+		}
+		return walk;
+	}
+
+
+	/**
+	 * An entry of a directory tree.
+	 */
+	public final static class Item
+	{
+		private final String _path;
+		private final long _size;
+		private final long _lastModified;
+		private final boolean _directory;
+		private final File _file;
+
+		Item(String path, long size, long lastModified, boolean directory, File file)
+		{
+			_path = path;
+			_size = size;
+			_lastModified = lastModified;
+			_directory = directory;
+			_file = file;
+		}
+
+		/**
+		 * Returns the path relative to the walked directory. Directory separators are
+		 * always {@code /}.
+		 *
+		 * @return
+		 * 		The path.
+		 */
+		public String getPath()
+		{
+			return _path;
+		}
+
+		public long getSize()
+		{
+			return _size;
+		}
+
+		public long getLastModified()
+		{
+			return _lastModified;
+		}
+
+		public boolean isDirectory()
+		{
+			return _directory;
+		}
+
+		public File getFile()
+		{
+			return _file;
+		}
+	}
+
+
+	/**
+	 * A directory waiting to be listed.
+	 */
+	private final static class Directory
+	{
+		final File directory;
+		final String path;
+
+		Directory(File directory, String path)
+		{
+			this.directory = directory;
+			this.path = path;
+		}
+	}
+
+
+	/**
+	 * A walk in progress. The state except {@link #_visited} is guarded by the walk itself.
+	 */
+	public final class Walk
+	{
+		private final long _since;
+		private final LinkedList<List<Item>> _batches = new LinkedList<List<Item>>();
+		private final LinkedList<Directory> _directories = new LinkedList<Directory>();
+		private final ConcurrentMap<String, Boolean> _visited =
+			new ConcurrentHashMap<String, Boolean>();
+		private int _numberOfListing = 0;
+		private volatile boolean _closed = false;
+
+		Walk(long since)
+		{
+			_since = since;
+		}
+
+		/**
+		 * Returns the next batch of entries. Waits until the batch is ready.
+		 *
+		 * @return
+		 * 		The entries or {@code null} if the whole tree has been walked.
+		 *
+		 * @throws InterruptedIOException
+		 * 		If the waiting was interrupted.
+		 */
+		public synchronized List<Item> next()
+			throws
+				InterruptedIOException
+		{
+			try {
+				while(_batches.isEmpty())
+					wait();
+			}
+			catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while walking a directory tree.");
+			}
+			List<Item> batch = _batches.getFirst();
+			if(batch == END)
+				return null;
+
+			_batches.removeFirst();
+			schedule();
+			return batch;
+		}
+
+		/**
+		 * Stops the walk. Directories not yet listed are skipped.
+		 */
+		public synchronized void close()
+		{
+			_closed = true;
+			_batches.clear();
+			_directories.clear();
+		}
+
+		/**
+		 * Hands parked directories to the pool as long as the client keeps up.
+		 */
+		private void schedule()
+		{
+			while(
+				!_closed
+				&& !_directories.isEmpty()
+				&& _numberOfListing < _numberOfThreads
+				&& _batches.size() < MAX_QUEUED_BATCHES
+			) {
+				final Directory directory = _directories.removeFirst();
+				_numberOfListing++;
+				_executorService.execute(
+					new Runnable() {
+						public void run()
+						{
+							List<Directory> subdirectories = new ArrayList<Directory>();
+							List<List<Item>> batches = new ArrayList<List<Item>>();
+							try {
+								list(directory, subdirectories, batches);
+							}
+							finally {
+								done(subdirectories, batches);
+							}
+						}
+					}
+				);
+			}
+		}
+
+		private synchronized void done(List<Directory> subdirectories, List<List<Item>> batches)
+		{
+			_numberOfListing--;
+			if(_closed)
+				return;
+
+			_directories.addAll(subdirectories);
+			_batches.addAll(batches);
+			if(_numberOfListing == 0 && _directories.isEmpty())
+				_batches.add(END);
+			else
+				schedule();
+			notifyAll();
+		}
+
+		private void list(Directory directory, List<Directory> subdirectories, List<List<Item>> batches)
+		{
+			File[] files = _closed ? null : directory.directory.listFiles();
+			if(files == null)
+				return;
+
+			String path = directory.path;
+			List<Item> batch = new ArrayList<Item>(Math.min(files.length, BATCH_SIZE));
+			for(File f : files) {
+				String name = f.getName();
+				if(UploadSupport.isTemporaryFile(name))
+					continue;
+
+				boolean isDirectory = f.isDirectory();
+				if(isDirectory) {
+					try {
+						if(_visited.putIfAbsent(f.getCanonicalPath(), Boolean.TRUE) == null)
+							subdirectories.add(new Directory(f, path + name + "/"));
+					}
+					catch(IOException e) {
+						// An unresolvable link is skipped.
+					}
+				}
+				long lastModified = f.lastModified();
+				if(lastModified >= _since) {
+					batch.add(
+						new Item(path + name, isDirectory ? -1 : f.length(), lastModified, isDirectory, f)
+					);
+					if(batch.size() == BATCH_SIZE) {
+						batches.add(batch);
+						batch = new ArrayList<Item>(BATCH_SIZE);
+					}
+				}
+			}
+			if(!batch.isEmpty())
+				batches.add(batch);
+		}
+	}
+}
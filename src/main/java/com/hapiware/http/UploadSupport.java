@@ -0,0 +1,359 @@
+package com.hapiware.http;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+
+/**
+ * {@code UploadSupport} stores uploaded files. Uploads are enabled only if a users file
+ * is given with {@code fileweb.upload.users} system property. Each line of the file has
+ * a user name and a password separated with a colon:
+ * <pre>
+ * 	builder:secret
+ * </pre>
+ *
+ * Clients authenticate with HTTP Basic authentication, so uploads should be used with
+ * HTTPS outside of a trusted network.
+ * <p/>
+ * An upload is written to a temporary file in the target directory and moved in place
+ * only after the whole body has been received. This way clients never see partially
+ * uploaded files and a failed upload leaves the old file intact.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class UploadSupport
+{
+	private final static Logger LOGGER = Logger.getLogger(UploadSupport.class.getName());
+
+	private final static String USERS_PROPERTY = "fileweb.upload.users";
+	private final static String MAX_SIZE_PROPERTY = "fileweb.upload.maxSize";
+	private final static long DEFAULT_MAX_SIZE = 1024l * 1024 * 1024;
+	private final static int BUFFER_SIZE = 64 * 1024;
+	private final static String TEMP_PREFIX = ".fileweb-upload-";
+	private final static String BASE64_DIGITS =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+	private final static UploadSupport INSTANCE =
+		new UploadSupport(
+			readUsers(System.getProperty(USERS_PROPERTY)),
+			Long.getLong(MAX_SIZE_PROPERTY, DEFAULT_MAX_SIZE)
+		);
+
+
+	private final Map<String, String> _users;
+	private volatile long _maxSize;
+	private final AtomicInteger _numberOfActiveUploads = new AtomicInteger();
+	private final AtomicLong _numberOfUploads = new AtomicLong();
+	private final AtomicLong _numberOfFailedUploads = new AtomicLong();
+	private final AtomicLong _bytesReceived = new AtomicLong();
+	private final AtomicLong _uploadTimeNs = new AtomicLong();
+
+
+	/**
+	 * Returns the upload support shared by the whole server.
+	 *
+	 * @return
+	 * 		The upload support.
+	 */
+	public static UploadSupport getInstance()
+	{
+		return INSTANCE;
+	}
+
+
+	/**
+	 * Creates upload support.
+	 *
+	 * @param users
+	 * 		User names mapped to passwords. Uploads are disabled if there are no users.
+	 *
+	 * @param maxSize
+	 * 		Maximum size of an uploaded file in bytes. Zero means unlimited.
+	 */
+	public UploadSupport(Map<String, String> users, long maxSize)
+	{
+		_users = Collections.unmodifiableMap(users);
+		_maxSize = maxSize;
+	}
+
+
+	private static Map<String, String> readUsers(String fileName)
+	{
+		Map<String, String> users = new HashMap<String, String>();
+		if(fileName == null)
+			return users;
+
+		try {
+			BufferedReader reader =
+				new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+			try {
+				String line;
+				while((line = reader.readLine()) != null) {
+					line = line.trim();
+					int i = line.indexOf(':');
+					if(line.length() == 0 || line.startsWith("#"))
+						continue;
+					if(i <= 0)
+						LOGGER.warning("'" + fileName + "' has an invalid line: " + line);
+					else
+						users.put(line.substring(0, i), line.substring(i + 1));
+				}
+			}
+			finally {
+				reader.close();
+			}
+		}
+		catch(IOException e) {
+			LOGGER.log(Level.SEVERE, "'" + fileName + "' cannot be read. Uploads are disabled.", e);
+			users.clear();
+		}
+		return users;
+	}
+
+
+	/**
+	 * Checks if uploads are enabled.
+	 *
+	 * @return
+	 * 		{@code true} if there is at least one user.
+	 */
+	public boolean isEnabled()
+	{
+		return !_users.isEmpty();
+	}
+
+
+	/**
+	 * Checks the credentials of an {@code Authorization} header field.
+	 *
+	 * @param authorization
+	 * 		The header field value (e.g. {@code Basic YnVpbGRlcjpzZWNyZXQ=}) or {@code null}.
+	 *
+	 * @return
+	 * 		{@code true} if the user name and the password are valid.
+	 */
+	public boolean authenticate(String authorization)
+	{
+		if(authorization == null || !authorization.regionMatches(true, 0, "Basic ", 0, 6))
+			return false;
+
+		try {
+			String credentials =
+				new String(decodeBase64(authorization.substring(6).trim()), "UTF-8");
+			int i = credentials.indexOf(':');
+			if(i <= 0)
+				return false;
+
+			// The comparison takes the same time however much of the password matches.
+			String password = _users.get(credentials.substring(0, i));
+			return
+				password != null
+					&& MessageDigest.isEqual(
+						password.getBytes("UTF-8"),
+						credentials.substring(i + 1).getBytes("UTF-8")
+					);
+		}
+		catch(IOException e) {
+			return false;
+		}
+	}
+
+	private static byte[] decodeBase64(String value)
+		throws
+			IOException
+	{
+		java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream(value.length());
+		int bits = 0;
+		int numberOfBits = 0;
+		for(int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if(c == '=')
+				break;
+			int digit = BASE64_DIGITS.indexOf(c);
+			if(digit == -1)
+				throw new IOException("Invalid Base64 character.");
+			bits = (bits << 6) | digit;
+			numberOfBits += 6;
+			if(numberOfBits >= 8) {
+				numberOfBits -= 8;
+				bytes.write(bits >> numberOfBits);
+				bits &= (1 << numberOfBits) - 1;
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+
+	/**
+	 * Writes a message body to a file. The body is first written to a temporary file in
+	 * the same directory which is then renamed to the target.
+	 *
+	 * @param body
+	 * 		The content. Read until the end.
+	 *
+	 * @param target
+	 * 		The file to be created or replaced.
+	 *
+	 * @return
+	 * 		Number of bytes written.
+	 *
+	 * @throws TooLargeException
+	 * 		If the content is bigger than the maximum size. The target is not changed.
+	 *
+	 * @throws IOException
+	 * 		If reading the body or writing the file fails. The target is not changed.
+	 */
+	public long store(InputStream body, File target)
+		throws
+			IOException
+	{
+		long maxSize = _maxSize;
+		long startNs = System.nanoTime();
+		long size = 0;
+		boolean succeeded = false;
+		_numberOfActiveUploads.incrementAndGet();
+		File temp = File.createTempFile(TEMP_PREFIX, ".tmp", target.getAbsoluteFile().getParentFile());
+		try {
+			FileOutputStream os = new FileOutputStream(temp);
+			byte[] buffer = BufferPool.getInstance().acquire(BUFFER_SIZE);
+			try {
+				int n;
+				while((n = body.read(buffer)) != -1) {
+					size += n;
+					_bytesReceived.addAndGet(n);
+					if(maxSize > 0 && size > maxSize)
+						throw new TooLargeException(target.getName() + " exceeds " + maxSize + " bytes.");
+					os.write(buffer, 0, n);
+				}
+				os.getChannel().force(false);
+			}
+			finally {
+				BufferPool.getInstance().release(buffer);
+				os.close();
+			}
+
+			// A rename within a directory is atomic. Windows does not replace an existing
+			// file so it is moved aside first and put back if the rename still fails.
+			if(!temp.renameTo(target)) {
+				File backup = new File(temp.getPath() + ".bak");
+				if(!target.renameTo(backup))
+					throw new IOException("'" + temp + "' cannot be renamed to '" + target + "'.");
+				if(!temp.renameTo(target)) {
+					if(!backup.renameTo(target))
+						LOGGER.severe("The old '" + target + "' was left as '" + backup + "'.");
+					throw new IOException("'" + temp + "' cannot be renamed to '" + target + "'.");
+				}
+				if(!backup.delete())
+					LOGGER.warning("'" + backup + "' cannot be deleted.");
+			}
+			succeeded = true;
+			return size;
+		}
+		finally {
+			if(!succeeded)
+				temp.delete();
+			_numberOfActiveUploads.decrementAndGet();
+			_uploadTimeNs.addAndGet(System.nanoTime() - startNs);
+			if(succeeded)
+				_numberOfUploads.incrementAndGet();
+			else
+				_numberOfFailedUploads.incrementAndGet();
+		}
+	}
+
+
+	/**
+	 * Checks if a file is a temporary file of an upload in progress.
+	 *
+	 * @param name
+	 * 		The file name.
+	 *
+	 * @return
+	 * 		{@code true} for temporary upload files.
+	 */
+	public static boolean isTemporaryFile(String name)
+	{
+		return name.startsWith(TEMP_PREFIX);
+	}
+
+
+	public long getMaxSize()
+	{
+		return _maxSize;
+	}
+
+	public void setMaxSize(long maxSize)
+	{
+		_maxSize = maxSize;
+	}
+
+	public int getNumberOfActiveUploads()
+	{
+		return _numberOfActiveUploads.get();
+	}
+
+	public long getNumberOfUploads()
+	{
+		return _numberOfUploads.get();
+	}
+
+	public long getNumberOfFailedUploads()
+	{
+		return _numberOfFailedUploads.get();
+	}
+
+	public long getBytesReceived()
+	{
+		return _bytesReceived.get();
+	}
+
+	/**
+	 * Returns the average upload throughput.
+	 *
+	 * @return
+	 * 		Bytes per second over all the uploads since the last reset.
+	 */
+	public long getThroughput()
+	{
+		long timeNs = _uploadTimeNs.get();
+		return timeNs == 0 ? 0 : (long)(_bytesReceived.get() * 1e9 / timeNs);
+	}
+
+	public void resetCounters()
+	{
+		_numberOfUploads.set(0);
+		_numberOfFailedUploads.set(0);
+		_bytesReceived.set(0);
+		_uploadTimeNs.set(0);
+	}
+
+
+	/**
+	 * Thrown when an upload is bigger than allowed.
+	 */
+	public static class TooLargeException
+		extends
+			IOException
+	{
+		private final static long serialVersionUID = 1L;
+
+		public TooLargeException(String message)
+		{
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,500 @@
+package com.hapiware.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+
+/**
+ * {@code ZipArchive} reads the central directory of a ZIP (JAR, WAR, EAR) archive and gives
+ * the exact position of each entry's data in the file. Unlike {@link java.util.zip.ZipFile}
+ * this makes it possible to send stored entries and compressed data as raw byte ranges
+ * (i.e. with zero-copy).
+ * <p/>
+ * The archive can be a region of a bigger file. This is used for archives stored inside
+ * other archives (e.g. a stored jar inside of an ear), which can then be read without
+ * extracting them first. ZIP64 archives are supported.
+ * <p/>
+ * {@code ZipArchive} is immutable after it has been opened and it only uses positional reads,
+ * so it can be shared by several threads.
+ * <p/>
+ * The lengths, sizes and offsets of the central directory are checked against the archive
+ * region and a corrupted archive is reported with {@link ZipException}.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ZipArchive
+{
+	public final static int STORED = 0;
+	public final static int DEFLATED = 8;
+
+	private final static int EOCD_SIGNATURE = 0x06054b50;
+	private final static int ZIP64_EOCD_LOCATOR_SIGNATURE = 0x07064b50;
+	private final static int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+	private final static int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	private final static int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	private final static int EOCD_SIZE = 22;
+	private final static int MAX_COMMENT_SIZE = 0xffff;
+	private final static int LOCAL_HEADER_SIZE = 30;
+	private final static int CENTRAL_HEADER_SIZE = 46;
+	private final static long UINT32_MAX = 0xffffffffl;
+
+
+	private final File _file;
+	private final RandomAccessFile _randomAccessFile;
+	private final FileChannel _channel;
+	private final long _regionStart;
+	private final long _regionLength;
+	private final List<Entry> _entries;
+	private final Map<String, Entry> _entriesByName;
+
+
+	/**
+	 * Opens a whole file as an archive.
+	 *
+	 * @param file
+	 * 		The archive file.
+	 *
+	 * @throws IOException
+	 * 		If the file cannot be read or it is not a valid archive.
+	 */
+	public ZipArchive(File file)
+		throws
+			IOException
+	{
+		this(file, 0, file.length());
+	}
+
+
+	/**
+	 * Opens a region of a file as an archive.
+	 *
+	 * @param file
+	 * 		The file containing the archive.
+	 *
+	 * @param regionStart
+	 * 		The position of the first byte of the archive.
+	 *
+	 * @param regionLength
+	 * 		The length of the archive.
+	 *
+	 * @throws IOException
+	 * 		If the file cannot be read or the region is not a valid archive.
+	 */
+	public ZipArchive(File file, long regionStart, long regionLength)
+		throws
+			IOException
+	{
+		_file = file;
+		_regionStart = regionStart;
+		_regionLength = regionLength;
+		_randomAccessFile = new RandomAccessFile(file, "r");
+		_channel = _randomAccessFile.getChannel();
+		try {
+			if(regionStart < 0 || regionLength < 0 || regionLength > _channel.size() - regionStart)
+				throw new ZipException("The archive region is out of the file: " + _file);
+			List<Entry> entries = readCentralDirectory();
+			Map<String, Entry> entriesByName = new HashMap<String, Entry>(entries.size() * 2);
+			for(Entry entry : entries)
+				entriesByName.put(entry.getName(), entry);
+			_entries = Collections.unmodifiableList(entries);
+			_entriesByName = Collections.unmodifiableMap(entriesByName);
+		}
+		catch(IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+
+	private ByteBuffer read(long position, int length)
+		throws
+			IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+		while(buffer.hasRemaining()) {
+			if(_channel.read(buffer, position + buffer.position()) < 0)
+				throw new ZipException("Unexpected end of file: " + _file);
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static long uint32(ByteBuffer buffer, int index)
+	{
+		return buffer.getInt(index) & UINT32_MAX;
+	}
+
+	private static int uint16(ByteBuffer buffer, int index)
+	{
+		return buffer.getShort(index) & 0xffff;
+	}
+
+	private List<Entry> readCentralDirectory()
+		throws
+			IOException
+	{
+		// Finds the end of central directory record by scanning backwards.
+		int tailLength = (int)Math.min(_regionLength, EOCD_SIZE + MAX_COMMENT_SIZE);
+		if(tailLength < EOCD_SIZE)
+			throw new ZipException("Not a zip archive: " + _file);
+		long tailStart = _regionStart + _regionLength - tailLength;
+		ByteBuffer tail = read(tailStart, tailLength);
+		int eocd = -1;
+		for(int i = tailLength - EOCD_SIZE; i >= 0; i--) {
+			if(tail.getInt(i) == EOCD_SIGNATURE) {
+				eocd = i;
+				break;
+			}
+		}
+		if(eocd == -1)
+			throw new ZipException("End of central directory was not found: " + _file);
+
+		long eocdPosition = tailStart + eocd;
+		long numberOfEntries = uint16(tail, eocd + 10);
+		long centralDirectorySize = uint32(tail, eocd + 12);
+		long centralDirectoryOffset = uint32(tail, eocd + 16);
+		long centralDirectoryEnd = eocdPosition;
+		if(
+			numberOfEntries == 0xffff
+			|| centralDirectorySize == UINT32_MAX
+			|| centralDirectoryOffset == UINT32_MAX
+		) {
+			if(eocdPosition - 20 >= _regionStart) {
+				ByteBuffer locator = read(eocdPosition - 20, 20);
+				if(locator.getInt(0) == ZIP64_EOCD_LOCATOR_SIGNATURE) {
+					long zip64EocdOffset = locator.getLong(8);
+					if(zip64EocdOffset < 0 || zip64EocdOffset > eocdPosition - 20 - 56 - _regionStart)
+						throw new ZipException("Invalid ZIP64 end of directory locator: " + _file);
+					long zip64EocdPosition = _regionStart + zip64EocdOffset;
+					ByteBuffer zip64Eocd = read(zip64EocdPosition, 56);
+					if(zip64Eocd.getInt(0) != ZIP64_EOCD_SIGNATURE)
+						throw new ZipException("Invalid ZIP64 end of directory: " + _file);
+					numberOfEntries = zip64Eocd.getLong(32);
+					centralDirectorySize = zip64Eocd.getLong(40);
+					centralDirectoryOffset = zip64Eocd.getLong(48);
+					centralDirectoryEnd = zip64EocdPosition;
+				}
+			}
+		}
+
+		// Archives can have data prepended (e.g. self extracting archives) in which case
+		// offsets are relative to the start of the archive data.
+		if(
+			numberOfEntries < 0
+			|| centralDirectorySize < 0
+			|| centralDirectorySize > Integer.MAX_VALUE
+			|| centralDirectoryOffset < 0
+			|| centralDirectorySize > centralDirectoryEnd - _regionStart
+		)
+			throw new ZipException("Invalid central directory: " + _file);
+		long base = centralDirectoryEnd - centralDirectorySize - centralDirectoryOffset;
+		if(base < _regionStart)
+			throw new ZipException("Invalid central directory: " + _file);
+		long regionEnd = _regionStart + _regionLength;
+
+		ByteBuffer directory =
+			read(centralDirectoryEnd - centralDirectorySize, (int)centralDirectorySize);
+		List<Entry> entries = new ArrayList<Entry>((int)Math.min(numberOfEntries, 65536));
+		int i = 0;
+		while(i + CENTRAL_HEADER_SIZE <= directory.limit()) {
+			if(directory.getInt(i) != CENTRAL_HEADER_SIGNATURE)
+				break;
+
+			int flags = uint16(directory, i + 8);
+			int method = uint16(directory, i + 10);
+			long dosTime = uint32(directory, i + 12);
+			long crc = uint32(directory, i + 16);
+			long compressedSize = uint32(directory, i + 20);
+			long size = uint32(directory, i + 24);
+			int nameLength = uint16(directory, i + 28);
+			int extraLength = uint16(directory, i + 30);
+			int commentLength = uint16(directory, i + 32);
+			long localHeaderOffset = uint32(directory, i + 42);
+			if(i + CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength > directory.limit())
+				throw new ZipException("Truncated central directory entry: " + _file);
+
+			byte[] nameBytes = new byte[nameLength];
+			directory.position(i + CENTRAL_HEADER_SIZE);
+			directory.get(nameBytes);
+			String name = new String(nameBytes, "UTF-8");
+
+			// ZIP64 extended information.
+			int extra = i + CENTRAL_HEADER_SIZE + nameLength;
+			int extraEnd = extra + extraLength;
+			while(extra + 4 <= extraEnd) {
+				int tag = uint16(directory, extra);
+				int dataSize = uint16(directory, extra + 2);
+				if(tag == 0x0001) {
+					int p = extra + 4;
+					if(size == UINT32_MAX && p + 8 <= extraEnd) {
+						size = directory.getLong(p);
+						p += 8;
+					}
+					if(compressedSize == UINT32_MAX && p + 8 <= extraEnd) {
+						compressedSize = directory.getLong(p);
+						p += 8;
+					}
+					if(localHeaderOffset == UINT32_MAX && p + 8 <= extraEnd)
+						localHeaderOffset = directory.getLong(p);
+					break;
+				}
+				extra += 4 + dataSize;
+			}
+			if(
+				size < 0
+				|| compressedSize < 0
+				|| localHeaderOffset < 0
+				|| localHeaderOffset > regionEnd - base - LOCAL_HEADER_SIZE
+				|| compressedSize > _regionLength
+			)
+				throw new ZipException("Invalid sizes or offset of '" + name + "': " + _file);
+
+			entries.add(
+				new Entry(
+					name,
+					method,
+					(flags & 1) != 0,
+					dosTimeToMillis(dosTime),
+					crc,
+					compressedSize,
+					size,
+					base + localHeaderOffset
+				)
+			);
+			i += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+		}
+		return entries;
+	}
+
+	private static long dosTimeToMillis(long dosTime)
+	{
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(
+			(int)((dosTime >> 25) & 0x7f) + 1980,
+			(int)((dosTime >> 21) & 0x0f) - 1,
+			(int)((dosTime >> 16) & 0x1f),
+			(int)((dosTime >> 11) & 0x1f),
+			(int)((dosTime >> 5) & 0x3f),
+			(int)((dosTime << 1) & 0x3e)
+		);
+		return calendar.getTimeInMillis();
+	}
+
+
+	/**
+	 * Returns the position of the entry data (i.e. compressed data for deflated entries)
+	 * in the file.
+	 *
+	 * @param entry
+	 * 		An entry of this archive.
+	 *
+	 * @return
+	 * 		An absolute position in the file.
+	 *
+	 * @throws IOException
+	 * 		If the local header cannot be read, the data does not fit in the archive or
+	 * 		the sizes of a stored entry differ.
+	 */
+	public long getDataPosition(Entry entry)
+		throws
+			IOException
+	{
+		// A stored entry is sent as a raw range, so its size must be the size of the data.
+		if(entry.getMethod() == STORED && entry.getSize() != entry.getCompressedSize())
+			throw new ZipException("The sizes of stored '" + entry.getName() + "' differ.");
+		ByteBuffer localHeader = read(entry._localHeaderPosition, LOCAL_HEADER_SIZE);
+		if(localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE)
+			throw new ZipException("Invalid local header of '" + entry.getName() + "'.");
+		long position =
+			entry._localHeaderPosition + LOCAL_HEADER_SIZE
+				+ uint16(localHeader, 26) + uint16(localHeader, 28);
+		if(position + entry.getCompressedSize() > _regionStart + _regionLength)
+			throw new ZipException("The data of '" + entry.getName() + "' is out of the archive.");
+		return position;
+	}
+
+
+	/**
+	 * Opens a stream to the raw (i.e. possibly compressed) data of the entry.
+	 *
+	 * @param entry
+	 * 		An entry of this archive.
+	 *
+	 * @return
+	 * 		A stream reading {@link Entry#getCompressedSize()} bytes.
+	 *
+	 * @throws IOException
+	 */
+	public InputStream getRawInputStream(Entry entry)
+		throws
+			IOException
+	{
+		return
+			new FileRegionInputStream(
+				_channel,
+				getDataPosition(entry),
+				entry.getCompressedSize()
+			);
+	}
+
+
+	public File getFile()
+	{
+		return _file;
+	}
+
+	/**
+	 * Returns the channel of the file. Only positional operations may be used because
+	 * the channel is shared.
+	 *
+	 * @return
+	 * 		The file channel.
+	 */
+	public FileChannel getChannel()
+	{
+		return _channel;
+	}
+
+	public long getRegionStart()
+	{
+		return _regionStart;
+	}
+
+	public long getRegionLength()
+	{
+		return _regionLength;
+	}
+
+	/**
+	 * Returns all the entries in the central directory order.
+	 *
+	 * @return
+	 * 		Entries.
+	 */
+	public List<Entry> getEntries()
+	{
+		return _entries;
+	}
+
+	/**
+	 * Finds an entry by its full name.
+	 *
+	 * @param name
+	 * 		Entry name (e.g. {@code META-INF/MANIFEST.MF}).
+	 *
+	 * @return
+	 * 		The entry or {@code null} if not found.
+	 */
+	public Entry getEntry(String name)
+	{
+		return _entriesByName.get(name);
+	}
+
+	public void close()
+	{
+		try {
+			_randomAccessFile.close();
+		}
+		catch(IOException e) {
+			// Does nothing.
+		}
+	}
+
+
+	/**
+	 * An entry of the central directory.
+	 */
+	public final static class Entry
+	{
+		private final String _name;
+		private final int _method;
+		private final boolean _encrypted;
+		private final long _time;
+		private final long _crc;
+		private final long _compressedSize;
+		private final long _size;
+		private final long _localHeaderPosition;
+
+		Entry(
+			String name,
+			int method,
+			boolean encrypted,
+			long time,
+			long crc,
+			long compressedSize,
+			long size,
+			long localHeaderPosition
+		)
+		{
+			_name = name;
+			_method = method;
+			_encrypted = encrypted;
+			_time = time;
+			_crc = crc;
+			_compressedSize = compressedSize;
+			_size = size;
+			_localHeaderPosition = localHeaderPosition;
+		}
+
+		public String getName()
+		{
+			return _name;
+		}
+
+		public boolean isDirectory()
+		{
+			return _name.endsWith("/");
+		}
+
+		/**
+		 * Returns the compression method, {@link ZipArchive#STORED} or
+		 * {@link ZipArchive#DEFLATED}. Other methods are not supported.
+		 *
+		 * @return
+		 * 		Compression method.
+		 */
+		public int getMethod()
+		{
+			return _method;
+		}
+
+		public boolean isEncrypted()
+		{
+			return _encrypted;
+		}
+
+		public long getTime()
+		{
+			return _time;
+		}
+
+		public long getCrc()
+		{
+			return _crc;
+		}
+
+		public long getCompressedSize()
+		{
+			return _compressedSize;
+		}
+
+		public long getSize()
+		{
+			return _size;
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.hapiware.http.jmx;
+
+import com.hapiware.http.BufferPool;
+
+
+/**
+ * The implementation of the {@link BufferPoolingMBean}.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see BufferPool
+ */
+public class BufferPooling
+	implements
+		BufferPoolingMBean
+{
+	private final BufferPool _bufferPool;
+	
+	
+	public BufferPooling(BufferPool bufferPool)
+	{
+		_bufferPool = bufferPool;
+	}
+	
+	public long getMaxSize()
+	{
+		return _bufferPool.getMaxSize();
+	}
+	
+	public long getSize()
+	{
+		return _bufferPool.getSize();
+	}
+	
+	public long getIdleSize()
+	{
+		return _bufferPool.getIdleSize();
+	}
+	
+	public boolean isDebug()
+	{
+		return _bufferPool.isDebug();
+	}
+	
+	public int getNumberOfOutstandingBuffers()
+	{
+		return _bufferPool.getNumberOfOutstandingBuffers();
+	}
+	
+	public long getNumberOfAcquires()
+	{
+		return _bufferPool.getNumberOfAcquires();
+	}
+	
+	public long getNumberOfOwnStripeHits()
+	{
+		return _bufferPool.getNumberOfOwnStripeHits();
+	}
+	
+	public long getNumberOfOtherStripeHits()
+	{
+		return _bufferPool.getNumberOfOtherStripeHits();
+	}
+	
+	public long getNumberOfAllocations()
+	{
+		return _bufferPool.getNumberOfAllocations();
+	}
+	
+	public long getNumberOfOverflows()
+	{
+		return _bufferPool.getNumberOfOverflows();
+	}
+	
+	public long getNumberOfLeaks()
+	{
+		return _bufferPool.getNumberOfLeaks();
+	}
+	
+	public void resetCounters()
+	{
+		_bufferPool.resetCounters();
+	}
+}
@@ -0,0 +1,121 @@
+package com.hapiware.http.jmx;
+
+
+/**
+ * An MBean to follow the pool of I/O buffers.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public interface BufferPoolingMBean
+{
+	/**
+	 * Returns the maximum total size of the pooled buffers.
+	 * 
+	 * @return
+	 * 		Bytes.
+	 */
+	public long getMaxSize();
+	
+	/**
+	 * Returns the total size of the pooled buffers, both in use and idle.
+	 * 
+	 * @return
+	 * 		Bytes.
+	 */
+	public long getSize();
+	
+	/**
+	 * Returns the total size of the pooled buffers not in use right now.
+	 * 
+	 * @return
+	 * 		Bytes.
+	 */
+	public long getIdleSize();
+	
+	/**
+	 * Returns {@code true} if buffers are followed to find leaks
+	 * ({@code fileweb.bufferPool.debug}).
+	 * 
+	 * @return
+	 * 		{@code true} in debug mode.
+	 */
+	public boolean isDebug();
+	
+	/**
+	 * Returns the number of buffers in use. Available only in debug mode.
+	 * 
+	 * @return
+	 * 		Number of buffers.
+	 */
+	public int getNumberOfOutstandingBuffers();
+	
+	/**
+	 * Returns the number of buffers asked from the pool since the last reset.
+	 * 
+	 * @return
+	 * 		Number of buffers.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfAcquires();
+	
+	/**
+	 * Returns the number of buffers reused from the stripe of the asking thread since
+	 * the last reset.
+	 * 
+	 * @return
+	 * 		Number of buffers.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfOwnStripeHits();
+	
+	/**
+	 * Returns the number of buffers reused from the stripes of other threads since the
+	 * last reset.
+	 * 
+	 * @return
+	 * 		Number of buffers.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfOtherStripeHits();
+	
+	/**
+	 * Returns the number of new buffers created for the pool since the last reset.
+	 * 
+	 * @return
+	 * 		Number of buffers.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfAllocations();
+	
+	/**
+	 * Returns the number of buffers created outside the pool since the last reset
+	 * because the pool was full or the buffer was too big for the pool.
+	 * 
+	 * @return
+	 * 		Number of buffers.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfOverflows();
+	
+	/**
+	 * Returns the number of buffers not released since the last reset. Available only in
+	 * debug mode.
+	 * 
+	 * @return
+	 * 		Number of leaked buffers.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfLeaks();
+	
+	/**
+	 * Resets the buffer pool counters.
+	 */
+	public void resetCounters();
+}
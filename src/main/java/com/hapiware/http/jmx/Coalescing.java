@@ -0,0 +1,43 @@
+package com.hapiware.http.jmx;
+
+import com.hapiware.http.RequestCoalescer;
+
+
+/**
+ * The implementation of the {@link CoalescingMBean}.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see RequestCoalescer
+ */
+public class Coalescing
+	implements
+		CoalescingMBean
+{
+	private final RequestCoalescer _coalescer;
+	
+	
+	public Coalescing(RequestCoalescer coalescer)
+	{
+		_coalescer = coalescer;
+	}
+	
+	public long getNumberOfExecutions()
+	{
+		return _coalescer.getNumberOfExecutions();
+	}
+	
+	public long getNumberOfCoalesced()
+	{
+		return _coalescer.getNumberOfCoalesced();
+	}
+	
+	public int getNumberOfInFlight()
+	{
+		return _coalescer.getNumberOfInFlight();
+	}
+	
+	public void resetCounters()
+	{
+		_coalescer.resetCounters();
+	}
+}
@@ -0,0 +1,46 @@
+package com.hapiware.http.jmx;
+
+
+/**
+ * An MBean to follow how well concurrent identical requests (directory listings and
+ * archive peeks) are coalesced.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public interface CoalescingMBean
+{
+	/**
+	 * Returns the number of responses actually created since the last reset.
+	 * 
+	 * @return
+	 * 		Number of executions.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfExecutions();
+	
+	/**
+	 * Returns the number of requests which shared a response created for another request
+	 * since the last reset.
+	 * 
+	 * @return
+	 * 		Number of coalesced requests.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfCoalesced();
+	
+	/**
+	 * Returns the number of responses being created right now.
+	 * 
+	 * @return
+	 * 		Number of responses in progress.
+	 */
+	public int getNumberOfInFlight();
+	
+	/**
+	 * Resets the number of executions and coalesced requests.
+	 */
+	public void resetCounters();
+}
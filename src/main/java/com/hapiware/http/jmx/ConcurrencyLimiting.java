@@ -0,0 +1,83 @@
+package com.hapiware.http.jmx;
+
+import com.hapiware.http.ConcurrencyLimiter;
+
+
+/**
+ * The implementation of the {@link ConcurrencyLimitingMBean}.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see ConcurrencyLimiter
+ */
+public class ConcurrencyLimiting
+	implements
+		ConcurrencyLimitingMBean
+{
+	private final ConcurrencyLimiter _limiter;
+	
+	
+	public ConcurrencyLimiting(ConcurrencyLimiter limiter)
+	{
+		_limiter = limiter;
+	}
+	
+	public boolean isEnabled()
+	{
+		return _limiter.isEnabled();
+	}
+	
+	public void setEnabled(boolean enabled)
+	{
+		_limiter.setEnabled(enabled);
+	}
+	
+	public int getLimit()
+	{
+		return _limiter.getLimit();
+	}
+	
+	public int getMinLimit()
+	{
+		return _limiter.getMinLimit();
+	}
+	
+	public void setMinLimit(int minLimit)
+	{
+		_limiter.setMinLimit(minLimit);
+	}
+	
+	public int getMaxLimit()
+	{
+		return _limiter.getMaxLimit();
+	}
+	
+	public long getLatency()
+	{
+		return _limiter.getLatency();
+	}
+	
+	public long getLatencyBaseline()
+	{
+		return _limiter.getLatencyBaseline();
+	}
+	
+	public long getQueueWait()
+	{
+		return _limiter.getQueueWait();
+	}
+	
+	public long getNumberOfIncreases()
+	{
+		return _limiter.getNumberOfIncreases();
+	}
+	
+	public long getNumberOfDecreases()
+	{
+		return _limiter.getNumberOfDecreases();
+	}
+	
+	public String[] getDecisions()
+	{
+		return _limiter.getDecisions();
+	}
+}
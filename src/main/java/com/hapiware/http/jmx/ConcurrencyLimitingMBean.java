@@ -0,0 +1,107 @@
+package com.hapiware.http.jmx;
+
+
+/**
+ * An MBean to follow and control the adaptive concurrency limit.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public interface ConcurrencyLimitingMBean
+{
+	/**
+	 * Returns {@code true} if the limit is adjusted by the observed latency and queue wait.
+	 * 
+	 * @return
+	 * 		{@code true} in adaptive mode.
+	 */
+	public boolean isEnabled();
+	
+	/**
+	 * Turns the adaptive mode on or off. When turned off, all the threads are used.
+	 * 
+	 * @param enabled
+	 * 		{@code true} for the adaptive mode.
+	 */
+	public void setEnabled(boolean enabled);
+	
+	/**
+	 * Returns the number of connections served at the same time at most.
+	 * 
+	 * @return
+	 * 		Number of connections.
+	 */
+	public int getLimit();
+	
+	/**
+	 * Returns the lower bound of the limit.
+	 * 
+	 * @return
+	 * 		Number of connections.
+	 */
+	public int getMinLimit();
+	
+	/**
+	 * Sets the lower bound of the limit.
+	 * 
+	 * @param minLimit
+	 * 		Number of connections.
+	 */
+	public void setMinLimit(int minLimit);
+	
+	/**
+	 * Returns the upper bound of the limit, i.e. the number of threads.
+	 * 
+	 * @return
+	 * 		Number of connections.
+	 */
+	public int getMaxLimit();
+	
+	/**
+	 * Returns the average latency of the small requests during the last second.
+	 * 
+	 * @return
+	 * 		Microseconds.
+	 */
+	public long getLatency();
+	
+	/**
+	 * Returns the moving baseline the latency is compared to.
+	 * 
+	 * @return
+	 * 		Microseconds.
+	 */
+	public long getLatencyBaseline();
+	
+	/**
+	 * Returns the average time connections waited for a worker during the last second.
+	 * 
+	 * @return
+	 * 		Microseconds.
+	 */
+	public long getQueueWait();
+	
+	/**
+	 * Returns the number of times the limit has been increased.
+	 * 
+	 * @return
+	 * 		Number of increases.
+	 */
+	public long getNumberOfIncreases();
+	
+	/**
+	 * Returns the number of times the limit has been decreased.
+	 * 
+	 * @return
+	 * 		Number of decreases.
+	 */
+	public long getNumberOfDecreases();
+	
+	/**
+	 * Returns the latest changes of the limit with their reasons, newest first.
+	 * 
+	 * @return
+	 * 		A line for each change.
+	 */
+	public String[] getDecisions();
+}
@@ -36,11 +36,91 @@ public class Controlling
 		return _controller.getNumberOfRequests();
 	}
 	
+	public int getNumberOfThreads()
+	{
+		return _controller.getNumberOfThreads();
+	}
+	
+	public void setNumberOfThreads(int numberOfThreads)
+	{
+		_controller.setNumberOfThreads(numberOfThreads);
+	}
+	
+	public int getPoolSize()
+	{
+		return _controller.getPoolSize();
+	}
+	
+	public int getNumberOfBusyThreads()
+	{
+		return _controller.getNumberOfBusyThreads();
+	}
+	
+	public int getThreadUtilisation()
+	{
+		return _controller.getThreadUtilisation();
+	}
+	
+	public int getReadTimeout()
+	{
+		return _controller.getReadTimeout();
+	}
+	
+	public void setReadTimeout(int readTimeout)
+	{
+		_controller.setReadTimeout(readTimeout);
+	}
+	
+	public int getIdleTimeout()
+	{
+		return _controller.getIdleTimeout();
+	}
+	
+	public void setIdleTimeout(int idleTimeout)
+	{
+		_controller.setIdleTimeout(idleTimeout);
+	}
+	
+	public long getStallTimeout()
+	{
+		return _controller.getStallTimeout();
+	}
+	
+	public void setStallTimeout(long stallTimeout)
+	{
+		_controller.setStallTimeout(stallTimeout);
+	}
+	
+	public long getMinRate()
+	{
+		return _controller.getMinRate();
+	}
+	
+	public void setMinRate(long minRate)
+	{
+		_controller.setMinRate(minRate);
+	}
+	
+	public int getAcceptBacklog()
+	{
+		return _controller.getAcceptBacklog();
+	}
+	
 	public long getNumberOfErrors()
 	{
 		return _controller.getNumberOfErrors();
 	}
 
+	public long getNumberOfStalledConnections()
+	{
+		return _controller.getNumberOfStalledConnections();
+	}
+	
+	public long getNumberOfSlowConnections()
+	{
+		return _controller.getNumberOfSlowConnections();
+	}
+
 	public long getUptime()
 	{
 		return _controller.getUptime();
@@ -60,4 +140,14 @@ public class Controlling
 	{
 		_controller.resetNumberOfRequests();
 	}
+	
+	public void resetReclaimedConnections()
+	{
+		_controller.resetReclaimedConnections();
+	}
+	
+	public int reloadMimeTypes()
+	{
+		return _controller.reloadMimeTypes();
+	}
 }
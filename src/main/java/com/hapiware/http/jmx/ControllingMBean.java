@@ -45,6 +45,28 @@ public interface ControllingMBean
 	 */
 	public long getNumberOfErrors();
 	
+	/**
+	 * Returns the number of connections closed since the last reset because a write to
+	 * the client was blocked longer than the stall timeout.
+	 * 
+	 * @return
+	 * 		Number of reclaimed connections.
+	 * 
+	 * @see #resetReclaimedConnections()
+	 */
+	public long getNumberOfStalledConnections();
+	
+	/**
+	 * Returns the number of connections closed since the last reset because the client
+	 * read slower than the minimum rate.
+	 * 
+	 * @return
+	 * 		Number of reclaimed connections.
+	 * 
+	 * @see #resetReclaimedConnections()
+	 */
+	public long getNumberOfSlowConnections();
+	
 	/**
 	 * Returns the uptime of the server in seconds.
 	 * 
@@ -52,6 +74,125 @@ public interface ControllingMBean
 	 * 		Uptime in seconds.
 	 */
 	public long getUptime();
+	
+	/**
+	 * Returns the number of worker threads, i.e. the maximum number of connections served
+	 * at the same time. The adaptive concurrency limit can use fewer of them.
+	 * 
+	 * @return
+	 * 		Number of threads.
+	 */
+	public int getNumberOfThreads();
+	
+	/**
+	 * Resizes the thread pool without a restart. Connections being served are not
+	 * interrupted.
+	 * 
+	 * @param numberOfThreads
+	 * 		Number of threads (1 - 100).
+	 */
+	public void setNumberOfThreads(int numberOfThreads);
+	
+	/**
+	 * Returns the number of threads alive in the pool. After shrinking the pool this is
+	 * bigger than the number of threads until the extra threads have finished their
+	 * connections.
+	 * 
+	 * @return
+	 * 		Number of threads.
+	 */
+	public int getPoolSize();
+	
+	/**
+	 * Returns the number of threads serving a connection.
+	 * 
+	 * @return
+	 * 		Number of threads.
+	 */
+	public int getNumberOfBusyThreads();
+	
+	/**
+	 * Returns the share of the threads serving a connection.
+	 * 
+	 * @return
+	 * 		Percentage (0 - 100).
+	 */
+	public int getThreadUtilisation();
+	
+	/**
+	 * Returns the time to wait for the first request of a connection and for the rest of
+	 * a request once it has started.
+	 * 
+	 * @return
+	 * 		Timeout in milliseconds.
+	 */
+	public int getReadTimeout();
+	
+	/**
+	 * Sets the read timeout. The new timeout is used from the next request on.
+	 * 
+	 * @param readTimeout
+	 * 		Timeout in milliseconds.
+	 */
+	public void setReadTimeout(int readTimeout);
+	
+	/**
+	 * Returns the time a kept-alive connection can wait for the next request.
+	 * 
+	 * @return
+	 * 		Timeout in milliseconds.
+	 */
+	public int getIdleTimeout();
+	
+	/**
+	 * Sets the idle timeout. The new timeout is used from the next request on.
+	 * 
+	 * @param idleTimeout
+	 * 		Timeout in milliseconds.
+	 */
+	public void setIdleTimeout(int idleTimeout);
+	
+	/**
+	 * Returns the time a single write to a client can be blocked before the connection is
+	 * closed.
+	 * 
+	 * @return
+	 * 		Timeout in seconds. Zero means unlimited.
+	 */
+	public long getStallTimeout();
+	
+	/**
+	 * Sets the stall timeout.
+	 * 
+	 * @param stallTimeout
+	 * 		Timeout in seconds. Zero means unlimited.
+	 */
+	public void setStallTimeout(long stallTimeout);
+	
+	/**
+	 * Returns the minimum rate a client must read a response.
+	 * 
+	 * @return
+	 * 		Bytes per second. Zero means no limit.
+	 */
+	public long getMinRate();
+	
+	/**
+	 * Sets the minimum rate a client must read a response.
+	 * 
+	 * @param minRate
+	 * 		Bytes per second. Zero means no limit.
+	 */
+	public void setMinRate(long minRate);
+	
+	/**
+	 * Returns the maximum number of connections waiting to be accepted. This is set with
+	 * {@code fileweb.acceptBacklog} when the server is started.
+	 * 
+	 * @return
+	 * 		Number of connections.
+	 */
+	public int getAcceptBacklog();
 
 	/**
 	 * Stops the server.
@@ -72,4 +213,21 @@ public interface ControllingMBean
 	 * @see #getNumberOfTotalRequests()
 	 */
 	public void resetNumberOfRequests();
+	
+	/**
+	 * Resets the counters of reclaimed connections.
+	 * 
+	 * @see #getNumberOfStalledConnections()
+	 * @see #getNumberOfSlowConnections()
+	 */
+	public void resetReclaimedConnections();
+	
+	/**
+	 * Reloads the file name ending to MIME type mappings. In-flight requests are not
+	 * affected.
+	 * 
+	 * @return
+	 * 		Number of mapped endings.
+	 */
+	public int reloadMimeTypes();
 }
\ No newline at end of file
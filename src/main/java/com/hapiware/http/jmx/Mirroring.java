@@ -0,0 +1,88 @@
+package com.hapiware.http.jmx;
+
+import com.hapiware.http.MirrorCache;
+
+
+/**
+ * The implementation of the {@link MirroringMBean}.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see MirrorCache
+ */
+public class Mirroring
+	implements
+		MirroringMBean
+{
+	private final MirrorCache _mirrorCache;
+	
+	
+	public Mirroring(MirrorCache mirrorCache)
+	{
+		_mirrorCache = mirrorCache;
+	}
+	
+	public String getUpstream()
+	{
+		return _mirrorCache.getUpstream();
+	}
+	
+	public long getQuota()
+	{
+		return _mirrorCache.getQuota();
+	}
+	
+	public void setQuota(long quota)
+	{
+		_mirrorCache.setQuota(quota);
+	}
+	
+	public long getMaxAge()
+	{
+		return _mirrorCache.getMaxAge();
+	}
+	
+	public void setMaxAge(long maxAge)
+	{
+		_mirrorCache.setMaxAge(maxAge);
+	}
+	
+	public long getSize()
+	{
+		return _mirrorCache.getSize();
+	}
+	
+	public int getNumberOfFiles()
+	{
+		return _mirrorCache.getNumberOfFiles();
+	}
+	
+	public long getNumberOfHits()
+	{
+		return _mirrorCache.getNumberOfHits();
+	}
+	
+	public long getNumberOfMisses()
+	{
+		return _mirrorCache.getNumberOfMisses();
+	}
+	
+	public long getNumberOfRevalidations()
+	{
+		return _mirrorCache.getNumberOfRevalidations();
+	}
+	
+	public long getNumberOfStaleResponses()
+	{
+		return _mirrorCache.getNumberOfStaleResponses();
+	}
+	
+	public long getNumberOfEvictions()
+	{
+		return _mirrorCache.getNumberOfEvictions();
+	}
+	
+	public void resetCounters()
+	{
+		_mirrorCache.resetCounters();
+	}
+}
@@ -0,0 +1,127 @@
+package com.hapiware.http.jmx;
+
+
+/**
+ * An MBean to follow and control the mirror cache.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public interface MirroringMBean
+{
+	/**
+	 * Returns the base URL of the mirrored 'fileweb'.
+	 * 
+	 * @return
+	 * 		The upstream URL.
+	 */
+	public String getUpstream();
+	
+	/**
+	 * Returns the maximum size of the cached files.
+	 * 
+	 * @return
+	 * 		The quota in bytes.
+	 */
+	public long getQuota();
+	
+	/**
+	 * Sets the maximum size of the cached files. If the cache is bigger than the new quota
+	 * the least recently used files are removed.
+	 * 
+	 * @param quota
+	 * 		The quota in bytes.
+	 */
+	public void setQuota(long quota);
+	
+	/**
+	 * Returns the time a cached file is served before it is revalidated.
+	 * 
+	 * @return
+	 * 		Time in milliseconds.
+	 */
+	public long getMaxAge();
+	
+	/**
+	 * Sets the time a cached file is served before it is revalidated.
+	 * 
+	 * @param maxAge
+	 * 		Time in milliseconds.
+	 */
+	public void setMaxAge(long maxAge);
+	
+	/**
+	 * Returns the size of the cached files.
+	 * 
+	 * @return
+	 * 		Size in bytes.
+	 */
+	public long getSize();
+	
+	/**
+	 * Returns the number of cached files.
+	 * 
+	 * @return
+	 * 		Number of files.
+	 */
+	public int getNumberOfFiles();
+	
+	/**
+	 * Returns the number of files served from the cache without asking the upstream since
+	 * the last reset.
+	 * 
+	 * @return
+	 * 		Number of hits.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfHits();
+	
+	/**
+	 * Returns the number of files transferred from the upstream since the last reset.
+	 * 
+	 * @return
+	 * 		Number of misses.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfMisses();
+	
+	/**
+	 * Returns the number of cached files the upstream has confirmed unchanged since the last
+	 * reset.
+	 * 
+	 * @return
+	 * 		Number of revalidations.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfRevalidations();
+	
+	/**
+	 * Returns the number of times a cached file was served because the upstream could not
+	 * be reached since the last reset.
+	 * 
+	 * @return
+	 * 		Number of stale responses.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfStaleResponses();
+	
+	/**
+	 * Returns the number of files removed to keep the cache within the quota since the last
+	 * reset.
+	 * 
+	 * @return
+	 * 		Number of evictions.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfEvictions();
+	
+	/**
+	 * Resets the counters.
+	 */
+	public void resetCounters();
+}
@@ -0,0 +1,61 @@
+package com.hapiware.http.jmx;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.hapiware.http.FlightRecorder;
+
+
+/**
+ * The implementation of the {@link RecordingMBean}.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see FlightRecorder
+ */
+public class Recording
+	implements
+		RecordingMBean
+{
+	private final FlightRecorder _recorder;
+
+
+	public Recording(FlightRecorder recorder)
+	{
+		_recorder = recorder;
+	}
+
+	public boolean isRecording()
+	{
+		return _recorder.isRecording();
+	}
+
+	public void start()
+	{
+		_recorder.start();
+	}
+
+	public void stop()
+	{
+		_recorder.stop();
+	}
+
+	public void clear()
+	{
+		_recorder.clear();
+	}
+
+	public int getSize()
+	{
+		return _recorder.getSize();
+	}
+
+	public long getNumberOfEvents()
+	{
+		return _recorder.getNumberOfEvents();
+	}
+
+	public int dump(String file) throws IOException
+	{
+		return _recorder.dump(new File(file));
+	}
+}
@@ -0,0 +1,66 @@
+package com.hapiware.http.jmx;
+
+import java.io.IOException;
+
+
+/**
+ * An MBean to control the request event recorder.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public interface RecordingMBean
+{
+	/**
+	 * Returns {@code true} if events are being recorded.
+	 *
+	 * @return
+	 * 		{@code true} when recording.
+	 */
+	public boolean isRecording();
+
+	/**
+	 * Starts recording events.
+	 */
+	public void start();
+
+	/**
+	 * Stops recording events. The recorded events are kept.
+	 */
+	public void stop();
+
+	/**
+	 * Forgets the recorded events.
+	 */
+	public void clear();
+
+	/**
+	 * Returns the maximum number of events kept.
+	 *
+	 * @return
+	 * 		Number of events.
+	 */
+	public int getSize();
+
+	/**
+	 * Returns the number of events recorded since the server was started.
+	 *
+	 * @return
+	 * 		Number of events.
+	 */
+	public long getNumberOfEvents();
+
+	/**
+	 * Writes the recorded events to a file.
+	 *
+	 * @param file
+	 * 		A path of the file on the server.
+	 *
+	 * @return
+	 * 		The number of events written.
+	 *
+	 * @throws IOException
+	 * 		If the file cannot be written.
+	 */
+	public int dump(String file) throws IOException;
+}
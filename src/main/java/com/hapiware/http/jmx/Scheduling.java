@@ -0,0 +1,78 @@
+package com.hapiware.http.jmx;
+
+import com.hapiware.http.FairScheduler;
+
+
+/**
+ * The implementation of the {@link SchedulingMBean}.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see FairScheduler
+ */
+public class Scheduling
+	implements
+		SchedulingMBean
+{
+	private final FairScheduler _scheduler;
+	
+	
+	public Scheduling(FairScheduler scheduler)
+	{
+		_scheduler = scheduler;
+	}
+	
+	public int getMaxConnectionsPerClient()
+	{
+		return _scheduler.getMaxConnectionsPerClient();
+	}
+	
+	public void setMaxConnectionsPerClient(int maxConnectionsPerClient)
+	{
+		_scheduler.setMaxConnectionsPerClient(maxConnectionsPerClient);
+	}
+	
+	public int getMaxQueuedPerClient()
+	{
+		return _scheduler.getMaxQueuedPerClient();
+	}
+	
+	public void setMaxQueuedPerClient(int maxQueuedPerClient)
+	{
+		_scheduler.setMaxQueuedPerClient(maxQueuedPerClient);
+	}
+	
+	public long getMaxQueueWait()
+	{
+		return _scheduler.getMaxQueueWait();
+	}
+	
+	public void setMaxQueueWait(long maxQueueWait)
+	{
+		_scheduler.setMaxQueueWait(maxQueueWait);
+	}
+	
+	public int getNumberOfActiveConnections()
+	{
+		return _scheduler.getNumberOfRunning();
+	}
+	
+	public int getNumberOfQueuedConnections()
+	{
+		return _scheduler.getNumberOfQueued();
+	}
+	
+	public long getNumberOfRejectedConnections()
+	{
+		return _scheduler.getNumberOfRejected();
+	}
+	
+	public long getNumberOfExpiredConnections()
+	{
+		return _scheduler.getNumberOfExpired();
+	}
+	
+	public String[] getClientConnections()
+	{
+		return _scheduler.getClientConnections();
+	}
+}
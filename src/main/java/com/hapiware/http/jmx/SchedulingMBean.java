@@ -0,0 +1,104 @@
+package com.hapiware.http.jmx;
+
+
+/**
+ * An MBean to follow and control how connections of different clients are scheduled to
+ * the worker threads.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public interface SchedulingMBean
+{
+	/**
+	 * Returns the maximum number of connections a single client can have running at the same
+	 * time.
+	 * 
+	 * @return
+	 * 		Number of connections. Zero means unlimited.
+	 */
+	public int getMaxConnectionsPerClient();
+	
+	/**
+	 * Sets the maximum number of connections a single client can have running at the same
+	 * time.
+	 * 
+	 * @param maxConnectionsPerClient
+	 * 		Number of connections. Zero means unlimited.
+	 */
+	public void setMaxConnectionsPerClient(int maxConnectionsPerClient);
+	
+	/**
+	 * Returns the maximum number of connections a single client can have waiting for a worker.
+	 * 
+	 * @return
+	 * 		Number of connections. Zero means unlimited.
+	 */
+	public int getMaxQueuedPerClient();
+	
+	/**
+	 * Sets the maximum number of connections a single client can have waiting for a worker.
+	 * 
+	 * @param maxQueuedPerClient
+	 * 		Number of connections. Zero means unlimited.
+	 */
+	public void setMaxQueuedPerClient(int maxQueuedPerClient);
+	
+	/**
+	 * Returns the maximum time a connection can wait for a worker before it is closed.
+	 * 
+	 * @return
+	 * 		Milliseconds. Zero means unlimited.
+	 */
+	public long getMaxQueueWait();
+	
+	/**
+	 * Sets the maximum time a connection can wait for a worker before it is closed.
+	 * 
+	 * @param maxQueueWait
+	 * 		Milliseconds. Zero means unlimited.
+	 */
+	public void setMaxQueueWait(long maxQueueWait);
+	
+	/**
+	 * Returns the number of connections being handled by the workers.
+	 * 
+	 * @return
+	 * 		Number of connections.
+	 */
+	public int getNumberOfActiveConnections();
+	
+	/**
+	 * Returns the number of connections waiting for a worker.
+	 * 
+	 * @return
+	 * 		Number of connections.
+	 */
+	public int getNumberOfQueuedConnections();
+	
+	/**
+	 * Returns the number of connections rejected because a client had too many connections
+	 * waiting.
+	 * 
+	 * @return
+	 * 		Number of connections.
+	 */
+	public long getNumberOfRejectedConnections();
+	
+	/**
+	 * Returns the number of connections closed because they waited too long for a worker.
+	 * 
+	 * @return
+	 * 		Number of connections.
+	 */
+	public long getNumberOfExpiredConnections();
+	
+	/**
+	 * Returns the active and the queued connections of each client in the form
+	 * {@code ADDRESS: active=N, queued=M}.
+	 * 
+	 * @return
+	 * 		A line for each client.
+	 */
+	public String[] getClientConnections();
+}
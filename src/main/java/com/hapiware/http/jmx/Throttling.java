@@ -0,0 +1,63 @@
+package com.hapiware.http.jmx;
+
+import com.hapiware.http.Throttle;
+
+
+/**
+ * The implementation of the {@link ThrottlingMBean}.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see Throttle
+ */
+public class Throttling
+	implements
+		ThrottlingMBean
+{
+	private final Throttle _throttle;
+	
+	
+	public Throttling(Throttle throttle)
+	{
+		_throttle = throttle;
+	}
+	
+	public long getGlobalLimit()
+	{
+		return _throttle.getGlobalLimit();
+	}
+	
+	public void setGlobalLimit(long bytesPerSecond)
+	{
+		_throttle.setGlobalLimit(bytesPerSecond);
+	}
+	
+	public long getPerClientLimit()
+	{
+		return _throttle.getPerClientLimit();
+	}
+	
+	public void setPerClientLimit(long bytesPerSecond)
+	{
+		_throttle.setPerClientLimit(bytesPerSecond);
+	}
+	
+	public int getNumberOfTrackedClients()
+	{
+		return _throttle.getNumberOfTrackedClients();
+	}
+	
+	public long getWaitTime()
+	{
+		return _throttle.getWaitTime();
+	}
+	
+	public long getNumberOfWaits()
+	{
+		return _throttle.getNumberOfWaits();
+	}
+	
+	public void resetWaitTime()
+	{
+		_throttle.resetWaitTime();
+	}
+}
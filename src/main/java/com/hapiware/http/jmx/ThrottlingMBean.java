@@ -0,0 +1,77 @@
+package com.hapiware.http.jmx;
+
+
+/**
+ * An MBean to control bandwidth throttling at runtime. Limits are in bytes per second and
+ * zero means unlimited.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public interface ThrottlingMBean
+{
+	/**
+	 * Returns the global limit shared by all the clients.
+	 * 
+	 * @return
+	 * 		Bytes per second.
+	 */
+	public long getGlobalLimit();
+	
+	/**
+	 * Sets the global limit shared by all the clients.
+	 * 
+	 * @param bytesPerSecond
+	 * 		Bytes per second. Zero means unlimited.
+	 */
+	public void setGlobalLimit(long bytesPerSecond);
+	
+	/**
+	 * Returns the limit applied to each client IP separately.
+	 * 
+	 * @return
+	 * 		Bytes per second.
+	 */
+	public long getPerClientLimit();
+	
+	/**
+	 * Sets the limit applied to each client IP separately.
+	 * 
+	 * @param bytesPerSecond
+	 * 		Bytes per second. Zero means unlimited.
+	 */
+	public void setPerClientLimit(long bytesPerSecond);
+	
+	/**
+	 * Returns the number of client IPs currently having their own limit.
+	 * 
+	 * @return
+	 * 		Number of clients.
+	 */
+	public int getNumberOfTrackedClients();
+	
+	/**
+	 * Returns the total time request threads have waited for throttling since the last reset.
+	 * 
+	 * @return
+	 * 		Wait time in milliseconds.
+	 * 
+	 * @see #resetWaitTime()
+	 */
+	public long getWaitTime();
+	
+	/**
+	 * Returns the number of times a request thread had to wait since the last reset.
+	 * 
+	 * @return
+	 * 		Number of waits.
+	 * 
+	 * @see #resetWaitTime()
+	 */
+	public long getNumberOfWaits();
+	
+	/**
+	 * Resets the wait time and the number of waits.
+	 */
+	public void resetWaitTime();
+}
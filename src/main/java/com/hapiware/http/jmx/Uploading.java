@@ -0,0 +1,63 @@
+package com.hapiware.http.jmx;
+
+import com.hapiware.http.UploadSupport;
+
+
+/**
+ * The implementation of the {@link UploadingMBean}.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ * @see UploadSupport
+ */
+public class Uploading
+	implements
+		UploadingMBean
+{
+	private final UploadSupport _uploadSupport;
+	
+	
+	public Uploading(UploadSupport uploadSupport)
+	{
+		_uploadSupport = uploadSupport;
+	}
+	
+	public long getMaxSize()
+	{
+		return _uploadSupport.getMaxSize();
+	}
+	
+	public void setMaxSize(long maxSize)
+	{
+		_uploadSupport.setMaxSize(maxSize);
+	}
+	
+	public int getNumberOfActiveUploads()
+	{
+		return _uploadSupport.getNumberOfActiveUploads();
+	}
+	
+	public long getNumberOfUploads()
+	{
+		return _uploadSupport.getNumberOfUploads();
+	}
+	
+	public long getNumberOfFailedUploads()
+	{
+		return _uploadSupport.getNumberOfFailedUploads();
+	}
+	
+	public long getBytesReceived()
+	{
+		return _uploadSupport.getBytesReceived();
+	}
+	
+	public long getThroughput()
+	{
+		return _uploadSupport.getThroughput();
+	}
+	
+	public void resetCounters()
+	{
+		_uploadSupport.resetCounters();
+	}
+}
@@ -0,0 +1,81 @@
+package com.hapiware.http.jmx;
+
+
+/**
+ * An MBean to follow and control uploads.
+ * 
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public interface UploadingMBean
+{
+	/**
+	 * Returns the maximum size of an uploaded file.
+	 * 
+	 * @return
+	 * 		Maximum size in bytes. Zero means unlimited.
+	 */
+	public long getMaxSize();
+	
+	/**
+	 * Sets the maximum size of an uploaded file. Uploads already in progress are not affected.
+	 * 
+	 * @param maxSize
+	 * 		Maximum size in bytes. Zero means unlimited.
+	 */
+	public void setMaxSize(long maxSize);
+	
+	/**
+	 * Returns the number of uploads being received right now.
+	 * 
+	 * @return
+	 * 		Number of uploads in progress.
+	 */
+	public int getNumberOfActiveUploads();
+	
+	/**
+	 * Returns the number of files successfully uploaded since the last reset.
+	 * 
+	 * @return
+	 * 		Number of uploads.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfUploads();
+	
+	/**
+	 * Returns the number of failed (e.g. interrupted or too large) uploads since the last
+	 * reset.
+	 * 
+	 * @return
+	 * 		Number of failed uploads.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getNumberOfFailedUploads();
+	
+	/**
+	 * Returns the number of bytes received by uploads since the last reset.
+	 * 
+	 * @return
+	 * 		Number of bytes.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getBytesReceived();
+	
+	/**
+	 * Returns the average upload throughput since the last reset.
+	 * 
+	 * @return
+	 * 		Bytes per second.
+	 * 
+	 * @see #resetCounters()
+	 */
+	public long getThroughput();
+	
+	/**
+	 * Resets the upload counters.
+	 */
+	public void resetCounters();
+}
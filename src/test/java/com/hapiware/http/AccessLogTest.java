@@ -0,0 +1,156 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the log line format, the ring buffer and the rotation of the access log.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class AccessLogTest
+{
+	private final static long TIME = 1287654321000l;
+
+	private File _file;
+
+
+	@Before
+	public void createFile()
+		throws
+			IOException
+	{
+		_file = File.createTempFile("fileweb-access", ".log");
+	}
+
+	@After
+	public void deleteFiles()
+	{
+		for(int i = 0; i <= 3; i++)
+			new File(_file.getPath() + (i == 0 ? "" : "." + i)).delete();
+	}
+
+	@Test
+	public void linesAreInCombinedFormat()
+		throws
+			IOException
+	{
+		HttpRequest request =
+			new HttpRequest(
+				new ByteArrayInputStream(
+					(
+						"GET /a.txt HTTP/1.1\r\nReferer: http://x/\r\n"
+							+ "User-Agent: agent \"quoted\"\r\n\r\n"
+					).getBytes("ISO-8859-1")
+				)
+			);
+		AccessLog log = new AccessLog(_file, AccessLog.Format.COMBINED, 0, 0);
+		InetAddress client = InetAddress.getByName("10.0.0.1");
+		log.log(client, TIME, request, HttpStatusCode.SC200, 2326, 532000);
+		log.log(client, 0, null, null, 0, 1000);
+		log.close();
+
+		List<String> lines = readLines(_file);
+		assertEquals(2, lines.size());
+		String line = lines.get(0);
+		String date =
+			new SimpleDateFormat("dd/MMM/yyyy:HH:mm:ss Z", Locale.US).format(new Date(TIME));
+		assertTrue(line, line.startsWith("10.0.0.1 - - [" + date + "] "));
+		assertTrue(
+			line,
+			line.endsWith(
+				"] \"GET /a.txt HTTP/1.1\" 200 2326 \"http://x/\" \"agent \\\"quoted\\\"\" 532"
+			)
+		);
+		assertTrue(lines.get(1), lines.get(1).endsWith("] \"-\" - - \"-\" \"-\" 1"));
+	}
+
+	@Test
+	public void commonFormatHasNoRefererOrUserAgent()
+		throws
+			IOException
+	{
+		AccessLog log = new AccessLog(_file, AccessLog.Format.COMMON, 0, 0);
+		log.log(null, 0, null, HttpStatusCode.SC404, 10, 2000);
+		log.close();
+		List<String> lines = readLines(_file);
+		assertEquals(1, lines.size());
+		assertTrue(lines.get(0), lines.get(0).endsWith("] \"-\" 404 10 2"));
+	}
+
+	@Test
+	public void entriesAreWrittenInOrderOrCounted()
+		throws
+			IOException,
+			InterruptedException
+	{
+		AccessLog log = new AccessLog(_file, AccessLog.Format.COMMON, 0, 0);
+		// Lets the writer park, so the burst fills the buffer.
+		Thread.sleep(50);
+		int numberOfEntries = 20000;
+		for(int i = 0; i < numberOfEntries; i++)
+			log.log(null, 0, null, HttpStatusCode.SC200, 1, i * 1000l);
+		log.close();
+
+		List<String> lines = readLines(_file);
+		assertTrue(log.getNumberOfDropped() > 0);
+		assertEquals(numberOfEntries, lines.size() + log.getNumberOfDropped());
+		long previous = -1;
+		for(String line : lines) {
+			long duration = Long.parseLong(line.substring(line.lastIndexOf(' ') + 1));
+			assertTrue(duration > previous);
+			previous = duration;
+		}
+	}
+
+	@Test
+	public void logIsRotated()
+		throws
+			IOException
+	{
+		AccessLog log = new AccessLog(_file, AccessLog.Format.COMMON, 100, 2);
+		for(int i = 0; i < 10; i++)
+			log.log(null, 0, null, HttpStatusCode.SC200, 1, 0);
+		log.close();
+		assertTrue(new File(_file.getPath() + ".1").exists());
+		assertTrue(new File(_file.getPath() + ".2").exists());
+		assertTrue(!new File(_file.getPath() + ".3").exists());
+		assertTrue(readLines(_file).size() < 10);
+	}
+
+	private static List<String> readLines(File file)
+		throws
+			IOException
+	{
+		List<String> retVal = new ArrayList<String>();
+		BufferedReader reader =
+			new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while((line = reader.readLine()) != null)
+				retVal.add(line);
+		}
+		finally {
+			reader.close();
+		}
+		return retVal;
+	}
+}
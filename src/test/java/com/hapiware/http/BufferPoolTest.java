@@ -0,0 +1,123 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the size classes, recycling, the size limit and the leak detection of the buffer
+ * pool.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class BufferPoolTest
+{
+	private final static long MAX_SIZE = 1024 * 1024;
+
+
+	@Test
+	public void smallestBigEnoughClassIsUsed()
+	{
+		BufferPool pool = new BufferPool(MAX_SIZE, false);
+		assertEquals(BufferPool.SMALL_SIZE, pool.acquire(1).length);
+		assertEquals(BufferPool.SMALL_SIZE, pool.acquire(BufferPool.SMALL_SIZE).length);
+		assertEquals(BufferPool.MEDIUM_SIZE, pool.acquire(BufferPool.SMALL_SIZE + 1).length);
+		assertEquals(BufferPool.LARGE_SIZE, pool.acquire(BufferPool.LARGE_SIZE).length);
+		assertEquals(4, pool.getNumberOfAllocations());
+
+		// Bigger buffers are never pooled.
+		byte[] huge = pool.acquire(BufferPool.LARGE_SIZE + 1);
+		assertEquals(BufferPool.LARGE_SIZE + 1, huge.length);
+		assertEquals(1, pool.getNumberOfOverflows());
+		pool.release(huge);
+		assertEquals(0, pool.getIdleSize());
+	}
+
+	@Test
+	public void releasedBuffersAreReused()
+	{
+		BufferPool pool = new BufferPool(MAX_SIZE, false);
+		byte[] buffer = pool.acquire(100);
+		pool.release(buffer);
+		assertEquals(BufferPool.SMALL_SIZE, pool.getIdleSize());
+		assertTrue(pool.acquire(200) == buffer);
+		assertEquals(1, pool.getNumberOfOwnStripeHits());
+		assertEquals(0, pool.getIdleSize());
+		// Another size class does not get it.
+		pool.release(buffer);
+		assertTrue(pool.acquire(BufferPool.MEDIUM_SIZE) != buffer);
+		assertEquals(BufferPool.SMALL_SIZE + BufferPool.MEDIUM_SIZE, pool.getSize());
+		pool.release(null);
+	}
+
+	@Test
+	public void buffersReleasedByOtherThreadsAreFound()
+		throws
+			InterruptedException
+	{
+		final BufferPool pool = new BufferPool(MAX_SIZE, false);
+		final byte[][] buffers = new byte[1][];
+		Thread thread =
+			new Thread() {
+				public void run()
+				{
+					buffers[0] = pool.acquire(BufferPool.SMALL_SIZE);
+					pool.release(buffers[0]);
+				}
+			};
+		thread.start();
+		thread.join();
+		assertTrue(pool.acquire(BufferPool.SMALL_SIZE) == buffers[0]);
+		assertEquals(1, pool.getNumberOfOwnStripeHits() + pool.getNumberOfOtherStripeHits());
+		assertEquals(1, pool.getNumberOfAllocations());
+	}
+
+	@Test
+	public void buffersOverTheLimitAreNotPooled()
+	{
+		BufferPool pool = new BufferPool(BufferPool.SMALL_SIZE, false);
+		byte[] pooled = pool.acquire(1);
+		byte[] extra = pool.acquire(1);
+		assertEquals(BufferPool.SMALL_SIZE, extra.length);
+		assertEquals(1, pool.getNumberOfOverflows());
+		assertEquals(BufferPool.SMALL_SIZE, pool.getSize());
+
+		pool.release(extra);
+		pool.release(pooled);
+		assertEquals(BufferPool.SMALL_SIZE, pool.getIdleSize());
+		assertTrue(pool.acquire(1) == pooled);
+		assertEquals(1, pool.getNumberOfAllocations());
+	}
+
+	@Test
+	public void debugModeIgnoresDoubleReleases()
+	{
+		BufferPool pool = new BufferPool(MAX_SIZE, true);
+		byte[] buffer = pool.acquire(1);
+		assertEquals(1, pool.getNumberOfOutstandingBuffers());
+		pool.release(buffer);
+		pool.release(buffer);
+		assertEquals(0, pool.getNumberOfOutstandingBuffers());
+		assertTrue(pool.acquire(1) == buffer);
+		assertTrue(pool.acquire(1) != buffer);
+	}
+
+	@Test
+	public void leaksAreCountedAndForgotten()
+	{
+		BufferPool pool = new BufferPool(MAX_SIZE, true);
+		byte[] leaked = pool.acquire(1);
+		pool.release(pool.acquire(1));
+		pool.checkLeaks();
+		assertEquals(1, pool.getNumberOfLeaks());
+		assertEquals(0, pool.getNumberOfOutstandingBuffers());
+		assertEquals(BufferPool.SMALL_SIZE, pool.getSize());
+
+		// A late release of a forgotten buffer does not return it to the pool.
+		pool.release(leaked);
+		assertEquals(BufferPool.SMALL_SIZE, pool.getIdleSize());
+		assertTrue(pool.acquire(1) != leaked);
+	}
+}
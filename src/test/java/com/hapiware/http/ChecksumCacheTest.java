@@ -0,0 +1,225 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the CRC-32C implementation and calculating, caching and persisting checksums.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ChecksumCacheTest
+{
+	private final static long TIME = 1287654321000l;
+
+	private File _file;
+	private File _store;
+
+
+	@Before
+	public void createFiles()
+		throws
+			IOException
+	{
+		_file = File.createTempFile("fileweb-checksum", ".txt");
+		_store = File.createTempFile("fileweb-checksums", ".txt");
+		_store.delete();
+	}
+
+	@After
+	public void deleteFiles()
+	{
+		_file.delete();
+		_store.delete();
+		new File(_store.getPath() + ".tmp").delete();
+	}
+
+	@Test
+	public void crc32cMatchesTheCheckValue()
+		throws
+			IOException
+	{
+		byte[] bytes = "123456789".getBytes("US-ASCII");
+		Crc32c crc = new Crc32c();
+		crc.update(bytes, 0, bytes.length);
+		assertEquals(0xe3069283l, crc.getValue());
+
+		crc.reset();
+		assertEquals(0, crc.getValue());
+		for(byte b : bytes)
+			crc.update(b);
+		assertEquals(0xe3069283l, crc.getValue());
+
+		// Unaligned parts give the same value.
+		crc.reset();
+		crc.update(bytes, 0, 1);
+		crc.update(bytes, 1, 7);
+		crc.update(bytes, 8, 1);
+		assertEquals(0xe3069283l, crc.getValue());
+	}
+
+	@Test
+	public void algorithmsAreFoundByName()
+	{
+		assertEquals(ChecksumCache.Algorithm.SHA256, ChecksumCache.Algorithm.forName("SHA256"));
+		assertEquals(ChecksumCache.Algorithm.CRC32C, ChecksumCache.Algorithm.forName("crc32c"));
+		assertNull(ChecksumCache.Algorithm.forName("sha512"));
+		assertEquals(".md5", ChecksumCache.Algorithm.MD5.getSidecarEnding());
+		assertEquals("SHA1SUMS", ChecksumCache.Algorithm.SHA1.getSumsFileName());
+	}
+
+	@Test
+	public void checksumsAreCalculated()
+		throws
+			IOException
+	{
+		write("abc".getBytes("US-ASCII"));
+		ChecksumCache cache = new ChecksumCache(_store, 2, 10);
+		assertEquals(
+			"ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+			cache.getChecksum(_file, ChecksumCache.Algorithm.SHA256)
+		);
+		assertEquals(
+			"a9993e364706816aba3e25717850c26c9cd0d89d",
+			cache.getChecksum(_file, ChecksumCache.Algorithm.SHA1)
+		);
+		assertEquals(
+			"900150983cd24fb0d6963f7d28e17f72",
+			cache.getChecksum(_file, ChecksumCache.Algorithm.MD5)
+		);
+
+		write("123456789".getBytes("US-ASCII"));
+		assertEquals("e3069283", cache.getChecksum(_file, ChecksumCache.Algorithm.CRC32C));
+	}
+
+	@Test
+	public void mappedFilesGiveTheSameChecksums()
+		throws
+			IOException,
+			NoSuchAlgorithmException
+	{
+		byte[] bytes = new byte[2 * 1024 * 1024 + 17];
+		for(int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte)(i * 31 + (i >>> 11));
+		write(bytes);
+
+		Crc32c crc = new Crc32c();
+		crc.update(bytes, 0, bytes.length);
+		ChecksumCache cache = new ChecksumCache(_store, 1, 10);
+		assertEquals(
+			String.format("%08x", crc.getValue()),
+			cache.getChecksum(_file, ChecksumCache.Algorithm.CRC32C)
+		);
+		assertEquals(
+			toHex(MessageDigest.getInstance("SHA-256").digest(bytes)),
+			cache.getChecksum(_file, ChecksumCache.Algorithm.SHA256)
+		);
+	}
+
+	@Test
+	public void changedFilesAreCalculatedAgain()
+		throws
+			IOException
+	{
+		write("abc".getBytes("US-ASCII"));
+		ChecksumCache cache = new ChecksumCache(_store, 1, 10);
+		assertNull(cache.getKnownChecksum(_file, ChecksumCache.Algorithm.MD5));
+		cache.getChecksum(_file, ChecksumCache.Algorithm.MD5);
+		assertEquals(
+			"900150983cd24fb0d6963f7d28e17f72",
+			cache.getKnownChecksum(_file, ChecksumCache.Algorithm.MD5)
+		);
+		cache.getChecksum(_file, ChecksumCache.Algorithm.MD5);
+		assertEquals(1, cache.getNumberOfHits());
+		assertEquals(1, cache.getNumberOfMisses());
+
+		// Same size, but a different modification time.
+		write("abd".getBytes("US-ASCII"));
+		assertNull(cache.getKnownChecksum(_file, ChecksumCache.Algorithm.MD5));
+		assertTrue(
+			!"900150983cd24fb0d6963f7d28e17f72".equals(
+				cache.getChecksum(_file, ChecksumCache.Algorithm.MD5)
+			)
+		);
+		assertEquals(2, cache.getNumberOfMisses());
+		assertEquals(1, cache.getSize());
+	}
+
+	@Test
+	public void checksumsArePersisted()
+		throws
+			IOException
+	{
+		write("abc".getBytes("US-ASCII"));
+		ChecksumCache cache = new ChecksumCache(_store, 1, 10);
+		cache.getChecksum(_file, ChecksumCache.Algorithm.SHA256);
+		assertTrue(_store.length() > 0);
+
+		ChecksumCache reloaded = new ChecksumCache(_store, 1, 10);
+		assertEquals(1, reloaded.getSize());
+		assertEquals(
+			"ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+			reloaded.getKnownChecksum(_file, ChecksumCache.Algorithm.SHA256)
+		);
+		assertNull(reloaded.getKnownChecksum(_file, ChecksumCache.Algorithm.MD5));
+	}
+
+	@Test
+	public void oldestEntriesAreEvicted()
+		throws
+			IOException
+	{
+		write("abc".getBytes("US-ASCII"));
+		ChecksumCache cache = new ChecksumCache(_store, 1, 2);
+		cache.getChecksum(_file, ChecksumCache.Algorithm.SHA256);
+		cache.getChecksum(_file, ChecksumCache.Algorithm.SHA1);
+		cache.getChecksum(_file, ChecksumCache.Algorithm.MD5);
+		assertEquals(2, cache.getSize());
+		assertNull(cache.getKnownChecksum(_file, ChecksumCache.Algorithm.SHA256));
+
+		ChecksumCache reloaded = new ChecksumCache(_store, 1, 2);
+		assertEquals(2, reloaded.getSize());
+		assertNull(reloaded.getKnownChecksum(_file, ChecksumCache.Algorithm.SHA256));
+		assertEquals(
+			"900150983cd24fb0d6963f7d28e17f72",
+			reloaded.getKnownChecksum(_file, ChecksumCache.Algorithm.MD5)
+		);
+	}
+
+	private void write(byte[] bytes)
+		throws
+			IOException
+	{
+		FileOutputStream os = new FileOutputStream(_file);
+		try {
+			os.write(bytes);
+		}
+		finally {
+			os.close();
+		}
+		// Makes every version of the file distinct even on coarse file systems.
+		_file.setLastModified(
+			TIME + (bytes.length * 256l + (bytes[bytes.length - 1] & 0xff)) * 1000
+		);
+	}
+
+	private static String toHex(byte[] bytes)
+	{
+		StringBuilder sb = new StringBuilder();
+		for(byte b : bytes)
+			sb.append(String.format("%02x", b & 0xff));
+		return sb.toString();
+	}
+}
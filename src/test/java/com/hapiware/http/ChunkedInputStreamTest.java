@@ -0,0 +1,88 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests decoding chunked message bodies and rejecting invalid ones.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ChunkedInputStreamTest
+{
+	@Test
+	public void chunksAreDecoded()
+		throws
+			IOException
+	{
+		InputStream stream =
+			stream("5;name=value\r\nHello\r\n7\r\n, world\r\n0\r\nX-Trailer: 1\r\n\r\nNEXT");
+		assertEquals("Hello, world", readAll(new ChunkedInputStream(stream)));
+		// The next request stays in the stream.
+		assertEquals('N', stream.read());
+	}
+
+	@Test
+	public void invalidChunkSizeIsRejected()
+	{
+		assertRejected("x\r\nHello\r\n0\r\n\r\n", IOException.class);
+		assertRejected("-5\r\nHello\r\n0\r\n\r\n", IOException.class);
+	}
+
+	@Test
+	public void truncatedBodyIsRejected()
+	{
+		assertRejected("a\r\nHello", EOFException.class);
+		assertRejected("5\r\nHello\r\n", EOFException.class);
+	}
+
+	@Test
+	public void trailerIsLimited()
+	{
+		StringBuilder body = new StringBuilder("0\r\n");
+		for(int i = 0; i <= HeaderLimit.MAX_NUMBER_OF_LINES; i++)
+			body.append("X-Trailer: " + i + "\r\n");
+		body.append("\r\n");
+		assertRejected(body.toString(), HeaderLimit.ExceededException.class);
+	}
+
+	private static void assertRejected(String body, Class<? extends IOException> expected)
+	{
+		try {
+			readAll(new ChunkedInputStream(stream(body)));
+			fail("An invalid body was accepted: " + body);
+		}
+		catch(IOException e) {
+			if(!expected.isInstance(e))
+				fail(e + " was thrown instead of " + expected.getName() + ".");
+		}
+	}
+
+	private static String readAll(InputStream is)
+		throws
+			IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[3];
+		int n;
+		while((n = is.read(buffer)) != -1)
+			bos.write(buffer, 0, n);
+		return bos.toString("ISO-8859-1");
+	}
+
+	private static InputStream stream(String content)
+		throws
+			IOException
+	{
+		return new ByteArrayInputStream(content.getBytes("ISO-8859-1"));
+	}
+}
@@ -0,0 +1,140 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the limit is cut by the latency and raised only when the workers are the
+ * bottleneck, not when a client waits for its own connections.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ConcurrencyLimiterTest
+{
+	private final static int MAX_LIMIT = 8;
+
+	private final LinkedList<Runnable> _running = new LinkedList<Runnable>();
+	private FairScheduler _scheduler;
+	private ConcurrencyLimiter _limiter;
+
+
+	@Before
+	public void createLimiter()
+	{
+		Executor executor =
+			new Executor() {
+				public void execute(Runnable command)
+				{
+					_running.addLast(command);
+				}
+			};
+		// A client can have only one connection running at a time.
+		_scheduler = new FairScheduler(executor, MAX_LIMIT, 1, 0, 0);
+		_limiter = new ConcurrencyLimiter(_scheduler, MAX_LIMIT, 1, true);
+	}
+
+	@Test
+	public void latencyCutsTheLimit()
+	{
+		cutLimit();
+		assertEquals(MAX_LIMIT / 2, _limiter.getLimit());
+		assertEquals(MAX_LIMIT / 2, _scheduler.getConcurrency());
+		assertEquals(1, _limiter.getNumberOfDecreases());
+	}
+
+	@Test
+	public void waitingForOwnConnectionsDoesNotRaiseTheLimit()
+		throws
+			IOException,
+			InterruptedException
+	{
+		cutLimit();
+		Socket socket = socket(1);
+		for(int i = 0; i < 3; i++)
+			assertTrue(_scheduler.submit(socket, task()));
+		assertEquals(1, _scheduler.getNumberOfRunning());
+		assertEquals(2, _scheduler.getNumberOfQueued());
+		_limiter.adjust();
+		assertEquals(MAX_LIMIT / 2, _limiter.getLimit());
+
+		// The queued connections have waited long but not for a worker.
+		Thread.sleep(20);
+		_running.removeFirst().run();
+		_running.removeFirst().run();
+		_limiter.adjust();
+		assertTrue(_limiter.getQueueWait() < TimeUnit.MILLISECONDS.toMicros(5));
+		assertEquals(MAX_LIMIT / 2, _limiter.getLimit());
+		assertEquals(0, _limiter.getNumberOfIncreases());
+	}
+
+	@Test
+	public void waitingForWorkersRaisesTheLimit()
+		throws
+			IOException
+	{
+		cutLimit();
+		for(int i = 0; i <= MAX_LIMIT / 2; i++)
+			assertTrue(_scheduler.submit(socket(i + 1), task()));
+		assertEquals(MAX_LIMIT / 2, _scheduler.getNumberOfRunning());
+		assertEquals(1, _scheduler.getNumberOfQueued());
+		_limiter.adjust();
+		// The limit grows by its square root.
+		assertEquals(MAX_LIMIT / 2 + 2, _limiter.getLimit());
+		assertEquals(MAX_LIMIT / 2 + 2, _scheduler.getConcurrency());
+		assertEquals(MAX_LIMIT / 2 + 1, _scheduler.getNumberOfRunning());
+		assertEquals(1, _limiter.getNumberOfIncreases());
+	}
+
+	private void cutLimit()
+	{
+		// The first samples make the baseline and ten times slower ones halve the limit.
+		synchronized(_limiter) {
+			record(TimeUnit.MILLISECONDS.toNanos(1));
+			_limiter.adjust();
+			record(TimeUnit.MILLISECONDS.toNanos(10));
+			_limiter.adjust();
+		}
+	}
+
+	private void record(long latencyNs)
+	{
+		for(int i = 0; i < 5; i++)
+			_limiter.recordRequest(latencyNs, 100);
+	}
+
+	private static Runnable task()
+	{
+		return
+			new Runnable() {
+				public void run()
+				{
+					// Does nothing.
+				}
+			};
+	}
+
+	private static Socket socket(int client)
+		throws
+			IOException
+	{
+		final InetAddress address = InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte)client });
+		return
+			new Socket() {
+				public InetAddress getInetAddress()
+				{
+					return address;
+				}
+			};
+	}
+}
@@ -0,0 +1,217 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests detecting changes, the cursors of the watchers and the resync signal.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class DirectoryWatcherTest
+{
+	private final static long INTERVAL_MS = 20;
+	private final static long TIMEOUT_MS = 5000;
+
+	private File _directory;
+	private DirectoryWatcher _watcher;
+	private final List<DirectoryWatcher.Subscription> _subscriptions =
+		new ArrayList<DirectoryWatcher.Subscription>();
+
+
+	@Before
+	public void createDirectory()
+		throws
+			IOException
+	{
+		_directory = File.createTempFile("fileweb-watch", "");
+		_directory.delete();
+		_directory.mkdir();
+		_watcher = new DirectoryWatcher(INTERVAL_MS, 4);
+	}
+
+	@After
+	public void deleteDirectory()
+	{
+		for(DirectoryWatcher.Subscription subscription : _subscriptions)
+			subscription.close();
+		File[] files = _directory.listFiles();
+		if(files != null) {
+			for(File f : files)
+				f.delete();
+		}
+		_directory.delete();
+	}
+
+	@Test
+	public void changesAreReportedInOrder()
+		throws
+			IOException,
+			InterruptedException
+	{
+		DirectoryWatcher.Subscription subscription = watch(-1);
+		long first = subscription.getSequence();
+
+		write("a.txt", "abc");
+		List<DirectoryWatcher.Event> events = next(subscription);
+		assertEquals(1, events.size());
+		assertEvent(first + 1, DirectoryWatcher.EventType.CREATE, "a.txt", events.get(0));
+		assertEquals(first + 1, subscription.getSequence());
+
+		write("a.txt", "abcdef");
+		events = next(subscription);
+		assertEquals(1, events.size());
+		assertEvent(first + 2, DirectoryWatcher.EventType.MODIFY, "a.txt", events.get(0));
+
+		assertTrue(new File(_directory, "a.txt").delete());
+		events = next(subscription);
+		assertEquals(1, events.size());
+		assertEvent(first + 3, DirectoryWatcher.EventType.DELETE, "a.txt", events.get(0));
+	}
+
+	@Test
+	public void directoriesAreFlaggedAndUploadsInProgressSkipped()
+		throws
+			IOException,
+			InterruptedException
+	{
+		DirectoryWatcher.Subscription subscription = watch(-1);
+		FileOutputStream os = new FileOutputStream(new File(_directory, ".fileweb-upload-123"));
+		os.close();
+		assertTrue(new File(_directory, "sub").mkdir());
+		List<DirectoryWatcher.Event> events = next(subscription);
+		assertEquals(1, events.size());
+		assertEquals("sub", events.get(0).getName());
+		assertTrue(events.get(0).isDirectory());
+	}
+
+	@Test
+	public void nothingHappensBeforeTimeout()
+		throws
+			IOException,
+			InterruptedException
+	{
+		DirectoryWatcher.Subscription subscription = watch(-1);
+		long startMs = System.currentTimeMillis();
+		assertEquals(0, subscription.next(100).size());
+		assertTrue(System.currentTimeMillis() - startMs >= 100);
+	}
+
+	@Test
+	public void watchersShareTheDirectoryAndContinueFromTheirCursor()
+		throws
+			IOException,
+			InterruptedException
+	{
+		DirectoryWatcher.Subscription first = watch(-1);
+		long cursor = first.getSequence();
+		write("a.txt", "abc");
+		assertEquals(1, next(first).size());
+
+		// A client coming back with its old cursor gets the events it missed.
+		DirectoryWatcher.Subscription second = watch(cursor);
+		assertEquals(1, _watcher.getNumberOfWatchedDirectories());
+		List<DirectoryWatcher.Event> events = second.next(0);
+		assertEquals(1, events.size());
+		assertEquals("a.txt", events.get(0).getName());
+	}
+
+	@Test
+	public void lostEventsGiveResync()
+		throws
+			IOException,
+			InterruptedException
+	{
+		DirectoryWatcher.Subscription subscription = watch(-1);
+		long first = subscription.getSequence();
+		// More changes than the ring holds.
+		for(int i = 0; i < 6; i++)
+			write(i + ".txt", "abc");
+		DirectoryWatcher.Subscription other = watch(first);
+		int numberOfEvents = 0;
+		while(numberOfEvents < 6) {
+			List<DirectoryWatcher.Event> events = other.next(TIMEOUT_MS);
+			if(events == null)
+				numberOfEvents = (int)(other.getSequence() - first);
+			else {
+				assertTrue(events.size() > 0);
+				numberOfEvents += events.size();
+			}
+		}
+
+		assertNull(subscription.next(0));
+		// The subscription continues from the latest event.
+		assertEquals(first + 6, subscription.getSequence());
+		assertEquals(0, subscription.next(0).size());
+	}
+
+	@Test
+	public void cursorOfAnotherRegistrationGivesResync()
+		throws
+			IOException,
+			InterruptedException
+	{
+		assertNull(watch(5).next(0));
+	}
+
+	private DirectoryWatcher.Subscription watch(long since)
+		throws
+			IOException
+	{
+		DirectoryWatcher.Subscription subscription = _watcher.watch(_directory, since);
+		_subscriptions.add(subscription);
+		return subscription;
+	}
+
+	/**
+	 * Writes a file like an upload does, so that a poll never sees it half written.
+	 */
+	private void write(String name, String content)
+		throws
+			IOException
+	{
+		File temp = new File(_directory, ".fileweb-upload-" + name);
+		FileOutputStream os = new FileOutputStream(temp);
+		try {
+			os.write(content.getBytes("ISO-8859-1"));
+		}
+		finally {
+			os.close();
+		}
+		assertTrue(temp.renameTo(new File(_directory, name)));
+	}
+
+	private static List<DirectoryWatcher.Event> next(DirectoryWatcher.Subscription subscription)
+		throws
+			InterruptedException
+	{
+		List<DirectoryWatcher.Event> events = subscription.next(TIMEOUT_MS);
+		assertTrue(events != null && events.size() > 0);
+		return events;
+	}
+
+	private static void assertEvent(
+		long sequence,
+		DirectoryWatcher.EventType type,
+		String name,
+		DirectoryWatcher.Event event
+	)
+	{
+		assertEquals(sequence, event.getSequence());
+		assertEquals(type, event.getType());
+		assertEquals(name, event.getName());
+		assertTrue(!event.isDirectory());
+	}
+}
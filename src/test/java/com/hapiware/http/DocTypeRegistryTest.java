@@ -0,0 +1,97 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the built-in mappings and reloading an external mapping file.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class DocTypeRegistryTest
+{
+	private File _file;
+
+
+	@Before
+	public void createFile()
+		throws
+			IOException
+	{
+		_file = File.createTempFile("fileweb-mime", ".conf");
+	}
+
+	@After
+	public void deleteFile()
+	{
+		System.clearProperty("fileweb.mimeTypes");
+		DocTypeRegistry.reload();
+		_file.delete();
+	}
+
+	@Test
+	public void builtInMappingsAreFound()
+	{
+		assertMapping("jar", "application/octet-stream", "a.jar");
+		assertMapping("html", "text/html", "index.html");
+		assertMapping("text", "text/plain", "readme.txt");
+		assertNull(DocTypeRegistry.lookup("no-ending"));
+	}
+
+	@Test
+	public void externalMappingsOverrideAndLongestEndingWins()
+		throws
+			IOException
+	{
+		write(
+			"# Comment\n"
+				+ "\n"
+				+ ".jar\tapplication/java-archive\tjar\n"
+				+ ".gz application/gzip\n"
+				+ ".TAR.GZ  application/x-gtar  archive\n"
+				+ ".invalid line with too many fields\n"
+		);
+		System.setProperty("fileweb.mimeTypes", _file.getPath());
+		DocTypeRegistry.reload();
+		assertMapping("jar", "application/java-archive", "a.jar");
+		assertMapping("unknown", "application/gzip", "a.gz");
+		assertMapping("archive", "application/x-gtar", "a.tar.gz");
+		assertNull(DocTypeRegistry.lookup("a.invalid"));
+		// The built-in mappings stay.
+		assertMapping("html", "text/html", "index.html");
+
+		System.clearProperty("fileweb.mimeTypes");
+		DocTypeRegistry.reload();
+		assertMapping("jar", "application/octet-stream", "a.jar");
+		assertNull(DocTypeRegistry.lookup("a.gz"));
+	}
+
+	private static void assertMapping(String documentClass, String mimeType, String fileName)
+	{
+		DocTypeRegistry.Mapping mapping = DocTypeRegistry.lookup(fileName);
+		assertEquals(documentClass, mapping.getDocumentClass());
+		assertEquals(mimeType, mapping.getMimeType());
+	}
+
+	private void write(String content)
+		throws
+			IOException
+	{
+		FileOutputStream os = new FileOutputStream(_file);
+		try {
+			os.write(content.getBytes("UTF-8"));
+		}
+		finally {
+			os.close();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the per client limits and the round-robin order of the scheduler.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class FairSchedulerTest
+{
+	private final LinkedList<Runnable> _running = new LinkedList<Runnable>();
+	private final List<String> _started = new ArrayList<String>();
+	private FairScheduler _scheduler;
+
+
+	@Before
+	public void createScheduler()
+	{
+		Executor executor =
+			new Executor() {
+				public void execute(Runnable command)
+				{
+					_running.addLast(command);
+				}
+			};
+		// Two workers, one running and two queued connections per client.
+		_scheduler = new FairScheduler(executor, 2, 1, 2, 0);
+	}
+
+	@Test
+	public void clientsTakeTurns()
+		throws
+			IOException
+	{
+		Socket greedy = socket(1);
+		for(int i = 0; i < 3; i++)
+			assertTrue(_scheduler.submit(greedy, task("greedy-" + i)));
+		assertTrue(_scheduler.submit(socket(2), task("other")));
+		assertEquals(2, _scheduler.getNumberOfRunning());
+		assertEquals(2, _scheduler.getNumberOfQueued());
+
+		// The greedy client has only one connection running at a time.
+		runNext();
+		runNext();
+		runNext();
+		runNext();
+		assertEquals("[greedy-0, other, greedy-1, greedy-2]", _started.toString());
+		assertEquals(0, _scheduler.getNumberOfRunning());
+		assertEquals(0, _scheduler.getNumberOfClients());
+	}
+
+	@Test
+	public void queueOfClientIsLimited()
+		throws
+			IOException
+	{
+		Socket client = socket(1);
+		for(int i = 0; i < 3; i++)
+			assertTrue(_scheduler.submit(client, task("" + i)));
+		assertTrue(!_scheduler.submit(client, task("rejected")));
+		assertEquals(1, _scheduler.getNumberOfRejected());
+		// Another client still gets a worker.
+		assertTrue(_scheduler.submit(socket(2), task("other")));
+		assertEquals(2, _scheduler.getNumberOfRunning());
+	}
+
+	@Test
+	public void waitingConnectionsAreReported()
+		throws
+			IOException
+	{
+		InetAddress first = socket(1).getInetAddress();
+		assertTrue(_scheduler.submit(socket(1), task("first")));
+		assertTrue(!_scheduler.hasWaitingConnections(first));
+		// A connection of the same client waits for the first one.
+		assertTrue(_scheduler.submit(socket(1), task("second")));
+		assertTrue(_scheduler.hasWaitingConnections(first));
+		assertTrue(!_scheduler.hasWaitingConnections(socket(2).getInetAddress()));
+
+		// All the workers are taken while another client waits.
+		assertTrue(_scheduler.submit(socket(2), task("other")));
+		assertTrue(_scheduler.submit(socket(3), task("third")));
+		assertTrue(_scheduler.hasWaitingConnections(socket(2).getInetAddress()));
+	}
+
+	@Test
+	public void raisedLimitsDispatchWaitingConnections()
+		throws
+			IOException
+	{
+		Socket client = socket(1);
+		for(int i = 0; i < 3; i++)
+			assertTrue(_scheduler.submit(client, task("" + i)));
+		assertEquals(1, _scheduler.getNumberOfRunning());
+		_scheduler.setMaxConnectionsPerClient(0);
+		assertEquals(2, _scheduler.getNumberOfRunning());
+		_scheduler.setConcurrency(3);
+		assertEquals(3, _scheduler.getNumberOfRunning());
+		assertEquals(0, _scheduler.getNumberOfQueued());
+	}
+
+	private void runNext()
+	{
+		_running.removeFirst().run();
+	}
+
+	private Runnable task(final String name)
+	{
+		return
+			new Runnable() {
+				public void run()
+				{
+					_started.add(name);
+				}
+			};
+	}
+
+	private static Socket socket(int client)
+		throws
+			IOException
+	{
+		final InetAddress address = InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte)client });
+		return
+			new Socket() {
+				public InetAddress getInetAddress()
+				{
+					return address;
+				}
+			};
+	}
+}
@@ -0,0 +1,155 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests delivering appended bytes, truncation and skipping a follower which is too far
+ * behind.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class FileFollowerTest
+{
+	private final static long INTERVAL_MS = 20;
+	private final static long TIMEOUT_MS = 5000;
+
+	private File _file;
+	private FileFollower _follower;
+
+
+	@Before
+	public void createFile()
+		throws
+			IOException
+	{
+		_file = File.createTempFile("fileweb-follow", ".log");
+		append("first line\n".getBytes("ISO-8859-1"));
+		_follower = new FileFollower(INTERVAL_MS);
+	}
+
+	@After
+	public void deleteFile()
+	{
+		_file.delete();
+	}
+
+	@Test
+	public void appendedBytesAreDelivered()
+		throws
+			IOException,
+			InterruptedException
+	{
+		FileFollower.Subscription subscription = _follower.follow(_file);
+		try {
+			assertEquals(_file.length(), subscription.getStartPosition());
+			append("second line\n".getBytes("ISO-8859-1"));
+			FileFollower.Chunk chunk = subscription.next(TIMEOUT_MS);
+			assertEquals(11, chunk.getPosition());
+			assertEquals("second line\n", new String(chunk.getData(), "ISO-8859-1"));
+		}
+		finally {
+			subscription.close();
+		}
+	}
+
+	@Test
+	public void truncationIsPublished()
+		throws
+			IOException,
+			InterruptedException
+	{
+		FileFollower.Subscription subscription = _follower.follow(_file);
+		try {
+			RandomAccessFile file = new RandomAccessFile(_file, "rw");
+			try {
+				file.setLength(0);
+			}
+			finally {
+				file.close();
+			}
+			assertTrue(subscription.next(TIMEOUT_MS).isTruncated());
+			append("new\n".getBytes("ISO-8859-1"));
+			FileFollower.Chunk chunk = subscription.next(TIMEOUT_MS);
+			assertEquals(0, chunk.getPosition());
+			assertEquals("new\n", new String(chunk.getData(), "ISO-8859-1"));
+		}
+		finally {
+			subscription.close();
+		}
+	}
+
+	@Test
+	public void laggingFollowerSkipsToNewestData()
+		throws
+			IOException,
+			InterruptedException
+	{
+		FileFollower.Subscription slow = _follower.follow(_file);
+		FileFollower.Subscription fast = _follower.follow(_file);
+		try {
+			long start = _file.length();
+			int length = 5 * 1024 * 1024;
+
+			// The fast follower reads everything while the slow one waits.
+			append(new byte[3 * 1024 * 1024]);
+			long read = 0;
+			while(read < 3 * 1024 * 1024)
+				read += next(fast).getData().length;
+			append(new byte[length - 3 * 1024 * 1024]);
+			while(read < length)
+				read += next(fast).getData().length;
+			assertEquals(length, read);
+
+			FileFollower.Chunk gap = slow.next(TIMEOUT_MS);
+			assertTrue(gap.isGap());
+			assertTrue(gap.getSkipped() > length - 4 * 1024 * 1024);
+			assertEquals(start + gap.getSkipped(), gap.getPosition());
+
+			// The rest comes after the gap.
+			read = gap.getSkipped();
+			FileFollower.Chunk chunk;
+			while((chunk = slow.next(INTERVAL_MS * 5)) != null) {
+				assertEquals(start + read, chunk.getPosition());
+				read += chunk.getData().length;
+			}
+			assertEquals(length, read);
+		}
+		finally {
+			slow.close();
+			fast.close();
+		}
+	}
+
+	private static FileFollower.Chunk next(FileFollower.Subscription subscription)
+		throws
+			InterruptedException
+	{
+		FileFollower.Chunk chunk = subscription.next(TIMEOUT_MS);
+		assertTrue(chunk != null && !chunk.isGap());
+		return chunk;
+	}
+
+	private void append(byte[] data)
+		throws
+			IOException
+	{
+		FileOutputStream os = new FileOutputStream(_file, true);
+		try {
+			os.write(data);
+		}
+		finally {
+			os.close();
+		}
+	}
+}
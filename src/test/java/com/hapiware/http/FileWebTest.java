@@ -0,0 +1,589 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Runs the server in the current directory and tests the HTTP/1.1 framing of persistent
+ * connections, sending a file over TLS and multiplexing HTTP/2 streams. The served file is
+ * {@code pom.xml} of the project.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class FileWebTest
+{
+	private final static String FILE = "pom.xml";
+	private final static String KEYSTORE_PASSWORD = "secret";
+	private final static int START_TIMEOUT_MS = 10000;
+
+	private static FileWeb _plainServer;
+	private static int _plainPort;
+	private static FileWeb _tlsServer;
+	private static int _tlsPort;
+	private static File _keystore;
+	private static byte[] _content;
+
+
+	@BeforeClass
+	public static void startServers()
+		throws
+			Exception
+	{
+		_content = readFile(new File(FILE));
+
+		_plainPort = freePort();
+		_plainServer = start(_plainPort, null);
+
+		_keystore = File.createTempFile("fileweb-test", ".p12");
+		_keystore.delete();
+		createKeystore(_keystore);
+		TlsSupport tlsSupport =
+			new TlsSupport(
+				_keystore.getPath(),
+				"PKCS12",
+				KEYSTORE_PASSWORD.toCharArray(),
+				KEYSTORE_PASSWORD.toCharArray(),
+				100,
+				60
+			);
+		_tlsPort = freePort();
+		_tlsServer = start(_tlsPort, tlsSupport);
+	}
+
+	@AfterClass
+	public static void stopServers()
+	{
+		if(_plainServer != null)
+			_plainServer.stop();
+		if(_tlsServer != null)
+			_tlsServer.stop();
+		if(_keystore != null)
+			_keystore.delete();
+	}
+
+	@Test
+	public void twoRequestsOnePersistentConnection()
+		throws
+			IOException
+	{
+		Socket socket = new Socket("127.0.0.1", _plainPort);
+		try {
+			socket.setSoTimeout(START_TIMEOUT_MS);
+			OutputStream os = socket.getOutputStream();
+			InputStream is = socket.getInputStream();
+
+			os.write(("GET /" + FILE + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes("ISO-8859-1"));
+			os.flush();
+			Response first = Response.read(is);
+			assertEquals(200, first.statusCode);
+			assertTrue(Arrays.equals(_content, first.body));
+
+			// The same connection must be at the start of the next response.
+			os.write(
+				(
+					"GET /" + FILE + " HTTP/1.1\r\nHost: localhost\r\n"
+						+ "Range: bytes=5-19,0-9\r\nConnection: close\r\n\r\n"
+				).getBytes("ISO-8859-1")
+			);
+			os.flush();
+			Response second = Response.read(is);
+			assertEquals(206, second.statusCode);
+			assertEquals("bytes 0-19/" + _content.length, second.headerFields.get("content-range"));
+			byte[] expected = new byte[20];
+			System.arraycopy(_content, 0, expected, 0, expected.length);
+			assertTrue(Arrays.equals(expected, second.body));
+			assertEquals(-1, is.read());
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void linePagesAreChecked()
+		throws
+			IOException
+	{
+		assertEquals(400, get("/" + FILE + "?op=view&from=0&lines=1").statusCode);
+		assertEquals(400, get("/" + FILE + "?op=view&from=" + Long.MAX_VALUE + "&lines=1").statusCode);
+		assertEquals(400, get("/" + FILE + "?op=view&from=1&lines=-1").statusCode);
+
+		Response response = get("/" + FILE + "?op=view&from=1&lines=2");
+		assertEquals(200, response.statusCode);
+		String content = new String(_content, "ISO-8859-1");
+		assertEquals(
+			content.substring(0, content.indexOf('\n', content.indexOf('\n') + 1) + 1),
+			new String(response.body, "ISO-8859-1")
+		);
+	}
+
+	@Test
+	public void fileIsSentOverTls()
+		throws
+			IOException,
+			GeneralSecurityException
+	{
+		SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(null, new TrustManager[] { new TrustAll() }, null);
+		SSLSocket socket =
+			(SSLSocket)sslContext.getSocketFactory().createSocket("127.0.0.1", _tlsPort);
+		try {
+			socket.setSoTimeout(START_TIMEOUT_MS);
+			socket.startHandshake();
+			assertTrue(socket.getSession().isValid());
+
+			OutputStream os = socket.getOutputStream();
+			os.write(
+				("GET /" + FILE + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+					.getBytes("ISO-8859-1")
+			);
+			os.flush();
+			Response response = Response.read(socket.getInputStream());
+			assertEquals(200, response.statusCode);
+			assertTrue(Arrays.equals(_content, response.body));
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void http2StreamsAreNotBlockedByStalledStream()
+		throws
+			IOException
+	{
+		Socket socket = new Socket("127.0.0.1", _plainPort);
+		try {
+			socket.setSoTimeout(START_TIMEOUT_MS);
+			Http2Client client = new Http2Client(socket);
+			// A stream window smaller than the file stalls the response.
+			client.writeSettings(Http2Client.SETTINGS_INITIAL_WINDOW_SIZE, 1000);
+			client.writeRequest(1, "/" + FILE);
+			client.writeRequest(3, "/" + FILE);
+			client.readUntilStalled(1, 1000);
+
+			// Only the second stream gets more window, so it must end while the first
+			// stream is still waiting.
+			client.writeWindowUpdate(3, _content.length);
+			assertEquals(3, client.readUntilEnded());
+			assertEquals("200", client.getStatus(3));
+			assertTrue(Arrays.equals(_content, client.getBody(3)));
+			assertEquals(1000, client.getBody(1).length);
+
+			client.writeWindowUpdate(1, _content.length);
+			assertEquals(1, client.readUntilEnded());
+			assertEquals("200", client.getStatus(1));
+			assertTrue(Arrays.equals(_content, client.getBody(1)));
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	private static Response get(String path)
+		throws
+			IOException
+	{
+		Socket socket = new Socket("127.0.0.1", _plainPort);
+		try {
+			socket.setSoTimeout(START_TIMEOUT_MS);
+			OutputStream os = socket.getOutputStream();
+			os.write(
+				("GET " + path + " HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n")
+					.getBytes("ISO-8859-1")
+			);
+			os.flush();
+			return Response.read(socket.getInputStream());
+		}
+		finally {
+			socket.close();
+		}
+	}
+
+	private static FileWeb start(int port, TlsSupport tlsSupport)
+		throws
+			IOException,
+			InterruptedException
+	{
+		final FileWeb fileWeb = new FileWeb(port, 4, tlsSupport, null);
+		Thread thread =
+			new Thread("fileweb-test-" + port) {
+				public void run()
+				{
+					fileWeb.start();
+				}
+			};
+		thread.setDaemon(true);
+		thread.start();
+
+		long end = System.currentTimeMillis() + START_TIMEOUT_MS;
+		while(true) {
+			Socket socket = new Socket();
+			try {
+				socket.connect(new InetSocketAddress("127.0.0.1", port));
+				return fileWeb;
+			}
+			catch(ConnectException e) {
+				if(System.currentTimeMillis() > end)
+					throw e;
+				Thread.sleep(50);
+			}
+			finally {
+				socket.close();
+			}
+		}
+	}
+
+	private static int freePort()
+		throws
+			IOException
+	{
+		ServerSocket serverSocket = new ServerSocket(0);
+		try {
+			return serverSocket.getLocalPort();
+		}
+		finally {
+			serverSocket.close();
+		}
+	}
+
+	private static void createKeystore(File keystore)
+		throws
+			IOException,
+			InterruptedException
+	{
+		File keytool =
+			new File(System.getProperty("java.home"), "bin" + File.separator + "keytool");
+		Process process =
+			new ProcessBuilder(
+				keytool.getPath(),
+				"-genkeypair",
+				"-alias", "fileweb",
+				"-keyalg", "RSA",
+				"-keysize", "2048",
+				"-dname", "CN=localhost",
+				"-validity", "1",
+				"-storetype", "PKCS12",
+				"-keystore", keystore.getPath(),
+				"-storepass", KEYSTORE_PASSWORD,
+				"-keypass", KEYSTORE_PASSWORD
+			).redirectErrorStream(true).start();
+		String output = new String(readFully(process.getInputStream()), "ISO-8859-1");
+		assertEquals(output, 0, process.waitFor());
+	}
+
+	private static byte[] readFile(File file)
+		throws
+			IOException
+	{
+		InputStream is = new FileInputStream(file);
+		try {
+			return readFully(is);
+		}
+		finally {
+			is.close();
+		}
+	}
+
+	private static byte[] readFully(InputStream is)
+		throws
+			IOException
+	{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int n;
+		while((n = is.read(buffer)) != -1)
+			os.write(buffer, 0, n);
+		return os.toByteArray();
+	}
+
+
+	/**
+	 * A response read by its {@code Content-Length}, so that the next response can be read
+	 * from the same stream.
+	 */
+	private static class Response
+	{
+		int statusCode;
+		final Map<String, String> headerFields = new HashMap<String, String>();
+		byte[] body;
+
+		static Response read(InputStream is)
+			throws
+				IOException
+		{
+			Response response = new Response();
+			String statusLine = readLine(is);
+			response.statusCode = Integer.parseInt(statusLine.split(" ")[1]);
+			String line;
+			while((line = readLine(is)).length() > 0) {
+				int i = line.indexOf(':');
+				response.headerFields.put(
+					line.substring(0, i).trim().toLowerCase(),
+					line.substring(i + 1).trim()
+				);
+			}
+
+			String contentLength = response.headerFields.get("content-length");
+			assertTrue("No Content-Length in " + statusLine, contentLength != null);
+			response.body = new byte[Integer.parseInt(contentLength)];
+			int offset = 0;
+			while(offset < response.body.length) {
+				int n = is.read(response.body, offset, response.body.length - offset);
+				if(n == -1)
+					throw new IOException("The body ended after " + offset + " bytes.");
+				offset += n;
+			}
+			return response;
+		}
+
+		private static String readLine(InputStream is)
+			throws
+				IOException
+		{
+			StringBuilder line = new StringBuilder();
+			int c;
+			while((c = is.read()) != '\n') {
+				if(c == -1)
+					throw new IOException("The connection was closed in the middle of a line.");
+				if(c != '\r')
+					line.append((char)c);
+			}
+			return line.toString();
+		}
+	}
+
+
+	/**
+	 * A minimal HTTP/2 client with prior knowledge. The requests are encoded as HPACK
+	 * literals without indexing and without Huffman coding.
+	 */
+	private static class Http2Client
+	{
+		static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+
+		private final DataInputStream _is;
+		private final OutputStream _os;
+		private final HpackDecoder _decoder = new HpackDecoder(HpackDecoder.DEFAULT_TABLE_SIZE, 64 * 1024);
+		private final Map<Integer, String> _statuses = new HashMap<Integer, String>();
+		private final Map<Integer, ByteArrayOutputStream> _bodies =
+			new HashMap<Integer, ByteArrayOutputStream>();
+
+		Http2Client(Socket socket)
+			throws
+				IOException
+		{
+			_is = new DataInputStream(socket.getInputStream());
+			_os = socket.getOutputStream();
+			_os.write("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes("ISO-8859-1"));
+		}
+
+		void writeSettings(int identifier, int value)
+			throws
+				IOException
+		{
+			writeFrame(
+				0x4,
+				0,
+				0,
+				new byte[] {
+					0, (byte)identifier,
+					(byte)(value >>> 24), (byte)(value >>> 16), (byte)(value >>> 8), (byte)value
+				}
+			);
+		}
+
+		void writeRequest(int streamId, String path)
+			throws
+				IOException
+		{
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			writeField(block, ":method", "GET");
+			writeField(block, ":scheme", "http");
+			writeField(block, ":path", path);
+			writeField(block, ":authority", "localhost");
+			// END_STREAM and END_HEADERS.
+			writeFrame(0x1, 0x5, streamId, block.toByteArray());
+		}
+
+		void writeWindowUpdate(int streamId, int increment)
+			throws
+				IOException
+		{
+			writeFrame(
+				0x8,
+				0,
+				streamId,
+				new byte[] { (byte)(increment >>> 24), (byte)(increment >>> 16), (byte)(increment >>> 8), (byte)increment }
+			);
+		}
+
+		/**
+		 * Reads frames until the stream has received the given number of bytes.
+		 */
+		void readUntilStalled(int streamId, int length)
+			throws
+				IOException
+		{
+			while(getBody(streamId).length < length)
+				assertEquals(-1, readFrame());
+		}
+
+		/**
+		 * Reads frames until a stream ends.
+		 *
+		 * @return
+		 * 		The id of the stream.
+		 */
+		int readUntilEnded()
+			throws
+				IOException
+		{
+			int streamId;
+			while((streamId = readFrame()) == -1)
+				continue;
+			return streamId;
+		}
+
+		String getStatus(int streamId)
+		{
+			return _statuses.get(streamId);
+		}
+
+		byte[] getBody(int streamId)
+		{
+			ByteArrayOutputStream body = _bodies.get(streamId);
+			return body == null ? new byte[0] : body.toByteArray();
+		}
+
+		/**
+		 * Reads a frame.
+		 *
+		 * @return
+		 * 		The id of a stream which ended with the frame, otherwise -1.
+		 */
+		private int readFrame()
+			throws
+				IOException
+		{
+			byte[] header = new byte[9];
+			_is.readFully(header);
+			int length = ((header[0] & 0xff) << 16) | ((header[1] & 0xff) << 8) | (header[2] & 0xff);
+			int type = header[3];
+			int flags = header[4];
+			int streamId = ((header[5] & 0x7f) << 24) | ((header[6] & 0xff) << 16) | ((header[7] & 0xff) << 8) | (header[8] & 0xff);
+			byte[] payload = new byte[length];
+			_is.readFully(payload);
+			switch(type) {
+				case 0x0:
+					ByteArrayOutputStream body = _bodies.get(streamId);
+					if(body == null) {
+						body = new ByteArrayOutputStream();
+						_bodies.put(streamId, body);
+					}
+					body.write(payload);
+					break;
+
+				case 0x1:
+					assertEquals("END_HEADERS", 0x4, flags & 0x4);
+					List<String[]> fields = _decoder.decode(payload, 0, length);
+					_statuses.put(streamId, fields.get(0)[1]);
+					break;
+
+				case 0x4:
+					if((flags & 0x1) == 0)
+						writeFrame(0x4, 0x1, 0, new byte[0]);
+					return -1;
+
+				case 0x3:
+				case 0x7:
+					fail("The stream " + streamId + " was reset (type " + type + ").");
+					break;
+
+				default:
+					return -1;
+			}
+			return (flags & 0x1) != 0 ? streamId : -1;
+		}
+
+		private void writeFrame(int type, int flags, int streamId, byte[] payload)
+			throws
+				IOException
+		{
+			byte[] frame = new byte[9 + payload.length];
+			frame[0] = (byte)(payload.length >>> 16);
+			frame[1] = (byte)(payload.length >>> 8);
+			frame[2] = (byte)payload.length;
+			frame[3] = (byte)type;
+			frame[4] = (byte)flags;
+			frame[5] = (byte)(streamId >>> 24);
+			frame[6] = (byte)(streamId >>> 16);
+			frame[7] = (byte)(streamId >>> 8);
+			frame[8] = (byte)streamId;
+			System.arraycopy(payload, 0, frame, 9, payload.length);
+			_os.write(frame);
+			_os.flush();
+		}
+
+		private static void writeField(ByteArrayOutputStream block, String name, String value)
+			throws
+				IOException
+		{
+			block.write(0);
+			block.write(name.length());
+			block.write(name.getBytes("ISO-8859-1"));
+			block.write(value.length());
+			block.write(value.getBytes("ISO-8859-1"));
+		}
+	}
+
+
+	private static class TrustAll
+		implements
+			X509TrustManager
+	{
+		public void checkClientTrusted(X509Certificate[] chain, String authType)
+		{
+			// Trusts all.
+		}
+
+		public void checkServerTrusted(X509Certificate[] chain, String authType)
+		{
+			// Trusts all.
+		}
+
+		public X509Certificate[] getAcceptedIssuers()
+		{
+			return new X509Certificate[0];
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Tests encoding header lines, dates and the {@code Allow} lines.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class HeaderEncoderTest
+{
+	@Test
+	public void fieldsAreEncoded()
+		throws
+			IOException
+	{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		HeaderEncoder.writeStatusLine(os, HttpStatusCode.SC206);
+		HeaderEncoder.writeContentLength(os, 1234567890123l);
+		HeaderEncoder.writeCachedField(os, "Content-Type", "text/plain");
+		HeaderEncoder.writeField(os, "ETag", "\"abc\"");
+		assertEquals(
+			"HTTP/1.1 206 Partial Content\r\nContent-Length: 1234567890123\r\n"
+				+ "Content-Type: text/plain\r\nETag: \"abc\"\r\n",
+			os.toString("ISO-8859-1")
+		);
+	}
+
+	@Test
+	public void controlAndNonAsciiCharactersAreReplaced()
+		throws
+			IOException
+	{
+		ByteArrayOutputStream os = new ByteArrayOutputStream();
+		HeaderEncoder.writeField(os, "X-Name", "a\r\nSet-Cookie: x=1\u00e4\tb");
+		HeaderEncoder.writeCachedField(os, "X-Cached\n", "c\rd");
+		assertEquals(
+			"X-Name: a??Set-Cookie: x=1?\tb\r\nX-Cached?: c?d\r\n",
+			os.toString("ISO-8859-1")
+		);
+	}
+
+	@Test
+	public void allowLinesListTheMethods()
+		throws
+			IOException
+	{
+		assertEquals("Allow: GET, PUT, POST\r\n", new String(HeaderEncoder.ALLOW, "ISO-8859-1"));
+		assertEquals("Allow: GET\r\n", new String(HeaderEncoder.ALLOW_GET, "ISO-8859-1"));
+	}
+
+	@Test
+	public void datesAreFormattedAndParsed()
+	{
+		assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", HeaderEncoder.formatDate(784111777000l));
+		assertEquals(784111777000l, HeaderEncoder.parseDate(" Sun, 06 Nov 1994 08:49:37 GMT"));
+		assertEquals(-1, HeaderEncoder.parseDate("yesterday"));
+	}
+}
@@ -0,0 +1,164 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests the HPACK decoder with the examples of RFC 7541 (appendix C) and the dynamic table
+ * eviction.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class HpackDecoderTest
+{
+	@Test
+	public void integersWithPrefix()
+		throws
+			IOException
+	{
+		// C.1.1 - C.1.3.
+		assertEquals(10, decodeInteger("0a", 5));
+		assertEquals(1337, decodeInteger("1f9a0a", 5));
+		assertEquals(42, decodeInteger("2a", 8));
+	}
+
+	@Test
+	public void requestsWithoutHuffmanCoding()
+		throws
+			IOException
+	{
+		// C.3.1 - C.3.3.
+		HpackDecoder decoder = new HpackDecoder(HpackDecoder.DEFAULT_TABLE_SIZE, 64 * 1024);
+		assertFields(
+			decode(decoder, "828684410f7777772e6578616d706c652e636f6d"),
+			":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"
+		);
+		assertEquals(57, decoder.getTableSize());
+		assertFields(
+			decode(decoder, "828684be58086e6f2d6361636865"),
+			":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+			"cache-control", "no-cache"
+		);
+		assertEquals(110, decoder.getTableSize());
+		assertFields(
+			decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"),
+			":method", "GET", ":scheme", "https", ":path", "/index.html",
+			":authority", "www.example.com", "custom-key", "custom-value"
+		);
+		assertEquals(164, decoder.getTableSize());
+	}
+
+	@Test
+	public void requestsWithHuffmanCoding()
+		throws
+			IOException
+	{
+		// C.4.1 - C.4.3.
+		HpackDecoder decoder = new HpackDecoder(HpackDecoder.DEFAULT_TABLE_SIZE, 64 * 1024);
+		assertFields(
+			decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"),
+			":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com"
+		);
+		assertFields(
+			decode(decoder, "828684be5886a8eb10649cbf"),
+			":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+			"cache-control", "no-cache"
+		);
+		assertFields(
+			decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"),
+			":method", "GET", ":scheme", "https", ":path", "/index.html",
+			":authority", "www.example.com", "custom-key", "custom-value"
+		);
+		assertEquals(164, decoder.getTableSize());
+	}
+
+	@Test
+	public void oldestEntriesAreEvicted()
+		throws
+			IOException
+	{
+		// Room for two entries of 32 + 2 bytes.
+		HpackDecoder decoder = new HpackDecoder(70, 64 * 1024);
+		decode(decoder, "4001610162");
+		decode(decoder, "4001630164");
+		decode(decoder, "4001650166");
+		assertEquals(68, decoder.getTableSize());
+		// The newest entry has the index 62.
+		assertFields(decode(decoder, "be"), "e", "f");
+		assertFields(decode(decoder, "bf"), "c", "d");
+		assertRejected(decoder, "c0");
+
+		// A size update to zero empties the table.
+		decode(decoder, "20");
+		assertEquals(0, decoder.getTableSize());
+		assertRejected(decoder, "be");
+	}
+
+	@Test
+	public void invalidBlocksAreRejected()
+	{
+		HpackDecoder decoder = new HpackDecoder(HpackDecoder.DEFAULT_TABLE_SIZE, 64 * 1024);
+		// The index 0.
+		assertRejected(decoder, "80");
+		// A size update bigger than the maximum.
+		assertRejected(decoder, "3fe21f");
+		// A size update after a field.
+		assertRejected(new HpackDecoder(4096, 64 * 1024), "8220");
+		// A string longer than the block.
+		assertRejected(decoder, "400a61");
+		// Huffman padding which is not the EOS prefix.
+		assertRejected(decoder, "0001618100");
+		// A header list bigger than allowed.
+		assertRejected(new HpackDecoder(4096, 40), "82400162016385");
+	}
+
+	private static int decodeInteger(String hex, int prefix)
+		throws
+			IOException
+	{
+		byte[] block = toBytes(hex);
+		return HpackDecoder.decodeInteger(block, new int[] { 0 }, block.length, prefix);
+	}
+
+	private static List<String[]> decode(HpackDecoder decoder, String hex)
+		throws
+			IOException
+	{
+		byte[] block = toBytes(hex);
+		return decoder.decode(block, 0, block.length);
+	}
+
+	private static void assertFields(List<String[]> fields, String... expected)
+	{
+		assertEquals(expected.length / 2, fields.size());
+		for(int i = 0; i < fields.size(); i++) {
+			assertEquals(expected[2 * i], fields.get(i)[0]);
+			assertEquals(expected[2 * i + 1], fields.get(i)[1]);
+		}
+	}
+
+	private static void assertRejected(HpackDecoder decoder, String hex)
+	{
+		try {
+			decode(decoder, hex);
+			fail(hex + " was accepted.");
+		}
+		catch(IOException e) {
+			// Expected.
+		}
+	}
+
+	private static byte[] toBytes(String hex)
+	{
+		byte[] bytes = new byte[hex.length() / 2];
+		for(int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte)Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+		return bytes;
+	}
+}
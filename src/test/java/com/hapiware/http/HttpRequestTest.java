@@ -0,0 +1,77 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests parsing the request header and its limits.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class HttpRequestTest
+{
+	@Test
+	public void headerIsParsed()
+		throws
+			IOException
+	{
+		InputStream stream =
+			stream("GET /a%20b.txt?op=lines&from=2 HTTP/1.1\r\nHost: x\r\nconnection: close\r\n\r\nNEXT");
+		HttpRequest request = new HttpRequest(stream);
+		assertEquals(HttpStatusCode.SC200, request.getStatusCode());
+		assertEquals(HttpRequest.SupportedRequestMethod.GET, request.getRequestMethod());
+		assertEquals("/a b.txt", request.getUri().getPath());
+		assertEquals("2", request.getParameter("from"));
+		assertEquals("close", request.getHeaderFields().get("Connection"));
+		assertTrue(!request.isKeepAlive());
+		// The rest is left to the stream.
+		assertEquals('N', stream.read());
+	}
+
+	@Test
+	public void tooManyHeaderLinesAreRejected()
+		throws
+			IOException
+	{
+		StringBuilder head = new StringBuilder("GET / HTTP/1.1\r\n");
+		for(int i = 0; i < HeaderLimit.MAX_NUMBER_OF_LINES; i++)
+			head.append("X-Field-" + i + ": " + i + "\r\n");
+		head.append("\r\n");
+		HttpRequest request = new HttpRequest(stream(head.toString()));
+		assertEquals(HttpStatusCode.SC400, request.getStatusCode());
+		assertTrue(!request.isKeepAlive());
+	}
+
+	@Test
+	public void tooBigHeaderIsRejected()
+		throws
+			IOException
+	{
+		StringBuilder value = new StringBuilder();
+		for(int i = 0; i < HeaderLimit.MAX_SIZE; i++)
+			value.append('x');
+		HttpRequest request =
+			new HttpRequest(stream("GET / HTTP/1.1\r\nX-Big: " + value + "\r\n\r\n"));
+		assertEquals(HttpStatusCode.SC400, request.getStatusCode());
+
+		// A header just under the limit is accepted.
+		value.setLength(HeaderLimit.MAX_SIZE / 2);
+		request =
+			new HttpRequest(stream("GET / HTTP/1.1\r\nX-Big: " + value + "\r\n\r\n"));
+		assertEquals(HttpStatusCode.SC200, request.getStatusCode());
+	}
+
+	private static InputStream stream(String content)
+		throws
+			IOException
+	{
+		return new ByteArrayInputStream(content.getBytes("ISO-8859-1"));
+	}
+}
@@ -0,0 +1,103 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests parsing and merging of the {@code Range} header field.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class HttpResponseTest
+{
+	private final static int MAX_RANGES = 64;
+
+
+	@Test
+	public void singleRange()
+	{
+		List<long[]> ranges = HttpResponse.parseRanges("0-499", 1000);
+		assertRanges(ranges, new long[][] { { 0, 499 } });
+	}
+
+	@Test
+	public void openAndSuffixRanges()
+	{
+		assertRanges(HttpResponse.parseRanges("900-", 1000), new long[][] { { 900, 999 } });
+		assertRanges(HttpResponse.parseRanges("-100", 1000), new long[][] { { 900, 999 } });
+		assertRanges(HttpResponse.parseRanges("-5000", 1000), new long[][] { { 0, 999 } });
+		assertRanges(HttpResponse.parseRanges("0-5000", 1000), new long[][] { { 0, 999 } });
+	}
+
+	@Test
+	public void overlappingAndAdjacentRangesAreMerged()
+	{
+		assertRanges(
+			HttpResponse.parseRanges("500-599, 0-99, 50-149, 150-199", 1000),
+			new long[][] { { 0, 199 }, { 500, 599 } }
+		);
+	}
+
+	@Test
+	public void rangesAreSorted()
+	{
+		assertRanges(
+			HttpResponse.parseRanges("800-899,0-9,400-409", 1000),
+			new long[][] { { 0, 9 }, { 400, 409 }, { 800, 899 } }
+		);
+	}
+
+	@Test
+	public void unsatisfiableRangesGiveEmptyList()
+	{
+		List<long[]> ranges = HttpResponse.parseRanges("1000-1100", 1000);
+		assertEquals(0, ranges.size());
+	}
+
+	@Test
+	public void invalidRangesGiveWholeFile()
+	{
+		assertNull(HttpResponse.parseRanges("abc", 1000));
+		assertNull(HttpResponse.parseRanges("10", 1000));
+		assertNull(HttpResponse.parseRanges("20-10", 1000));
+		assertNull(HttpResponse.parseRanges("0-x", 1000));
+	}
+
+	@Test
+	public void rangesLongerThanFileGiveWholeFile()
+	{
+		assertNull(HttpResponse.parseRanges("0-,0-,0-", 1000));
+	}
+
+	@Test
+	public void tooManyRangesGiveWholeFile()
+	{
+		StringBuilder rangeSet = new StringBuilder();
+		for(int i = 0; i <= MAX_RANGES; i++) {
+			if(i > 0)
+				rangeSet.append(',');
+			rangeSet.append(i * 10).append('-').append(i * 10);
+		}
+		assertNull(HttpResponse.parseRanges(rangeSet.toString(), 100000));
+
+		int end = rangeSet.lastIndexOf(",");
+		List<long[]> ranges = HttpResponse.parseRanges(rangeSet.substring(0, end), 100000);
+		assertEquals(MAX_RANGES, ranges.size());
+	}
+
+	private static void assertRanges(List<long[]> ranges, long[][] expected)
+	{
+		assertTrue("Ranges expected.", ranges != null);
+		assertEquals(expected.length, ranges.size());
+		for(int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i][0], ranges.get(i)[0]);
+			assertEquals(expected[i][1], ranges.get(i)[1]);
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests finding lines from the start (over several checkpoints) and from the end of a
+ * file.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class LineIndexTest
+{
+	// Every line is "NNNNN\n", so line n starts at 6 * n.
+	private final static int NUMBER_OF_LINES = 5000;
+	private final static int LINE_LENGTH = 6;
+
+	private File _file;
+	private FileInputStream _is;
+	private FileChannel _channel;
+
+
+	@Before
+	public void createFile()
+		throws
+			IOException
+	{
+		_file = File.createTempFile("fileweb-lines", ".txt");
+		StringBuilder content = new StringBuilder();
+		for(int i = 0; i < NUMBER_OF_LINES; i++)
+			content.append(String.format("%05d\n", i));
+		write(_file, content.toString(), false);
+		_is = new FileInputStream(_file);
+		_channel = _is.getChannel();
+	}
+
+	@After
+	public void deleteFile()
+		throws
+			IOException
+	{
+		_is.close();
+		_file.delete();
+	}
+
+	@Test
+	public void linesAreFound()
+		throws
+			IOException
+	{
+		LineIndex index = new LineIndex();
+		long lastModified = _file.lastModified();
+		assertEquals(0, index.getPosition(_channel, lastModified, 0));
+		assertEquals(LINE_LENGTH * 3000, index.getPosition(_channel, lastModified, 3000));
+		// Found through a checkpoint.
+		assertEquals(LINE_LENGTH * 1025, index.getPosition(_channel, lastModified, 1025));
+		assertEquals(LINE_LENGTH * 4999, index.getPosition(_channel, lastModified, 4999));
+		assertEquals(-1, index.getPosition(_channel, lastModified, NUMBER_OF_LINES));
+		assertEquals(-1, index.getPosition(_channel, lastModified, Long.MAX_VALUE));
+		assertEquals(NUMBER_OF_LINES, index.getNumberOfIndexedLines());
+	}
+
+	@Test
+	public void growingFileIsIndexedFurther()
+		throws
+			IOException
+	{
+		LineIndex index = new LineIndex();
+		assertEquals(-1, index.getPosition(_channel, _file.lastModified(), NUMBER_OF_LINES));
+		write(_file, "last\n", true);
+		assertEquals(
+			LINE_LENGTH * NUMBER_OF_LINES,
+			index.getPosition(_channel, _file.lastModified(), NUMBER_OF_LINES)
+		);
+	}
+
+	@Test
+	public void negativeLineIsRejected()
+		throws
+			IOException
+	{
+		try {
+			new LineIndex().getPosition(_channel, _file.lastModified(), -1);
+			fail("A negative line was accepted.");
+		}
+		catch(IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void tailLinesAreFound()
+		throws
+			IOException
+	{
+		long size = _channel.size();
+		assertEquals(size, LineIndex.getTailPosition(_channel, 0, Long.MAX_VALUE));
+		// The newline at the end does not start a line.
+		assertEquals(size - LINE_LENGTH, LineIndex.getTailPosition(_channel, 1, Long.MAX_VALUE));
+		assertEquals(size - 2000 * LINE_LENGTH, LineIndex.getTailPosition(_channel, 2000, Long.MAX_VALUE));
+		assertEquals(0, LineIndex.getTailPosition(_channel, NUMBER_OF_LINES + 1, Long.MAX_VALUE));
+	}
+
+	@Test
+	public void tailScanIsBounded()
+		throws
+			IOException
+	{
+		long size = _channel.size();
+		assertEquals(size - 100, LineIndex.getTailPosition(_channel, 1000, 100));
+		assertEquals(size - 2 * LINE_LENGTH, LineIndex.getTailPosition(_channel, 2, 100));
+	}
+
+	private static void write(File file, String content, boolean append)
+		throws
+			IOException
+	{
+		FileOutputStream os = new FileOutputStream(file, append);
+		try {
+			os.write(content.getBytes("ISO-8859-1"));
+		}
+		finally {
+			os.close();
+		}
+	}
+}
@@ -0,0 +1,227 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the mirror cache against a minimal upstream which answers {@code 304 Not Modified}
+ * when the {@code ETag} matches.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class MirrorCacheTest
+{
+	private final static String CONTENT = "Hello from the upstream.\n";
+	private final static String ETAG = "\"v1\"";
+
+	private File _directory;
+	private ServerSocket _upstream;
+	private final List<String> _requests = new ArrayList<String>();
+
+
+	@Before
+	public void startUpstream()
+		throws
+			IOException
+	{
+		_directory = File.createTempFile("fileweb-mirror", "");
+		_directory.delete();
+		_directory.mkdirs();
+
+		_upstream = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		Thread thread =
+			new Thread("upstream") {
+				public void run()
+				{
+					while(true) {
+						try {
+							Socket socket = _upstream.accept();
+							try {
+								answer(socket);
+							}
+							finally {
+								socket.close();
+							}
+						}
+						catch(IOException e) {
+							if(_upstream.isClosed())
+								return;
+						}
+					}
+				}
+			};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@After
+	public void stopUpstream()
+		throws
+			IOException
+	{
+		_upstream.close();
+		File[] files = _directory.listFiles();
+		if(files != null)
+			for(File file : files)
+				file.delete();
+		_directory.delete();
+	}
+
+	private void answer(Socket socket)
+		throws
+			IOException
+	{
+		BufferedReader reader =
+			new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+		String requestLine = reader.readLine();
+		boolean notModified = false;
+		String line;
+		while((line = reader.readLine()) != null && line.length() > 0)
+			if(line.toLowerCase().startsWith("if-none-match:") && line.endsWith(ETAG))
+				notModified = true;
+		synchronized(_requests) {
+			_requests.add(requestLine);
+		}
+
+		String response;
+		if(requestLine.startsWith("GET /files/a.txt "))
+			response =
+				notModified
+					? "HTTP/1.1 304 Not Modified\r\nETag: " + ETAG + "\r\n"
+						+ "Connection: close\r\n\r\n"
+					: "HTTP/1.1 200 OK\r\nETag: " + ETAG + "\r\nContent-Type: text/plain\r\n"
+						+ "Content-Length: " + CONTENT.length() + "\r\nConnection: close\r\n\r\n"
+						+ CONTENT;
+		else
+			response = "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+		OutputStream os = socket.getOutputStream();
+		os.write(response.getBytes("ISO-8859-1"));
+		os.flush();
+	}
+
+	private MirrorCache createCache(long maxAge)
+	{
+		return
+			new MirrorCache(
+				"http://127.0.0.1:" + _upstream.getLocalPort() + "/files",
+				_directory,
+				1024 * 1024,
+				maxAge
+			);
+	}
+
+	@Test
+	public void fileIsFetchedAndRevalidated()
+		throws
+			IOException
+	{
+		MirrorCache cache = createCache(0);
+		MirrorCache.Entry entry = cache.get("/a.txt");
+		assertEquals(CONTENT, read(entry));
+		cache.release(entry);
+		assertEquals(1, cache.getNumberOfMisses());
+
+		// maxAge is zero, so the upstream is asked again and it answers 304.
+		entry = cache.get("/a.txt");
+		assertEquals(CONTENT, read(entry));
+		cache.release(entry);
+		assertEquals(1, cache.getNumberOfMisses());
+		assertEquals(1, cache.getNumberOfRevalidations());
+		synchronized(_requests) {
+			assertEquals(2, _requests.size());
+		}
+	}
+
+	@Test
+	public void freshFileIsNotRevalidated()
+		throws
+			IOException
+	{
+		MirrorCache cache = createCache(60000);
+		MirrorCache.Entry entry = cache.get("/a.txt");
+		assertEquals(CONTENT, read(entry));
+		cache.release(entry);
+
+		entry = cache.get("/a.txt");
+		cache.release(entry);
+		assertEquals(1, cache.getNumberOfHits());
+		assertEquals(0, cache.getNumberOfRevalidations());
+		synchronized(_requests) {
+			assertEquals(1, _requests.size());
+		}
+	}
+
+	@Test
+	public void missingFileGivesNull()
+		throws
+			IOException
+	{
+		assertNull(createCache(0).get("/missing.txt"));
+	}
+
+	@Test
+	public void pathsOutsideOfUpstreamAreRejected()
+	{
+		MirrorCache cache = createCache(0);
+		assertRejected(cache, "@evil.example/x");
+		assertRejected(cache, "evil.example/x");
+		assertRejected(cache, "/../x");
+		assertRejected(cache, "/a/../../x");
+		synchronized(_requests) {
+			assertEquals(0, _requests.size());
+		}
+	}
+
+	private static void assertRejected(MirrorCache cache, String path)
+	{
+		try {
+			cache.openUpstream(path);
+			fail(path + " was accepted.");
+		}
+		catch(IOException e) {
+			// Expected.
+		}
+	}
+
+	private static String read(MirrorCache.Entry entry)
+		throws
+			IOException
+	{
+		long length = 0;
+		long available;
+		while((available = entry.await(length)) > length)
+			length = available;
+
+		byte[] content = new byte[(int)length];
+		InputStream is = new FileInputStream(entry.getFile());
+		try {
+			int offset = 0;
+			int n;
+			while(offset < content.length && (n = is.read(content, offset, content.length - offset)) != -1)
+				offset += n;
+		}
+		finally {
+			is.close();
+		}
+		return new String(content, "ISO-8859-1");
+	}
+}
@@ -0,0 +1,134 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests reading multipart bodies part by part and rejecting invalid ones.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class MultipartReaderTest
+{
+	private final static String BOUNDARY = "----boundary";
+
+
+	@Test
+	public void boundaryAndDispositionAreParsed()
+	{
+		assertEquals(
+			BOUNDARY,
+			MultipartReader.getBoundary("multipart/form-data; boundary=\"" + BOUNDARY + "\"")
+		);
+		assertNull(MultipartReader.getBoundary("text/plain; boundary=x"));
+		assertNull(MultipartReader.getBoundary("multipart/form-data"));
+		assertEquals(
+			"a b.txt",
+			MultipartReader.getDispositionParameter(
+				"form-data; name=\"file\"; filename=\"a b.txt\"",
+				"FILENAME"
+			)
+		);
+		assertNull(MultipartReader.getDispositionParameter("form-data; name=\"x\"", "filename"));
+	}
+
+	@Test
+	public void partsAreRead()
+		throws
+			IOException
+	{
+		// The data of the second part has a line which is almost a delimiter.
+		String body =
+			"preamble\r\n"
+				+ "--" + BOUNDARY + "\r\n"
+				+ "Content-Disposition: form-data; name=\"field\"\r\n"
+				+ "\r\n"
+				+ "value\r\n"
+				+ "--" + BOUNDARY + "  \r\n"
+				+ "Content-Disposition: form-data; name=\"file\"; filename=\"a.txt\"\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "\r\n"
+				+ "line 1\r\n--" + BOUNDARY.substring(1) + "\r\nline 3\r\n"
+				+ "--" + BOUNDARY + "--\r\n"
+				+ "epilogue";
+		MultipartReader reader = new MultipartReader(stream(body), BOUNDARY);
+		assertTrue(reader.nextPart());
+		assertEquals("form-data; name=\"field\"", reader.getPartHeaders().get("content-disposition"));
+		// The rest of the part is skipped by the next part.
+		assertEquals('v', reader.getPartInputStream().read());
+		assertTrue(reader.nextPart());
+		assertEquals("text/plain", reader.getPartHeaders().get("Content-Type"));
+		assertEquals(
+			"line 1\r\n--" + BOUNDARY.substring(1) + "\r\nline 3",
+			readAll(reader.getPartInputStream())
+		);
+		assertTrue(!reader.nextPart());
+		assertTrue(!reader.nextPart());
+	}
+
+	@Test
+	public void missingClosingDelimiterIsRejected()
+		throws
+			IOException
+	{
+		String body = "--" + BOUNDARY + "\r\n\r\ndata without an end";
+		MultipartReader reader = new MultipartReader(stream(body), BOUNDARY);
+		assertTrue(reader.nextPart());
+		try {
+			readAll(reader.getPartInputStream());
+			fail("A body without a closing delimiter was accepted.");
+		}
+		catch(EOFException e) {
+			// Expected.
+		}
+	}
+
+	@Test
+	public void partHeaderIsLimited()
+		throws
+			IOException
+	{
+		StringBuilder body = new StringBuilder("--" + BOUNDARY + "\r\n");
+		for(int i = 0; i <= HeaderLimit.MAX_NUMBER_OF_LINES; i++)
+			body.append("X-Field: " + i + "\r\n");
+		body.append("\r\ndata\r\n--" + BOUNDARY + "--\r\n");
+		MultipartReader reader = new MultipartReader(stream(body.toString()), BOUNDARY);
+		try {
+			reader.nextPart();
+			fail("A part with too many header lines was accepted.");
+		}
+		catch(HeaderLimit.ExceededException e) {
+			// Expected.
+		}
+	}
+
+	private static String readAll(InputStream is)
+		throws
+			IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[5];
+		int n;
+		while((n = is.read(buffer)) != -1)
+			bos.write(buffer, 0, n);
+		return bos.toString("ISO-8859-1");
+	}
+
+	private static InputStream stream(String content)
+		throws
+			IOException
+	{
+		return new ByteArrayInputStream(content.getBytes("ISO-8859-1"));
+	}
+}
@@ -0,0 +1,209 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that concurrent identical requests share one response and nothing is cached
+ * afterwards.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class RequestCoalescerTest
+{
+	private final static int NUMBER_OF_WAITERS = 4;
+
+	private RequestCoalescer _coalescer;
+	private CountDownLatch _release;
+	private AtomicInteger _numberOfCalls;
+
+
+	@Before
+	public void createCoalescer()
+	{
+		_coalescer = new RequestCoalescer();
+		_release = new CountDownLatch(1);
+		_numberOfCalls = new AtomicInteger();
+	}
+
+	@Test
+	public void concurrentRequestsShareOneResponse()
+		throws
+			Exception
+	{
+		final byte[] content = new byte[] { 1, 2, 3 };
+		final List<Object> results = new ArrayList<Object>();
+		List<Thread> threads =
+			start(
+				NUMBER_OF_WAITERS + 1,
+				new Callable<byte[]>() {
+					public byte[] call()
+						throws
+							Exception
+					{
+						_numberOfCalls.incrementAndGet();
+						_release.await();
+						return content;
+					}
+				},
+				results
+			);
+		awaitCoalesced(NUMBER_OF_WAITERS);
+		assertEquals(1, _coalescer.getNumberOfInFlight());
+		_release.countDown();
+		join(threads);
+
+		assertEquals(1, _numberOfCalls.get());
+		assertEquals(1, _coalescer.getNumberOfExecutions());
+		assertEquals(NUMBER_OF_WAITERS + 1, results.size());
+		for(Object result : results)
+			assertTrue(result == content);
+		assertEquals(0, _coalescer.getNumberOfInFlight());
+	}
+
+	@Test
+	public void failureIsThrownToEveryWaiter()
+		throws
+			Exception
+	{
+		final List<Object> results = new ArrayList<Object>();
+		List<Thread> threads =
+			start(
+				NUMBER_OF_WAITERS + 1,
+				new Callable<byte[]>() {
+					public byte[] call()
+						throws
+							Exception
+					{
+						_release.await();
+						throw new IOException("Broken.");
+					}
+				},
+				results
+			);
+		awaitCoalesced(NUMBER_OF_WAITERS);
+		_release.countDown();
+		join(threads);
+
+		assertEquals(NUMBER_OF_WAITERS + 1, results.size());
+		for(Object result : results) {
+			assertTrue(result instanceof IOException);
+			assertEquals("Broken.", ((IOException)result).getMessage());
+		}
+	}
+
+	@Test
+	public void finishedResponsesAreNotCached()
+		throws
+			IOException
+	{
+		Callable<byte[]> creator =
+			new Callable<byte[]>() {
+				public byte[] call()
+				{
+					return new byte[] { (byte)_numberOfCalls.incrementAndGet() };
+				}
+			};
+		assertEquals(1, _coalescer.execute("key", creator)[0]);
+		assertEquals(2, _coalescer.execute("key", creator)[0]);
+		assertEquals(3, _coalescer.execute("other", creator)[0]);
+		assertEquals(3, _coalescer.getNumberOfExecutions());
+		assertEquals(0, _coalescer.getNumberOfCoalesced());
+
+		_coalescer.resetCounters();
+		assertEquals(0, _coalescer.getNumberOfExecutions());
+	}
+
+	@Test
+	public void runtimeExceptionsAreNotWrapped()
+		throws
+			IOException
+	{
+		try {
+			_coalescer.execute(
+				"key",
+				new Callable<byte[]>() {
+					public byte[] call()
+					{
+						throw new IllegalStateException("Bug.");
+					}
+				}
+			);
+			fail("A runtime exception was not thrown.");
+		}
+		catch(IllegalStateException e) {
+			// Expected.
+		}
+		assertEquals(0, _coalescer.getNumberOfInFlight());
+	}
+
+	private List<Thread> start(
+		int numberOfThreads,
+		final Callable<byte[]> creator,
+		final List<Object> results
+	)
+	{
+		List<Thread> threads = new ArrayList<Thread>();
+		for(int i = 0; i < numberOfThreads; i++) {
+			Thread thread =
+				new Thread() {
+					public void run()
+					{
+						Object result;
+						try {
+							result = _coalescer.execute("key", creator);
+						}
+						catch(IOException e) {
+							result = e;
+						}
+						synchronized(results) {
+							results.add(result);
+						}
+					}
+				};
+			thread.start();
+			threads.add(thread);
+			if(i == 0)
+				awaitCalled();
+		}
+		return threads;
+	}
+
+	private void awaitCalled()
+	{
+		while(_coalescer.getNumberOfExecutions() == 0)
+			Thread.yield();
+	}
+
+	private void awaitCoalesced(int numberOfCoalesced)
+		throws
+			InterruptedException
+	{
+		long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while(_coalescer.getNumberOfCoalesced() < numberOfCoalesced) {
+			assertTrue(System.nanoTime() < deadlineNs);
+			Thread.sleep(1);
+		}
+	}
+
+	private static void join(List<Thread> threads)
+		throws
+			InterruptedException
+	{
+		for(Thread thread : threads)
+			thread.join(10000);
+	}
+}
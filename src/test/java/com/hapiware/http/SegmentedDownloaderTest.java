@@ -0,0 +1,74 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that the paths of a manifest cannot point outside of the download target.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class SegmentedDownloaderTest
+{
+	private File _target;
+
+
+	@Before
+	public void createTarget()
+		throws
+			IOException
+	{
+		_target = File.createTempFile("fileweb-get", "");
+		_target.delete();
+		_target.mkdirs();
+	}
+
+	@After
+	public void deleteTarget()
+	{
+		_target.delete();
+	}
+
+	@Test
+	public void plainPathsAreResolved()
+		throws
+			IOException
+	{
+		assertEquals(new File(_target, "a.txt"), SegmentedDownloader.resolve(_target, "a.txt"));
+		assertEquals(
+			new File(_target, "dir/sub/b.txt"),
+			SegmentedDownloader.resolve(_target, "dir/sub/b.txt")
+		);
+	}
+
+	@Test
+	public void unsafePathsAreRejected()
+	{
+		assertRejected("../../x");
+		assertRejected("dir/../../x");
+		assertRejected("/etc/passwd");
+		assertRejected("./a.txt");
+		assertRejected("dir//a.txt");
+		assertRejected("");
+		assertRejected("a\0.txt");
+	}
+
+	private void assertRejected(String path)
+	{
+		try {
+			SegmentedDownloader.resolve(_target, path);
+			fail(path + " was accepted.");
+		}
+		catch(IOException e) {
+			// Expected.
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests that the watchdog closes only the connections blocked in a write for too long. The
+ * minimum rate check needs a 30 second window and is not tested here.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class SendWatchdogTest
+{
+	private final static long TIMEOUT_MS = 5000;
+
+
+	@Test
+	public void stalledWriteIsReclaimed()
+		throws
+			IOException,
+			InterruptedException
+	{
+		Controller controller = new Controller(null);
+		SendWatchdog watchdog = new SendWatchdog(controller, 1, 0);
+		FakeSocket stalledSocket = new FakeSocket();
+		HttpConnection stalled = connection(stalledSocket);
+		FakeSocket idleSocket = new FakeSocket();
+		FakeSocket finishedSocket = new FakeSocket();
+		HttpConnection finished = connection(finishedSocket);
+		watchdog.register(stalled);
+		// Waiting for something else than the client does not count.
+		watchdog.register(connection(idleSocket));
+		watchdog.register(finished);
+		stalled.beginWrite();
+		finished.beginWrite();
+		finished.endWrite(0);
+
+		awaitClosed(stalledSocket);
+		assertTrue(stalledSocket.isReset());
+		assertEquals(1, controller.getNumberOfStalledConnections());
+		assertEquals(0, controller.getNumberOfSlowConnections());
+		assertTrue(!idleSocket.isClosed());
+		assertTrue(!finishedSocket.isClosed());
+	}
+
+	@Test
+	public void disabledOrUnregisteredConnectionsAreNotReclaimed()
+		throws
+			IOException,
+			InterruptedException
+	{
+		Controller controller = new Controller(null);
+		SendWatchdog disabled = new SendWatchdog(controller, 0, 0);
+		FakeSocket blockedSocket = new FakeSocket();
+		HttpConnection blocked = connection(blockedSocket);
+		disabled.register(blocked);
+		blocked.beginWrite();
+
+		SendWatchdog watchdog = new SendWatchdog(controller, 1, 0);
+		FakeSocket unregisteredSocket = new FakeSocket();
+		HttpConnection unregistered = connection(unregisteredSocket);
+		watchdog.register(unregistered);
+		watchdog.unregister(unregistered);
+		unregistered.beginWrite();
+
+		Thread.sleep(2500);
+		assertTrue(!blockedSocket.isClosed());
+		assertTrue(!unregisteredSocket.isClosed());
+		assertEquals(0, controller.getNumberOfStalledConnections());
+
+		disabled.setStallTimeout(1);
+		assertEquals(1, disabled.getStallTimeout());
+		awaitClosed(blockedSocket);
+	}
+
+	private static HttpConnection connection(Socket socket)
+	{
+		return
+			new HttpConnection(
+				socket,
+				new ByteArrayInputStream(new byte[0]),
+				new ByteArrayOutputStream(),
+				null
+			);
+	}
+
+	private static void awaitClosed(FakeSocket socket)
+		throws
+			InterruptedException
+	{
+		long deadlineNs = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+		while(!socket.isClosed()) {
+			assertTrue(System.nanoTime() < deadlineNs);
+			Thread.sleep(10);
+		}
+	}
+
+
+	private static class FakeSocket
+		extends
+			Socket
+	{
+		private final InetAddress _address;
+		private volatile boolean _closed = false;
+		private volatile boolean _reset = false;
+
+		FakeSocket()
+			throws
+				IOException
+		{
+			_address = InetAddress.getByAddress(new byte[] { 127, 0, 0, 1 });
+		}
+
+		public InetAddress getInetAddress()
+		{
+			return _address;
+		}
+
+		public void setSoLinger(boolean on, int linger)
+		{
+			_reset = on && linger == 0;
+		}
+
+		public void close()
+		{
+			_closed = true;
+		}
+
+		public boolean isClosed()
+		{
+			return _closed;
+		}
+
+		public boolean isReset()
+		{
+			return _reset;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests the token bucket and the global and per client limits of the throttle.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ThrottleTest
+{
+	private final static long RATE = 100000;
+
+
+	@Test
+	public void fullBucketGrantsOneSecondWithoutWaiting()
+	{
+		TokenBucket bucket = new TokenBucket(RATE);
+		assertEquals(0, bucket.reserve(RATE / 2));
+		assertEquals(0, bucket.reserve(RATE / 2 - 1000));
+		// The debt of half a second must be waited.
+		long waitNs = bucket.reserve(RATE / 2 + 1000);
+		assertTrue(waitNs > TimeUnit.MILLISECONDS.toNanos(400));
+		assertTrue(waitNs <= TimeUnit.MILLISECONDS.toNanos(500));
+	}
+
+	@Test
+	public void unlimitedBucketNeverWaits()
+	{
+		TokenBucket bucket = new TokenBucket(0);
+		assertEquals(0, bucket.reserve(Long.MAX_VALUE / 2));
+		bucket.setRate(RATE);
+		assertEquals(0, bucket.reserve(RATE));
+		assertTrue(bucket.reserve(RATE) > 0);
+		bucket.setRate(0);
+		assertEquals(0, bucket.reserve(RATE));
+	}
+
+	@Test
+	public void loweredRateDropsExtraTokens()
+	{
+		TokenBucket bucket = new TokenBucket(RATE);
+		bucket.setRate(RATE / 10);
+		assertEquals(RATE / 10, bucket.getRate());
+		assertTrue(bucket.reserve(RATE / 2) > TimeUnit.MILLISECONDS.toNanos(3900));
+	}
+
+	@Test
+	public void perClientLimitIsSeparateForEachClient()
+		throws
+			IOException
+	{
+		Throttle throttle = new Throttle(0, RATE);
+		assertTrue(throttle.isEnabled());
+		InetAddress first = InetAddress.getByName("10.0.0.1");
+		InetAddress second = InetAddress.getByName("10.0.0.2");
+		throttle.acquire(first, RATE);
+		throttle.acquire(second, RATE);
+		assertEquals(0, throttle.getNumberOfWaits());
+		assertEquals(2, throttle.getNumberOfTrackedClients());
+
+		long startNs = System.nanoTime();
+		throttle.acquire(first, RATE / 10);
+		assertEquals(1, throttle.getNumberOfWaits());
+		assertTrue(System.nanoTime() - startNs >= TimeUnit.MILLISECONDS.toNanos(90));
+	}
+
+	@Test
+	public void globalLimitIsShared()
+		throws
+			IOException
+	{
+		Throttle throttle = new Throttle(RATE, 0);
+		throttle.acquire(InetAddress.getByName("10.0.0.1"), RATE);
+		long startNs = System.nanoTime();
+		throttle.acquire(InetAddress.getByName("10.0.0.2"), RATE / 10);
+		assertEquals(1, throttle.getNumberOfWaits());
+		assertTrue(System.nanoTime() - startNs >= TimeUnit.MILLISECONDS.toNanos(90));
+		assertEquals(0, throttle.getNumberOfTrackedClients());
+	}
+
+	@Test
+	public void disabledThrottleDoesNotCount()
+		throws
+			IOException
+	{
+		Throttle throttle = new Throttle(0, 0);
+		assertTrue(!throttle.isEnabled());
+		throttle.acquire(InetAddress.getByName("10.0.0.1"), Long.MAX_VALUE / 2);
+		assertEquals(0, throttle.getNumberOfWaits());
+	}
+}
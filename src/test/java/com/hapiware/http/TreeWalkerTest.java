@@ -0,0 +1,121 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests walking a directory tree with and without {@code since}.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class TreeWalkerTest
+{
+	private final static long TIME = 1287654320000L;
+
+	private File _root;
+	private TreeWalker _walker;
+
+
+	@Before
+	public void createTree()
+		throws
+			IOException
+	{
+		_root = File.createTempFile("fileweb-tree", "");
+		_root.delete();
+		new File(_root, "a/b").mkdirs();
+		create("old.txt", TIME - 1000);
+		create("a/same.txt", TIME);
+		create("a/b/new.txt", TIME + 1000);
+		new File(_root, "a/b").setLastModified(TIME - 1000);
+		new File(_root, "a").setLastModified(TIME - 1000);
+		_walker = new TreeWalker(2);
+	}
+
+	@After
+	public void deleteTree()
+	{
+		delete(_root);
+	}
+
+	@Test
+	public void everythingIsListed()
+		throws
+			IOException
+	{
+		Map<String, TreeWalker.Item> items = walk(0);
+		assertEquals(5, items.size());
+		assertTrue(items.get("a").isDirectory());
+		assertTrue(items.get("a/b").isDirectory());
+		assertEquals(3, items.get("a/b/new.txt").getSize());
+	}
+
+	@Test
+	public void entriesModifiedAtOrAfterSinceAreListed()
+		throws
+			IOException
+	{
+		// An entry modified exactly at 'since' is listed too.
+		Map<String, TreeWalker.Item> items = walk(TIME);
+		assertEquals(2, items.size());
+		assertEquals(TIME, items.get("a/same.txt").getLastModified());
+		assertEquals(TIME + 1000, items.get("a/b/new.txt").getLastModified());
+		assertEquals(0, walk(TIME + 1001).size());
+	}
+
+	private Map<String, TreeWalker.Item> walk(long since)
+		throws
+			IOException
+	{
+		Map<String, TreeWalker.Item> retVal = new TreeMap<String, TreeWalker.Item>();
+		TreeWalker.Walk walk = _walker.walk(_root, since);
+		try {
+			List<TreeWalker.Item> batch;
+			while((batch = walk.next()) != null) {
+				for(TreeWalker.Item item : batch)
+					retVal.put(item.getPath(), item);
+			}
+		}
+		finally {
+			walk.close();
+		}
+		return retVal;
+	}
+
+	private void create(String path, long lastModified)
+		throws
+			IOException
+	{
+		File file = new File(_root, path);
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write("abc".getBytes("ISO-8859-1"));
+		}
+		finally {
+			os.close();
+		}
+		file.setLastModified(lastModified);
+	}
+
+	private static void delete(File file)
+	{
+		File[] files = file.listFiles();
+		if(files != null) {
+			for(File f : files)
+				delete(f);
+		}
+		file.delete();
+	}
+}
@@ -0,0 +1,114 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests authenticating uploaders and storing uploaded files.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class UploadSupportTest
+{
+	private File _directory;
+	private UploadSupport _uploadSupport;
+
+
+	@Before
+	public void createDirectory()
+		throws
+			IOException
+	{
+		_directory = File.createTempFile("fileweb-upload", "");
+		_directory.delete();
+		_directory.mkdirs();
+		Map<String, String> users = new HashMap<String, String>();
+		users.put("builder", "s\u00e4l\u00e4");
+		_uploadSupport = new UploadSupport(users, 10);
+	}
+
+	@After
+	public void deleteDirectory()
+	{
+		for(File f : _directory.listFiles())
+			f.delete();
+		_directory.delete();
+	}
+
+	@Test
+	public void credentialsAreChecked()
+	{
+		// "builder:s\u00e4l\u00e4" in UTF-8.
+		assertTrue(_uploadSupport.authenticate("Basic YnVpbGRlcjpzw6Rsw6Q="));
+		assertTrue(_uploadSupport.authenticate("basic YnVpbGRlcjpzw6Rsw6Q="));
+		// A prefix of the password.
+		assertTrue(!_uploadSupport.authenticate("Basic YnVpbGRlcjpzw6Rs"));
+		// The same password in ISO-8859-1.
+		assertTrue(!_uploadSupport.authenticate("Basic YnVpbGRlcjpz5Gzk"));
+		assertTrue(!_uploadSupport.authenticate("Basic !!!"));
+		assertTrue(!_uploadSupport.authenticate("Bearer YnVpbGRlcjpzw6Rsw6Q="));
+		assertTrue(!_uploadSupport.authenticate(null));
+	}
+
+	@Test
+	public void fileIsReplaced()
+		throws
+			IOException
+	{
+		File target = new File(_directory, "a.txt");
+		assertEquals(3, _uploadSupport.store(new ByteArrayInputStream("old".getBytes()), target));
+		assertEquals(5, _uploadSupport.store(new ByteArrayInputStream("newer".getBytes()), target));
+		assertEquals("newer", read(target));
+		assertEquals(1, _directory.listFiles().length);
+		assertEquals(2, _uploadSupport.getNumberOfUploads());
+	}
+
+	@Test
+	public void tooLargeUploadLeavesTheOldFile()
+		throws
+			IOException
+	{
+		File target = new File(_directory, "a.txt");
+		_uploadSupport.store(new ByteArrayInputStream("old".getBytes()), target);
+		try {
+			_uploadSupport.store(new ByteArrayInputStream("far too large".getBytes()), target);
+			fail("A too large upload was accepted.");
+		}
+		catch(UploadSupport.TooLargeException e) {
+			// Expected.
+		}
+		assertEquals("old", read(target));
+		assertEquals(1, _directory.listFiles().length);
+		assertEquals(1, _uploadSupport.getNumberOfFailedUploads());
+	}
+
+	private static String read(File file)
+		throws
+			IOException
+	{
+		FileInputStream is = new FileInputStream(file);
+		try {
+			byte[] content = new byte[(int)file.length()];
+			int length = 0;
+			while(length < content.length)
+				length += is.read(content, length, content.length - length);
+			return new String(content, "ISO-8859-1");
+		}
+		finally {
+			is.close();
+		}
+	}
+}
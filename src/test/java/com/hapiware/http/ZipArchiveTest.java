@@ -0,0 +1,267 @@
+package com.hapiware.http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests reading the central directory, the data of stored and deflated entries, archives
+ * inside of archives and rejecting corrupted archives.
+ *
+ * @author <a href="http://www.hapiware.com" target="_blank">hapi</a>
+ *
+ */
+public class ZipArchiveTest
+{
+	private final static String STORED_CONTENT = "Stored content.\n";
+	private final static String DEFLATED_CONTENT =
+		"Deflated content, deflated content, deflated content.\n";
+
+	private File _file;
+
+
+	@Before
+	public void createFile()
+		throws
+			IOException
+	{
+		_file = File.createTempFile("fileweb-archive", ".zip");
+	}
+
+	@After
+	public void deleteFile()
+	{
+		_file.delete();
+	}
+
+	@Test
+	public void entriesAreRead()
+		throws
+			IOException
+	{
+		write(_file, createArchive());
+		ZipArchive archive = new ZipArchive(_file);
+		try {
+			assertEquals(3, archive.getEntries().size());
+			assertEquals("dir/", archive.getEntries().get(0).getName());
+			assertTrue(archive.getEntry("dir/").isDirectory());
+			assertNull(archive.getEntry("missing.txt"));
+
+			ZipArchive.Entry stored = archive.getEntry("dir/stored.txt");
+			assertEquals(ZipArchive.STORED, stored.getMethod());
+			assertEquals(STORED_CONTENT.length(), stored.getSize());
+			assertEquals(STORED_CONTENT, new String(readRaw(archive, stored), "ISO-8859-1"));
+
+			ZipArchive.Entry deflated = archive.getEntry("deflated.txt");
+			assertEquals(ZipArchive.DEFLATED, deflated.getMethod());
+			assertEquals(DEFLATED_CONTENT.length(), deflated.getSize());
+			assertTrue(deflated.getCompressedSize() < deflated.getSize());
+			assertEquals(DEFLATED_CONTENT, inflate(readRaw(archive, deflated), deflated.getSize()));
+		}
+		finally {
+			archive.close();
+		}
+	}
+
+	@Test
+	public void nestedArchiveIsReadAsRegion()
+		throws
+			IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ZipOutputStream zos = new ZipOutputStream(bos);
+		storeEntry(zos, "inner.zip", createArchive());
+		zos.close();
+		write(_file, bos.toByteArray());
+
+		ZipArchive outer = new ZipArchive(_file);
+		try {
+			ZipArchive.Entry entry = outer.getEntry("inner.zip");
+			ZipArchive inner =
+				new ZipArchive(_file, outer.getDataPosition(entry), entry.getCompressedSize());
+			try {
+				ZipArchive.Entry stored = inner.getEntry("dir/stored.txt");
+				assertEquals(STORED_CONTENT, new String(readRaw(inner, stored), "ISO-8859-1"));
+			}
+			finally {
+				inner.close();
+			}
+		}
+		finally {
+			outer.close();
+		}
+	}
+
+	@Test
+	public void storedEntryWithDifferentSizesIsRejected()
+		throws
+			IOException
+	{
+		byte[] bytes = createArchive();
+		// Makes the uncompressed size of the stored entry in the central directory bigger.
+		int centralHeader = indexOf(bytes, new byte[] { 'P', 'K', 1, 2 }, 0);
+		centralHeader = indexOf(bytes, new byte[] { 'P', 'K', 1, 2 }, centralHeader + 4);
+		bytes[centralHeader + 24] += 100;
+		write(_file, bytes);
+
+		ZipArchive archive = new ZipArchive(_file);
+		try {
+			ZipArchive.Entry stored = archive.getEntry("dir/stored.txt");
+			assertEquals(STORED_CONTENT.length() + 100, stored.getSize());
+			try {
+				archive.getDataPosition(stored);
+				fail("A stored entry with different sizes was accepted.");
+			}
+			catch(ZipException e) {
+				// Expected.
+			}
+		}
+		finally {
+			archive.close();
+		}
+	}
+
+	@Test
+	public void corruptedArchivesAreRejected()
+		throws
+			IOException
+	{
+		byte[] bytes = createArchive();
+		byte[] truncated = new byte[bytes.length - 10];
+		System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+		assertRejected(truncated);
+
+		// The central directory offset points past the directory.
+		byte[] badOffset = bytes.clone();
+		int eocd = indexOf(badOffset, new byte[] { 'P', 'K', 5, 6 }, 0);
+		badOffset[eocd + 19] = 0x7f;
+		assertRejected(badOffset);
+
+		assertRejected("Not an archive at all.".getBytes("ISO-8859-1"));
+	}
+
+	private void assertRejected(byte[] bytes)
+		throws
+			IOException
+	{
+		write(_file, bytes);
+		try {
+			new ZipArchive(_file).close();
+			fail("A corrupted archive was accepted.");
+		}
+		catch(ZipException e) {
+			// Expected.
+		}
+	}
+
+	private static byte[] createArchive()
+		throws
+			IOException
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		ZipOutputStream zos = new ZipOutputStream(bos);
+		storeEntry(zos, "dir/", new byte[0]);
+		storeEntry(zos, "dir/stored.txt", STORED_CONTENT.getBytes("ISO-8859-1"));
+		zos.putNextEntry(new ZipEntry("deflated.txt"));
+		zos.write(DEFLATED_CONTENT.getBytes("ISO-8859-1"));
+		zos.closeEntry();
+		zos.close();
+		return bos.toByteArray();
+	}
+
+	private static void storeEntry(ZipOutputStream zos, String name, byte[] content)
+		throws
+			IOException
+	{
+		ZipEntry entry = new ZipEntry(name);
+		entry.setMethod(ZipEntry.STORED);
+		entry.setSize(content.length);
+		entry.setCompressedSize(content.length);
+		CRC32 crc = new CRC32();
+		crc.update(content);
+		entry.setCrc(crc.getValue());
+		zos.putNextEntry(entry);
+		zos.write(content);
+		zos.closeEntry();
+	}
+
+	private static byte[] readRaw(ZipArchive archive, ZipArchive.Entry entry)
+		throws
+			IOException
+	{
+		InputStream is = archive.getRawInputStream(entry);
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[1024];
+			int n;
+			while((n = is.read(buffer)) != -1)
+				bos.write(buffer, 0, n);
+			return bos.toByteArray();
+		}
+		finally {
+			is.close();
+		}
+	}
+
+	private static String inflate(byte[] raw, long size)
+		throws
+			IOException
+	{
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(raw);
+			byte[] content = new byte[(int)size];
+			int length = inflater.inflate(content);
+			assertEquals(size, length);
+			return new String(content, "ISO-8859-1");
+		}
+		catch(DataFormatException e) {
+			throw new IOException(e.getMessage());
+		}
+		finally {
+			inflater.end();
+		}
+	}
+
+	private static int indexOf(byte[] bytes, byte[] pattern, int from)
+	{
+		for(int i = from; i <= bytes.length - pattern.length; i++) {
+			int j = 0;
+			while(j < pattern.length && bytes[i + j] == pattern[j])
+				j++;
+			if(j == pattern.length)
+				return i;
+		}
+		return -1;
+	}
+
+	private static void write(File file, byte[] content)
+		throws
+			IOException
+	{
+		FileOutputStream os = new FileOutputStream(file);
+		try {
+			os.write(content);
+		}
+		finally {
+			os.close();
+		}
+	}
+}